@@ -0,0 +1,169 @@
+import graphs.shortestpaths.Deadline;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Limits how many route searches run at once, so that under overload requests wait in a short queue instead of all
+ * slowing each other down. Permits are handed out in arrival order, and a request that cannot start within the queue
+ * budget, counted from when it reached the server, is rejected rather than left to wait behind work that is already
+ * late. Each admitted search also gets a {@link Deadline} a fixed time after its request arrived, so that one
+ * pathological route cannot hold a permit for long. Rejections are counted without locking.
+ * <p>
+ * Requests handed to a thread pool with {@link #submit(long, Supplier, Executor)} wait in the queue of the pool rather
+ * than for a permit, so the controller also counts them, refuses new ones once too many are waiting, and rejects each
+ * one that reaches a thread after the queue budget has run out.
+ *
+ * @see MapServer
+ */
+public final class AdmissionController {
+    /**
+     * Greatest number of requests waiting for a thread per search that may run at once. More could not start within
+     * any useful queue budget, so they are refused at once instead of holding memory until they are shed.
+     */
+    private static final int MAX_WAITING_PER_PERMIT = 16;
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    /**
+     * Greatest time in nanoseconds from the arrival of a request until its search starts.
+     */
+    private final long queueBudgetNanos;
+    /**
+     * Greatest time in nanoseconds from the arrival of a request until its search finishes.
+     */
+    private final long timeoutNanos;
+    private final LongAdder rejections = new LongAdder();
+    /**
+     * Number of requests submitted to a thread pool that have not yet reached a thread.
+     */
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param maxConcurrent the greatest number of searches that run at once.
+     * @param queueBudget   the greatest time from the arrival of a request until its search starts.
+     * @param timeout       the greatest time from the arrival of a request until its search finishes.
+     * @throws IllegalArgumentException if the number of searches is not positive or a time is negative.
+     */
+    public AdmissionController(int maxConcurrent, Duration queueBudget, Duration timeout) {
+        if (maxConcurrent <= 0 || queueBudget.isNegative() || timeout.isNegative()) {
+            throw new IllegalArgumentException("Expected positive concurrency and non-negative times");
+        }
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.maxConcurrent = maxConcurrent;
+        this.queueBudgetNanos = queueBudget.toNanos();
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    /**
+     * Returns the deadline for the search of a request that arrived at the given time.
+     *
+     * @param arrivalNanos the time from {@link System#nanoTime()} at which the request arrived.
+     * @return the deadline for the search of the request.
+     */
+    public Deadline deadline(long arrivalNanos) {
+        return Deadline.at(arrivalNanos + timeoutNanos);
+    }
+
+    /**
+     * Runs the search once a permit is free, unless the request has by then waited for longer than the queue budget.
+     *
+     * @param arrivalNanos the time from {@link System#nanoTime()} at which the request arrived.
+     * @param search       the search to run while holding a permit.
+     * @param <T>          the type of the result.
+     * @return the result of the search.
+     * @throws RejectedExecutionException if no permit was free within the queue budget.
+     */
+    public <T> T call(long arrivalNanos, Supplier<T> search) {
+        long remaining = queueBudgetNanos - (System.nanoTime() - arrivalNanos);
+        boolean admitted = false;
+        // A request that has already waited out its budget is rejected even if a permit happens to be free.
+        if (remaining > 0) {
+            try {
+                admitted = permits.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!admitted) {
+            rejections.increment();
+            throw new RejectedExecutionException("No search started within the queue budget");
+        }
+        try {
+            return search.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Runs the work of a request on the executor, unless too many requests are already waiting for a thread or the
+     * request has waited for longer than the queue budget by the time a thread picks it up. The work may still call
+     * {@link #call(long, Supplier)} for its search.
+     *
+     * @param arrivalNanos the time from {@link System#nanoTime()} at which the request arrived.
+     * @param work         the work of the request.
+     * @param executor     the thread pool to run the work on.
+     * @param <T>          the type of the result.
+     * @return a future of the result of the work, which fails with a {@link RejectedExecutionException} if the request
+     * was rejected.
+     */
+    public <T> CompletableFuture<T> submit(long arrivalNanos, Supplier<T> work, Executor executor) {
+        if (waiting.incrementAndGet() > MAX_WAITING_PER_PERMIT * maxConcurrent) {
+            waiting.decrementAndGet();
+            rejections.increment();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Too many requests waiting"));
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                waiting.decrementAndGet();
+                if (System.nanoTime() - arrivalNanos >= queueBudgetNanos) {
+                    rejections.increment();
+                    throw new RejectedExecutionException("No thread free within the queue budget");
+                }
+                return work.get();
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            waiting.decrementAndGet();
+            rejections.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting for a thread or a permit per search that may run at once, which is 0
+     * while every request starts as soon as it arrives.
+     *
+     * @return the number of waiting requests per permit.
+     */
+    public double pressure() {
+        return (double) (waiting.get() + permits.getQueueLength()) / maxConcurrent;
+    }
+
+    /**
+     * Returns the number of requests rejected because no permit was free within the queue budget.
+     *
+     * @return the number of rejected requests.
+     */
+    public long rejectionCount() {
+        return rejections.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionController{" +
+                "available=" + permits.availablePermits() +
+                ", queued=" + permits.getQueueLength() +
+                ", waiting=" + waiting.get() +
+                ", rejections=" + rejectionCount() +
+                '}';
+    }
+}
@@ -1,8 +1,8 @@
 import autocomplete.Autocomplete;
 import autocomplete.TreeSetAutocomplete;
 
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
@@ -24,10 +24,19 @@ public class CitySearch {
 
     public static void main(String[] args) throws IOException {
         Map<String, Integer> cities = new LinkedHashMap<>();
-        Scanner input = new Scanner(new FileInputStream(PATH));
-        for (int i = 0; i < MAX_CITIES && input.hasNextLine(); i += 1) {
-            Scanner line = new Scanner(input.nextLine()).useDelimiter("\t");
-            cities.put(line.next(), line.nextInt());
+        // Parse regions of the file on every core, then add the first cities in file order.
+        List<List<Map.Entry<String, Integer>>> chunks = TsvReader.readChunks(Path.of(PATH), tsv -> {
+            List<Map.Entry<String, Integer>> chunk = new ArrayList<>();
+            while (chunk.size() < MAX_CITIES && tsv.next()) {
+                chunk.add(Map.entry(tsv.string(0), tsv.intField(1)));
+            }
+            return chunk;
+        });
+        int count = 0;
+        for (List<Map.Entry<String, Integer>> chunk : chunks) {
+            for (int i = 0; i < chunk.size() && count < MAX_CITIES; i += 1, count += 1) {
+                cities.put(chunk.get(i).getKey(), chunk.get(i).getValue());
+            }
         }
         Autocomplete autocomplete = new TreeSetAutocomplete();
         autocomplete.addAll(cities.keySet());
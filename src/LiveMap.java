@@ -0,0 +1,338 @@
+import cache.LruCache;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The {@link MapGraph} currently served by {@link MapServer}, which can be replaced while the server keeps running.
+ * A reload builds the new graph on a background thread while requests keep using the current one, then publishes it
+ * through a single volatile reference, so each request sees either the old graph or the new one and never a mix.
+ * Applying an OsmChange file swaps in a new graph the same way. Reloads and changes run one at a time in the order
+ * they were requested, so each change applies to the graph left by the swap before it.
+ * <p>
+ * Each graph is served as a {@link Generation} together with its own route cache, so routes through the old streets
+ * are discarded with the old graph. Requests {@link #acquire() acquire} a generation and release it when they finish;
+ * after a swap, the reload waits for the requests still holding the old generation to drain before it completes, so
+ * that the old graph is no longer in use.
+ *
+ * @see MapServer
+ */
+class LiveMap {
+    /**
+     * Maximum time to wait for requests holding a replaced generation to finish.
+     */
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+    /**
+     * Loads a new graph from the current map data, or null if the map cannot be reloaded.
+     */
+    private final Callable<MapGraph> loader;
+    private final Supplier<LruCache<List<Object>, List<Point>>> routeCaches;
+    private final ExecutorService background = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "map-reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Generation current;
+    /**
+     * The reload waiting for the background thread, which has not yet started reading the map data, or null if there
+     * is none. Guarded by {@code this}.
+     */
+    private CompletableFuture<ReloadStatus> queued;
+
+    /**
+     * Constructs a live map serving the given graph.
+     *
+     * @param map         the graph to serve first.
+     * @param loader      the loader of a new graph from the current map data, or null if the map cannot be reloaded.
+     * @param routeCaches the factory for an empty route cache for each generation.
+     */
+    LiveMap(MapGraph map, Callable<MapGraph> loader, Supplier<LruCache<List<Object>, List<Point>>> routeCaches) {
+        this.loader = loader;
+        this.routeCaches = routeCaches;
+        current = new Generation(1, map, routeCaches.get());
+    }
+
+    /**
+     * Returns the current generation for a request, which must {@link Generation#release() release} it once it no
+     * longer uses the graph or its route cache.
+     *
+     * @return the current generation.
+     */
+    Generation acquire() {
+        while (true) {
+            Generation generation = current;
+            generation.inFlight.incrementAndGet();
+            if (generation == current) {
+                return generation;
+            }
+            // A reload swapped generations in between, and may already be waiting for this one to drain.
+            generation.release();
+        }
+    }
+
+    /**
+     * Returns the current generation without acquiring it, for reading its counters.
+     *
+     * @return the current generation.
+     */
+    Generation current() {
+        return current;
+    }
+
+    /**
+     * Builds a new graph on a background thread, swaps it in, and waits for the requests holding the old graph to
+     * finish. A reload requested while another is waiting to start joins that reload, since it will read the same map
+     * data. A reload requested while another is already loading runs once that one finishes instead of joining it, so
+     * that map data replaced after the running load read it is not missed.
+     *
+     * @return a future that completes once the old generation has drained, or exceptionally if the new graph could
+     * not be loaded, in which case the old graph is still served.
+     * @throws UnsupportedOperationException if this live map has no loader.
+     */
+    synchronized CompletableFuture<ReloadStatus> reload() {
+        if (loader == null) {
+            throw new UnsupportedOperationException("Reloading is not supported");
+        } else if (queued != null) {
+            return queued;
+        }
+        queued = swap(() -> {
+            // Later reloads must run again, since this one may read the map data before it changes.
+            synchronized (this) {
+                queued = null;
+            }
+            return loader.call();
+        });
+        return queued;
+    }
+
+    /**
+     * Applies the given OsmChange file to the graph being served on a background thread, swaps in the result, and
+     * waits for the requests holding the old graph to finish.
+     *
+     * @param osc the OsmChange XML, either plain or gzipped.
+     * @return a future that completes once the old generation has drained, or exceptionally if the change could not
+     * be applied, in which case the old graph is still served.
+     * @see MapGraph#applyChanges(java.io.InputStream)
+     */
+    CompletableFuture<ReloadStatus> applyChanges(byte[] osc) {
+        return swap(() -> current.map().applyChanges(new ByteArrayInputStream(osc)));
+    }
+
+    /**
+     * Builds a new graph on the background thread, swaps it in, and waits for the old generation to drain.
+     */
+    private CompletableFuture<ReloadStatus> swap(Callable<MapGraph> next) {
+        long start = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            MapGraph map;
+            try {
+                map = next.call();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+            Generation old = current;
+            Generation generation = new Generation(old.number + 1, map, routeCaches.get());
+            current = generation;
+            old.retire();
+            long swapped = System.nanoTime();
+            boolean drained = true;
+            try {
+                old.drained.get(DRAIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                drained = false;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+            return new ReloadStatus(generation.number, (swapped - start) / 1_000_000,
+                    (System.nanoTime() - swapped) / 1_000_000, drained);
+        }, background);
+    }
+
+    /**
+     * Reloads the map whenever the modification time of the given file changes, checking at the given interval on a
+     * daemon thread. Failed reloads are reported on standard error and retried at the next change.
+     *
+     * @param file     the map data file to watch, such as the OSM extract.
+     * @param interval the time between checks.
+     * @throws UnsupportedOperationException if this live map has no loader.
+     */
+    void watch(Path file, Duration interval) {
+        if (loader == null) {
+            throw new UnsupportedOperationException("Reloading is not supported");
+        }
+        ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "map-watch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        FileTime[] lastModified = {modified(file)};
+        watcher.scheduleWithFixedDelay(() -> {
+            FileTime modified = modified(file);
+            if (modified == null || modified.equals(lastModified[0])) {
+                return;
+            }
+            lastModified[0] = modified;
+            reload().whenComplete((status, error) -> {
+                if (error != null) {
+                    System.err.println("Reload of " + file + " failed: " + error);
+                }
+            });
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the modification time of the file, or null if it cannot be read, as while it is being replaced.
+     */
+    private static FileTime modified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LiveMap{" +
+                "generation=" + current.number +
+                '}';
+    }
+
+    /**
+     * One graph served by the live map, with its route cache and the number of requests using it.
+     */
+    static final class Generation {
+        private final int number;
+        private final MapGraph map;
+        private final LruCache<List<Object>, List<Point>> routes;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        /**
+         * Whether a newer generation has replaced this one, so that no new request will acquire it.
+         */
+        private volatile boolean retired;
+        /**
+         * Completes once this generation is retired and no request holds it.
+         */
+        private final CompletableFuture<Void> drained = new CompletableFuture<>();
+
+        private Generation(int number, MapGraph map, LruCache<List<Object>, List<Point>> routes) {
+            this.number = number;
+            this.map = map;
+            this.routes = routes;
+        }
+
+        /**
+         * Returns the number of this generation, starting from 1 for the graph served at startup.
+         *
+         * @return the generation number.
+         */
+        int number() {
+            return number;
+        }
+
+        /**
+         * Returns the graph of this generation.
+         *
+         * @return the graph.
+         */
+        MapGraph map() {
+            return map;
+        }
+
+        /**
+         * Returns the cache of routes through the graph of this generation, keyed by their routing profile and
+         * snapped endpoints.
+         *
+         * @return the route cache.
+         */
+        LruCache<List<Object>, List<Point>> routes() {
+            return routes;
+        }
+
+        /**
+         * Marks the end of a request's use of this generation.
+         */
+        void release() {
+            if (inFlight.decrementAndGet() == 0 && retired) {
+                drained.complete(null);
+            }
+        }
+
+        /**
+         * Marks this generation as replaced, completing the drain right away if no request holds it.
+         */
+        private void retire() {
+            retired = true;
+            if (inFlight.get() == 0) {
+                drained.complete(null);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Generation{" +
+                    "number=" + number +
+                    ", inFlight=" + inFlight.get() +
+                    ", retired=" + retired +
+                    '}';
+        }
+    }
+
+    /**
+     * Outcome of a reload or an applied change, returned as JSON by the admin endpoints.
+     */
+    public static class ReloadStatus {
+        /**
+         * The number of the generation now being served.
+         */
+        public final int generation;
+        /**
+         * Time in milliseconds to build the new graph and swap it in, including any wait for an earlier swap.
+         */
+        public final long loadMillis;
+        /**
+         * Time in milliseconds spent waiting for requests holding the old graph to finish.
+         */
+        public final long drainMillis;
+        /**
+         * Whether every request holding the old graph finished before the drain timeout.
+         */
+        public final boolean drained;
+
+        ReloadStatus(int generation, long loadMillis, long drainMillis, boolean drained) {
+            this.generation = generation;
+            this.loadMillis = loadMillis;
+            this.drainMillis = drainMillis;
+            this.drained = drained;
+        }
+
+        @Override
+        public String toString() {
+            return "ReloadStatus{" +
+                    "generation=" + generation +
+                    ", loadMillis=" + loadMillis +
+                    ", drainMillis=" + drainMillis +
+                    ", drained=" + drained +
+                    '}';
+        }
+    }
+}
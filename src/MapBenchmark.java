@@ -0,0 +1,1114 @@
+import cache.LruCache;
+import graphs.CSRGraph;
+import graphs.Edge;
+import graphs.IndexedAStarGraph;
+import graphs.shortestpaths.AStarSolver;
+import graphs.shortestpaths.AnytimeAStarSolver;
+import graphs.shortestpaths.BidirectionalAStarSolver;
+import graphs.shortestpaths.Deadline;
+import graphs.shortestpaths.DijkstraSolver;
+import graphs.shortestpaths.LandmarkHeuristic;
+import graphs.shortestpaths.OverlayGraph;
+import graphs.shortestpaths.OverlayMetric;
+import graphs.shortestpaths.SearchCancelledException;
+import metrics.Histogram;
+import metrics.MetricRegistry;
+import org.locationtech.spatial4j.context.SpatialContext;
+import com.sun.net.httpserver.HttpServer;
+import io.javalin.Javalin;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Measure the routing performance of {@link MapGraph} on random queries. The first argument selects the benchmark:
+ * <ul>
+ *     <li>{@code landmarks}: compares the vertices settled by A* search with the straight-line heuristic against the
+ *     landmark heuristic.</li>
+ *     <li>{@code bidirectional}: compares the vertices settled by A* search against bidirectional A* search, with the
+ *     planar estimate and with none.</li>
+ *     <li>{@code concurrent}: compares the throughput of routing the same random queries, many between street nodes
+ *     in the middle of chains, on one thread against many threads at once on one shared map graph.</li>
+ *     <li>{@code reload}: routes random queries from many threads through a {@link LiveMap} while it reloads the
+ *     map data several times, reporting the time to load and drain each generation and the slowest route during the
+ *     reloads.</li>
+ *     <li>{@code changes}: compares the time to parse the map data against the time to apply an OsmChange file that
+ *     renames places, and one that also deletes streets.</li>
+ *     <li>{@code profiles}: compares the time to build the map graph with and without the overlay for every
+ *     {@link RoutingProfile}, times the customization of each profile on one thread and on all cores, and compares
+ *     overlay queries against Dijkstra's algorithm over the same costs.</li>
+ *     <li>{@code components}: prints the sizes of the strongly connected components of the street network, where
+ *     every component but the largest is unreachable from the rest of the map.</li>
+ *     <li>{@code images}: times concurrent requests for the same map image through a {@link StaticImageCache} backed
+ *     by a local stub image server, counting the upstream fetches.</li>
+ *     <li>{@code load}: compares the throughput and latency of the blocking and async modes of {@link MapServer} under
+ *     concurrent requests, with images served by a slow local stub image server.</li>
+ *     <li>{@code overload}: routes a burst of random queries from many threads at once, first with every search
+ *     admitted and then through an {@link AdmissionController} with one search per core, a queue budget and a
+ *     deadline, comparing the latency of the responses and counting the requests shed.</li>
+ *     <li>{@code weighted}: compares the vertices settled by A* search with the heuristic inflated by several weights,
+ *     reporting the bound each proves and how much longer its routes are than the shortest, then does the same for
+ *     anytime A* with short deadlines.</li>
+ *     <li>{@code closest}: compares finding the nearest of many facilities to random targets with one shortest path
+ *     search per facility against one closest-facility search.</li>
+ *     <li>{@code heuristic}: compares the cost of the planar heuristic of {@link MapGraph} against the great-circle
+ *     distance it bounds, then compares A* search with each as the heuristic.</li>
+ * </ul>
+ * The benchmarks only measure; {@code MapGraphTest} checks that the routes they time are correct.
+ *
+ * @see MapGraph
+ */
+public class MapBenchmark {
+    /**
+     * The OpenStreetMap XML file path.
+     */
+    private static final String OSM_DB_PATH = "seattle.osm.gz";
+    /**
+     * The place-importance TSV data file path from OpenStreetMap.
+     */
+    private static final String PLACES_PATH = "places.tsv";
+    /**
+     * The binary snapshot file path for the parsed OSM and places data.
+     */
+    private static final String SNAPSHOT_PATH = "seattle.snapshot";
+    /**
+     * Number of random queries to run.
+     */
+    private static final int QUERIES = 200;
+    /**
+     * Number of landmarks to precompute.
+     */
+    private static final int LANDMARKS = 16;
+    /**
+     * Number of landmarks used by each query.
+     */
+    private static final int ACTIVE_LANDMARKS = 4;
+    /**
+     * Number of largest components to list.
+     */
+    private static final int COMPONENTS_SHOWN = 10;
+    /**
+     * Number of times each thread of the concurrent benchmark runs every query.
+     */
+    private static final int CONCURRENT_ROUNDS = 4;
+    /**
+     * Number of times the map is reloaded while clients keep routing in the reload benchmark.
+     */
+    private static final int RELOADS = 3;
+    /**
+     * Size in bytes of the stub map image.
+     */
+    private static final int IMAGE_BYTES = 1 << 16;
+    /**
+     * Delay in milliseconds before the stub image server responds.
+     */
+    private static final int UPSTREAM_LATENCY_MS = 200;
+    /**
+     * Number of concurrent clients.
+     */
+    private static final int CLIENTS = 32;
+    /**
+     * Number of concurrent clients in the load test.
+     */
+    private static final int LOAD_CLIENTS = 256;
+    /**
+     * Number of requests in the load test.
+     */
+    private static final int LOAD_REQUESTS = 4096;
+    /**
+     * Greatest offset in degrees of latitude and longitude from a random vertex of the point snapped to a street node,
+     * so that queries also start and end in the middle of chains.
+     */
+    private static final double SNAP_OFFSET = 0.001;
+    /**
+     * Number of streets deleted and of places renamed by the change in the changes benchmark.
+     */
+    private static final int CHANGED_ELEMENTS = 100;
+    /**
+     * Number of times each change is applied in the changes benchmark, keeping the fastest.
+     */
+    private static final int CHANGE_RUNS = 5;
+    /**
+     * Number of times each routing profile is customized in the profiles benchmark, keeping the fastest.
+     */
+    private static final int CUSTOMIZE_RUNS = 3;
+    /**
+     * Number of route searches in the burst of the overload benchmark.
+     */
+    private static final int OVERLOAD_REQUESTS = 1024;
+    /**
+     * Greatest time from arrival until a search starts when admission is bounded in the overload benchmark.
+     */
+    private static final Duration OVERLOAD_QUEUE_BUDGET = Duration.ofMillis(250);
+    /**
+     * Greatest time from arrival until a search finishes when admission is bounded in the overload benchmark.
+     */
+    private static final Duration OVERLOAD_TIMEOUT = Duration.ofMillis(500);
+    /**
+     * Factors by which to inflate the heuristic in the weighted benchmark.
+     */
+    private static final double[] WEIGHTS = {1.0, 1.05, 1.2, 1.5, 2.0};
+    /**
+     * Time budgets for anytime A* in the weighted benchmark, in microseconds, where 0 means no deadline.
+     */
+    private static final int[] ANYTIME_BUDGETS_US = {500, 2000, 8000, 0};
+    /**
+     * Number of facilities to choose from in the closest-facility benchmark.
+     */
+    private static final int FACILITIES = 200;
+    /**
+     * Number of random targets in the closest-facility benchmark, each routed to from every facility.
+     */
+    private static final int FACILITY_TARGETS = 20;
+    /**
+     * Numbers of nearest facilities to find in the closest-facility benchmark.
+     */
+    private static final int[] NEAREST_COUNTS = {1, 10};
+    /**
+     * Number of random vertex pairs to estimate the distance between in the heuristic benchmark.
+     */
+    private static final int HEURISTIC_PAIRS = 1 << 20;
+    /**
+     * Number of times to time each heuristic over all the pairs, keeping the fastest.
+     */
+    private static final int HEURISTIC_RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "landmarks";
+        switch (mode) {
+            case "landmarks" -> landmarks(load());
+            case "bidirectional" -> bidirectional(load());
+            case "concurrent" -> concurrent(load());
+            case "reload" -> reload(load());
+            case "changes" -> changes(load());
+            case "profiles" -> profiles();
+            case "components" -> components(load());
+            case "images" -> images();
+            case "load" -> load(load());
+            case "overload" -> overload(load());
+            case "weighted" -> weighted(load());
+            case "closest" -> closest(load());
+            case "heuristic" -> heuristic(load());
+            default -> throw new IllegalArgumentException("Unknown benchmark: " + mode);
+        }
+    }
+
+    /**
+     * Returns the map graph for the benchmark data.
+     *
+     * @return the map graph for the benchmark data.
+     * @throws Exception if the map data cannot be loaded.
+     */
+    private static MapGraph load() throws Exception {
+        return new MapGraph(OSM_DB_PATH, PLACES_PATH, SNAPSHOT_PATH, SpatialContext.GEO);
+    }
+
+    /**
+     * Compares settled-vertex counts of A* search with and without landmark lower bounds on random vertex pairs.
+     *
+     * @param map the map graph.
+     */
+    private static void landmarks(MapGraph map) {
+        long start = System.nanoTime();
+        LandmarkHeuristic<Point> heuristic = new LandmarkHeuristic<>(map, LANDMARKS, ACTIVE_LANDMARKS, new Random(0));
+        System.out.printf("Preprocessed %d landmarks in %d ms%n",
+                heuristic.landmarks().size(), (System.nanoTime() - start) / 1_000_000);
+
+        Random random = new Random(1);
+        int n = map.csr().size();
+        long geometricSettled = 0;
+        long landmarkSettled = 0;
+        long geometricTime = 0;
+        long landmarkTime = 0;
+        for (int i = 0; i < QUERIES; i += 1) {
+            Point source = map.vertex(random.nextInt(n));
+            Point target = map.vertex(random.nextInt(n));
+
+            start = System.nanoTime();
+            AStarSolver<Point> geometric = new AStarSolver<>(map, source, target);
+            geometricTime += System.nanoTime() - start;
+            geometricSettled += geometric.settledCount();
+
+            start = System.nanoTime();
+            IndexedAStarGraph<Point> graph = heuristic.forQuery(source, target);
+            AStarSolver<Point> landmark = new AStarSolver<>(graph, source, target);
+            landmarkTime += System.nanoTime() - start;
+            landmarkSettled += landmark.settledCount();
+        }
+        System.out.printf("%-10s %14s %12s%n", "heuristic", "settled/query", "ms total");
+        System.out.printf("%-10s %14d %12d%n", "geometric", geometricSettled / QUERIES, geometricTime / 1_000_000);
+        System.out.printf("%-10s %14d %12d%n", "landmarks", landmarkSettled / QUERIES, landmarkTime / 1_000_000);
+    }
+
+    /**
+     * Compares settled-vertex counts of unidirectional and bidirectional A* search on random vertex pairs, with the
+     * planar estimate of the map graph and with no estimate.
+     *
+     * @param map the map graph.
+     */
+    private static void bidirectional(MapGraph map) {
+        Random random = new Random(1);
+        int n = map.csr().size();
+        Point[] sources = new Point[QUERIES];
+        Point[] targets = new Point[QUERIES];
+        for (int i = 0; i < QUERIES; i += 1) {
+            sources[i] = map.vertex(random.nextInt(n));
+            targets[i] = map.vertex(random.nextInt(n));
+        }
+        System.out.printf("%-10s %-14s %14s %12s%n", "estimate", "search", "settled/query", "ms total");
+        for (IndexedAStarGraph<Point> graph : List.of(map, new UninformedGraph(map))) {
+            String estimate = graph == map ? "planar" : "none";
+            long unidirectionalSettled = 0;
+            long bidirectionalSettled = 0;
+            long unidirectionalTime = 0;
+            long bidirectionalTime = 0;
+            for (int i = 0; i < QUERIES; i += 1) {
+                long start = System.nanoTime();
+                AStarSolver<Point> unidirectional = new AStarSolver<>(graph, sources[i], targets[i]);
+                unidirectionalTime += System.nanoTime() - start;
+                unidirectionalSettled += unidirectional.settledCount();
+
+                start = System.nanoTime();
+                BidirectionalAStarSolver<Point> bidirectional = new BidirectionalAStarSolver<>(graph, sources[i],
+                        targets[i]);
+                bidirectionalTime += System.nanoTime() - start;
+                bidirectionalSettled += bidirectional.settledCount();
+            }
+            System.out.printf("%-10s %-14s %14d %12d%n", estimate, "unidirectional", unidirectionalSettled / QUERIES,
+                    unidirectionalTime / 1_000_000);
+            System.out.printf("%-10s %-14s %14d %12d%n", estimate, "bidirectional", bidirectionalSettled / QUERIES,
+                    bidirectionalTime / 1_000_000);
+        }
+    }
+
+    /**
+     * Routes random queries between street nodes on one thread, then routes them again from {@link #CLIENTS} threads
+     * sharing the map graph, each in its own random order, and compares the routes per second.
+     *
+     * @param map the map graph.
+     * @throws Exception if a thread fails.
+     */
+    private static void concurrent(MapGraph map) throws Exception {
+        Random random = new Random(3);
+        int n = map.csr().size();
+        Point[] sources = new Point[QUERIES];
+        Point[] targets = new Point[QUERIES];
+        for (int i = 0; i < QUERIES; i += 1) {
+            sources[i] = node(map, map.vertex(random.nextInt(n)), random);
+            // Route every other query between nodes near one vertex, which are often on the same chain.
+            targets[i] = node(map, i % 2 == 0 ? sources[i] : map.vertex(random.nextInt(n)), random);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i += 1) {
+            map.shortestPath(sources[i], targets[i]);
+        }
+        double sequential = QUERIES / ((System.nanoTime() - start) / 1e9);
+
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c += 1) {
+                long seed = c;
+                tasks.add(() -> {
+                    List<Integer> order = new ArrayList<>();
+                    for (int i = 0; i < QUERIES; i += 1) {
+                        order.add(i);
+                    }
+                    Collections.shuffle(order, new Random(seed));
+                    for (int round = 0; round < CONCURRENT_ROUNDS; round += 1) {
+                        for (int i : order) {
+                            map.shortestPath(sources[i], targets[i]);
+                        }
+                    }
+                    return null;
+                });
+            }
+            start = System.nanoTime();
+            for (Future<Void> result : clients.invokeAll(tasks)) {
+                result.get();
+            }
+            double concurrent = (long) CLIENTS * CONCURRENT_ROUNDS * QUERIES / ((System.nanoTime() - start) / 1e9);
+            System.out.printf("%-10s %8s%n", "threads", "routes/s");
+            System.out.printf("%-10d %8.1f%n", 1, sequential);
+            System.out.printf("%-10d %8.1f%n", CLIENTS, concurrent);
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    /**
+     * Routes random queries from {@link #CLIENTS} threads through a {@link LiveMap} while it reloads the map data
+     * {@link #RELOADS} times, and reports the time to load and drain each generation and the slowest route.
+     *
+     * @param map the map graph.
+     * @throws Exception if the map data cannot be reloaded or a thread fails.
+     */
+    private static void reload(MapGraph map) throws Exception {
+        Random random = new Random(4);
+        int n = map.csr().size();
+        Point[] sources = new Point[QUERIES];
+        Point[] targets = new Point[QUERIES];
+        for (int i = 0; i < QUERIES; i += 1) {
+            sources[i] = map.vertex(random.nextInt(n));
+            targets[i] = map.vertex(random.nextInt(n));
+        }
+        LiveMap live = new LiveMap(map, MapBenchmark::load,
+                () -> new LruCache<>(QUERIES, (key, route) -> 1, Duration.ZERO));
+
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            List<Callable<long[]>> tasks = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c += 1) {
+                long seed = c;
+                tasks.add(() -> {
+                    Random order = new Random(seed);
+                    // Routes and the slowest route in nanoseconds.
+                    long[] result = new long[2];
+                    while (!done.get()) {
+                        int i = order.nextInt(QUERIES);
+                        long start = System.nanoTime();
+                        LiveMap.Generation generation = live.acquire();
+                        try {
+                            generation.routes().computeIfAbsent(List.of(sources[i], targets[i]),
+                                    k -> generation.map().shortestPath(sources[i], targets[i]));
+                        } finally {
+                            generation.release();
+                        }
+                        result[0] += 1;
+                        result[1] = Math.max(result[1], System.nanoTime() - start);
+                    }
+                    return result;
+                });
+            }
+            List<Future<long[]>> results = new ArrayList<>();
+            for (Callable<long[]> task : tasks) {
+                results.add(clients.submit(task));
+            }
+            System.out.printf("%-10s %8s %8s %8s%n", "generation", "load ms", "drain ms", "drained");
+            for (int i = 0; i < RELOADS; i += 1) {
+                LiveMap.ReloadStatus status = live.reload().get();
+                System.out.printf("%-10d %8d %8d %8b%n",
+                        status.generation, status.loadMillis, status.drainMillis, status.drained);
+            }
+            done.set(true);
+            long routes = 0;
+            long slowest = 0;
+            for (Future<long[]> result : results) {
+                routes += result.get()[0];
+                slowest = Math.max(slowest, result.get()[1]);
+            }
+            System.out.printf("%d routes, slowest %.1f ms%n", routes, slowest / 1e6);
+        } finally {
+            done.set(true);
+            clients.shutdown();
+        }
+    }
+
+    /**
+     * Parses the map data, then applies a change that renames {@link #CHANGED_ELEMENTS} places and one that also
+     * deletes as many streets, keeping the fastest of {@link #CHANGE_RUNS} runs of each.
+     *
+     * @param map the map graph.
+     * @throws Exception if the map data cannot be parsed or a change cannot be applied.
+     */
+    private static void changes(MapGraph map) throws Exception {
+        long start = System.nanoTime();
+        new MapGraph(OSM_DB_PATH, PLACES_PATH, SpatialContext.GEO);
+        double parseMillis = (System.nanoTime() - start) / 1e6;
+
+        OsmExtract osm = map.osm();
+        Random random = new Random(5);
+        int[] places = sample(random, osm.placeIds.length, CHANGED_ELEMENTS);
+        int[] streets = sample(random, osm.wayIds.length, CHANGED_ELEMENTS);
+        byte[] names = osmChange(osm, places, new int[0]);
+        byte[] namesAndStreets = osmChange(osm, places, streets);
+
+        double namesMillis = Double.POSITIVE_INFINITY;
+        MapGraph changed = null;
+        double streetsMillis = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < CHANGE_RUNS; i += 1) {
+            start = System.nanoTime();
+            map.applyChanges(new ByteArrayInputStream(names));
+            namesMillis = Math.min(namesMillis, (System.nanoTime() - start) / 1e6);
+            start = System.nanoTime();
+            changed = map.applyChanges(new ByteArrayInputStream(namesAndStreets));
+            streetsMillis = Math.min(streetsMillis, (System.nanoTime() - start) / 1e6);
+        }
+        System.out.printf("%-16s %10s%n", "build", "ms");
+        System.out.printf("%-16s %10.1f%n", "parse", parseMillis);
+        System.out.printf("%-16s %10.1f%n", "places change", namesMillis);
+        System.out.printf("%-16s %10.1f%n", "streets change", streetsMillis);
+        System.out.println(map.csr() + " after deleting streets: " + changed.csr());
+    }
+
+    /**
+     * Returns the given number of distinct random integers from 0 (inclusive) to bound (exclusive), or all of them if
+     * there are fewer.
+     */
+    private static int[] sample(Random random, int bound, int count) {
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < bound; i += 1) {
+            all.add(i);
+        }
+        Collections.shuffle(all, random);
+        return all.subList(0, Math.min(count, bound)).stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Returns an OsmChange file that renames the given places of the extract and deletes the given streets.
+     */
+    private static byte[] osmChange(OsmExtract osm, int[] places, int[] streets) {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<osmChange version=\"0.6\">\n<modify>\n");
+        for (int p : places) {
+            xml.append("<node id=\"").append(osm.placeIds[p])
+                    .append("\" lat=\"").append(coordinate(osm.placeLats[p]))
+                    .append("\" lon=\"").append(coordinate(osm.placeLons[p])).append("\">")
+                    .append("<tag k=\"name\" v=\"").append(escape(osm.placeNames[p] + " (renamed)")).append("\"/>")
+                    .append("</node>\n");
+        }
+        xml.append("</modify>\n<delete>\n");
+        for (int w : streets) {
+            xml.append("<way id=\"").append(osm.wayIds[w]).append("\"></way>\n");
+        }
+        xml.append("</delete>\n</osmChange>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the fixed-point latitude or longitude in degrees as exact decimal text.
+     */
+    private static String coordinate(int fixed) {
+        return BigDecimal.valueOf(fixed, 7).toPlainString();
+    }
+
+    /**
+     * Returns the text with the XML special characters replaced by entities.
+     */
+    private static String escape(String text) {
+        return text.replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;")
+                .replace("\"", "&quot;")
+                .replace("'", "&apos;");
+    }
+
+    /**
+     * Compares the time to build the map graph with and without the overlay for every routing profile, times the
+     * customization of each profile on one thread and on the common fork-join pool, and compares the time of overlay
+     * queries between random vertices against Dijkstra's algorithm over the same edge costs.
+     *
+     * @throws Exception if the map data cannot be loaded or a customization fails.
+     */
+    private static void profiles() throws Exception {
+        long start = System.nanoTime();
+        load();
+        long plainTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        MapGraph map = new MapGraph.Builder(OSM_DB_PATH, PLACES_PATH, SpatialContext.GEO)
+                .snapshot(SNAPSHOT_PATH)
+                .profiles(RoutingProfile.values())
+                .build();
+        long profilesTime = System.nanoTime() - start;
+        System.out.printf("Built without profiles in %d ms, with profiles in %d ms%n",
+                plainTime / 1_000_000, profilesTime / 1_000_000);
+        System.out.println(map.metric(RoutingProfile.TRAVEL_TIME).overlay());
+
+        CSRGraph graph = map.csr();
+        int n = graph.size();
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[graph.edgeCount()];
+        for (int v = 0; v < n; v += 1) {
+            offsets[v + 1] = graph.edgeEnd(v);
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e += 1) {
+                targets[e] = graph.target(e);
+            }
+        }
+        ForkJoinPool single = new ForkJoinPool(1);
+        System.out.printf("%-15s %12s %12s %14s %14s%n", "profile", "1 thread ms",
+                ForkJoinPool.getCommonPoolParallelism() + " thread ms", "overlay us/q", "Dijkstra us/q");
+        for (RoutingProfile profile : RoutingProfile.values()) {
+            OverlayMetric metric = map.metric(profile);
+            if (metric == null) {
+                continue;
+            }
+            OverlayGraph overlay = metric.overlay();
+            double[] costs = new double[graph.edgeCount()];
+            for (int e = 0; e < costs.length; e += 1) {
+                costs[e] = metric.cost(e);
+            }
+            long sequentialTime = Long.MAX_VALUE;
+            long parallelTime = Long.MAX_VALUE;
+            for (int run = 0; run < CUSTOMIZE_RUNS; run += 1) {
+                start = System.nanoTime();
+                single.submit(() -> overlay.customize(costs)).get();
+                sequentialTime = Math.min(sequentialTime, System.nanoTime() - start);
+                start = System.nanoTime();
+                metric = overlay.customize(costs);
+                parallelTime = Math.min(parallelTime, System.nanoTime() - start);
+            }
+
+            CSRGraph weighted = new CSRGraph(offsets, targets, costs);
+            Random random = new Random(8);
+            long overlayTime = 0;
+            long dijkstraTime = 0;
+            for (int i = 0; i < QUERIES; i += 1) {
+                int s = random.nextInt(n);
+                int t = random.nextInt(n);
+                start = System.nanoTime();
+                metric.path(s, t);
+                overlayTime += System.nanoTime() - start;
+                start = System.nanoTime();
+                DijkstraSolver.distances(weighted, new int[]{s}, new double[]{0.0}, new int[]{t});
+                dijkstraTime += System.nanoTime() - start;
+            }
+            System.out.printf("%-15s %12d %12d %14d %14d%n", profile.parameter(), sequentialTime / 1_000_000,
+                    parallelTime / 1_000_000, overlayTime / 1_000 / QUERIES, dijkstraTime / 1_000 / QUERIES);
+        }
+        single.shutdown();
+    }
+
+    /**
+     * Prints the number of strongly connected components of the street network and the sizes of the largest ones.
+     *
+     * @param map the map graph.
+     */
+    private static void components(MapGraph map) {
+        int[] sizes = map.componentSizes();
+        int nodes = Arrays.stream(sizes).sum();
+        System.out.printf("%d components over %d street nodes%n", sizes.length, nodes);
+        System.out.printf("%-9s %10s %9s%n", "component", "nodes", "share");
+        for (int i = 0; i < Math.min(sizes.length, COMPONENTS_SHOWN); i += 1) {
+            System.out.printf(Locale.ROOT, "%-9d %10d %8.3f%%%n", i, sizes[i], 100.0 * sizes[i] / nodes);
+        }
+    }
+
+    /**
+     * Times concurrent identical image requests, which are coalesced into one upstream fetch, and a request to a new
+     * cache over the same directory, which is served from disk.
+     *
+     * @throws Exception if the stub server cannot be started or a request fails.
+     */
+    private static void images() throws Exception {
+        byte[] image = new byte[IMAGE_BYTES];
+        new Random(0).nextBytes(image);
+        AtomicInteger fetches = new AtomicInteger();
+        HttpServer server = stub(image, fetches);
+        Path directory = Files.createTempDirectory("images");
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/styles/v1/static/0,0,1/1x1"
+                    + "?access_token=first&logo=false");
+            StaticImageCache cache = new StaticImageCache(IMAGE_BYTES, directory, Histogram.nanoseconds());
+            long start = System.nanoTime();
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i += 1) {
+                results.add(clients.submit(() -> cache.get(url)));
+            }
+            for (Future<byte[]> result : results) {
+                result.get();
+            }
+            System.out.printf("%d concurrent requests made %d upstream fetches in %d ms%n",
+                    CLIENTS, fetches.get(), (System.nanoTime() - start) / 1_000_000);
+
+            // A new cache has an empty memory tier, and a new token must not change the key.
+            URL rotated = new URL(url.toString().replace("first", "second"));
+            StaticImageCache restarted = new StaticImageCache(IMAGE_BYTES, directory, Histogram.nanoseconds());
+            start = System.nanoTime();
+            restarted.get(rotated);
+            System.out.printf("Restarted cache served the image in %.1f ms with %d upstream fetches in total%n",
+                    (System.nanoTime() - start) / 1e6, fetches.get());
+        } finally {
+            clients.shutdown();
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdown();
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Compares the throughput and latency of the blocking and async request handling of {@link MapServer} under
+     * concurrent load, with map images fetched from a slow local stub image server.
+     *
+     * @param map the map graph.
+     * @throws Exception if a server cannot be started or a request fails.
+     */
+    private static void load(MapGraph map) throws Exception {
+        byte[] image = new byte[IMAGE_BYTES];
+        new Random(0).nextBytes(image);
+        HttpServer upstream = stub(image, new AtomicInteger());
+        String mapApiUrl = "http://localhost:" + upstream.getAddress().getPort() + "/";
+        HttpClient client = HttpClient.newHttpClient();
+        System.out.printf("%-9s %10s %8s %8s %8s%n", "mode", "requests/s", "p50 ms", "p99 ms", "failed");
+        try {
+            for (boolean async : new boolean[]{false, true}) {
+                // Limits loose enough that no request is shed, so both modes route every request.
+                AdmissionController admission = new AdmissionController(LOAD_CLIENTS, Duration.ofHours(1),
+                        Duration.ofHours(1));
+                Javalin app = MapServer.start(map, null, new MetricRegistry(), 0, mapApiUrl, null, async, admission);
+                ExecutorService clients = Executors.newFixedThreadPool(LOAD_CLIENTS);
+                AtomicInteger failed = new AtomicInteger();
+                try {
+                    // Every request has a different route and center, so each one misses the caches.
+                    Random random = new Random(2);
+                    int n = map.csr().size();
+                    List<Callable<Long>> requests = new ArrayList<>();
+                    for (int i = 0; i < LOAD_REQUESTS; i += 1) {
+                        Point start = map.vertex(random.nextInt(n));
+                        Point goal = map.vertex(random.nextInt(n));
+                        URI uri = URI.create(String.format(
+                                Locale.ROOT,
+                                "http://localhost:%d/map/%f,%f,13/800x600"
+                                        + "?startLon=%f&startLat=%f&goalLon=%f&goalLat=%f",
+                                app.port(), start.getLon(), start.getLat(),
+                                start.getLon(), start.getLat(), goal.getLon(), goal.getLat()
+                        ));
+                        requests.add(() -> {
+                            long requestStart = System.nanoTime();
+                            HttpResponse<Void> response = client.send(
+                                    HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.discarding()
+                            );
+                            if (response.statusCode() != 200) {
+                                failed.incrementAndGet();
+                            }
+                            return System.nanoTime() - requestStart;
+                        });
+                    }
+                    long start = System.nanoTime();
+                    long[] latencies = new long[LOAD_REQUESTS];
+                    List<Future<Long>> results = clients.invokeAll(requests);
+                    for (int i = 0; i < LOAD_REQUESTS; i += 1) {
+                        latencies[i] = results.get(i).get();
+                    }
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    Arrays.sort(latencies);
+                    System.out.printf("%-9s %10.1f %8d %8d %8d%n", async ? "async" : "blocking",
+                            LOAD_REQUESTS / seconds, latencies[LOAD_REQUESTS / 2] / 1_000_000,
+                            latencies[LOAD_REQUESTS * 99 / 100] / 1_000_000, failed.get());
+                } finally {
+                    clients.shutdown();
+                    app.stop();
+                }
+            }
+        } finally {
+            upstream.stop(0);
+            ((ExecutorService) upstream.getExecutor()).shutdown();
+        }
+    }
+
+    /**
+     * Routes a burst of {@link #OVERLOAD_REQUESTS} random queries from {@link #LOAD_CLIENTS} threads at once, first
+     * admitting every search and then through an admission controller with one search per core, and prints the
+     * latency of the responses, including those shed by the queue budget or stopped at their deadline.
+     *
+     * @param map the map graph.
+     * @throws Exception if a thread fails.
+     */
+    private static void overload(MapGraph map) throws Exception {
+        Random random = new Random(9);
+        int n = map.csr().size();
+        Point[] sources = new Point[OVERLOAD_REQUESTS];
+        Point[] targets = new Point[OVERLOAD_REQUESTS];
+        for (int i = 0; i < OVERLOAD_REQUESTS; i += 1) {
+            sources[i] = map.vertex(random.nextInt(n));
+            targets[i] = map.vertex(random.nextInt(n));
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%-9s %6s %6s %6s %8s %8s %8s%n", "admission", "routed", "shed", "late", "p50 ms", "p99 ms",
+                "max ms");
+        for (boolean bounded : new boolean[]{false, true}) {
+            AdmissionController admission = bounded
+                    ? new AdmissionController(cores, OVERLOAD_QUEUE_BUDGET, OVERLOAD_TIMEOUT)
+                    : new AdmissionController(LOAD_CLIENTS, Duration.ofHours(1), Duration.ofHours(1));
+            AtomicInteger routed = new AtomicInteger();
+            AtomicInteger late = new AtomicInteger();
+            List<Callable<Long>> requests = new ArrayList<>();
+            for (int i = 0; i < OVERLOAD_REQUESTS; i += 1) {
+                Point source = sources[i];
+                Point target = targets[i];
+                requests.add(() -> {
+                    long arrival = System.nanoTime();
+                    try {
+                        admission.call(arrival, () -> map.shortestPath(source, target, RoutingProfile.DISTANCE,
+                                admission.deadline(arrival)));
+                        routed.incrementAndGet();
+                    } catch (RejectedExecutionException e) {
+                        // Counted by the admission controller.
+                    } catch (SearchCancelledException e) {
+                        late.incrementAndGet();
+                    }
+                    return System.nanoTime() - arrival;
+                });
+            }
+            ExecutorService clients = Executors.newFixedThreadPool(LOAD_CLIENTS);
+            long[] latencies = new long[OVERLOAD_REQUESTS];
+            try {
+                List<Future<Long>> results = clients.invokeAll(requests);
+                for (int i = 0; i < OVERLOAD_REQUESTS; i += 1) {
+                    latencies[i] = results.get(i).get();
+                }
+            } finally {
+                clients.shutdown();
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%-9s %6d %6d %6d %8d %8d %8d%n", bounded ? "bounded" : "unbounded", routed.get(),
+                    admission.rejectionCount(), late.get(), latencies[OVERLOAD_REQUESTS / 2] / 1_000_000,
+                    latencies[OVERLOAD_REQUESTS * 99 / 100] / 1_000_000, latencies[OVERLOAD_REQUESTS - 1] / 1_000_000);
+        }
+    }
+
+    /**
+     * Returns a started local image server on a free port that responds to every request with the given image after
+     * a delay, counting the requests it receives.
+     */
+    private static HttpServer stub(byte[] image, AtomicInteger fetches) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            fetches.incrementAndGet();
+            try {
+                // Simulate upstream latency so that concurrent requests overlap.
+                Thread.sleep(UPSTREAM_LATENCY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, image.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(image);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * Compares settled-vertex counts and route lengths of weighted A* search against unweighted A* search on random
+     * vertex pairs for each of the {@link #WEIGHTS}, then of anytime A* for each of the {@link #ANYTIME_BUDGETS_US}.
+     *
+     * @param map the map graph.
+     */
+    private static void weighted(MapGraph map) {
+        Random random = new Random(1);
+        int n = map.csr().size();
+        Point[] sources = new Point[QUERIES];
+        Point[] targets = new Point[QUERIES];
+        double[] shortest = new double[QUERIES];
+        for (int i = 0; i < QUERIES; i += 1) {
+            sources[i] = map.vertex(random.nextInt(n));
+            targets[i] = map.vertex(random.nextInt(n));
+            shortest[i] = length(map, new AStarSolver<>(map, sources[i], targets[i]).solution());
+        }
+        // Search with every weight once before timing, so that no weight pays for compiling the weighted search.
+        for (double weight : WEIGHTS) {
+            for (int i = 0; i < QUERIES; i += 1) {
+                new AStarSolver<>(map, new int[]{map.indexOf(sources[i])}, new double[]{0.0},
+                        new int[]{map.indexOf(targets[i])}, new double[]{0.0}, weight, Deadline.NONE);
+            }
+        }
+
+        System.out.printf("%-8s %14s %12s %12s %12s%n", "weight", "settled/query", "ms total", "mean bound",
+                "worst ratio");
+        for (double weight : WEIGHTS) {
+            long settled = 0;
+            long time = 0;
+            double bounds = 0.0;
+            double worst = 1.0;
+            for (int i = 0; i < QUERIES; i += 1) {
+                long start = System.nanoTime();
+                AStarSolver<Point> solver = new AStarSolver<>(map, new int[]{map.indexOf(sources[i])},
+                        new double[]{0.0}, new int[]{map.indexOf(targets[i])}, new double[]{0.0}, weight,
+                        Deadline.NONE);
+                time += System.nanoTime() - start;
+                settled += solver.settledCount();
+                bounds += solver.suboptimalityBound();
+                worst = Math.max(worst, ratio(map, shortest[i], solver.solution()));
+            }
+            System.out.printf("%-8.2f %14d %12d %12.4f %12.4f%n", weight, settled / QUERIES, time / 1_000_000,
+                    bounds / QUERIES, worst);
+        }
+
+        System.out.printf("%n%-8s %14s %12s %12s %12s %12s%n", "budget", "settled/query", "ms total", "mean rounds",
+                "mean bound", "worst ratio");
+        for (int budget : ANYTIME_BUDGETS_US) {
+            long settled = 0;
+            long time = 0;
+            long rounds = 0;
+            double bounds = 0.0;
+            double worst = 1.0;
+            int answered = 0;
+            for (int i = 0; i < QUERIES; i += 1) {
+                Deadline deadline = budget > 0 ? Deadline.after(Duration.ofNanos(budget * 1000L)) : Deadline.NONE;
+                long start = System.nanoTime();
+                AnytimeAStarSolver<Point> solver;
+                try {
+                    solver = new AnytimeAStarSolver<>(map, sources[i], targets[i], WEIGHTS[WEIGHTS.length - 1],
+                            deadline);
+                } catch (SearchCancelledException e) {
+                    continue;
+                } finally {
+                    time += System.nanoTime() - start;
+                }
+                answered += 1;
+                settled += solver.settledCount();
+                rounds += solver.rounds();
+                bounds += solver.suboptimalityBound();
+                worst = Math.max(worst, ratio(map, shortest[i], solver.solution()));
+            }
+            answered = Math.max(answered, 1);
+            System.out.printf("%-8s %14d %12d %12.2f %12.4f %12.4f%n", budget > 0 ? budget + "us" : "none",
+                    settled / answered, time / 1_000_000, (double) rounds / answered, bounds / answered, worst);
+        }
+    }
+
+    /**
+     * Ranks {@link #FACILITIES} random facilities by their distance to each of {@link #FACILITY_TARGETS} random
+     * targets, first by routing from every facility to the target and then by one closest-facility search for each of
+     * the {@link #NEAREST_COUNTS}.
+     *
+     * @param map the map graph.
+     */
+    private static void closest(MapGraph map) {
+        Random random = new Random(5);
+        int n = map.csr().size();
+        List<Point> facilities = new ArrayList<>(FACILITIES);
+        for (int i = 0; i < FACILITIES; i += 1) {
+            facilities.add(map.vertex(random.nextInt(n)));
+        }
+        Point[] targets = new Point[FACILITY_TARGETS];
+        long pairwiseTime = 0;
+        for (int t = 0; t < FACILITY_TARGETS; t += 1) {
+            targets[t] = map.vertex(random.nextInt(n));
+            long start = System.nanoTime();
+            double[] lengths = new double[FACILITIES];
+            for (int f = 0; f < FACILITIES; f += 1) {
+                List<Point> route = map.shortestPath(facilities.get(f), targets[t]);
+                lengths[f] = route.get(0).equals(facilities.get(f)) ? length(map, route) : Double.POSITIVE_INFINITY;
+            }
+            pairwiseTime += System.nanoTime() - start;
+            Arrays.sort(lengths);
+        }
+        System.out.printf("%-14s %12s %12s%n", "search", "ms total", "ms/target");
+        System.out.printf("%-14s %12d %12.2f%n", "pairwise", pairwiseTime / 1_000_000,
+                pairwiseTime / 1e6 / FACILITY_TARGETS);
+
+        for (int k : NEAREST_COUNTS) {
+            long time = 0;
+            for (int t = 0; t < FACILITY_TARGETS; t += 1) {
+                long start = System.nanoTime();
+                List<MapGraph.Facility> nearest = map.closestFacilities(facilities, targets[t], k, Deadline.NONE);
+                time += System.nanoTime() - start;
+            }
+            System.out.printf("%-14s %12d %12.2f%n", "nearest " + k, time / 1_000_000,
+                    time / 1e6 / FACILITY_TARGETS);
+        }
+    }
+
+    /**
+     * Times the planar heuristic and the great-circle distance over {@link #HEURISTIC_PAIRS} random vertex pairs,
+     * reporting the range of their ratio, then compares A* search with each heuristic on random queries.
+     *
+     * @param map the map graph.
+     */
+    private static void heuristic(MapGraph map) {
+        Random random = new Random(1);
+        int n = map.csr().size();
+        int[] starts = new int[HEURISTIC_PAIRS];
+        int[] ends = new int[HEURISTIC_PAIRS];
+        double lowest = Double.POSITIVE_INFINITY;
+        double highest = 0.0;
+        for (int i = 0; i < HEURISTIC_PAIRS; i += 1) {
+            starts[i] = random.nextInt(n);
+            ends[i] = random.nextInt(n);
+            double greatCircle = map.greatCircleDistance(starts[i], ends[i]);
+            if (greatCircle > 0.0) {
+                double ratio = map.estimatedDistance(starts[i], ends[i]) / greatCircle;
+                lowest = Math.min(lowest, ratio);
+                highest = Math.max(highest, ratio);
+            }
+        }
+        long planarTime = Long.MAX_VALUE;
+        long greatCircleTime = Long.MAX_VALUE;
+        // Sum the distances so that the calls cannot be optimized away.
+        double sum = 0.0;
+        for (int run = 0; run < HEURISTIC_RUNS; run += 1) {
+            long start = System.nanoTime();
+            for (int i = 0; i < HEURISTIC_PAIRS; i += 1) {
+                sum += map.estimatedDistance(starts[i], ends[i]);
+            }
+            planarTime = Math.min(planarTime, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int i = 0; i < HEURISTIC_PAIRS; i += 1) {
+                sum += map.greatCircleDistance(starts[i], ends[i]);
+            }
+            greatCircleTime = Math.min(greatCircleTime, System.nanoTime() - start);
+        }
+        System.out.printf("Planar heuristic is %.6f to %.6f of the great-circle distance (checksum %.1f)%n",
+                lowest, highest, sum);
+        System.out.printf("%-12s %12s%n", "distance", "ns/call");
+        System.out.printf("%-12s %12.2f%n", "great-circle", (double) greatCircleTime / HEURISTIC_PAIRS);
+        System.out.printf("%-12s %12.2f%n", "planar", (double) planarTime / HEURISTIC_PAIRS);
+
+        IndexedAStarGraph<Point> greatCircle = new GreatCircleGraph(map);
+        Point[] sources = new Point[QUERIES];
+        Point[] targets = new Point[QUERIES];
+        for (int i = 0; i < QUERIES; i += 1) {
+            sources[i] = map.vertex(random.nextInt(n));
+            targets[i] = map.vertex(random.nextInt(n));
+            // Search with both heuristics once before timing, so that neither pays for compiling the search.
+            new AStarSolver<>(greatCircle, sources[i], targets[i]);
+            new AStarSolver<>(map, sources[i], targets[i]);
+        }
+        long greatCircleSettled = 0;
+        long planarSettled = 0;
+        greatCircleTime = 0;
+        planarTime = 0;
+        for (int i = 0; i < QUERIES; i += 1) {
+            long start = System.nanoTime();
+            AStarSolver<Point> exact = new AStarSolver<>(greatCircle, sources[i], targets[i]);
+            greatCircleTime += System.nanoTime() - start;
+            greatCircleSettled += exact.settledCount();
+
+            start = System.nanoTime();
+            AStarSolver<Point> planar = new AStarSolver<>(map, sources[i], targets[i]);
+            planarTime += System.nanoTime() - start;
+            planarSettled += planar.settledCount();
+        }
+        System.out.printf("%n%-12s %14s %12s%n", "heuristic", "settled/query", "ms total");
+        System.out.printf("%-12s %14d %12d%n", "great-circle", greatCircleSettled / QUERIES,
+                greatCircleTime / 1_000_000);
+        System.out.printf("%-12s %14d %12d%n", "planar", planarSettled / QUERIES, planarTime / 1_000_000);
+    }
+
+    /**
+     * The map graph with the great-circle distance between vertices as the estimated distance, as it was before the
+     * planar heuristic.
+     */
+    private static class GreatCircleGraph implements IndexedAStarGraph<Point> {
+        private final MapGraph map;
+
+        GreatCircleGraph(MapGraph map) {
+            this.map = map;
+        }
+
+        @Override
+        public CSRGraph csr() {
+            return map.csr();
+        }
+
+        @Override
+        public CSRGraph reverseCsr() {
+            return map.reverseCsr();
+        }
+
+        @Override
+        public int indexOf(Point vertex) {
+            return map.indexOf(vertex);
+        }
+
+        @Override
+        public Point vertex(int index) {
+            return map.vertex(index);
+        }
+
+        @Override
+        public List<Edge<Point>> neighbors(Point vertex) {
+            return map.neighbors(vertex);
+        }
+
+        @Override
+        public List<Edge<Point>> incoming(Point vertex) {
+            return map.incoming(vertex);
+        }
+
+        @Override
+        public double estimatedDistance(Point start, Point end) {
+            return map.estimatedDistance(start, end);
+        }
+
+        @Override
+        public double estimatedDistance(int start, int end) {
+            return map.greatCircleDistance(start, end);
+        }
+    }
+
+    /**
+     * The map graph with an estimated distance of 0, on which A* search is Dijkstra's algorithm.
+     */
+    private static class UninformedGraph extends GreatCircleGraph {
+        UninformedGraph(MapGraph map) {
+            super(map);
+        }
+
+        @Override
+        public double estimatedDistance(Point start, Point end) {
+            return 0.0;
+        }
+
+        @Override
+        public double estimatedDistance(int start, int end) {
+            return 0.0;
+        }
+    }
+
+    /**
+     * Returns the street node closest to a random point near the given point, which is usually in the middle of a
+     * chain rather than a vertex.
+     */
+    private static Point node(MapGraph map, Point near, Random random) {
+        double lat = near.getLat() + SNAP_OFFSET * (2.0 * random.nextDouble() - 1.0);
+        double lon = near.getLon() + SNAP_OFFSET * (2.0 * random.nextDouble() - 1.0);
+        return map.closest(SpatialContext.GEO.getShapeFactory().pointLatLon(lat, lon));
+    }
+
+    /**
+     * Returns the ratio of the length of the route to the shortest length, or 1 if the shortest length is 0.
+     */
+    private static double ratio(MapGraph map, double shortest, List<Point> route) {
+        return shortest > 0.0 ? length(map, route) / shortest : 1.0;
+    }
+
+    /**
+     * Returns the total length of the route, or 0 if the route has fewer than two points.
+     */
+    private static double length(MapGraph map, List<Point> route) {
+        double result = 0.0;
+        for (int i = 1; i < route.size(); i += 1) {
+            result += map.estimatedDistance(route.get(i - 1), route.get(i));
+        }
+        return result;
+    }
+}
@@ -1,85 +1,569 @@
 import autocomplete.Autocomplete;
 import autocomplete.TreeSetAutocomplete;
 import graphs.AStarGraph;
+import graphs.CSRGraph;
+import graphs.ChainGraph;
 import graphs.Edge;
+import graphs.IndexedAStarGraph;
+import graphs.MultilevelPartition;
+import graphs.StronglyConnectedComponents;
 import graphs.shortestpaths.AStarSolver;
+import graphs.shortestpaths.ClosestFacilitySolver;
+import graphs.shortestpaths.ContractionHierarchy;
+import graphs.shortestpaths.Deadline;
+import graphs.shortestpaths.DijkstraSolver;
+import graphs.shortestpaths.LandmarkHeuristic;
+import graphs.shortestpaths.OverlayGraph;
+import graphs.shortestpaths.OverlayMetric;
+import metrics.Histogram;
+import metrics.MetricRegistry;
 import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.distance.DistanceUtils;
 import org.locationtech.spatial4j.shape.Point;
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
+import primitives.LongHashSet;
+import primitives.LongIntHashMap;
+import spatial.KdTree;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
 import java.util.zip.GZIPInputStream;
 
 /**
  * {@link AStarGraph} of places as {@link Point} vertices and streets edges weighted by physical distance.
+ * <p>
+ * After parsing, the street network is frozen into a {@link CSRGraph} over street node numbers with fixed-point
+ * coordinate arrays, and then simplified by a {@link ChainGraph} that collapses each run of nodes with exactly two
+ * neighbors into a single edge. The vertices of this graph are only the remaining intersections and dead ends, so
+ * every search settles a fraction of the street nodes. {@link Point} vertices and {@link Edge} lists are only created
+ * on demand by the {@link AStarGraph} methods, while {@link AStarSolver} searches the primitive arrays directly through
+ * {@link IndexedAStarGraph}. A reversed copy of the simplified network answers {@link #incoming(Point)} for searches
+ * that run backward from the goal.
+ * <p>
+ * Locations still snap to the nearest street node. A route from a node in the middle of a chain starts from both ends
+ * of the chain at their distances along it, and likewise ends, and the route over vertices is expanded back into
+ * every street node along the way.
+ * <p>
+ * A map graph is configured by a {@link Builder} and never changes after construction: queries only read its arrays
+ * and keep their search state in per-thread workspaces, so any number of threads may query one graph at once.
  *
  * @see AStarGraph
  * @see MapServer
  */
-public class MapGraph implements AStarGraph<Point> {
+public class MapGraph implements IndexedAStarGraph<Point> {
+    /**
+     * Number of fixed-point coordinate units per degree of latitude or longitude.
+     */
+    private static final double FIXED_POINT_SCALE = 1e7;
+    /**
+     * Values of the OSM {@code highway} tag for ways that are included as streets, in the order of the highway type
+     * indices kept with the streets.
+     */
+    private static final List<String> ALLOWED_HIGHWAY_TYPES = List.of(
+            "motorway",
+            "trunk",
+            "primary",
+            "secondary",
+            "tertiary",
+            "unclassified",
+            "residential",
+            "living_street",
+            "motorway_link",
+            "trunk_link",
+            "primary_link",
+            "secondary_link",
+            "tertiary_link"
+    );
+    /**
+     * Number of landmarks used by each A* query when landmark lower bounds are enabled.
+     */
+    private static final int ACTIVE_LANDMARKS = 4;
+    /**
+     * Maximum number of vertices in a cell at each level of the overlay for routing profiles, from the lowest level.
+     * The simplified street network has no vertices of degree two, so its cells are smaller than for a raw network.
+     */
+    private static final int[] OVERLAY_CELL_SIZES = {1 << 6, 1 << 9, 1 << 12};
     private final String osmPath;
     private final String placesPath;
     private final SpatialContext context;
-    private final Map<Point, List<Edge<Point>>> neighbors;
-    private final Map<String, List<Point>> locations;
+    /**
+     * A private copy of the options this graph was built with, for building graphs with changes applied.
+     */
+    private final Builder options;
+    /**
+     * The parsed map data this graph was built from, including the OSM extract that changes are applied to.
+     */
+    private final MapSnapshot source;
+    /**
+     * The street network over node numbers with chains of nodes collapsed into edges between vertices.
+     */
+    private final ChainGraph chains;
+    /**
+     * The simplified street network over vertex numbers.
+     */
+    private final CSRGraph streets;
+    /**
+     * The simplified street network with every edge reversed, for searching backward from a goal.
+     */
+    private final CSRGraph reverseStreets;
+    /**
+     * Strongly connected components of the simplified street network, so that a route between components can be
+     * rejected without searching.
+     */
+    private final StronglyConnectedComponents components;
+    /**
+     * Latitude of each street node in fixed-point units.
+     */
+    private final int[] lats;
+    /**
+     * Longitude of each street node in fixed-point units.
+     */
+    private final int[] lons;
+    /**
+     * Node number of each packed fixed-point coordinate pair.
+     */
+    private final LongIntHashMap indices;
+    /**
+     * Spatial index over the street nodes for snapping locations onto the street network.
+     */
+    private final KdTree vertexIndex;
+    /**
+     * Position of each vertex of the simplified street network in meters east of the center of the map, with
+     * longitudes scaled by the cosine of the latitude farthest from the equator.
+     */
+    private final double[] xs;
+    /**
+     * Position of each vertex of the simplified street network in meters north of the center of the map.
+     */
+    private final double[] ys;
+    /**
+     * Factor by which straight-line distances in meters between positions in {@link #xs} and {@link #ys} are scaled
+     * into lower bounds on the great-circle distance in degrees.
+     */
+    private final double planarScale;
+    /**
+     * Group number of each place name in {@code places}.
+     */
+    private final Map<String, Integer> locations;
+    /**
+     * Latitude of each named place in fixed-point units.
+     */
+    private final int[] placeLats;
+    /**
+     * Longitude of each named place in fixed-point units.
+     */
+    private final int[] placeLons;
+    /**
+     * Spatial index over the named places with one group for each place name.
+     */
+    private final KdTree places;
     private final Autocomplete autocomplete;
     private final Map<CharSequence, Integer> importance;
+    /**
+     * Contraction hierarchy answering {@link #shortestPath(Point, Point)}, or null to use A* search.
+     */
+    private final ContractionHierarchy hierarchy;
+    /**
+     * Landmark lower bounds for A* search in {@link #shortestPath(Point, Point)}, or null to use only the
+     * straight-line distance.
+     */
+    private final LandmarkHeuristic<Point> landmarks;
+    /**
+     * Multi-level overlay of the simplified street network shared by the routing profiles, or null if no profiles
+     * besides {@link RoutingProfile#DISTANCE} are enabled.
+     */
+    private final OverlayGraph overlay;
+    /**
+     * Costs and customized overlay of each enabled routing profile besides {@link RoutingProfile#DISTANCE}.
+     */
+    private final Map<RoutingProfile, ProfileCosts> profiles;
+    /**
+     * Distributions of the work done by each A* search, or null if searches are not measured.
+     */
+    private final SearchMetrics searchMetrics;
 
     /**
      * Constructs a new map graph from the path to an OSM GZ file and a places TSV.
      *
      * @param osmPath    The path to a gzipped OSM (XML) file.
      * @param placesPath The path to a TSV file representing places and importance.
-     * @throws ParserConfigurationException if a parser cannot be created.
-     * @throws SAXException                 for SAX errors.
-     * @throws IOException                  if a file is not found or if the file is not gzipped.
+     * @throws IOException if a file is not found, if the file is not gzipped, or if the OSM file is not well-formed.
      */
     public MapGraph(String osmPath, String placesPath, SpatialContext context)
-            throws ParserConfigurationException, SAXException, IOException {
-        this.osmPath = osmPath;
-        this.placesPath = placesPath;
-        this.context = context;
-
-        // Parse the OpenStreetMap (OSM) data using the SAXParser XML tree walker.
-        neighbors = new HashMap<>();
-        Handler handler = new Handler(Set.of(
-                "motorway",
-                "trunk",
-                "primary",
-                "secondary",
-                "tertiary",
-                "unclassified",
-                "residential",
-                "living_street",
-                "motorway_link",
-                "trunk_link",
-                "primary_link",
-                "secondary_link",
-                "tertiary_link"
-        ));
-        SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
-        saxParser.parse(new GZIPInputStream(fileStream(osmPath)), handler);
+            throws IOException {
+        this(osmPath, placesPath, null, context);
+    }
+
+    /**
+     * Constructs a new map graph from the path to an OSM GZ file and a places TSV, reusing the binary snapshot at the
+     * given path if it was built from the same sources. Otherwise, parses the sources and writes a new snapshot.
+     *
+     * @param osmPath      The path to a gzipped OSM (XML) file.
+     * @param placesPath   The path to a TSV file representing places and importance.
+     * @param snapshotPath The file path of the binary snapshot, or null to always parse the sources.
+     * @throws IOException if a file is not found, if the file is not gzipped, or if the OSM file is not well-formed.
+     * @see MapSnapshot
+     */
+    public MapGraph(String osmPath, String placesPath, String snapshotPath, SpatialContext context)
+            throws IOException {
+        this(new Builder(osmPath, placesPath, context).snapshot(snapshotPath));
+    }
+
+    /**
+     * Constructs a new map graph with the routing options of the given builder.
+     *
+     * @param builder the source paths and routing options.
+     * @throws IOException if a file is not found, if the file is not gzipped, or if the OSM file is not well-formed.
+     */
+    private MapGraph(Builder builder) throws IOException {
+        this(builder.copy(), load(builder), null);
+    }
 
-        // Add reachable locations to the Autocomplete engine.
-        locations = handler.byName;
-        autocomplete = new TreeSetAutocomplete();
-        autocomplete.addAll(locations.keySet());
+    /**
+     * Constructs a new map graph over the given map data. Every field is assigned here and never changes afterward, so
+     * the graph can be shared by any number of threads once it is safely published.
+     * <p>
+     * When a base graph is given, the structures derived from the streets or the places that the map data shares with
+     * the base graph's data are reused rather than rebuilt, and a contraction hierarchy over changed streets is
+     * preprocessed in memory rather than read from or written to its file.
+     *
+     * @param options  the source paths and routing options, which must not change afterward.
+     * @param snapshot the parsed map data.
+     * @param base     the graph whose derived structures may be reused, or null to build every structure.
+     * @throws IOException if the contraction hierarchy file cannot be read or written.
+     */
+    private MapGraph(Builder options, MapSnapshot snapshot, MapGraph base) throws IOException {
+        this.osmPath = options.osmPath;
+        this.placesPath = options.placesPath;
+        this.context = options.context;
+        this.options = options;
+        this.source = snapshot;
+
+        boolean sameStreets = base != null && snapshot.streets == base.source.streets;
+        if (sameStreets) {
+            chains = base.chains;
+            streets = base.streets;
+            reverseStreets = base.reverseStreets;
+            components = base.components;
+            lats = base.lats;
+            lons = base.lons;
+            indices = base.indices;
+            vertexIndex = base.vertexIndex;
+            xs = base.xs;
+            ys = base.ys;
+            planarScale = base.planarScale;
+        } else {
+            chains = new ChainGraph(snapshot.streets);
+            streets = chains.csr();
+            reverseStreets = streets.reverse();
+            components = new StronglyConnectedComponents(streets);
+            int[] lats = snapshot.lats;
+            int[] lons = snapshot.lons;
+            this.lats = lats;
+            this.lons = lons;
+            indices = new LongIntHashMap(lats.length);
+            for (int v = 0; v < lats.length; v += 1) {
+                indices.put(pack(lats[v], lons[v]), v);
+            }
+            vertexIndex = new KdTree(lats.length, v -> lats[v] / FIXED_POINT_SCALE, v -> lons[v] / FIXED_POINT_SCALE);
+
+            // Project the vertices into a plane once, so that the heuristic needs no trigonometry. The haversine
+            // formula gives hav(d) = hav(dLat) + cos(lat1) cos(lat2) hav(dLon) for the great-circle distance d, where
+            // hav(x) = sin(x / 2)^2. Scaling longitudes by k, the cosine of the latitude farthest from the equator,
+            // makes k^2 at most cos(lat1) cos(lat2), and x (1 - x^2 / 6) <= sin(x) <= x for x >= 0, so with every
+            // difference at most the span of the map, s radians, d >= (1 - s^2 / 24) times the planar distance.
+            int minLat = Integer.MAX_VALUE;
+            int maxLat = Integer.MIN_VALUE;
+            int minLon = Integer.MAX_VALUE;
+            int maxLon = Integer.MIN_VALUE;
+            for (int v = 0; v < streets.size(); v += 1) {
+                int node = chains.vertexOf(v);
+                minLat = Math.min(minLat, lats[node]);
+                maxLat = Math.max(maxLat, lats[node]);
+                minLon = Math.min(minLon, lons[node]);
+                maxLon = Math.max(maxLon, lons[node]);
+            }
+            double metersPerUnit = DistanceUtils.DEG_TO_KM * 1000 / FIXED_POINT_SCALE;
+            double farLat = Math.max(Math.abs((double) minLat), Math.abs((double) maxLat)) / FIXED_POINT_SCALE;
+            double east = metersPerUnit * Math.cos(Math.toRadians(farLat));
+            double centerLat = ((double) minLat + maxLat) / 2;
+            double centerLon = ((double) minLon + maxLon) / 2;
+            xs = new double[streets.size()];
+            ys = new double[streets.size()];
+            for (int v = 0; v < streets.size(); v += 1) {
+                int node = chains.vertexOf(v);
+                xs[v] = east * (lons[node] - centerLon);
+                ys[v] = metersPerUnit * (lats[node] - centerLat);
+            }
+            double span = Math.toRadians(Math.max((double) maxLat - minLat, (double) maxLon - minLon)
+                    / FIXED_POINT_SCALE);
+            // The slack of s^2 / 24 also absorbs rounding, which is far smaller for any map this bound is useful for.
+            planarScale = Math.max(1 - span * span / 24, 0.0) / (DistanceUtils.DEG_TO_KM * 1000);
+        }
+
+        if (base != null && snapshot.locations == base.source.locations) {
+            locations = base.locations;
+            placeLats = base.placeLats;
+            placeLons = base.placeLons;
+            places = base.places;
+            autocomplete = base.autocomplete;
+        } else {
+            // Index the named places in one group per name.
+            locations = new HashMap<>();
+            int placeCount = 0;
+            for (int[] coordinates : snapshot.locations.values()) {
+                placeCount += coordinates.length / 2;
+            }
+            int[] placeLats = new int[placeCount];
+            int[] placeLons = new int[placeCount];
+            int[] groups = new int[snapshot.locations.size() + 1];
+            int place = 0;
+            for (Map.Entry<String, int[]> entry : snapshot.locations.entrySet()) {
+                groups[locations.size()] = place;
+                locations.put(entry.getKey(), locations.size());
+                int[] coordinates = entry.getValue();
+                for (int i = 0; i < coordinates.length; i += 2) {
+                    placeLats[place] = coordinates[i];
+                    placeLons[place] = coordinates[i + 1];
+                    place += 1;
+                }
+            }
+            groups[locations.size()] = place;
+            this.placeLats = placeLats;
+            this.placeLons = placeLons;
+            places = new KdTree(identity(placeCount), p -> placeLats[p] / FIXED_POINT_SCALE,
+                    p -> placeLons[p] / FIXED_POINT_SCALE, groups);
+
+            // Add reachable locations to the Autocomplete engine.
+            autocomplete = new TreeSetAutocomplete();
+            autocomplete.addAll(locations.keySet());
+        }
+        importance = snapshot.importance;
+
+        if (options.hierarchyPath == null) {
+            hierarchy = null;
+        } else if (sameStreets) {
+            hierarchy = base.hierarchy;
+        } else if (base != null) {
+            // The file holds the hierarchy of the unchanged streets, which a reload from the sources will want again.
+            hierarchy = ContractionHierarchy.build(streets);
+        } else {
+            hierarchy = ContractionHierarchy.load(streets, Path.of(options.hierarchyPath));
+        }
+        // The landmarks read only the street arrays assigned above.
+        if (options.landmarkCount == 0) {
+            landmarks = null;
+        } else if (sameStreets) {
+            landmarks = base.landmarks.forGraph(this);
+        } else {
+            landmarks = new LandmarkHeuristic<>(this, options.landmarkCount, ACTIVE_LANDMARKS,
+                    new Random(options.landmarkCount));
+        }
+        if (options.profiles.isEmpty()) {
+            overlay = null;
+            profiles = Map.of();
+        } else if (sameStreets) {
+            overlay = base.overlay;
+            profiles = base.profiles;
+        } else {
+            overlay = new OverlayGraph(streets, partition());
+            Map<RoutingProfile, ProfileCosts> costs = new EnumMap<>(RoutingProfile.class);
+            for (RoutingProfile profile : options.profiles) {
+                costs.put(profile, new ProfileCosts(profile, snapshot, chains, overlay));
+            }
+            profiles = costs;
+        }
+        if (options.metrics == null) {
+            searchMetrics = null;
+        } else if (base != null) {
+            searchMetrics = base.searchMetrics;
+        } else {
+            searchMetrics = new SearchMetrics(options.metrics);
+        }
+    }
+
+    /**
+     * Returns a partition of the simplified street network into the cells of the overlay by the positions of the
+     * vertices, with longitudes scaled by the cosine of the mean latitude so that directions in the plane are true.
+     *
+     * @return a nested partition of the vertices.
+     */
+    private MultilevelPartition partition() {
+        double meanLat = 0;
+        for (int v = 0; v < streets.size(); v += 1) {
+            meanLat += lats[chains.vertexOf(v)] / FIXED_POINT_SCALE / streets.size();
+        }
+        double scale = Math.cos(Math.toRadians(meanLat));
+        double[] xs = new double[streets.size()];
+        double[] ys = new double[streets.size()];
+        for (int v = 0; v < streets.size(); v += 1) {
+            int node = chains.vertexOf(v);
+            xs[v] = scale * lons[node];
+            ys[v] = lats[node];
+        }
+        return MultilevelPartition.inertialFlow(streets, xs, ys, OVERLAY_CELL_SIZES);
+    }
+
+    /**
+     * Reads the snapshot of the map data if the builder names one that was built from the same sources. Otherwise,
+     * parses the sources and writes a new snapshot if the builder names one.
+     *
+     * @param builder the source paths and routing options.
+     * @return the parsed map data.
+     * @throws IOException if a file is not found, if the file is not gzipped, or if the OSM file is not well-formed.
+     */
+    private static MapSnapshot load(Builder builder) throws IOException {
+        MapSnapshot snapshot = null;
+        long sourceChecksum = 0;
+        if (builder.snapshotPath != null) {
+            sourceChecksum = checksum(builder.osmPath, builder.placesPath);
+            snapshot = MapSnapshot.read(Path.of(builder.snapshotPath), sourceChecksum);
+        }
+        if (snapshot == null) {
+            snapshot = parse(builder.osmPath, builder.placesPath);
+            if (builder.snapshotPath != null) {
+                snapshot.write(Path.of(builder.snapshotPath), sourceChecksum);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns a new map graph with the changes in the given OsmChange ({@code .osc}) file applied, leaving this graph
+     * unchanged. Instead of parsing the OSM file again, the change is applied to the street nodes, streets and named
+     * places kept by OSM id, and only the structures derived from whichever of the streets or places changed are
+     * rebuilt: a change that only renames places reuses the whole street network and its routing preprocessing, and
+     * a change to the streets reuses the place index and autocomplete engine.
+     * <p>
+     * Created and modified nodes and ways replace their previous state, and deleted ones are removed. Ways that are
+     * not allowed streets and relations are ignored. The new graph is not written to the snapshot, so a later graph
+     * built from the source files does not include the change unless the files do.
+     *
+     * @param osc the OsmChange XML, either plain or gzipped.
+     * @return a new map graph with the changes applied.
+     * @throws IOException if the input cannot be read or is not well-formed, or if the contraction hierarchy of the
+     *                     changed streets cannot be built.
+     */
+    public MapGraph applyChanges(InputStream osc) throws IOException {
+        InputStream input = new BufferedInputStream(osc, 1 << 16);
+        input.mark(2);
+        boolean gzipped = input.read() == 0x1f && input.read() == 0x8b;
+        input.reset();
+        OsmChange change = new OsmReader(ALLOWED_HIGHWAY_TYPES)
+                .readChange(gzipped ? new GZIPInputStream(input) : input);
+        return new MapGraph(options, snapshot(source.osm.apply(change), source.importance, source), this);
+    }
+
+    /**
+     * Returns the street nodes, streets and named places by OSM id that this graph was built from.
+     *
+     * @return the OSM extract of this graph.
+     */
+    OsmExtract osm() {
+        return source.osm;
+    }
+
+    /**
+     * Returns the overlay customized for the costs of the given profile over the simplified street network.
+     *
+     * @param profile the routing profile.
+     * @return the customized overlay, or null if the profile is {@link RoutingProfile#DISTANCE} or not enabled.
+     */
+    OverlayMetric metric(RoutingProfile profile) {
+        ProfileCosts costs = profiles.get(profile);
+        return costs == null ? null : costs.metric;
+    }
+
+    /**
+     * Parses the OSM and places files into a snapshot of the map data.
+     *
+     * @param osmPath    The path to a gzipped OSM (XML) file.
+     * @param placesPath The path to a TSV file representing places and importance.
+     * @return a snapshot of the parsed map data.
+     * @throws IOException if a file is not found, if the file is not gzipped, or if the OSM file is not well-formed.
+     */
+    private static MapSnapshot parse(String osmPath, String placesPath)
+            throws IOException {
+        // Parse the OpenStreetMap (OSM) data in two streaming passes so that only street nodes are kept.
+        OsmReader osm = new OsmReader(ALLOWED_HIGHWAY_TYPES);
+        try (InputStream input = new GZIPInputStream(fileStream(osmPath))) {
+            osm.findStreetNodes(input);
+        }
+        try (InputStream input = new GZIPInputStream(fileStream(osmPath))) {
+            osm.readStreets(input);
+        }
 
         // Parse the place-importance data.
-        importance = new HashMap<>();
-        try (Scanner input = new Scanner(fileStream(placesPath))) {
-            while (input.hasNextLine()) {
-                Scanner line = new Scanner(input.nextLine()).useDelimiter("\t");
-                importance.put(line.next(), line.nextInt());
+        Map<CharSequence, Integer> importance = new HashMap<>();
+        try (InputStream input = fileStream(placesPath)) {
+            if (input == null) {
+                throw new FileNotFoundException(placesPath);
+            }
+            TsvReader places = new TsvReader(input);
+            while (places.next()) {
+                importance.put(places.string(0), places.intField(1));
+            }
+        }
+
+        return snapshot(osm.extract(), importance, null);
+    }
+
+    /**
+     * Freezes the street network of the given extract into primitive arrays, numbering the street vertices by
+     * coordinate in the order the streets reach them. The street network or the places by name are reused from the
+     * base snapshot if the extract shares them with the base snapshot's extract.
+     *
+     * @param osm        the street nodes, streets and named places by OSM id.
+     * @param importance the importance of each place name.
+     * @param base       the snapshot whose street network and places may be reused, or null to build them.
+     * @return a snapshot of the map data.
+     */
+    private static MapSnapshot snapshot(OsmExtract osm, Map<CharSequence, Integer> importance, MapSnapshot base) {
+        Map<String, int[]> locations = base != null && osm.sharesPlaces(base.osm) ? base.locations : osm.locations();
+        if (base != null && osm.sharesStreets(base.osm)) {
+            return new MapSnapshot(base.streets, base.highways, base.lats, base.lons, osm, locations, importance);
+        }
+        Streets streets = new Streets(osm);
+        return new MapSnapshot(
+                streets.edges.build(streets.size),
+                streets.highways(),
+                Arrays.copyOf(streets.lats, streets.size),
+                Arrays.copyOf(streets.lons, streets.size),
+                osm,
+                locations,
+                importance
+        );
+    }
+
+    /**
+     * Returns a checksum of the contents of the given files and of the parsing rules, identifying the sources that a
+     * snapshot was built from.
+     *
+     * @param paths the file paths.
+     * @return a checksum of the contents of the given files and of the parsing rules.
+     * @throws IOException if a file cannot be read.
+     */
+    private static long checksum(String... paths) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(ALLOWED_HIGHWAY_TYPES.toString().getBytes(StandardCharsets.UTF_8));
+        byte[] buffer = new byte[1 << 16];
+        for (String path : paths) {
+            try (InputStream input = fileStream(path)) {
+                if (input == null) {
+                    throw new FileNotFoundException(path);
+                }
+                for (int n = input.read(buffer); n >= 0; n = input.read(buffer)) {
+                    crc.update(buffer, 0, n);
+                }
             }
         }
+        return crc.getValue();
     }
 
     /**
@@ -99,10 +583,11 @@ public class MapGraph implements AStarGraph<Point> {
      * @return the id of the location closest to the target.
      */
     public Point closest(Point target) {
-        if (neighbors.containsKey(target)) {
+        if (nodeOf(target) >= 0) {
             return target;
         }
-        return Collections.min(neighbors.keySet(), byEstimatedDistanceFrom(target));
+        int result = vertexIndex.nearest(target.getLat(), target.getLon());
+        return result >= 0 ? point(lats[result], lons[result]) : target;
     }
 
     /**
@@ -127,170 +612,1419 @@ public class MapGraph implements AStarGraph<Point> {
         if (locationName == null || !locations.containsKey(locationName)) {
             return List.of();
         }
-        List<Point> result = new ArrayList<>(locations.get(locationName));
-        result.sort(byEstimatedDistanceFrom(center));
+        int group = locations.get(locationName);
+        int[] nearest = places.nearest(center.getLat(), center.getLon(), places.size(group), group);
+        List<Point> result = new ArrayList<>(nearest.length);
+        for (int place : nearest) {
+            result.add(point(placeLats[place], placeLons[place]));
+        }
         return result;
     }
 
     /**
-     * Returns a list of points representing the shortest path from the points closest to the start and goal.
+     * Returns a list of points representing the shortest path from the points closest to the start and goal. If the
+     * goal cannot be reached because the two points lie in different components of the street network, such as an
+     * isolated cluster of driveways, returns only the point closest to the goal without searching.
      *
      * @param start the {@link Point} to start the shortest path.
      * @param goal  the {@link Point} to end the shortest path.
      * @return a list of points representing the shortest path from the points closest to the start and goal.
      */
     public List<Point> shortestPath(Point start, Point goal) {
-        return new AStarSolver<>(this, closest(start), closest(goal)).solution();
+        return shortestPath(start, goal, RoutingProfile.DISTANCE);
     }
 
-    @Override
-    public List<Edge<Point>> neighbors(Point point) {
-        return neighbors.computeIfAbsent(point, (p) -> List.of());
+    /**
+     * Returns a list of points representing the cheapest path by the given profile from the points closest to the
+     * start and goal. The {@link RoutingProfile#DISTANCE} profile is answered by the contraction hierarchy or A*
+     * search, and every other profile by the overlay customized for its costs.
+     *
+     * @param start   the {@link Point} to start the path.
+     * @param goal    the {@link Point} to end the path.
+     * @param profile the costs to minimize.
+     * @return a list of points representing the cheapest path from the points closest to the start and goal.
+     * @throws IllegalArgumentException if the profile was not enabled when this graph was built.
+     * @see Builder#profiles(RoutingProfile...)
+     */
+    public List<Point> shortestPath(Point start, Point goal, RoutingProfile profile) {
+        return shortestPath(start, goal, profile, Deadline.NONE);
     }
 
-    @Override
-    public double estimatedDistance(Point start, Point end) {
-        return context.calcDistance(start, end);
+    /**
+     * Returns a list of points representing the cheapest path by the given profile from the points closest to the
+     * start and goal as in {@link #shortestPath(Point, Point, RoutingProfile)}, giving up once the deadline passes.
+     *
+     * @param start    the {@link Point} to start the path.
+     * @param goal     the {@link Point} to end the path.
+     * @param profile  the costs to minimize.
+     * @param deadline the deadline for the search.
+     * @return a list of points representing the cheapest path from the points closest to the start and goal.
+     * @throws IllegalArgumentException if the profile was not enabled when this graph was built.
+     * @throws graphs.shortestpaths.SearchCancelledException if the deadline passes before the search finishes.
+     */
+    public List<Point> shortestPath(Point start, Point goal, RoutingProfile profile, Deadline deadline) {
+        return shortestPath(start, goal, profile, 1.0, deadline);
     }
 
-    @Override
-    public String toString() {
-        return "MapGraph{" +
-                "osmPath='" + osmPath + '\'' +
-                ", placesPath='" + placesPath + '\'' +
-                ", context='" + context + '\'' +
-                '}';
+    /**
+     * Returns a list of points representing a path by the given profile from the points closest to the start and
+     * goal that costs at most the given weight times the cheapest, giving up once the deadline passes. A weight above
+     * 1 inflates the heuristic of A* search, which then settles far fewer vertices; the contraction hierarchy and the
+     * overlay for other profiles are fast enough that they always find the cheapest path.
+     *
+     * @param start    the {@link Point} to start the path.
+     * @param goal     the {@link Point} to end the path.
+     * @param profile  the costs to minimize.
+     * @param weight   the factor by which A* search may inflate its heuristic, where 1 finds the cheapest path.
+     * @param deadline the deadline for the search.
+     * @return a list of points representing a path from the points closest to the start and goal.
+     * @throws IllegalArgumentException if the profile was not enabled when this graph was built, or the weight is
+     *                                  less than 1.
+     * @throws graphs.shortestpaths.SearchCancelledException if the deadline passes before the search finishes.
+     */
+    public List<Point> shortestPath(Point start, Point goal, RoutingProfile profile, double weight,
+                                    Deadline deadline) {
+        if (!(weight >= 1.0)) {
+            throw new IllegalArgumentException("Heuristic weight must be at least 1: " + weight);
+        }
+        ProfileCosts costs = null;
+        if (profile != RoutingProfile.DISTANCE) {
+            costs = profiles.get(profile);
+            if (costs == null) {
+                throw new IllegalArgumentException("Routing profile " + profile.parameter() + " is not enabled");
+            }
+        }
+        int s = nodeOf(closest(start));
+        int t = nodeOf(closest(goal));
+        if (s < 0 || t < 0) {
+            // There are no street nodes to snap to.
+            return List.of(goal);
+        }
+        if (s == t) {
+            return List.of(point(lats[s], lons[s]));
+        }
+        Endpoint from = new Endpoint(s, chains, costs);
+        Endpoint to = new Endpoint(t, chains, costs);
+        if (!isConnected(from, to)) {
+            // Match the solvers, which return only the goal when it is unreachable.
+            return List.of(point(lats[t], lons[t]));
+        }
+        List<Point> chainRoute = null;
+        double chainCost = Double.POSITIVE_INFINITY;
+        if (from.chain >= 0 && from.chain == to.chain) {
+            // Both lie on one chain, where the search only sees the routes that leave it. Leaving can still be
+            // cheaper, as around a loop or when a short street joins the ends of a long chain.
+            chainRoute = new ArrayList<>();
+            appendChain(chainRoute, from.chain, from.position, to.position);
+            chainCost = Math.abs(to.distances[0] - from.distances[0]);
+        }
+        int[] path;
+        if (costs != null) {
+            path = costs.metric.path(from.vertices, from.distances, to.vertices, to.distances, deadline);
+        } else if (hierarchy != null) {
+            path = hierarchy.path(from.vertices, from.distances, to.vertices, to.distances, deadline);
+        } else {
+            IndexedAStarGraph<Point> graph = this;
+            if (landmarks != null) {
+                graph = landmarks.forQuery(vertex(from.vertices[0]), vertex(to.vertices[0]));
+            }
+            AStarSolver<Point> solver = new AStarSolver<>(graph, from.vertices, from.distances, to.vertices,
+                    to.distances, weight, deadline);
+            if (searchMetrics != null) {
+                searchMetrics.record(solver);
+            }
+            List<Point> solution = solver.solution();
+            path = new int[solution.size()];
+            for (int i = 0; i < path.length; i += 1) {
+                path[i] = indexOf(solution.get(i));
+            }
+        }
+        double[] edgeCosts = costs == null ? null : costs.edgeCosts;
+        if (chainRoute != null && chainCost <= cost(from, path, to, edgeCosts)) {
+            return chainRoute;
+        }
+        if (path.length == 0) {
+            // Match the solvers, which return only the goal when it is unreachable.
+            return List.of(point(lats[t], lons[t]));
+        }
+        return expand(from, path, to, edgeCosts);
     }
 
     /**
-     * Adds an edge to this graph if it doesn't already exist using distance as the weight.
+     * Returns whether {@link #shortestPath(Point, Point, RoutingProfile)} can route by the given profile.
      *
-     * @param from the originating point of the edge.
-     * @param to the terminating point of the edge.
+     * @param profile the routing profile.
+     * @return true if the profile is {@link RoutingProfile#DISTANCE} or was enabled when this graph was built.
      */
-    private void addEdge(Point from, Point to) {
-        if (!neighbors.containsKey(from)) {
-            neighbors.put(from, new ArrayList<>());
+    public boolean supports(RoutingProfile profile) {
+        return profile == RoutingProfile.DISTANCE || profiles.containsKey(profile);
+    }
+
+    /**
+     * Returns the shortest path distance from the point closest to each source to the point closest to each target,
+     * in the same units as {@link #estimatedDistance(Point, Point)}. Rather than searching once per pair, each row runs
+     * a single search from its source that stops once every target has been reached, and the rows are computed in
+     * parallel on the common fork-join pool.
+     *
+     * @param sources  the points to measure distances from.
+     * @param targets  the points to measure distances to.
+     * @param deadline the deadline for the searches.
+     * @return the distance from each source (by row) to each target (by column), or positive infinity where the target
+     * is unreachable from the source.
+     * @throws graphs.shortestpaths.SearchCancelledException if the deadline passes before the searches finish.
+     */
+    public double[][] distanceMatrix(List<Point> sources, List<Point> targets, Deadline deadline) {
+        Endpoint[] to = new Endpoint[targets.size()];
+        for (int j = 0; j < to.length; j += 1) {
+            to[j] = endpoint(targets.get(j));
+        }
+        double[][] result = new double[sources.size()][];
+        IntStream.range(0, result.length).parallel()
+                .forEach(i -> result[i] = distances(endpoint(sources.get(i)), to, deadline));
+        return result;
+    }
+
+    /**
+     * Returns the shortest path distance from the start to each of the goals with one search over this thread's
+     * workspace, skipping goals in components that the start cannot reach.
+     *
+     * @param from     the start, or null if it did not snap to a street node.
+     * @param to       the goals, which are null if they did not snap to a street node.
+     * @param deadline the deadline for the search.
+     * @return the distance to each goal, or positive infinity where the goal is unreachable.
+     */
+    private double[] distances(Endpoint from, Endpoint[] to, Deadline deadline) {
+        double[] result = new double[to.length];
+        Arrays.fill(result, Double.POSITIVE_INFINITY);
+        if (from == null) {
+            return result;
+        }
+        int[] goals = new int[2 * to.length];
+        int count = 0;
+        for (Endpoint goal : to) {
+            if (goal != null && isConnected(from, goal)) {
+                for (int v : goal.vertices) {
+                    goals[count] = v;
+                    count += 1;
+                }
+            }
+        }
+        double[] found = DijkstraSolver.distances(streets, from.vertices, from.distances, Arrays.copyOf(goals, count),
+                deadline);
+        int k = 0;
+        for (int j = 0; j < to.length; j += 1) {
+            Endpoint goal = to[j];
+            if (goal == null || !isConnected(from, goal)) {
+                continue;
+            }
+            for (int i = 0; i < goal.vertices.length; i += 1) {
+                result[j] = Math.min(result[j], found[k] + goal.distances[i]);
+                k += 1;
+            }
+            if (goal.node == from.node) {
+                result[j] = 0.0;
+            } else if (goal.chain >= 0 && goal.chain == from.chain) {
+                // Both lie on one chain, where the search only sees the routes that leave it.
+                result[j] = Math.min(result[j], Math.abs(goal.distances[0] - from.distances[0]));
+            }
         }
-        neighbors.get(from).add(new Edge<>(from, to, estimatedDistance(from, to)));
+        return result;
     }
 
     /**
-     * Returns a {@link Comparator} by estimated distance from the given start point.
+     * Returns the nearest {@code k} of the facilities to the target by shortest path distance, nearest first, each
+     * with its route from the street node closest to the facility to the street node closest to the target. Rather
+     * than searching once per facility, a single search runs backward from the target until the nearest {@code k}
+     * facilities are found, so the search only explores the streets nearer to the target than the farthest of them.
      *
-     * @param start the given start point for distance comparison.
-     * @return a {@link Comparator} by estimated distance from the given start point.
+     * @param facilities the points to choose from.
+     * @param target     the point to measure distances to.
+     * @param k          the number of nearest facilities to return.
+     * @param deadline   the deadline for the search.
+     * @return up to {@code k} of the facilities that can reach the target, nearest first.
+     * @throws IllegalArgumentException if {@code k} is not positive.
+     * @throws graphs.shortestpaths.SearchCancelledException if the deadline passes before the search finishes.
      */
-    private Comparator<Point> byEstimatedDistanceFrom(Point start) {
-        return Comparator.comparingDouble(end -> estimatedDistance(start, end));
+    public List<Facility> closestFacilities(List<Point> facilities, Point target, int k, Deadline deadline) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Expected a positive number of facilities: " + k);
+        }
+        Endpoint to = endpoint(target);
+        if (to == null) {
+            return List.of();
+        }
+        Endpoint[] from = new Endpoint[facilities.size()];
+        int[][] exits = new int[from.length][];
+        double[][] exitDistances = new double[from.length][];
+        List<Facility> result = new ArrayList<>();
+        for (int f = 0; f < from.length; f += 1) {
+            from[f] = endpoint(facilities.get(f));
+            if (from[f] == null || !isConnected(from[f], to)) {
+                exits[f] = new int[0];
+                exitDistances[f] = new double[0];
+                continue;
+            }
+            exits[f] = from[f].vertices;
+            exitDistances[f] = from[f].distances;
+            if (from[f].node == to.node) {
+                result.add(new Facility(f, 0.0, List.of(point(lats[to.node], lons[to.node]))));
+            } else if (from[f].chain >= 0 && from[f].chain == to.chain) {
+                // Both lie on one chain, where the search only sees the routes that leave it.
+                List<Point> route = new ArrayList<>();
+                appendChain(route, to.chain, from[f].position, to.position);
+                result.add(new Facility(f, Math.abs(to.distances[0] - from[f].distances[0]), route));
+            }
+        }
+        ClosestFacilitySolver<Point> solver = new ClosestFacilitySolver<>(this, exits, exitDistances, to.vertices,
+                to.distances, k, deadline);
+        int[] nearest = solver.nearest();
+        for (int rank = 0; rank < nearest.length; rank += 1) {
+            List<Point> solution = solver.path(rank);
+            int[] path = new int[solution.size()];
+            for (int i = 0; i < path.length; i += 1) {
+                path[i] = indexOf(solution.get(i));
+            }
+            result.add(new Facility(nearest[rank], solver.distance(rank), expand(from[nearest[rank]], path, to, null)));
+        }
+        // Keep the shorter route of any facility found both along its chain and by the search.
+        result.sort(Comparator.comparingDouble(Facility::distance));
+        boolean[] seen = new boolean[from.length];
+        List<Facility> unique = new ArrayList<>(Math.min(k, result.size()));
+        for (Facility facility : result) {
+            if (unique.size() < k && !seen[facility.index]) {
+                seen[facility.index] = true;
+                unique.add(facility);
+            }
+        }
+        return unique;
     }
 
     /**
-     * Parses OSM XML files to construct a MapGraph.
+     * Returns the endpoint at the street node closest to the given point, or null if there are no street nodes.
+     *
+     * @param point the point of interest.
+     * @return the endpoint at the street node closest to the point, or null if there are no street nodes.
      */
-    private class Handler extends DefaultHandler {
-        private final Set<String> allowedHighwayTypes;
-        private final Map<Long, Point> byId;
-        private final Map<String, List<Point>> byName;
-        private String state;
-        private long id;
-        private String name;
-        private boolean validWay;
-        private Point location;
-        private Queue<Point> path;
+    private Endpoint endpoint(Point point) {
+        int node = nodeOf(closest(point));
+        return node >= 0 ? new Endpoint(node, chains) : null;
+    }
 
-        Handler(Set<String> allowedHighwayTypes) {
-            this.allowedHighwayTypes = allowedHighwayTypes;
-            this.byId = new HashMap<>();
-            this.byName = new HashMap<>();
-            reset();
+    /**
+     * Returns the street nodes whose shortest path distance from the point closest to the given center is within the
+     * budget, in the same units as {@link #estimatedDistance(Point, Point)}. Only the vertices within the budget are
+     * searched, and the nodes along each chain leaving them are included up to where the budget runs out.
+     *
+     * @param center   the point to measure distances from.
+     * @param budget   the greatest distance to include.
+     * @param deadline the deadline for the search.
+     * @return the street nodes within the budget of the center, or an empty list if there are no street nodes.
+     * @throws graphs.shortestpaths.SearchCancelledException if the deadline passes before the search finishes.
+     */
+    public List<Point> isochrone(Point center, double budget, Deadline deadline) {
+        Endpoint from = endpoint(center);
+        if (from == null) {
+            return List.of();
+        }
+        int[] nodes = new int[16];
+        int count = 0;
+        nodes[count++] = from.node;
+        if (from.chain >= 0) {
+            for (int p = 0; p < chains.chainSize(from.chain); p += 1) {
+                int node = chains.chainVertex(from.chain, p);
+                if (Math.abs(chains.offsetOf(node) - from.distances[0]) <= budget) {
+                    nodes = append(nodes, count++, node);
+                }
+            }
         }
+        DijkstraSolver.Reachable reachable = DijkstraSolver.within(streets, from.vertices, from.distances, budget,
+                deadline);
+        for (int i = 0; i < reachable.size(); i += 1) {
+            int v = reachable.vertex(i);
+            double left = budget - reachable.distance(i);
+            nodes = append(nodes, count++, chains.vertexOf(v));
+            for (int e = streets.edgeStart(v); e < streets.edgeEnd(v); e += 1) {
+                int chain = chains.edgeChain(e);
+                if (chain < 0) {
+                    continue;
+                }
+                // Offsets increase along the chain, so stop at the first node past the budget.
+                int size = chains.chainSize(chain);
+                double weight = chains.chainWeight(chain);
+                for (int p = 0; p < size; p += 1) {
+                    int node = chains.chainVertex(chain, chains.isReversed(e) ? size - 1 - p : p);
+                    double along = chains.isReversed(e) ? weight - chains.offsetOf(node) : chains.offsetOf(node);
+                    if (along > left) {
+                        break;
+                    }
+                    nodes = append(nodes, count++, node);
+                }
+            }
+        }
+        // Nodes in the middle of a chain may be reached from both ends.
+        Arrays.sort(nodes, 0, count);
+        List<Point> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 1) {
+            if (i == 0 || nodes[i] != nodes[i - 1]) {
+                result.add(point(lats[nodes[i]], lons[nodes[i]]));
+            }
+        }
+        return result;
+    }
 
-        /**
-         * Reset the handler state before processing a new way or node.
-         */
-        private void reset() {
-            state = "";
-            id = Long.MIN_VALUE;
-            name = "";
-            validWay = false;
-            location = null;
-            path = new ArrayDeque<>();
+    /**
+     * Stores the value at the given index of the array, first doubling the array if it is full.
+     *
+     * @param array the array to store into.
+     * @param index the index to store at, which is at most the length of the array.
+     * @param value the value to store.
+     * @return the array holding the value, which is a copy if the original was full.
+     */
+    private static int[] append(int[] array, int index, int value) {
+        if (index == array.length) {
+            array = Arrays.copyOf(array, 2 * index);
         }
+        array[index] = value;
+        return array;
+    }
 
-        /**
-         * Called at the beginning of an element.
-         *
-         * @param uri        The Namespace URI, or the empty string if the element has no Namespace URI or
-         *                   if Namespace processing is not being performed.
-         * @param localName  The local name (without prefix), or the empty string if Namespace
-         *                   processing is not being performed.
-         * @param qName      The qualified name (with prefix), or the empty string if qualified names are
-         *                   not available. This tells us which element we're looking at.
-         * @param attributes The attributes attached to the element. If there are no attributes, it
-         *                   shall be an empty Attributes object.
-         * @see Attributes
-         */
-        @Override
-        public void startElement(String uri, String localName, String qName, Attributes attributes) {
-            if (qName.equals("node")) {
-                state = "node";
-                id = Long.parseLong(attributes.getValue("id"));
-                location = context.getShapeFactory().pointLatLon(
-                        Double.parseDouble(attributes.getValue("lat")),
-                        Double.parseDouble(attributes.getValue("lon"))
-                );
-            } else if (qName.equals("way")) {
-                state = "way";
-            } else if (state.equals("way") && qName.equals("nd")) {
-                long ref = Long.parseLong(attributes.getValue("ref"));
-                path.add(byId.get(ref));
-            } else if (state.equals("way") && qName.equals("tag")) {
-                String k = attributes.getValue("k");
-                String v = attributes.getValue("v");
-                if (k.equals("highway")) {
-                    validWay = allowedHighwayTypes.contains(v);
+    /**
+     * Returns whether any of the vertices where a search could start is in the same strongly connected component as
+     * any of the vertices where it could end, which is necessary for a route to exist.
+     *
+     * @param from the start of the route.
+     * @param to   the goal of the route.
+     * @return true if a route between the endpoints may exist.
+     */
+    private boolean isConnected(Endpoint from, Endpoint to) {
+        for (int s : from.vertices) {
+            for (int t : to.vertices) {
+                if (components.component(s) == components.component(t)) {
+                    return true;
                 }
-            } else if (state.equals("node") && qName.equals("tag") && attributes.getValue("k").equals("name")) {
-                name = attributes.getValue("v").strip()
-                        .replace('“', '"')
-                        .replace('”', '"')
-                        .replace('‘', '\'')
-                        .replace('’', '\'');
             }
         }
+        return false;
+    }
 
-        /**
-         * Called at the end of an element.
-         *
-         * @param uri       The Namespace URI, or the empty string if the element has no Namespace URI or
-         *                  if Namespace processing is not being performed.
-         * @param localName The local name (without prefix), or the empty string if Namespace
-         *                  processing is not being performed.
-         * @param qName     The qualified name (with prefix), or the empty string if qualified names are
-         *                  not available.
-         */
-        @Override
-        public void endElement(String uri, String localName, String qName) {
-            if (qName.equals("way")) {
-                if (validWay && !path.isEmpty()) {
-                    Point from = path.remove();
-                    while (!path.isEmpty()) {
-                        Point to = path.remove();
-                        addEdge(from, to);
-                        addEdge(to, from);
-                        from = to;
-                    }
-                }
-                reset();
-            } else if (qName.equals("node")) {
-                byId.put(id, location);
-                if (!name.isBlank()) {
-                    byName.putIfAbsent(name, new ArrayList<>());
-                    byName.get(name).add(location);
+    /**
+     * Returns the street nodes of a route that leaves the start node along its chain, follows the given path over
+     * vertices, and reaches the goal node along its chain.
+     *
+     * @param from  the start of the route.
+     * @param path  the vertex numbers of the route, beginning with one of the start vertices and ending with one of
+     *              the goal vertices.
+     * @param to    the goal of the route.
+     * @param costs the cost of each edge of the simplified street network for choosing between parallel edges, or
+     *              null to choose by distance.
+     * @return the street nodes of the route.
+     */
+    private List<Point> expand(Endpoint from, int[] path, Endpoint to, double[] costs) {
+        List<Point> route = new ArrayList<>();
+        if (from.chain >= 0) {
+            appendChain(route, from.chain, from.position,
+                    from.isTowardStart(path[0]) ? 0 : chains.chainSize(from.chain) - 1);
+        }
+        route.add(vertex(path[0]));
+        for (int i = 1; i < path.length; i += 1) {
+            int e = costs == null ? chains.lightestEdge(path[i - 1], path[i])
+                    : chains.lightestEdge(path[i - 1], path[i], costs);
+            int chain = chains.edgeChain(e);
+            if (chain >= 0) {
+                int last = chains.chainSize(chain) - 1;
+                if (chains.isReversed(e)) {
+                    appendChain(route, chain, last, 0);
+                } else {
+                    appendChain(route, chain, 0, last);
                 }
-                reset();
             }
+            route.add(vertex(path[i]));
+        }
+        if (to.chain >= 0) {
+            appendChain(route, to.chain, to.isTowardStart(path[path.length - 1]) ? 0 : chains.chainSize(to.chain) - 1,
+                    to.position);
+        }
+        return route;
+    }
+
+    /**
+     * Returns the cost of the route that {@link #expand(Endpoint, int[], Endpoint, double[])} builds from the path.
+     *
+     * @param from  the start of the route.
+     * @param path  the vertex numbers of the route, beginning with one of the start vertices and ending with one of
+     *              the goal vertices, or empty if there is no route.
+     * @param to    the goal of the route.
+     * @param costs the cost of each edge of the simplified street network, or null to measure by distance.
+     * @return the cost of the route, or positive infinity if the path is empty.
+     */
+    private double cost(Endpoint from, int[] path, Endpoint to, double[] costs) {
+        if (path.length == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double result = from.distanceTo(path[0]) + to.distanceTo(path[path.length - 1]);
+        for (int i = 1; i < path.length; i += 1) {
+            if (costs == null) {
+                result += streets.weight(chains.lightestEdge(path[i - 1], path[i]));
+            } else {
+                result += costs[chains.lightestEdge(path[i - 1], path[i], costs)];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Appends the street nodes along a chain from the first position to the last position, both inclusive, in
+     * either direction.
+     *
+     * @param route the street nodes to append to.
+     * @param chain the chain number.
+     * @param first the position of the first node to append.
+     * @param last  the position of the last node to append.
+     */
+    private void appendChain(List<Point> route, int chain, int first, int last) {
+        int step = first <= last ? 1 : -1;
+        for (int i = first; i != last + step; i += step) {
+            int node = chains.chainVertex(chain, i);
+            route.add(point(lats[node], lons[node]));
+        }
+    }
+
+    /**
+     * Returns the number of street nodes in each strongly connected component of the street network, largest first.
+     * Every component but the first is unreachable from the rest of the network, so many small components suggest
+     * that the map data is clipped or that some streets are missing.
+     *
+     * @return the number of street nodes in each component, in descending order.
+     */
+    public int[] componentSizes() {
+        int[] sizes = new int[components.count()];
+        for (int node = 0; node < lats.length; node += 1) {
+            int chain = chains.chainOf(node);
+            sizes[components.component(chain < 0 ? chains.coreOf(node) : chains.chainStart(chain))] += 1;
+        }
+        Arrays.sort(sizes);
+        for (int i = 0, j = sizes.length - 1; i < j; i += 1, j -= 1) {
+            int size = sizes[i];
+            sizes[i] = sizes[j];
+            sizes[j] = size;
+        }
+        return sizes;
+    }
+
+    @Override
+    public List<Edge<Point>> neighbors(Point point) {
+        int from = indexOf(point);
+        if (from < 0) {
+            return List.of();
+        }
+        List<Edge<Point>> result = new ArrayList<>(streets.degree(from));
+        for (int e = streets.edgeStart(from); e < streets.edgeEnd(from); e += 1) {
+            result.add(new Edge<>(point, vertex(streets.target(e)), streets.weight(e)));
+        }
+        return result;
+    }
+
+    @Override
+    public List<Edge<Point>> incoming(Point point) {
+        int to = indexOf(point);
+        if (to < 0) {
+            return List.of();
+        }
+        List<Edge<Point>> result = new ArrayList<>(reverseStreets.degree(to));
+        for (int e = reverseStreets.edgeStart(to); e < reverseStreets.edgeEnd(to); e += 1) {
+            result.add(new Edge<>(vertex(reverseStreets.target(e)), point, reverseStreets.weight(e)));
+        }
+        return result;
+    }
+
+    @Override
+    public double estimatedDistance(Point start, Point end) {
+        return context.calcDistance(start, end);
+    }
+
+    @Override
+    public CSRGraph csr() {
+        return streets;
+    }
+
+    @Override
+    public CSRGraph reverseCsr() {
+        return reverseStreets;
+    }
+
+    @Override
+    public int indexOf(Point point) {
+        int node = nodeOf(point);
+        return node >= 0 ? chains.coreOf(node) : -1;
+    }
+
+    @Override
+    public Point vertex(int index) {
+        int node = chains.vertexOf(index);
+        return point(lats[node], lons[node]);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The estimate is the straight-line distance between the vertices in a planar projection of the map, scaled so
+     * that it never exceeds the great-circle distance, so it is consistent with the edge weights.
+     */
+    @Override
+    public double estimatedDistance(int start, int end) {
+        double dx = xs[start] - xs[end];
+        double dy = ys[start] - ys[end];
+        return planarScale * Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Returns the great-circle distance in degrees between the vertices identified by their vertex numbers, which
+     * {@link #estimatedDistance(int, int)} bounds from below.
+     *
+     * @param start the number of the beginning vertex.
+     * @param end   the number of the destination vertex.
+     * @return the great-circle distance in degrees between the vertices.
+     */
+    double greatCircleDistance(int start, int end) {
+        int from = chains.vertexOf(start);
+        int to = chains.vertexOf(end);
+        return distance(lats[from], lons[from], lats[to], lons[to]);
+    }
+
+    /**
+     * Returns the number of the street node at the given point, or -1 if there is no street node there. Unlike
+     * {@link #indexOf(Point)}, this includes the nodes in the middle of chains.
+     *
+     * @param point the point of interest.
+     * @return the number of the street node at the given point, or -1 if there is none.
+     */
+    private int nodeOf(Point point) {
+        return indices.getOrDefault(pack(fixed(point.getLat()), fixed(point.getLon())), -1);
+    }
+
+    @Override
+    public String toString() {
+        return "MapGraph{" +
+                "osmPath='" + osmPath + '\'' +
+                ", placesPath='" + placesPath + '\'' +
+                ", context='" + context + '\'' +
+                '}';
+    }
+
+    /**
+     * Returns the great-circle distance in degrees between two fixed-point coordinates, matching the haversine
+     * {@link SpatialContext#calcDistance(Point, Point)} of {@link SpatialContext#GEO} without creating points.
+     *
+     * @param lat1 the latitude of the first coordinate in fixed-point units.
+     * @param lon1 the longitude of the first coordinate in fixed-point units.
+     * @param lat2 the latitude of the second coordinate in fixed-point units.
+     * @param lon2 the longitude of the second coordinate in fixed-point units.
+     * @return the great-circle distance in degrees between the two coordinates.
+     */
+    private static double distance(int lat1, int lon1, int lat2, int lon2) {
+        double toRadians = Math.PI / 180 / FIXED_POINT_SCALE;
+        return DistanceUtils.toDegrees(DistanceUtils.distHaversineRAD(
+                lat1 * toRadians, lon1 * toRadians, lat2 * toRadians, lon2 * toRadians
+        ));
+    }
+
+    /**
+     * Returns a point at the given fixed-point coordinates.
+     *
+     * @param lat the latitude in fixed-point units.
+     * @param lon the longitude in fixed-point units.
+     * @return a point at the given coordinates.
+     */
+    private Point point(int lat, int lon) {
+        return context.getShapeFactory().pointLatLon(lat / FIXED_POINT_SCALE, lon / FIXED_POINT_SCALE);
+    }
+
+    /**
+     * Returns the given latitude or longitude in fixed-point units.
+     *
+     * @param degrees the latitude or longitude in degrees.
+     * @return the given latitude or longitude in fixed-point units.
+     */
+    private static int fixed(double degrees) {
+        return (int) Math.round(degrees * FIXED_POINT_SCALE);
+    }
+
+    /**
+     * Returns a single key for a fixed-point coordinate pair.
+     *
+     * @param lat the latitude in fixed-point units.
+     * @param lon the longitude in fixed-point units.
+     * @return a single key for the coordinate pair.
+     */
+    private static long pack(int lat, int lon) {
+        return ((long) lat << 32) | (lon & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the array of integers from 0 (inclusive) to size (exclusive).
+     *
+     * @param size the length of the array.
+     * @return the array of integers from 0 (inclusive) to size (exclusive).
+     */
+    private static int[] identity(int size) {
+        int[] result = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            result[i] = i;
+        }
+        return result;
+    }
+
+    /**
+     * Options for constructing a {@link MapGraph}: where to read the map data from, and which preprocessing to run
+     * for routing. The builder holds all the state that changes while a graph is configured, so the graph itself can
+     * be immutable.
+     */
+    public static class Builder {
+        private final String osmPath;
+        private final String placesPath;
+        private final SpatialContext context;
+        private String snapshotPath;
+        private String hierarchyPath;
+        private int landmarkCount;
+        private MetricRegistry metrics;
+        private Set<RoutingProfile> profiles = EnumSet.noneOf(RoutingProfile.class);
+
+        /**
+         * Constructs a builder for a map graph from the path to an OSM GZ file and a places TSV, routing with A*
+         * search and the straight-line heuristic.
+         *
+         * @param osmPath    The path to a gzipped OSM (XML) file.
+         * @param placesPath The path to a TSV file representing places and importance.
+         * @param context    the spatial context for creating points.
+         */
+        public Builder(String osmPath, String placesPath, SpatialContext context) {
+            this.osmPath = osmPath;
+            this.placesPath = placesPath;
+            this.context = context;
+        }
+
+        /**
+         * Reuses the binary snapshot at the given path if it was built from the same sources. Otherwise, the sources
+         * are parsed and a new snapshot is written there.
+         *
+         * @param snapshotPath the file path of the binary snapshot, or null to always parse the sources.
+         * @return this builder.
+         * @see MapSnapshot
+         */
+        public Builder snapshot(String snapshotPath) {
+            this.snapshotPath = snapshotPath;
+            return this;
+        }
+
+        /**
+         * Answers {@link #shortestPath(Point, Point)} with a contraction hierarchy over the graph, read from the given
+         * file if it was built from the same streets. Otherwise, a new hierarchy is preprocessed and written there.
+         *
+         * @param hierarchyPath the file path of the preprocessed contraction hierarchy, or null to use A* search.
+         * @return this builder.
+         * @see ContractionHierarchy
+         */
+        public Builder contractionHierarchy(String hierarchyPath) {
+            this.hierarchyPath = hierarchyPath;
+            return this;
+        }
+
+        /**
+         * Runs A* search in {@link #shortestPath(Point, Point)} with landmark lower bounds over the graph, using only
+         * the few landmarks that best bound each query.
+         *
+         * @param count the number of landmarks to precompute, or 0 to use only the straight-line distance.
+         * @return this builder.
+         * @throws IllegalArgumentException if the count is negative.
+         * @see LandmarkHeuristic
+         */
+        public Builder landmarks(int count) {
+            if (count < 0) {
+                throw new IllegalArgumentException("Negative landmark count " + count);
+            }
+            this.landmarkCount = count;
+            return this;
+        }
+
+        /**
+         * Records the vertices settled, edges relaxed and priority queue operations of every A* search in
+         * {@link #shortestPath(Point, Point)} as histograms in the given registry.
+         *
+         * @param metrics the registry of metrics to record into, or null to not measure searches.
+         * @return this builder.
+         */
+        public Builder metrics(MetricRegistry metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Answers {@link #shortestPath(Point, Point, RoutingProfile)} for the given profiles with a multi-level overlay
+         * of the graph, which is partitioned once and then customized for the costs of each profile. The
+         * {@link RoutingProfile#DISTANCE} profile is always enabled, and is answered as without a profile.
+         *
+         * @param profiles the routing profiles to enable.
+         * @return this builder.
+         * @see OverlayGraph
+         */
+        public Builder profiles(RoutingProfile... profiles) {
+            this.profiles = EnumSet.noneOf(RoutingProfile.class);
+            this.profiles.addAll(Arrays.asList(profiles));
+            this.profiles.remove(RoutingProfile.DISTANCE);
+            return this;
+        }
+
+        /**
+         * Loads the map data and runs the preprocessing for routing.
+         *
+         * @return the immutable map graph.
+         * @throws IOException if a file is not found, if the file is not gzipped, or if the OSM file is not
+         *                     well-formed.
+         */
+        public MapGraph build() throws IOException {
+            return new MapGraph(this);
+        }
+
+        /**
+         * Returns a copy of this builder, so that a graph keeps its options even if this builder changes later.
+         */
+        private Builder copy() {
+            Builder result = new Builder(osmPath, placesPath, context);
+            result.snapshotPath = snapshotPath;
+            result.hierarchyPath = hierarchyPath;
+            result.landmarkCount = landmarkCount;
+            result.metrics = metrics;
+            result.profiles = EnumSet.copyOf(profiles);
+            return result;
+        }
+    }
+
+    /**
+     * One end of a route: a street node that is either a vertex or in the middle of a chain, together with the
+     * vertices that a search may start or end at and their distances from the node.
+     */
+    private static class Endpoint {
+        private final int node;
+        /**
+         * The chain that the node is in the middle of, or -1 if the node is a vertex.
+         */
+        private final int chain;
+        /**
+         * The position of the node along its chain, or -1 if the node is a vertex.
+         */
+        private final int position;
+        /**
+         * The vertex numbers where a search may start or end: the node itself, or both ends of its chain.
+         */
+        private final int[] vertices;
+        /**
+         * The distance, or the cost by a routing profile, between the node and each of the vertices along the chain.
+         */
+        private final double[] distances;
+
+        Endpoint(int node, ChainGraph chains) {
+            this(node, chains, null);
+        }
+
+        /**
+         * Constructs the endpoint at the given node, measuring along its chain by the costs of a routing profile.
+         *
+         * @param node   the street node.
+         * @param chains the simplified street network.
+         * @param costs  the costs of a routing profile, or null to measure by distance.
+         */
+        Endpoint(int node, ChainGraph chains, ProfileCosts costs) {
+            this.node = node;
+            chain = chains.chainOf(node);
+            if (chain < 0) {
+                position = -1;
+                vertices = new int[]{chains.coreOf(node)};
+                distances = new double[]{0.0};
+            } else {
+                position = chains.positionOf(node);
+                double offset = costs == null ? chains.offsetOf(node) : costs.offsets[node];
+                double weight = costs == null ? chains.chainWeight(chain) : costs.chainCosts[chain];
+                vertices = new int[]{chains.chainStart(chain), chains.chainEnd(chain)};
+                distances = new double[]{offset, weight - offset};
+            }
+        }
+
+        /**
+         * Returns whether a route between the node and the given end of its chain runs toward the start of the chain.
+         * When both ends are the same vertex, the route takes the shorter way around, as the search would.
+         *
+         * @param vertex the vertex at one end of the chain.
+         * @return true if the route runs toward the start of the chain.
+         */
+        boolean isTowardStart(int vertex) {
+            return vertex == vertices[0] && (vertex != vertices[1] || distances[0] <= distances[1]);
+        }
+
+        /**
+         * Returns the distance between the node and the given vertex along the route that
+         * {@link #isTowardStart(int)} chooses.
+         *
+         * @param vertex one of the vertices of this endpoint.
+         * @return the distance, or the cost by a routing profile, between the node and the vertex.
+         */
+        double distanceTo(int vertex) {
+            return vertices.length == 1 || isTowardStart(vertex) ? distances[0] : distances[1];
+        }
+    }
+
+    /**
+     * One of the facilities nearest to a target, with its shortest path distance and route to the target.
+     *
+     * @see #closestFacilities(List, Point, int, Deadline)
+     */
+    public static final class Facility {
+        private final int index;
+        private final double distance;
+        private final List<Point> route;
+
+        private Facility(int index, double distance, List<Point> route) {
+            this.index = index;
+            this.distance = distance;
+            this.route = route;
+        }
+
+        /**
+         * Returns the position of the facility in the list of facilities searched.
+         *
+         * @return the position of the facility.
+         */
+        public int index() {
+            return index;
+        }
+
+        /**
+         * Returns the shortest path distance from the facility to the target, in the same units as
+         * {@link MapGraph#estimatedDistance(Point, Point)}.
+         *
+         * @return the distance from the facility to the target.
+         */
+        public double distance() {
+            return distance;
+        }
+
+        /**
+         * Returns the street nodes of the shortest route from the facility to the target.
+         *
+         * @return the route from the facility to the target.
+         */
+        public List<Point> route() {
+            return route;
+        }
+    }
+
+    /**
+     * Costs of one routing profile over the street network, and the overlay customized for them.
+     */
+    private static class ProfileCosts {
+        /**
+         * Cost of each edge of the simplified street network.
+         */
+        private final double[] edgeCosts;
+        /**
+         * Cost along its chain from the start of the chain to each street node in the middle of a chain.
+         */
+        private final double[] offsets;
+        /**
+         * Cost of each chain from one end to the other.
+         */
+        private final double[] chainCosts;
+        private final OverlayMetric metric;
+
+        /**
+         * Computes the costs of the given profile over the streets of the snapshot and customizes the overlay.
+         *
+         * @param profile  the routing profile.
+         * @param snapshot the map data with the street network over street nodes and the highway type of each street.
+         * @param chains   the simplified street network.
+         * @param overlay  the overlay of the simplified street network.
+         */
+        ProfileCosts(RoutingProfile profile, MapSnapshot snapshot, ChainGraph chains, OverlayGraph overlay) {
+            CSRGraph nodes = snapshot.streets;
+            double[] costs = new double[nodes.edgeCount()];
+            for (int e = 0; e < costs.length; e += 1) {
+                costs[e] = profile.cost(ALLOWED_HIGHWAY_TYPES.get(snapshot.highways[e]), nodes.weight(e));
+            }
+            offsets = new double[nodes.size()];
+            chainCosts = new double[chains.chainCount()];
+            for (int chain = 0; chain < chainCosts.length; chain += 1) {
+                int previous = chains.vertexOf(chains.chainStart(chain));
+                double cost = 0.0;
+                for (int p = 0; p < chains.chainSize(chain); p += 1) {
+                    int node = chains.chainVertex(chain, p);
+                    cost += cheapest(nodes, costs, previous, node);
+                    offsets[node] = cost;
+                    previous = node;
+                }
+                chainCosts[chain] = cost + cheapest(nodes, costs, previous, chains.vertexOf(chains.chainEnd(chain)));
+            }
+            CSRGraph streets = chains.csr();
+            edgeCosts = new double[streets.edgeCount()];
+            for (int v = 0; v < streets.size(); v += 1) {
+                for (int e = streets.edgeStart(v); e < streets.edgeEnd(v); e += 1) {
+                    int chain = chains.edgeChain(e);
+                    edgeCosts[e] = chain >= 0 ? chainCosts[chain]
+                            : cheapest(nodes, costs, chains.vertexOf(v), chains.vertexOf(streets.target(e)));
+                }
+            }
+            metric = overlay.customize(edgeCosts);
+        }
+
+        /**
+         * Returns the least cost of the street edges from one street node to another.
+         */
+        private static double cheapest(CSRGraph nodes, double[] costs, int from, int to) {
+            double result = Double.POSITIVE_INFINITY;
+            for (int e = nodes.edgeStart(from); e < nodes.edgeEnd(from); e += 1) {
+                if (nodes.target(e) == to) {
+                    result = Math.min(result, costs[e]);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Histograms of the work done by each A* search.
+     */
+    private static class SearchMetrics {
+        private final Histogram settled;
+        private final Histogram relaxed;
+        private final Histogram pqOperations;
+        private final Histogram suboptimality;
+
+        SearchMetrics(MetricRegistry registry) {
+            settled = registry.histogram("huskymaps_astar_settled_vertices",
+                    "Vertices settled by each A* search.", Histogram::counts);
+            relaxed = registry.histogram("huskymaps_astar_relaxed_edges",
+                    "Edges relaxed by each A* search.", Histogram::counts);
+            pqOperations = registry.histogram("huskymaps_astar_pq_operations",
+                    "Priority queue operations by each A* search.", Histogram::counts);
+            suboptimality = registry.histogram("huskymaps_astar_suboptimality_permille",
+                    "Proven bound on how much longer each A* route is than the shortest, in thousandths.",
+                    Histogram::counts);
+        }
+
+        void record(AStarSolver<?> solver) {
+            settled.record(solver.settledCount());
+            relaxed.record(solver.relaxedCount());
+            pqOperations.record(solver.pqOperationCount());
+            suboptimality.record(Math.round((solver.suboptimalityBound() - 1.0) * 1000));
+        }
+    }
+
+    /**
+     * Streaming reader of OSM XML files in two passes. The first pass finds the nodes referenced by allowed streets,
+     * and the second pass keeps the coordinates of only those nodes, in primitive arrays indexed through a
+     * {@link LongIntHashMap} from node id, along with the node ids of each allowed street. Named nodes are kept as
+     * places whether or not they are on a street. The reader also reads OsmChange files with the same rules.
+     */
+    private static class OsmReader {
+        private final List<String> allowedHighwayTypes;
+        /**
+         * Ids of the nodes referenced by allowed streets, found by the first pass.
+         */
+        private LongHashSet streetNodes;
+        /**
+         * Position of each street node's coordinates in {@code nodeLats} and {@code nodeLons}.
+         */
+        private LongIntHashMap nodes;
+        private long[] nodeIds;
+        private int[] nodeLats;
+        private int[] nodeLons;
+        private long[] placeIds = new long[1 << 8];
+        private String[] placeNames = new String[1 << 8];
+        private int[] placeLats = new int[1 << 8];
+        private int[] placeLons = new int[1 << 8];
+        private int placeCount;
+        private long[] wayIds = new long[1 << 12];
+        private int[] wayOffsets = new int[(1 << 12) + 1];
+        private long[] wayRefs = new long[1 << 16];
+        private byte[] wayHighways = new byte[1 << 12];
+        private int wayCount;
+        /**
+         * Node ids referenced by the current way, in order.
+         */
+        private long[] refs;
+        private int refCount;
+
+        OsmReader(List<String> allowedHighwayTypes) {
+            this.allowedHighwayTypes = allowedHighwayTypes;
+            this.refs = new long[1 << 8];
+        }
+
+        /**
+         * Reads the ids of the nodes referenced by ways with an allowed {@code highway} tag.
+         *
+         * @param input the OSM XML.
+         * @throws IOException if the input cannot be read or is not well-formed.
+         */
+        void findStreetNodes(InputStream input) throws IOException {
+            streetNodes = new LongHashSet(1 << 16);
+            OsmTokenizer xml = new OsmTokenizer(input);
+            boolean inWay = false;
+            boolean validWay = false;
+            for (int token = xml.next(); token != OsmTokenizer.EOF; token = xml.next()) {
+                if (token == OsmTokenizer.START) {
+                    if (xml.isElement("way")) {
+                        inWay = true;
+                        validWay = false;
+                        refCount = 0;
+                    } else if (inWay && xml.isElement("nd")) {
+                        addRef(xml.longAttribute("ref"));
+                    } else if (inWay && xml.isElement("tag") && xml.attributeEquals("k", "highway")) {
+                        validWay = allowedHighwayTypes.contains(xml.attribute("v"));
+                    }
+                } else if (xml.isElement("way")) {
+                    if (validWay) {
+                        for (int i = 0; i < refCount; i += 1) {
+                            streetNodes.add(refs[i]);
+                        }
+                    }
+                    inWay = false;
+                }
+            }
+        }
+
+        /**
+         * Reads the coordinates of the street nodes found by {@link #findStreetNodes(InputStream)} and every named
+         * node, and the node ids of the allowed streets.
+         *
+         * @param input the OSM XML.
+         * @throws IOException if the input cannot be read or is not well-formed.
+         */
+        void readStreets(InputStream input) throws IOException {
+            nodes = new LongIntHashMap(streetNodes.size());
+            nodeIds = new long[streetNodes.size()];
+            nodeLats = new int[streetNodes.size()];
+            nodeLons = new int[streetNodes.size()];
+            OsmTokenizer xml = new OsmTokenizer(input);
+            boolean inNode = false;
+            boolean inWay = false;
+            int highway = -1;
+            long id = 0;
+            String lat = null;
+            String lon = null;
+            String name = "";
+            for (int token = xml.next(); token != OsmTokenizer.EOF; token = xml.next()) {
+                if (token == OsmTokenizer.START) {
+                    if (xml.isElement("node")) {
+                        inNode = true;
+                        id = xml.longAttribute("id");
+                        lat = xml.attribute("lat");
+                        lon = xml.attribute("lon");
+                        name = "";
+                    } else if (xml.isElement("way")) {
+                        inWay = true;
+                        id = xml.longAttribute("id");
+                        highway = -1;
+                        refCount = 0;
+                    } else if (inWay && xml.isElement("nd")) {
+                        addRef(xml.longAttribute("ref"));
+                    } else if (xml.isElement("tag")) {
+                        if (inNode && xml.attributeEquals("k", "name")) {
+                            name = clean(xml.attribute("v"));
+                        } else if (inWay && xml.attributeEquals("k", "highway")) {
+                            highway = allowedHighwayTypes.indexOf(xml.attribute("v"));
+                        }
+                    }
+                } else if (xml.isElement("node")) {
+                    // Only street nodes and places need their coordinates converted.
+                    boolean street = streetNodes.contains(id) && !nodes.containsKey(id);
+                    if (street || !name.isBlank()) {
+                        int fixedLat = fixed(Double.parseDouble(lat));
+                        int fixedLon = fixed(Double.parseDouble(lon));
+                        if (street) {
+                            int node = nodes.size();
+                            nodes.put(id, node);
+                            nodeIds[node] = id;
+                            nodeLats[node] = fixedLat;
+                            nodeLons[node] = fixedLon;
+                        }
+                        if (!name.isBlank()) {
+                            addPlace(id, name, fixedLat, fixedLon);
+                        }
+                    }
+                    inNode = false;
+                } else if (xml.isElement("way")) {
+                    if (highway >= 0) {
+                        addWay(id, highway);
+                    }
+                    inWay = false;
+                }
+            }
+        }
+
+        /**
+         * Returns the street nodes, streets and named places read by {@link #readStreets(InputStream)}.
+         *
+         * @return the street nodes, streets and named places by OSM id.
+         */
+        OsmExtract extract() {
+            int nodeCount = nodes.size();
+            return new OsmExtract(
+                    Arrays.copyOf(nodeIds, nodeCount),
+                    Arrays.copyOf(nodeLats, nodeCount),
+                    Arrays.copyOf(nodeLons, nodeCount),
+                    Arrays.copyOf(wayIds, wayCount),
+                    Arrays.copyOf(wayOffsets, wayCount + 1),
+                    Arrays.copyOf(wayRefs, wayOffsets[wayCount]),
+                    Arrays.copyOf(wayHighways, wayCount),
+                    Arrays.copyOf(placeIds, placeCount),
+                    Arrays.copyOf(placeNames, placeCount),
+                    Arrays.copyOf(placeLats, placeCount),
+                    Arrays.copyOf(placeLons, placeCount)
+            );
+        }
+
+        /**
+         * Reads the nodes and ways created, modified or deleted by an OsmChange file in one pass, keeping the
+         * coordinates and name of every changed node and the node ids of every changed way that is an allowed street.
+         *
+         * @param input the OsmChange XML.
+         * @return the changed nodes and ways.
+         * @throws IOException if the input cannot be read or is not well-formed.
+         */
+        OsmChange readChange(InputStream input) throws IOException {
+            OsmChange change = new OsmChange();
+            OsmTokenizer xml = new OsmTokenizer(input);
+            boolean deleting = false;
+            boolean inNode = false;
+            boolean inWay = false;
+            int highway = -1;
+            long id = 0;
+            String lat = null;
+            String lon = null;
+            String name = "";
+            for (int token = xml.next(); token != OsmTokenizer.EOF; token = xml.next()) {
+                if (token == OsmTokenizer.START) {
+                    if (xml.isElement("delete")) {
+                        deleting = true;
+                    } else if (xml.isElement("node")) {
+                        inNode = true;
+                        id = xml.longAttribute("id");
+                        lat = xml.attribute("lat");
+                        lon = xml.attribute("lon");
+                        name = "";
+                    } else if (xml.isElement("way")) {
+                        inWay = true;
+                        id = xml.longAttribute("id");
+                        highway = -1;
+                        refCount = 0;
+                    } else if (inWay && xml.isElement("nd")) {
+                        addRef(xml.longAttribute("ref"));
+                    } else if (xml.isElement("tag")) {
+                        if (inNode && xml.attributeEquals("k", "name")) {
+                            name = clean(xml.attribute("v"));
+                        } else if (inWay && xml.attributeEquals("k", "highway")) {
+                            highway = allowedHighwayTypes.indexOf(xml.attribute("v"));
+                        }
+                    }
+                } else if (xml.isElement("delete")) {
+                    deleting = false;
+                } else if (xml.isElement("node")) {
+                    if (deleting) {
+                        change.deleteNode(id);
+                    } else if (lat == null || lon == null) {
+                        throw new IOException("Missing coordinates of node " + id);
+                    } else {
+                        change.putNode(id, fixed(Double.parseDouble(lat)), fixed(Double.parseDouble(lon)),
+                                name.isBlank() ? "" : name);
+                    }
+                    inNode = false;
+                } else if (xml.isElement("way")) {
+                    if (deleting) {
+                        change.deleteWay(id);
+                    } else {
+                        change.putWay(id, highway >= 0 ? Arrays.copyOf(refs, refCount) : null, highway);
+                    }
+                    inWay = false;
+                }
+            }
+            return change;
+        }
+
+        /**
+         * Appends a node id to the current way.
+         */
+        private void addRef(long ref) {
+            if (refCount == refs.length) {
+                refs = Arrays.copyOf(refs, refCount * 2);
+            }
+            refs[refCount] = ref;
+            refCount += 1;
+        }
+
+        /**
+         * Adds a named place at the given fixed-point coordinates.
+         */
+        private void addPlace(long id, String name, int lat, int lon) {
+            if (placeCount == placeIds.length) {
+                placeIds = Arrays.copyOf(placeIds, 2 * placeCount);
+                placeNames = Arrays.copyOf(placeNames, 2 * placeCount);
+                placeLats = Arrays.copyOf(placeLats, 2 * placeCount);
+                placeLons = Arrays.copyOf(placeLons, 2 * placeCount);
+            }
+            placeIds[placeCount] = id;
+            placeNames[placeCount] = name;
+            placeLats[placeCount] = lat;
+            placeLons[placeCount] = lon;
+            placeCount += 1;
+        }
+
+        /**
+         * Adds the current way as a street with the given id and index of its highway type.
+         */
+        private void addWay(long id, int highway) {
+            if (wayCount == wayIds.length) {
+                wayIds = Arrays.copyOf(wayIds, 2 * wayCount);
+                wayOffsets = Arrays.copyOf(wayOffsets, 2 * wayCount + 1);
+                wayHighways = Arrays.copyOf(wayHighways, 2 * wayCount);
+            }
+            int start = wayOffsets[wayCount];
+            if (start + refCount > wayRefs.length) {
+                wayRefs = Arrays.copyOf(wayRefs, Math.max(2 * wayRefs.length, start + refCount));
+            }
+            System.arraycopy(refs, 0, wayRefs, start, refCount);
+            wayIds[wayCount] = id;
+            wayHighways[wayCount] = (byte) highway;
+            wayCount += 1;
+            wayOffsets[wayCount] = start + refCount;
+        }
+
+        /**
+         * Returns the place name without surrounding whitespace and with curly quotes replaced by straight quotes.
+         */
+        private static String clean(String name) {
+            return name.strip()
+                    .replace('“', '"')
+                    .replace('”', '"')
+                    .replace('‘', '\'')
+                    .replace('’', '\'');
+        }
+    }
+
+    /**
+     * Street network of an {@link OsmExtract} with its vertices numbered by coordinate, so that street nodes at the
+     * same coordinates share a vertex.
+     */
+    private static class Streets {
+        private final LongIntHashMap indices;
+        private final CSRGraph.Builder edges;
+        /**
+         * Source vertex and highway type index of each edge in the order the edges were added.
+         */
+        private int[] sources;
+        private byte[] highways;
+        private int[] lats;
+        private int[] lons;
+        private int size;
+
+        /**
+         * Adds a street in both directions between each pair of consecutive nodes of each way of the extract. A node
+         * missing from the extract (as at the edge of a clipped extract) splits the way rather than joining its
+         * neighbors.
+         *
+         * @param osm the street nodes and streets by OSM id.
+         */
+        Streets(OsmExtract osm) {
+            indices = new LongIntHashMap(1 << 16);
+            edges = new CSRGraph.Builder();
+            sources = new int[1 << 16];
+            highways = new byte[1 << 16];
+            lats = new int[1 << 16];
+            lons = new int[1 << 16];
+            LongIntHashMap nodes = new LongIntHashMap(osm.nodeIds.length);
+            for (int i = 0; i < osm.nodeIds.length; i += 1) {
+                nodes.put(osm.nodeIds[i], i);
+            }
+            for (int w = 0; w < osm.wayIds.length; w += 1) {
+                int from = -1;
+                for (int i = osm.wayOffsets[w]; i < osm.wayOffsets[w + 1]; i += 1) {
+                    int node = nodes.getOrDefault(osm.wayRefs[i], -1);
+                    if (node < 0) {
+                        from = -1;
+                        continue;
+                    }
+                    int to = vertexOf(osm.nodeLats[node], osm.nodeLons[node]);
+                    if (from >= 0) {
+                        addStreet(from, to, osm.wayHighways[w]);
+                    }
+                    from = to;
+                }
+            }
+        }
+
+        /**
+         * Returns the vertex number of the given street coordinates, numbering them if they have not been seen before.
+         *
+         * @param lat the latitude in fixed-point units.
+         * @param lon the longitude in fixed-point units.
+         * @return the vertex number of the coordinates.
+         */
+        private int vertexOf(int lat, int lon) {
+            long key = pack(lat, lon);
+            int index = indices.getOrDefault(key, -1);
+            if (index < 0) {
+                if (size == lats.length) {
+                    lats = Arrays.copyOf(lats, size * 2);
+                    lons = Arrays.copyOf(lons, size * 2);
+                }
+                index = size;
+                lats[index] = lat;
+                lons[index] = lon;
+                indices.put(key, index);
+                size += 1;
+            }
+            return index;
+        }
+
+        /**
+         * Adds edges in both directions using distance as the weight.
+         *
+         * @param from    the originating vertex number.
+         * @param to      the terminating vertex number.
+         * @param highway the index of the highway type of the street.
+         */
+        private void addStreet(int from, int to, byte highway) {
+            double weight = distance(lats[from], lons[from], lats[to], lons[to]);
+            int count = edges.edgeCount();
+            if (count + 2 > sources.length) {
+                sources = Arrays.copyOf(sources, 2 * sources.length);
+                highways = Arrays.copyOf(highways, 2 * highways.length);
+            }
+            sources[count] = from;
+            sources[count + 1] = to;
+            highways[count] = highway;
+            highways[count + 1] = highway;
+            edges.addEdge(from, to, weight);
+            edges.addEdge(to, from, weight);
+        }
+
+        /**
+         * Returns the index of the highway type of each edge in the order of the edges of the built graph, which
+         * sorts the edges by source vertex and otherwise keeps the order they were added in.
+         *
+         * @return the index of the highway type of each edge of the built graph.
+         */
+        byte[] highways() {
+            int count = edges.edgeCount();
+            int[] offsets = new int[size + 1];
+            for (int e = 0; e < count; e += 1) {
+                offsets[sources[e] + 1] += 1;
+            }
+            for (int v = 0; v < size; v += 1) {
+                offsets[v + 1] += offsets[v];
+            }
+            byte[] result = new byte[count];
+            for (int e = 0; e < count; e += 1) {
+                result[offsets[sources[e]]++] = highways[e];
+            }
+            return result;
         }
     }
 }
@@ -1,16 +1,44 @@
+import cache.LruCache;
+import graphs.shortestpaths.SearchCancelledException;
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ForbiddenResponse;
+import io.javalin.http.ServiceUnavailableResponse;
+import io.javalin.http.UnauthorizedResponse;
 import io.javalin.validation.JavalinValidation;
 import io.javalin.validation.Validator;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricRegistry;
 import org.apache.commons.codec.binary.Base64InputStream;
 import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.distance.DistanceUtils;
 import org.locationtech.spatial4j.shape.Point;
 import org.locationtech.spatial4j.shape.ShapeFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.net.http.HttpClient;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 /**
  * Run the {@code huskymaps} server.
@@ -31,19 +59,176 @@ public class MapServer {
      * The place-importance TSV data file path from OpenStreetMap.
      */
     private static final String PLACES_PATH = "places.tsv";
+    /**
+     * The binary snapshot file path for the parsed OSM and places data, written on the first boot.
+     */
+    private static final String SNAPSHOT_PATH = "seattle.snapshot";
+    /**
+     * The preprocessed contraction hierarchy file path, used for routing when the {@code CONTRACTION_HIERARCHY}
+     * environment variable is {@code true}.
+     */
+    private static final String HIERARCHY_PATH = "seattle.ch";
+    /**
+     * Maximum total number of points across all cached routes.
+     */
+    private static final int ROUTE_CACHE_POINTS = 1_000_000;
+    /**
+     * Maximum total size in bytes of the map images kept in memory.
+     */
+    private static final long IMAGE_CACHE_BYTES = 64L << 20;
+    /**
+     * Base URL of the static image API, which the {@code MAP_API_URL} environment variable overrides (for example,
+     * with a local stub server).
+     */
+    private static final String MAP_API_URL = "https://api.mapbox.com/";
     /**
      * Maximum number of autocomplete search results.
      */
     private static final int MAX_MATCHES = 10;
+    /**
+     * Maximum number of sources and of targets in one distance matrix request.
+     */
+    private static final int MAX_MATRIX_POINTS = 500;
+    /**
+     * Maximum distance in meters of an isochrone request, which bounds the number of nodes in the response.
+     */
+    private static final double MAX_ISOCHRONE_METERS = 10_000;
+    /**
+     * Time between checks of the file named by the {@code RELOAD_WATCH} environment variable.
+     */
+    private static final Duration RELOAD_WATCH_INTERVAL = Duration.ofSeconds(10);
+    /**
+     * Greatest time from the arrival of a map request until its route search starts, unless the
+     * {@code ROUTE_QUEUE_MS} environment variable overrides it.
+     */
+    private static final Duration ROUTE_QUEUE_BUDGET = Duration.ofMillis(500);
+    /**
+     * Greatest time from the arrival of a map request until its route search finishes, unless the
+     * {@code ROUTE_TIMEOUT_MS} environment variable overrides it.
+     */
+    private static final Duration ROUTE_TIMEOUT = Duration.ofSeconds(2);
 
     public static void main(String[] args) throws Exception {
-        SpatialContext context = SpatialContext.GEO;
-        ShapeFactory factory = context.getShapeFactory();
-        MapGraph map = new MapGraph(OSM_DB_PATH, PLACES_PATH, context);
+        MetricRegistry metrics = new MetricRegistry();
+        MapGraph.Builder builder = new MapGraph.Builder(OSM_DB_PATH, PLACES_PATH, SpatialContext.GEO)
+                .snapshot(SNAPSHOT_PATH)
+                .profiles(profiles())
+                .metrics(metrics);
+        if (Boolean.parseBoolean(System.getenv("CONTRACTION_HIERARCHY"))) {
+            builder.contractionHierarchy(HIERARCHY_PATH);
+        }
+        String landmarks = System.getenv("LANDMARKS");
+        if (landmarks != null) {
+            builder.landmarks(Integer.parseInt(landmarks));
+        }
+        String imageCacheDir = System.getenv("IMAGE_CACHE_DIR");
+        start(
+                builder.build(),
+                builder::build,
+                metrics,
+                port(),
+                System.getenv().getOrDefault("MAP_API_URL", MAP_API_URL),
+                imageCacheDir == null ? null : Path.of(imageCacheDir),
+                Boolean.parseBoolean(System.getenv("ASYNC")),
+                admission()
+        );
+    }
+
+    /**
+     * Starts serving the map on the given port.
+     * <p>
+     * By default, each request is handled entirely on a server request thread, which blocks while routing and while
+     * waiting for the image API. In async mode, request threads only parse parameters: routing and place search run on
+     * a fixed pool with one thread per core, which requests wait for in the queue of the admission controller, and
+     * images are fetched with a non-blocking {@link HttpClient}, so slow upstream responses do not hold on to request
+     * threads.
+     * <p>
+     * Routes on {@code /map} minimize distance unless the {@code profile} query parameter names another
+     * {@link RoutingProfile} that the map graph supports, such as {@code time} or {@code avoid-motorway}. When run from
+     * {@link #main(String[])}, the map graph supports the profiles named in the {@code ROUTING_PROFILES} environment
+     * variable.
+     * <p>
+     * {@code POST /closest} finds which of the facilities in the request body are nearest by road to its target, with
+     * one search instead of one per facility, and returns the route from each of the nearest {@code k}.
+     * <p>
+     * Route searches that miss the route cache, and closest-facility, isochrone and distance matrix searches, run only
+     * once the admission controller lets them start. A request that waits past the queue budget, whether for a search
+     * permit or for a routing thread in async mode, or whose search runs past its deadline, or that arrives while too
+     * many others are waiting, is answered with 503 Service Unavailable so that the client can retry later, which
+     * keeps latency bounded under overload. If the {@code ROUTE_MAX_WEIGHT} environment variable is above 1, A*
+     * searches also inflate their heuristic by a weight that grows with the number of waiting requests up to that
+     * value, trading a longer route for a faster search. Such routes are not cached.
+     * <p>
+     * Request latencies, the time spent in each stage of rendering a map, upstream fetch times, autocomplete result
+     * counts, cache counters and the work done by each A* search are served at {@code /metrics} in Prometheus text
+     * format.
+     * <p>
+     * The map graph is immutable, so every request thread and routing thread shares it without locking. If a loader
+     * is given, {@code POST /admin/reload} builds a new graph from the current map data in the background and swaps it
+     * in without interrupting requests, as does any change to the file named by the {@code RELOAD_WATCH} environment
+     * variable. {@code POST /admin/changes} applies the OsmChange file in the request body to the graph being served
+     * and swaps in the result the same way. Both endpoints require the bearer token given by the {@code ADMIN_TOKEN}
+     * environment variable, and are disabled if that is unset.
+     *
+     * @param map           the map graph.
+     * @param loader        the loader of a new map graph from the current map data, or null to disable reloading.
+     * @param metrics       the registry of metrics to record into and serve, which should also be the one the map
+     *                      graph records its searches into.
+     * @param port          the port to listen on, or 0 for any free port.
+     * @param mapApiUrl     the base URL of the static image API, ending with a forward slash.
+     * @param imageCacheDir the directory of cached map images, or null to cache images only in memory.
+     * @param async         whether to handle requests asynchronously.
+     * @param admission     the limit on concurrent route searches and their deadlines.
+     * @return the started server.
+     * @throws IOException if the image cache directory cannot be created.
+     */
+    static Javalin start(MapGraph map, Callable<MapGraph> loader, MetricRegistry metrics, int port, String mapApiUrl,
+                         Path imageCacheDir, boolean async, AdmissionController admission) throws IOException {
+        ShapeFactory factory = SpatialContext.GEO.getShapeFactory();
+        Duration routeCacheTtl = routeCacheTtl();
+        double maxRouteWeight = maxRouteWeight();
+        // Routes are only valid for the graph that found them, so each generation of the map has its own cache.
+        LiveMap live = new LiveMap(map, loader, () -> new LruCache<>(
+                ROUTE_CACHE_POINTS, (key, route) -> route.size(), routeCacheTtl
+        ));
+        StaticImageCache images = new StaticImageCache(IMAGE_CACHE_BYTES, imageCacheDir, metrics.histogram(
+                "huskymaps_upstream_fetch_seconds", "Time to fetch a map image from the image API.",
+                Histogram::nanoseconds));
+        register(metrics, "route", () -> live.current().routes());
+        register(metrics, "image", images::memory);
+        Histogram snapTimes = stage(metrics, "snap");
+        Histogram routeTimes = stage(metrics, "route");
+        Histogram encodeTimes = stage(metrics, "encode");
+        Histogram resultCounts = metrics.histogram("huskymaps_search_results",
+                "Place names matching each autocomplete prefix, before truncation.", Histogram::counts);
+        metrics.counter("huskymaps_routes_shed_total", "Route searches refused with 503, by reason.",
+                admission::rejectionCount, "reason", "queue");
+        Counter timeouts = metrics.counter("huskymaps_routes_shed_total", "Route searches refused with 503, by reason.",
+                "reason", "deadline");
+        ExecutorService routing = null;
+        HttpClient client = null;
+        if (async) {
+            routing = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "routing");
+                thread.setDaemon(true);
+                return thread;
+            });
+            client = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NORMAL).build();
+        }
+        Executor routingExecutor = routing;
+        HttpClient upstream = client;
+        String adminToken = System.getenv("ADMIN_TOKEN");
+        String reloadWatch = System.getenv("RELOAD_WATCH");
+        if (loader != null && reloadWatch != null) {
+            live.watch(Path.of(reloadWatch), RELOAD_WATCH_INTERVAL);
+        }
+
         Javalin app = Javalin.create(config -> {
             config.spaRoot.addFile("/", "index.html");
-        }).start(port());
+        }).start(port);
         app.get("/map/{lon},{lat},{zoom}/{width}x{height}", ctx -> {
+            long requestStart = System.nanoTime();
+            Histogram latency = latency(metrics, "/map");
             double lon = ctx.pathParamAsClass("lon", Double.class).get();
             double lat = ctx.pathParamAsClass("lat", Double.class).get();
             int zoom = ctx.pathParamAsClass("zoom", Integer.class).get();
@@ -54,25 +239,617 @@ public class MapServer {
             Validator<Double> startLat = ctx.queryParamAsClass("startLat", Double.class);
             Validator<Double> goalLon = ctx.queryParamAsClass("goalLon", Double.class);
             Validator<Double> goalLat = ctx.queryParamAsClass("goalLat", Double.class);
+            boolean hasRoute = JavalinValidation.collectErrors(startLon, startLat, goalLon, goalLat).isEmpty();
 
-            Point center = factory.pointLatLon(lat, lon);
-            List<Point> route = List.of();
-            if (JavalinValidation.collectErrors(startLon, startLat, goalLon, goalLat).isEmpty()) {
-                Point start = factory.pointLatLon(startLat.get(), startLon.get());
-                Point goal = factory.pointLatLon(goalLat.get(), goalLon.get());
-                route = map.shortestPath(start, goal);
-            }
-            List<Point> locations = map.getLocations(term, center);
-            URL staticImageURL = url(center, zoom, width, height, route, locations);
-            ctx.result(new Base64InputStream(staticImageURL.openStream(), true));
+            LiveMap.Generation generation = live.acquire();
+            // Check the profile against the generation that will route, which a reload may have replaced since.
+            RoutingProfile profile;
+            try {
+                profile = profile(generation.map(), ctx.queryParam("profile"));
+            } catch (BadRequestResponse e) {
+                generation.release();
+                throw e;
+            }
+            Supplier<URL> render = () -> {
+                MapGraph graph = generation.map();
+                Point center = factory.pointLatLon(lat, lon);
+                List<Point> route = List.of();
+                if (hasRoute) {
+                    long snapStart = System.nanoTime();
+                    Point start = graph.closest(factory.pointLatLon(startLat.get(), startLon.get()));
+                    Point goal = graph.closest(factory.pointLatLon(goalLat.get(), goalLon.get()));
+                    snapTimes.recordSince(snapStart);
+                    long routeStart = System.nanoTime();
+                    route = route(generation, start, goal, profile, admission, maxRouteWeight, requestStart,
+                            timeouts);
+                    routeTimes.recordSince(routeStart);
+                }
+                List<Point> locations = graph.getLocations(term, center);
+                try {
+                    return url(mapApiUrl, center, zoom, width, height, route, locations);
+                } catch (MalformedURLException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            if (async) {
+                ctx.future(() -> finish(submit(admission, requestStart, render, routingExecutor)
+                        .thenCompose(staticImageURL -> images.getAsync(staticImageURL, upstream))
+                        .thenAccept(image -> ctx.result(base64(image, encodeTimes))),
+                        generation, latency, requestStart));
+            } else {
+                try {
+                    ctx.result(base64(images.get(render.get()), encodeTimes));
+                } finally {
+                    finish(generation, latency, requestStart);
+                }
+            }
         });
         app.get("/search", ctx -> {
-            List<CharSequence> result = map.getLocationsByPrefix(ctx.queryParam("term"));
-            if (result.size() > MAX_MATCHES) {
-                result = result.subList(0, MAX_MATCHES);
+            long requestStart = System.nanoTime();
+            Histogram latency = latency(metrics, "/search");
+            String term = ctx.queryParam("term");
+            LiveMap.Generation generation = live.acquire();
+            if (async) {
+                ctx.future(() -> finish(submit(admission, requestStart,
+                        () -> search(generation.map(), term, resultCounts), routingExecutor)
+                        .thenAccept(ctx::json), generation, latency, requestStart));
+            } else {
+                try {
+                    ctx.json(search(generation.map(), term, resultCounts));
+                } finally {
+                    finish(generation, latency, requestStart);
+                }
+            }
+        });
+        app.get("/isochrone", ctx -> {
+            long requestStart = System.nanoTime();
+            Histogram latency = latency(metrics, "/isochrone");
+            double lat = ctx.queryParamAsClass("lat", Double.class).get();
+            double lon = ctx.queryParamAsClass("lon", Double.class).get();
+            double meters = ctx.queryParamAsClass("distance", Double.class)
+                    .check(d -> d >= 0 && d <= MAX_ISOCHRONE_METERS, "Expected at most " + MAX_ISOCHRONE_METERS)
+                    .get();
+            Point center = factory.pointLatLon(lat, lon);
+            LiveMap.Generation generation = live.acquire();
+            Supplier<List<double[]>> isochrone = () -> isochrone(generation.map(), center, meters, admission,
+                    requestStart, timeouts);
+            if (async) {
+                ctx.future(() -> finish(submit(admission, requestStart, isochrone, routingExecutor)
+                        .thenAccept(ctx::json), generation, latency, requestStart));
+            } else {
+                try {
+                    ctx.json(isochrone.get());
+                } finally {
+                    finish(generation, latency, requestStart);
+                }
+            }
+        });
+        app.post("/matrix", ctx -> {
+            long requestStart = System.nanoTime();
+            Histogram latency = latency(metrics, "/matrix");
+            MatrixRequest request = ctx.bodyAsClass(MatrixRequest.class);
+            List<Point> sources = points(factory, request.sources, "sources");
+            List<Point> targets = points(factory, request.targets, "targets");
+            LiveMap.Generation generation = live.acquire();
+            Supplier<List<List<Double>>> matrix = () -> matrix(generation.map(), sources, targets, admission,
+                    requestStart, timeouts);
+            if (async) {
+                ctx.future(() -> finish(submit(admission, requestStart, matrix, routingExecutor)
+                        .thenAccept(ctx::json), generation, latency, requestStart));
+            } else {
+                try {
+                    ctx.json(matrix.get());
+                } finally {
+                    finish(generation, latency, requestStart);
+                }
+            }
+        });
+        app.post("/closest", ctx -> {
+            long requestStart = System.nanoTime();
+            Histogram latency = latency(metrics, "/closest");
+            ClosestRequest request = ctx.bodyAsClass(ClosestRequest.class);
+            List<Point> facilities = points(factory, request.facilities, "facilities");
+            List<Point> target = points(factory, new double[][]{request.target}, "target");
+            if (request.k <= 0) {
+                throw new BadRequestResponse("Expected a positive number of facilities");
+            }
+            LiveMap.Generation generation = live.acquire();
+            Supplier<List<FacilityRoute>> closest = () -> closest(generation.map(), facilities, target.get(0),
+                    request.k, admission, requestStart, timeouts);
+            if (async) {
+                ctx.future(() -> finish(submit(admission, requestStart, closest, routingExecutor)
+                        .thenAccept(ctx::json), generation, latency, requestStart));
+            } else {
+                try {
+                    ctx.json(closest.get());
+                } finally {
+                    finish(generation, latency, requestStart);
+                }
             }
-            ctx.json(result);
         });
+        app.post("/admin/reload", ctx -> {
+            authorize(ctx.header("Authorization"), adminToken);
+            if (loader == null) {
+                throw new ForbiddenResponse("Reloading is not supported");
+            }
+            ctx.future(() -> counted(live.reload(), metrics, "files").thenAccept(ctx::json));
+        });
+        app.post("/admin/changes", ctx -> {
+            authorize(ctx.header("Authorization"), adminToken);
+            byte[] osc = ctx.bodyAsBytes();
+            ctx.future(() -> counted(live.applyChanges(osc), metrics, "changes").thenAccept(ctx::json));
+        });
+        app.get("/metrics", ctx -> {
+            ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+            ctx.result(metrics.scrape());
+        });
+        return app;
+    }
+
+    /**
+     * Returns the histogram of handler latencies for the given endpoint, which for asynchronous requests lasts until
+     * the response is ready to be written.
+     *
+     * @param metrics  the registry of metrics.
+     * @param endpoint the endpoint path.
+     * @return the histogram of latencies in nanoseconds.
+     */
+    private static Histogram latency(MetricRegistry metrics, String endpoint) {
+        return metrics.histogram("huskymaps_request_seconds", "Time to handle a request, by endpoint.",
+                Histogram::nanoseconds, "endpoint", endpoint);
+    }
+
+    /**
+     * Returns the histogram of time spent in the given stage of rendering a map.
+     *
+     * @param metrics the registry of metrics.
+     * @param stage   the name of the stage.
+     * @return the histogram of stage times in nanoseconds.
+     */
+    private static Histogram stage(MetricRegistry metrics, String stage) {
+        return metrics.histogram("huskymaps_stage_seconds", "Time spent in each stage of rendering a map.",
+                Histogram::nanoseconds, "stage", stage);
+    }
+
+    /**
+     * Exports the hit, miss and eviction counts of the given cache. The counts are read from the cache returned by
+     * the supplier at each scrape, so they restart from zero when a reload replaces the route cache.
+     *
+     * @param metrics the registry of metrics.
+     * @param name    the name of the cache.
+     * @param cache   the supplier of the current cache.
+     */
+    private static void register(MetricRegistry metrics, String name, Supplier<LruCache<?, ?>> cache) {
+        metrics.counter("huskymaps_cache_hits_total", "Cache lookups that found an entry.",
+                () -> cache.get().hitCount(), "cache", name);
+        metrics.counter("huskymaps_cache_misses_total", "Cache lookups that found no entry.",
+                () -> cache.get().missCount(), "cache", name);
+        metrics.counter("huskymaps_cache_evictions_total", "Cache entries removed to stay within the maximum.",
+                () -> cache.get().evictionCount(), "cache", name);
+    }
+
+    /**
+     * Returns a future that releases the generation of the map and records the time since the given start once the
+     * given future completes.
+     *
+     * @param future     the future to time.
+     * @param generation the generation of the map used by the request.
+     * @param latency    the histogram of latencies in nanoseconds.
+     * @param startNanos the start time from {@link System#nanoTime()}.
+     * @return a future that completes as the given one does, after releasing the generation and recording its latency.
+     */
+    private static <T> CompletableFuture<T> finish(CompletableFuture<T> future, LiveMap.Generation generation,
+                                                   Histogram latency, long startNanos) {
+        return future.whenComplete((result, error) -> finish(generation, latency, startNanos));
+    }
+
+    /**
+     * Runs the work of a request on the routing threads once the admission controller lets it, answering a request
+     * that it rejects, because too many are waiting or this one waited past the queue budget, with 503 Service
+     * Unavailable.
+     *
+     * @param admission    the limit on waiting requests and concurrent route searches.
+     * @param requestStart the time from {@link System#nanoTime()} at which the request arrived.
+     * @param work         the work of the request.
+     * @param executor     the routing threads.
+     * @param <T>          the type of the result.
+     * @return a future of the result of the work.
+     */
+    private static <T> CompletableFuture<T> submit(AdmissionController admission, long requestStart, Supplier<T> work,
+                                                   Executor executor) {
+        return admission.submit(requestStart, work, executor).exceptionally(error -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof RejectedExecutionException) {
+                throw new ServiceUnavailableResponse("Too many requests in progress");
+            }
+            throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+        });
+    }
+
+    /**
+     * Releases the generation of the map used by a request and records the time since the given start.
+     *
+     * @param generation the generation of the map used by the request.
+     * @param latency    the histogram of latencies in nanoseconds.
+     * @param startNanos the start time from {@link System#nanoTime()}.
+     */
+    private static void finish(LiveMap.Generation generation, Histogram latency, long startNanos) {
+        generation.release();
+        latency.recordSince(startNanos);
+    }
+
+    /**
+     * Returns a future that counts whether the given swap of the map graph succeeded once it completes.
+     *
+     * @param future  the future of the swap.
+     * @param metrics the registry of metrics.
+     * @param source  what the new graph was built from, either {@code files} or {@code changes}.
+     * @return a future that completes as the given one does, after counting its result.
+     */
+    private static <T> CompletableFuture<T> counted(CompletableFuture<T> future, MetricRegistry metrics,
+                                                    String source) {
+        return future.whenComplete((result, error) -> metrics.counter("huskymaps_map_reloads_total",
+                "Swaps of the map graph, by source and result.",
+                "source", source, "result", error == null ? "success" : "failure").increment());
+    }
+
+    /**
+     * Checks that the given {@code Authorization} header carries the admin bearer token, comparing in constant time.
+     *
+     * @param header the {@code Authorization} header, or null if the request has none.
+     * @param token  the admin token, or null if admin endpoints are disabled.
+     * @throws ForbiddenResponse    if admin endpoints are disabled.
+     * @throws UnauthorizedResponse if the header does not carry the admin token.
+     */
+    private static void authorize(String header, String token) {
+        if (token == null || token.isEmpty()) {
+            throw new ForbiddenResponse("Admin endpoints are disabled");
+        }
+        byte[] expected = ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+        byte[] actual = header == null ? new byte[0] : header.getBytes(StandardCharsets.UTF_8);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            throw new UnauthorizedResponse();
+        }
+    }
+
+    /**
+     * Returns the {@code [lat, lon]} coordinates of the street nodes within the given distance along the streets from
+     * the street node closest to the center, searching once the admission controller lets the search start and giving
+     * up at the deadline of the request.
+     *
+     * @param map          the map graph.
+     * @param center       the point to measure distances from.
+     * @param meters       the greatest distance in meters to include.
+     * @param admission    the limit on concurrent route searches and their deadlines.
+     * @param requestStart the time from {@link System#nanoTime()} at which the request arrived.
+     * @param timeouts     the counter of searches stopped at their deadline.
+     * @return the {@code [lat, lon]} coordinates of the street nodes within the distance.
+     * @throws ServiceUnavailableResponse if the search waited past the queue budget or ran past its deadline.
+     */
+    private static List<double[]> isochrone(MapGraph map, Point center, double meters, AdmissionController admission,
+                                            long requestStart, Counter timeouts) {
+        List<Point> nodes;
+        try {
+            nodes = admission.call(requestStart, () -> map.isochrone(center, meters / 1000 * DistanceUtils.KM_TO_DEG,
+                    admission.deadline(requestStart)));
+        } catch (RejectedExecutionException e) {
+            throw new ServiceUnavailableResponse("Too many routes in progress");
+        } catch (SearchCancelledException e) {
+            timeouts.increment();
+            throw new ServiceUnavailableResponse("Isochrone search took too long");
+        }
+        List<double[]> result = new ArrayList<>(nodes.size());
+        for (Point node : nodes) {
+            result.add(new double[]{node.getLat(), node.getLon()});
+        }
+        return result;
+    }
+
+    /**
+     * Stream that adds up the time spent in its reads and records the total once when it is closed.
+     */
+    private static class TimedInputStream extends FilterInputStream {
+        private final Histogram times;
+        private long nanos;
+        private boolean closed;
+
+        TimedInputStream(InputStream in, Histogram times) {
+            super(in);
+            this.times = times;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read(b, off, len);
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                times.record(nanos);
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Body of a distance matrix request.
+     */
+    public static class MatrixRequest {
+        /**
+         * The {@code [lat, lon]} coordinates of each source.
+         */
+        public double[][] sources;
+        /**
+         * The {@code [lat, lon]} coordinates of each target.
+         */
+        public double[][] targets;
+    }
+
+    /**
+     * Body of a closest-facility request.
+     */
+    public static class ClosestRequest {
+        /**
+         * The {@code [lat, lon]} coordinates of each facility.
+         */
+        public double[][] facilities;
+        /**
+         * The {@code [lat, lon]} coordinates of the target.
+         */
+        public double[] target;
+        /**
+         * The number of nearest facilities to return.
+         */
+        public int k = 1;
+    }
+
+    /**
+     * One of the facilities nearest to the target of a closest-facility request, in the response.
+     */
+    public static class FacilityRoute {
+        /**
+         * The position of the facility in the request.
+         */
+        public int facility;
+        /**
+         * The shortest path distance in meters from the facility to the target.
+         */
+        public double meters;
+        /**
+         * The {@code [lat, lon]} coordinates of the street nodes along the route from the facility to the target.
+         */
+        public List<double[]> route;
+    }
+
+    /**
+     * Returns the routing profile with the name given in a query parameter, or {@link RoutingProfile#DISTANCE} if the
+     * parameter is absent.
+     *
+     * @param map       the map graph being served.
+     * @param parameter the name of the profile, or null.
+     * @return the routing profile.
+     * @throws BadRequestResponse if no profile has the name, or if the map graph does not support it.
+     */
+    private static RoutingProfile profile(MapGraph map, String parameter) {
+        if (parameter == null) {
+            return RoutingProfile.DISTANCE;
+        }
+        RoutingProfile result;
+        try {
+            result = RoutingProfile.of(parameter);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestResponse(e.getMessage());
+        }
+        if (!map.supports(result)) {
+            throw new BadRequestResponse("Routing profile " + parameter + " is not enabled");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the cached route by the profile between the snapped points, or else searches for it once the admission
+     * controller lets the search start, giving up at the deadline of the request. The search may return a route up to
+     * {@link #weight(AdmissionController, double)} times longer than the cheapest, and only cheapest routes are cached.
+     *
+     * @param generation   the generation of the map used by the request.
+     * @param start        the street node to start the route.
+     * @param goal         the street node to end the route.
+     * @param profile      the costs to minimize.
+     * @param admission    the limit on concurrent route searches and their deadlines.
+     * @param maxWeight    the greatest factor by which the search may inflate its heuristic under load.
+     * @param requestStart the time from {@link System#nanoTime()} at which the request arrived.
+     * @param timeouts     the counter of searches stopped at their deadline.
+     * @return the route between the points.
+     * @throws ServiceUnavailableResponse if the search waited past the queue budget or ran past its deadline.
+     */
+    private static List<Point> route(LiveMap.Generation generation, Point start, Point goal, RoutingProfile profile,
+                                     AdmissionController admission, double maxWeight, long requestStart,
+                                     Counter timeouts) {
+        // Key routes by the pair of snapped street nodes so nearby clicks share an entry.
+        List<Object> key = List.of(profile, start, goal);
+        List<Point> cached = generation.routes().get(key);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            return admission.call(requestStart, () -> {
+                double weight = weight(admission, maxWeight);
+                List<Point> route = List.copyOf(generation.map().shortestPath(start, goal, profile, weight,
+                        admission.deadline(requestStart)));
+                if (weight == 1.0) {
+                    generation.routes().put(key, route);
+                }
+                return route;
+            });
+        } catch (RejectedExecutionException e) {
+            throw new ServiceUnavailableResponse("Too many routes in progress");
+        } catch (SearchCancelledException e) {
+            timeouts.increment();
+            throw new ServiceUnavailableResponse("Route search took too long");
+        }
+    }
+
+    /**
+     * Returns the nearest {@code k} of the facilities to the target by road, nearest first, searching once the
+     * admission controller lets the search start and giving up at the deadline of the request.
+     *
+     * @param map          the map graph.
+     * @param facilities   the points to choose from.
+     * @param target       the point to measure distances to.
+     * @param k            the number of nearest facilities to return.
+     * @param admission    the limit on concurrent route searches and their deadlines.
+     * @param requestStart the time from {@link System#nanoTime()} at which the request arrived.
+     * @param timeouts     the counter of searches stopped at their deadline.
+     * @return up to {@code k} of the facilities that can reach the target, nearest first, with their routes.
+     * @throws ServiceUnavailableResponse if the search waited past the queue budget or ran past its deadline.
+     */
+    private static List<FacilityRoute> closest(MapGraph map, List<Point> facilities, Point target, int k,
+                                               AdmissionController admission, long requestStart, Counter timeouts) {
+        List<MapGraph.Facility> nearest;
+        try {
+            nearest = admission.call(requestStart, () -> map.closestFacilities(facilities, target, k,
+                    admission.deadline(requestStart)));
+        } catch (RejectedExecutionException e) {
+            throw new ServiceUnavailableResponse("Too many routes in progress");
+        } catch (SearchCancelledException e) {
+            timeouts.increment();
+            throw new ServiceUnavailableResponse("Route search took too long");
+        }
+        List<FacilityRoute> result = new ArrayList<>(nearest.size());
+        for (MapGraph.Facility facility : nearest) {
+            FacilityRoute response = new FacilityRoute();
+            response.facility = facility.index();
+            response.meters = facility.distance() * DistanceUtils.DEG_TO_KM * 1000;
+            response.route = new ArrayList<>(facility.route().size());
+            for (Point node : facility.route()) {
+                response.route.add(new double[]{node.getLat(), node.getLon()});
+            }
+            result.add(response);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the factor by which route searches may inflate their heuristic under the current load: 1 while no
+     * request waits for a routing thread or a route search, rising with the number waiting to the greatest weight once
+     * as many requests wait as there are searches running. A* with a heuristic inflated by this factor finds a route
+     * at most that factor longer than the shortest.
+     *
+     * @param admission the limit on concurrent route searches, which counts the waiting requests.
+     * @param maxWeight the greatest weight, used once the queue is full.
+     * @return the heuristic weight for the next route search.
+     */
+    private static double weight(AdmissionController admission, double maxWeight) {
+        return 1.0 + (maxWeight - 1.0) * Math.min(admission.pressure(), 1.0);
+    }
+
+    /**
+     * Returns the points at the given {@code [lat, lon]} coordinates.
+     *
+     * @param factory     the factory for creating points.
+     * @param coordinates the {@code [lat, lon]} coordinates of each point.
+     * @param name        the name of the request field, for error messages.
+     * @return the points at the given coordinates.
+     * @throws BadRequestResponse if there are no points, too many points, or malformed coordinates.
+     */
+    private static List<Point> points(ShapeFactory factory, double[][] coordinates, String name) {
+        if (coordinates == null || coordinates.length == 0) {
+            throw new BadRequestResponse("Expected at least one of " + name);
+        } else if (coordinates.length > MAX_MATRIX_POINTS) {
+            throw new BadRequestResponse("Expected at most " + MAX_MATRIX_POINTS + " of " + name);
+        }
+        List<Point> result = new ArrayList<>(coordinates.length);
+        for (double[] latLon : coordinates) {
+            if (latLon == null || latLon.length != 2) {
+                throw new BadRequestResponse("Expected [lat, lon] pairs in " + name);
+            }
+            result.add(factory.pointLatLon(latLon[0], latLon[1]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the shortest path distance in meters from the street node closest to each source to the street node
+     * closest to each target, searching once the admission controller lets the searches start and giving up at the
+     * deadline of the request.
+     *
+     * @param map          the map graph.
+     * @param sources      the points to measure distances from.
+     * @param targets      the points to measure distances to.
+     * @param admission    the limit on concurrent route searches and their deadlines.
+     * @param requestStart the time from {@link System#nanoTime()} at which the request arrived.
+     * @param timeouts     the counter of searches stopped at their deadline.
+     * @return the distance in meters from each source (by row) to each target (by column), or null where the target is
+     * unreachable from the source.
+     * @throws ServiceUnavailableResponse if the searches waited past the queue budget or ran past their deadline.
+     */
+    private static List<List<Double>> matrix(MapGraph map, List<Point> sources, List<Point> targets,
+                                             AdmissionController admission, long requestStart, Counter timeouts) {
+        double[][] distances;
+        try {
+            distances = admission.call(requestStart, () -> map.distanceMatrix(sources, targets,
+                    admission.deadline(requestStart)));
+        } catch (RejectedExecutionException e) {
+            throw new ServiceUnavailableResponse("Too many routes in progress");
+        } catch (SearchCancelledException e) {
+            timeouts.increment();
+            throw new ServiceUnavailableResponse("Distance matrix took too long");
+        }
+        List<List<Double>> result = new ArrayList<>(distances.length);
+        for (double[] row : distances) {
+            List<Double> meters = new ArrayList<>(row.length);
+            for (double distance : row) {
+                meters.add(Double.isInfinite(distance) ? null : distance * DistanceUtils.DEG_TO_KM * 1000);
+            }
+            result.add(meters);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the most important place names that start with the given prefix.
+     *
+     * @param map          the map graph.
+     * @param term         the prefix to search for.
+     * @param resultCounts the histogram recording the number of matches before truncation.
+     * @return up to {@link #MAX_MATCHES} place names that start with the given prefix.
+     */
+    private static List<CharSequence> search(MapGraph map, String term, Histogram resultCounts) {
+        List<CharSequence> result = map.getLocationsByPrefix(term);
+        resultCounts.record(result.size());
+        if (result.size() > MAX_MATCHES) {
+            result = result.subList(0, MAX_MATCHES);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a stream of the Base64 encoding of the image, which the front end embeds as a data URI. The image is
+     * encoded as the server reads the stream, so the time spent reading it is recorded when the stream is closed.
+     *
+     * @param image       the image bytes.
+     * @param encodeTimes the histogram recording the time in nanoseconds spent encoding each image.
+     * @return a stream of the Base64 encoding of the image.
+     */
+    private static InputStream base64(byte[] image, Histogram encodeTimes) {
+        return new TimedInputStream(new Base64InputStream(new ByteArrayInputStream(image), true), encodeTimes);
     }
 
     /**
@@ -88,9 +865,84 @@ public class MapServer {
         return PORT;
     }
 
+    /**
+     * Returns how long a cached route remains valid, from the {@code ROUTE_CACHE_TTL} environment variable in seconds.
+     * Routes never expire if it is unset, since they only change when the map data changes.
+     *
+     * @return how long a cached route remains valid, or zero if routes never expire.
+     */
+    private static Duration routeCacheTtl() {
+        String ttl = System.getenv("ROUTE_CACHE_TTL");
+        if (ttl != null) {
+            return Duration.ofSeconds(Long.parseLong(ttl));
+        }
+        return Duration.ZERO;
+    }
+
+    /**
+     * Returns the routing profiles named in the comma-separated {@code ROUTING_PROFILES} environment variable, such as
+     * {@code time,avoid-motorway}. Routes only minimize distance if it is unset, since partitioning the graph and
+     * customizing the overlay for every profile takes seconds on each start and the overlay is not snapshotted.
+     *
+     * @return the routing profiles to enable.
+     * @throws IllegalArgumentException if no profile has one of the names.
+     */
+    private static RoutingProfile[] profiles() {
+        String names = System.getenv("ROUTING_PROFILES");
+        if (names == null || names.isBlank()) {
+            return new RoutingProfile[0];
+        }
+        String[] parameters = names.split(",");
+        RoutingProfile[] result = new RoutingProfile[parameters.length];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = RoutingProfile.of(parameters[i].trim());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the greatest factor by which route searches may inflate their heuristic under load, from the
+     * {@code ROUTE_MAX_WEIGHT} environment variable. Searches are never weighted if it is unset: on random Seattle
+     * queries, a weight of 1.05, the greatest that keeps every route within 5% of the shortest, settles only 12% fewer
+     * vertices than A* search, while a weight of 1.5 settles 97% fewer but only guarantees routes within 50%.
+     *
+     * @return the greatest heuristic weight, or 1 if searches are never weighted.
+     * @throws IllegalArgumentException if the weight is less than 1.
+     */
+    private static double maxRouteWeight() {
+        String weight = System.getenv("ROUTE_MAX_WEIGHT");
+        if (weight == null) {
+            return 1.0;
+        }
+        double result = Double.parseDouble(weight);
+        if (!(result >= 1.0)) {
+            throw new IllegalArgumentException("Expected ROUTE_MAX_WEIGHT of at least 1: " + weight);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the admission controller for route searches, which runs as many searches at once as the
+     * {@code ROUTE_CONCURRENCY} environment variable or else the number of cores, with the queue budget and timeout in
+     * milliseconds from the {@code ROUTE_QUEUE_MS} and {@code ROUTE_TIMEOUT_MS} environment variables if they are set.
+     *
+     * @return the admission controller for route searches.
+     */
+    private static AdmissionController admission() {
+        String concurrency = System.getenv("ROUTE_CONCURRENCY");
+        String queueBudget = System.getenv("ROUTE_QUEUE_MS");
+        String timeout = System.getenv("ROUTE_TIMEOUT_MS");
+        return new AdmissionController(
+                concurrency == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(concurrency),
+                queueBudget == null ? ROUTE_QUEUE_BUDGET : Duration.ofMillis(Long.parseLong(queueBudget)),
+                timeout == null ? ROUTE_TIMEOUT : Duration.ofMillis(Long.parseLong(timeout))
+        );
+    }
+
     /**
      * Return the API URL for retrieving the map image.
      *
+     * @param baseURL   the base URL of the static image API.
      * @param center    the center of the map image.
      * @param width     the width of the window.
      * @param height    the height of the window.
@@ -99,8 +951,8 @@ public class MapServer {
      * @return the URL for retrieving the map image.
      * @throws MalformedURLException if the URL is invalid.
      */
-    private static URL url(Point center, int zoom, int width, int height, List<Point> route, List<Point> locations)
-            throws MalformedURLException {
+    private static URL url(String baseURL, Point center, int zoom, int width, int height, List<Point> route,
+                           List<Point> locations) throws MalformedURLException {
         StringBuilder overlay = new StringBuilder();
         if (route != null && !route.isEmpty()) {
             overlay.append("path-4+6cb5e6-1(");
@@ -121,13 +973,14 @@ public class MapServer {
             overlay.setCharAt(overlay.length() - 1, '/');
         }
         return new URL(String.format(
-                "https://api.mapbox.com/"
+                "%s"
                         // {username}/{style_id} and {overlay} (must include trailing slash)
                         + "styles/v1/%s/%s/static/%s"
                         // {lon},{lat},{zoom}/{width}x{height}{@2x}
                         + "%f,%f,%d/%dx%d%s"
                         // Access token and optional parameters
                         + "?access_token=%s&logo=false&attribution=false",
+                baseURL,
                 "mapbox",
                 "cj7t3i5yj0unt2rmt3y4b5e32",
                 overlay,
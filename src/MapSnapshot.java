@@ -0,0 +1,294 @@
+import graphs.CSRGraph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Parsed map data with a versioned binary file format so that {@link MapGraph} can skip XML and TSV parsing on later
+ * boots. A snapshot file is memory-mapped and bulk-copied into primitive arrays. Besides the street network, a snapshot
+ * keeps the {@link OsmExtract} it was built from, so that changes can be applied to a graph loaded from a snapshot.
+ * <p>
+ * The file begins with a fixed header: a magic number, the format version, a checksum of the source files the
+ * snapshot was built from, and a checksum and length of the payload that follows. A snapshot whose version or source
+ * checksum does not match, or whose payload is corrupt, is treated as stale so the caller re-parses the sources.
+ *
+ * @see MapGraph
+ */
+class MapSnapshot {
+    /**
+     * The ASCII bytes {@code HMAP}.
+     */
+    private static final int MAGIC = 0x484D4150;
+    /**
+     * Format version, to be incremented whenever the payload layout or the parsing rules change.
+     */
+    private static final int VERSION = 3;
+    /**
+     * Size in bytes of the magic number, version, source checksum, payload checksum and payload length.
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+    /**
+     * The street network over vertex numbers.
+     */
+    final CSRGraph streets;
+    /**
+     * Index of the highway type of each edge of {@code streets} among the allowed highway types of {@link MapGraph}.
+     */
+    final byte[] highways;
+    /**
+     * Latitude of each vertex in fixed-point units.
+     */
+    final int[] lats;
+    /**
+     * Longitude of each vertex in fixed-point units.
+     */
+    final int[] lons;
+    /**
+     * Street nodes, streets and named places by OSM id.
+     */
+    final OsmExtract osm;
+    /**
+     * Fixed-point coordinates of each named place, stored as alternating latitude and longitude.
+     */
+    final Map<String, int[]> locations;
+    /**
+     * Importance of each place name.
+     */
+    final Map<CharSequence, Integer> importance;
+
+    /**
+     * Constructs a snapshot from parsed map data.
+     *
+     * @param streets    the street network over vertex numbers.
+     * @param highways   index of the highway type of each street edge among the allowed highway types.
+     * @param lats       latitude of each vertex in fixed-point units.
+     * @param lons       longitude of each vertex in fixed-point units.
+     * @param osm        the street nodes, streets and named places by OSM id.
+     * @param locations  fixed-point coordinates of each named place as alternating latitude and longitude.
+     * @param importance importance of each place name.
+     */
+    MapSnapshot(CSRGraph streets, byte[] highways, int[] lats, int[] lons, OsmExtract osm,
+                Map<String, int[]> locations, Map<CharSequence, Integer> importance) {
+        this.streets = streets;
+        this.highways = highways;
+        this.lats = lats;
+        this.lons = lons;
+        this.osm = osm;
+        this.locations = locations;
+        this.importance = importance;
+    }
+
+    /**
+     * Returns the snapshot stored at the given path, or null if the file is missing, was built from different sources
+     * or by a different format version, or is corrupt.
+     *
+     * @param path           the snapshot file path.
+     * @param sourceChecksum the checksum of the current source files.
+     * @return the snapshot stored at the given path, or null if it cannot be used.
+     * @throws IOException if the file exists but cannot be read.
+     */
+    static MapSnapshot read(Path path, long sourceChecksum) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != sourceChecksum) {
+                return null;
+            }
+            long payloadChecksum = buffer.getLong();
+            long payloadLength = buffer.getLong();
+            if (payloadLength != channel.size() - HEADER_SIZE) {
+                return null;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.duplicate());
+            if (crc.getValue() != payloadChecksum) {
+                return null;
+            }
+            return readPayload(buffer);
+        } catch (NoSuchFileException | BufferUnderflowException | IllegalArgumentException
+                 | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes this snapshot to the given path by writing a temporary file and moving it into place, so that a reader
+     * never observes a partially-written snapshot.
+     *
+     * @param path           the snapshot file path.
+     * @param sourceChecksum the checksum of the source files this snapshot was built from.
+     * @throws IOException if the file cannot be written.
+     */
+    void write(Path path, long sourceChecksum) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            CRC32C crc = new CRC32C();
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), crc), 1 << 16));
+            writePayload(output);
+            output.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(sourceChecksum)
+                    .putLong(crc.getValue())
+                    .putLong(channel.position() - HEADER_SIZE)
+                    .flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the streets, coordinates, OSM extract and importance values. The named places by name are not written,
+     * since they are grouped from the places of the extract.
+     */
+    private void writePayload(DataOutputStream output) throws IOException {
+        output.writeInt(streets.size());
+        output.writeInt(streets.edgeCount());
+        for (int v = 0; v <= streets.size(); v += 1) {
+            output.writeInt(v < streets.size() ? streets.edgeStart(v) : streets.edgeCount());
+        }
+        for (int e = 0; e < streets.edgeCount(); e += 1) {
+            output.writeInt(streets.target(e));
+        }
+        for (int e = 0; e < streets.edgeCount(); e += 1) {
+            output.writeDouble(streets.weight(e));
+        }
+        output.write(highways);
+        writeInts(output, lats);
+        writeInts(output, lons);
+        output.writeInt(osm.nodeIds.length);
+        writeLongs(output, osm.nodeIds);
+        writeInts(output, osm.nodeLats);
+        writeInts(output, osm.nodeLons);
+        output.writeInt(osm.wayIds.length);
+        output.writeInt(osm.wayRefs.length);
+        writeLongs(output, osm.wayIds);
+        writeInts(output, osm.wayOffsets);
+        writeLongs(output, osm.wayRefs);
+        output.write(osm.wayHighways);
+        output.writeInt(osm.placeIds.length);
+        writeLongs(output, osm.placeIds);
+        for (String name : osm.placeNames) {
+            writeString(output, name);
+        }
+        writeInts(output, osm.placeLats);
+        writeInts(output, osm.placeLons);
+        output.writeInt(importance.size());
+        for (Map.Entry<CharSequence, Integer> entry : importance.entrySet()) {
+            writeString(output, entry.getKey().toString());
+            output.writeInt(entry.getValue());
+        }
+    }
+
+    /**
+     * Reads the payload written by {@link #writePayload(DataOutputStream)}, bulk-copying primitive arrays out of the
+     * mapped buffer.
+     */
+    private static MapSnapshot readPayload(ByteBuffer buffer) {
+        int vertexCount = buffer.getInt();
+        int edgeCount = buffer.getInt();
+        int[] offsets = readInts(buffer, vertexCount + 1);
+        int[] targets = readInts(buffer, edgeCount);
+        double[] weights = new double[edgeCount];
+        buffer.asDoubleBuffer().get(weights);
+        buffer.position(buffer.position() + edgeCount * Double.BYTES);
+        byte[] highways = readBytes(buffer, edgeCount);
+        int[] lats = readInts(buffer, vertexCount);
+        int[] lons = readInts(buffer, vertexCount);
+        int nodeCount = buffer.getInt();
+        long[] nodeIds = readLongs(buffer, nodeCount);
+        int[] nodeLats = readInts(buffer, nodeCount);
+        int[] nodeLons = readInts(buffer, nodeCount);
+        int wayCount = buffer.getInt();
+        int refCount = buffer.getInt();
+        long[] wayIds = readLongs(buffer, wayCount);
+        int[] wayOffsets = readInts(buffer, wayCount + 1);
+        long[] wayRefs = readLongs(buffer, refCount);
+        byte[] wayHighways = readBytes(buffer, wayCount);
+        int placeCount = buffer.getInt();
+        long[] placeIds = readLongs(buffer, placeCount);
+        String[] placeNames = new String[placeCount];
+        for (int i = 0; i < placeCount; i += 1) {
+            placeNames[i] = readString(buffer);
+        }
+        int[] placeLats = readInts(buffer, placeCount);
+        int[] placeLons = readInts(buffer, placeCount);
+        OsmExtract osm = new OsmExtract(nodeIds, nodeLats, nodeLons, wayIds, wayOffsets, wayRefs, wayHighways,
+                placeIds, placeNames, placeLats, placeLons);
+        int importanceCount = buffer.getInt();
+        Map<CharSequence, Integer> importance = new HashMap<>();
+        for (int i = 0; i < importanceCount; i += 1) {
+            String name = readString(buffer);
+            importance.put(name, buffer.getInt());
+        }
+        return new MapSnapshot(new CSRGraph(offsets, targets, weights), highways, lats, lons, osm, osm.locations(),
+                importance);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, int length) {
+        byte[] result = new byte[length];
+        buffer.get(result);
+        return result;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int length) {
+        int[] result = new int[length];
+        buffer.asIntBuffer().get(result);
+        buffer.position(buffer.position() + length * Integer.BYTES);
+        return result;
+    }
+
+    private static long[] readLongs(ByteBuffer buffer, int length) {
+        long[] result = new long[length];
+        buffer.asLongBuffer().get(result);
+        buffer.position(buffer.position() + length * Long.BYTES);
+        return result;
+    }
+
+    private static void writeInts(DataOutputStream output, int[] values) throws IOException {
+        for (int value : values) {
+            output.writeInt(value);
+        }
+    }
+
+    private static void writeLongs(DataOutputStream output, long[] values) throws IOException {
+        for (long value : values) {
+            output.writeLong(value);
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,252 @@
+import primitives.LongIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * The nodes and ways created, modified or deleted by an OsmChange ({@code .osc}) file, reduced to what a
+ * {@link MapGraph} keeps: the coordinates and name of each node, and the node ids and highway type of each way that is
+ * an allowed street. Creating and modifying are both recorded as the new state of the element, and when a file changes
+ * the same element more than once, only its last state is kept.
+ *
+ * @see OsmExtract
+ * @see MapGraph#applyChanges(java.io.InputStream)
+ */
+class OsmChange {
+    private final LongIntHashMap nodeIndex = new LongIntHashMap(16);
+    private long[] nodeIds = new long[16];
+    private int[] nodeLats = new int[16];
+    private int[] nodeLons = new int[16];
+    /**
+     * Name of each changed node, which is empty for an unnamed node and null for a deleted node.
+     */
+    private String[] nodeNames = new String[16];
+    private int nodeCount;
+    private final LongIntHashMap wayIndex = new LongIntHashMap(16);
+    private long[] wayIds = new long[16];
+    /**
+     * Node ids of each changed way, or null for a deleted way or a way that is not an allowed street.
+     */
+    private long[][] wayRefs = new long[16][];
+    /**
+     * Index of the highway type of each changed street among the allowed highway types.
+     */
+    private byte[] wayHighways = new byte[16];
+    private int wayCount;
+
+    /**
+     * Records the new state of a created or modified node.
+     *
+     * @param id   the node id.
+     * @param lat  the latitude in fixed-point units.
+     * @param lon  the longitude in fixed-point units.
+     * @param name the cleaned name of the node, or an empty string if it has none.
+     */
+    void putNode(long id, int lat, int lon, String name) {
+        int i = nodeSlot(id);
+        nodeLats[i] = lat;
+        nodeLons[i] = lon;
+        nodeNames[i] = name;
+    }
+
+    /**
+     * Records the deletion of a node.
+     *
+     * @param id the node id.
+     */
+    void deleteNode(long id) {
+        int i = nodeSlot(id);
+        nodeNames[i] = null;
+    }
+
+    /**
+     * Records the new state of a created or modified way.
+     *
+     * @param id      the way id.
+     * @param refs    the node ids of the way in order, or null if it is not an allowed street.
+     * @param highway the index of the highway type of the street among the allowed highway types, or -1 if it is
+     *                not an allowed street.
+     */
+    void putWay(long id, long[] refs, int highway) {
+        int i = waySlot(id);
+        wayRefs[i] = refs;
+        wayHighways[i] = (byte) highway;
+    }
+
+    /**
+     * Records the deletion of a way.
+     *
+     * @param id the way id.
+     */
+    void deleteWay(long id) {
+        int i = waySlot(id);
+        wayRefs[i] = null;
+    }
+
+    /**
+     * Returns the number of changed nodes.
+     *
+     * @return the number of changed nodes.
+     */
+    int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Returns the id of the changed node with the given index, in the order that nodes were first changed.
+     *
+     * @param i the index of the changed node.
+     * @return the node id.
+     */
+    long nodeId(int i) {
+        return nodeIds[i];
+    }
+
+    /**
+     * Returns the index of the changed node with the given id, or -1 if the node is unchanged.
+     *
+     * @param id the node id.
+     * @return the index of the changed node, or -1 if it is unchanged.
+     */
+    int nodeIndex(long id) {
+        return nodeIndex.getOrDefault(id, -1);
+    }
+
+    /**
+     * Returns whether the changed node with the given index was deleted.
+     *
+     * @param i the index of the changed node.
+     * @return true if the node was deleted.
+     */
+    boolean isDeleted(int i) {
+        return nodeNames[i] == null;
+    }
+
+    /**
+     * Returns the new latitude of the changed node with the given index, which must not be deleted.
+     *
+     * @param i the index of the changed node.
+     * @return the latitude in fixed-point units.
+     */
+    int nodeLat(int i) {
+        return nodeLats[i];
+    }
+
+    /**
+     * Returns the new longitude of the changed node with the given index, which must not be deleted.
+     *
+     * @param i the index of the changed node.
+     * @return the longitude in fixed-point units.
+     */
+    int nodeLon(int i) {
+        return nodeLons[i];
+    }
+
+    /**
+     * Returns the new name of the changed node with the given index, or an empty string if it has none, or null if it
+     * was deleted.
+     *
+     * @param i the index of the changed node.
+     * @return the name of the node, or an empty string if it has none, or null if it was deleted.
+     */
+    String nodeName(int i) {
+        return nodeNames[i];
+    }
+
+    /**
+     * Returns the number of changed ways.
+     *
+     * @return the number of changed ways.
+     */
+    int wayCount() {
+        return wayCount;
+    }
+
+    /**
+     * Returns the id of the changed way with the given index, in the order that ways were first changed.
+     *
+     * @param i the index of the changed way.
+     * @return the way id.
+     */
+    long wayId(int i) {
+        return wayIds[i];
+    }
+
+    /**
+     * Returns the index of the changed way with the given id, or -1 if the way is unchanged.
+     *
+     * @param id the way id.
+     * @return the index of the changed way, or -1 if it is unchanged.
+     */
+    int wayIndex(long id) {
+        return wayIndex.getOrDefault(id, -1);
+    }
+
+    /**
+     * Returns the new node ids of the changed way with the given index, or null if it was deleted or is not an
+     * allowed street.
+     *
+     * @param i the index of the changed way.
+     * @return the node ids of the way in order, or null if it is no longer a street.
+     */
+    long[] wayRefs(int i) {
+        return wayRefs[i];
+    }
+
+    /**
+     * Returns the index of the highway type of the changed way with the given index among the allowed highway types,
+     * which is only meaningful if the way is still a street.
+     *
+     * @param i the index of the changed way.
+     * @return the index of the highway type of the street.
+     */
+    int wayHighway(int i) {
+        return wayHighways[i];
+    }
+
+    /**
+     * Returns the index of the node with the given id, adding it if it has not been changed before.
+     */
+    private int nodeSlot(long id) {
+        int i = nodeIndex.getOrDefault(id, -1);
+        if (i < 0) {
+            if (nodeCount == nodeIds.length) {
+                nodeIds = Arrays.copyOf(nodeIds, 2 * nodeCount);
+                nodeLats = Arrays.copyOf(nodeLats, 2 * nodeCount);
+                nodeLons = Arrays.copyOf(nodeLons, 2 * nodeCount);
+                nodeNames = Arrays.copyOf(nodeNames, 2 * nodeCount);
+            }
+            i = nodeCount;
+            nodeIds[i] = id;
+            nodeIndex.put(id, i);
+            nodeCount += 1;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index of the way with the given id, adding it if it has not been changed before.
+     */
+    private int waySlot(long id) {
+        int i = wayIndex.getOrDefault(id, -1);
+        if (i < 0) {
+            if (wayCount == wayIds.length) {
+                wayIds = Arrays.copyOf(wayIds, 2 * wayCount);
+                wayRefs = Arrays.copyOf(wayRefs, 2 * wayCount);
+                wayHighways = Arrays.copyOf(wayHighways, 2 * wayCount);
+            }
+            i = wayCount;
+            wayIds[i] = id;
+            wayIndex.put(id, i);
+            wayCount += 1;
+        }
+        return i;
+    }
+
+    @Override
+    public String toString() {
+        return "OsmChange{" +
+                "nodes=" + nodeCount +
+                ", ways=" + wayCount +
+                '}';
+    }
+}
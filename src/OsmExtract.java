@@ -0,0 +1,376 @@
+import primitives.LongHashSet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The street nodes, streets and named places of an OSM extract by OSM id, which {@link MapGraph} keeps so that an
+ * {@link OsmChange} can be applied without parsing the extract again. Street nodes are the nodes referenced by allowed
+ * streets, streets are the ways with an allowed {@code highway} tag, and places are the named nodes, all in the order
+ * they appear in the extract.
+ * <p>
+ * An extract is immutable. {@link #apply(OsmChange)} returns a new extract that shares the arrays of the streets or
+ * places that the change leaves as they were, so the caller can tell by reference which derived structures to reuse.
+ *
+ * @see MapSnapshot
+ */
+class OsmExtract {
+    /**
+     * OSM id of each street node.
+     */
+    final long[] nodeIds;
+    /**
+     * Latitude of each street node in fixed-point units.
+     */
+    final int[] nodeLats;
+    /**
+     * Longitude of each street node in fixed-point units.
+     */
+    final int[] nodeLons;
+    /**
+     * OSM id of each street.
+     */
+    final long[] wayIds;
+    /**
+     * Index in {@code wayRefs} of the first node of each street, plus a trailing sentinel equal to its length.
+     */
+    final int[] wayOffsets;
+    /**
+     * Node ids of every street in order.
+     */
+    final long[] wayRefs;
+    /**
+     * Index of the highway type of each street among the allowed highway types of {@link MapGraph}.
+     */
+    final byte[] wayHighways;
+    /**
+     * OSM id of each named place.
+     */
+    final long[] placeIds;
+    final String[] placeNames;
+    /**
+     * Latitude of each named place in fixed-point units.
+     */
+    final int[] placeLats;
+    /**
+     * Longitude of each named place in fixed-point units.
+     */
+    final int[] placeLons;
+
+    /**
+     * Constructs an extract from parsed street nodes, streets and named places.
+     *
+     * @param nodeIds     OSM id of each street node.
+     * @param nodeLats    latitude of each street node in fixed-point units.
+     * @param nodeLons    longitude of each street node in fixed-point units.
+     * @param wayIds      OSM id of each street.
+     * @param wayOffsets  index in {@code wayRefs} of the first node of each street, plus a trailing sentinel.
+     * @param wayRefs     node ids of every street in order.
+     * @param wayHighways index of the highway type of each street among the allowed highway types.
+     * @param placeIds    OSM id of each named place.
+     * @param placeNames  name of each named place.
+     * @param placeLats   latitude of each named place in fixed-point units.
+     * @param placeLons   longitude of each named place in fixed-point units.
+     */
+    OsmExtract(long[] nodeIds, int[] nodeLats, int[] nodeLons, long[] wayIds, int[] wayOffsets, long[] wayRefs,
+               byte[] wayHighways, long[] placeIds, String[] placeNames, int[] placeLats, int[] placeLons) {
+        this.nodeIds = nodeIds;
+        this.nodeLats = nodeLats;
+        this.nodeLons = nodeLons;
+        this.wayIds = wayIds;
+        this.wayOffsets = wayOffsets;
+        this.wayRefs = wayRefs;
+        this.wayHighways = wayHighways;
+        this.placeIds = placeIds;
+        this.placeNames = placeNames;
+        this.placeLats = placeLats;
+        this.placeLons = placeLons;
+    }
+
+    /**
+     * Returns the fixed-point coordinates of the places with each name, as alternating latitude and longitude in the
+     * order the places appear in the extract.
+     *
+     * @return the coordinates of the places with each name.
+     */
+    Map<String, int[]> locations() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String name : placeNames) {
+            counts.merge(name, 1, Integer::sum);
+        }
+        Map<String, int[]> result = new HashMap<>();
+        Map<String, Integer> filled = new HashMap<>();
+        for (int i = 0; i < placeNames.length; i += 1) {
+            int[] coordinates = result.computeIfAbsent(placeNames[i], name -> new int[2 * counts.get(name)]);
+            int j = filled.merge(placeNames[i], 1, Integer::sum) - 1;
+            coordinates[2 * j] = placeLats[i];
+            coordinates[2 * j + 1] = placeLons[i];
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether this extract has the same streets and street node coordinates as the given extract because both
+     * share the same arrays.
+     *
+     * @param other the other extract.
+     * @return true if both extracts share their streets.
+     */
+    boolean sharesStreets(OsmExtract other) {
+        return nodeIds == other.nodeIds && nodeLats == other.nodeLats && nodeLons == other.nodeLons
+                && wayRefs == other.wayRefs;
+    }
+
+    /**
+     * Returns whether this extract has the same named places as the given extract because both share the same arrays.
+     *
+     * @param other the other extract.
+     * @return true if both extracts share their places.
+     */
+    boolean sharesPlaces(OsmExtract other) {
+        return placeIds == other.placeIds;
+    }
+
+    /**
+     * Returns the extract after the given change. Changed streets keep their position and new streets follow the
+     * others in the order they were changed. A street node missing from both this extract and the change splits its
+     * street, as at the edge of a clipped extract, so a new street only joins the existing nodes it references and the
+     * nodes the change creates or modifies. Street nodes that no street references any more are dropped.
+     *
+     * @param change the created, modified and deleted nodes and ways.
+     * @return the extract after the change, sharing the arrays of the streets or places that are unchanged.
+     */
+    OsmExtract apply(OsmChange change) {
+        long[] newNodeIds = nodeIds;
+        int[] newNodeLats = nodeLats;
+        int[] newNodeLons = nodeLons;
+        long[] newWayIds = wayIds;
+        int[] newWayOffsets = wayOffsets;
+        long[] newWayRefs = wayRefs;
+        byte[] newWayHighways = wayHighways;
+        if (change.wayCount() > 0 || movesStreetNodes(change)) {
+            // Rebuild the streets, then keep only the nodes that they reference.
+            boolean[] applied = new boolean[change.wayCount()];
+            Ways ways = new Ways(wayIds.length + change.wayCount(), wayRefs.length);
+            for (int w = 0; w < wayIds.length; w += 1) {
+                int c = change.wayIndex(wayIds[w]);
+                if (c < 0) {
+                    ways.add(wayIds[w], wayRefs, wayOffsets[w], wayOffsets[w + 1], wayHighways[w]);
+                } else {
+                    applied[c] = true;
+                    long[] refs = change.wayRefs(c);
+                    if (refs != null) {
+                        ways.add(wayIds[w], refs, 0, refs.length, change.wayHighway(c));
+                    }
+                }
+            }
+            for (int c = 0; c < change.wayCount(); c += 1) {
+                long[] refs = change.wayRefs(c);
+                if (!applied[c] && refs != null) {
+                    ways.add(change.wayId(c), refs, 0, refs.length, change.wayHighway(c));
+                }
+            }
+            newWayIds = Arrays.copyOf(ways.ids, ways.count);
+            newWayOffsets = Arrays.copyOf(ways.offsets, ways.count + 1);
+            newWayRefs = Arrays.copyOf(ways.refs, ways.size);
+            newWayHighways = Arrays.copyOf(ways.highways, ways.count);
+
+            LongHashSet referenced = new LongHashSet(newWayRefs.length);
+            for (long ref : newWayRefs) {
+                referenced.add(ref);
+            }
+            boolean[] known = new boolean[change.nodeCount()];
+            Nodes nodes = new Nodes(nodeIds.length + change.nodeCount());
+            for (int v = 0; v < nodeIds.length; v += 1) {
+                int c = change.nodeIndex(nodeIds[v]);
+                if (c >= 0) {
+                    known[c] = true;
+                }
+                if (!referenced.contains(nodeIds[v])) {
+                    continue;
+                } else if (c < 0) {
+                    nodes.add(nodeIds[v], nodeLats[v], nodeLons[v]);
+                } else if (!change.isDeleted(c)) {
+                    nodes.add(nodeIds[v], change.nodeLat(c), change.nodeLon(c));
+                }
+            }
+            for (int c = 0; c < change.nodeCount(); c += 1) {
+                if (!known[c] && !change.isDeleted(c) && referenced.contains(change.nodeId(c))) {
+                    nodes.add(change.nodeId(c), change.nodeLat(c), change.nodeLon(c));
+                }
+            }
+            newNodeIds = Arrays.copyOf(nodes.ids, nodes.count);
+            newNodeLats = Arrays.copyOf(nodes.lats, nodes.count);
+            newNodeLons = Arrays.copyOf(nodes.lons, nodes.count);
+        }
+
+        long[] newPlaceIds = placeIds;
+        String[] newPlaceNames = placeNames;
+        int[] newPlaceLats = placeLats;
+        int[] newPlaceLons = placeLons;
+        boolean[] placed = new boolean[change.nodeCount()];
+        if (changesPlaces(change, placed)) {
+            Places places = new Places(placeIds.length + change.nodeCount());
+            for (int p = 0; p < placeIds.length; p += 1) {
+                int c = change.nodeIndex(placeIds[p]);
+                if (c < 0) {
+                    places.add(placeIds[p], placeNames[p], placeLats[p], placeLons[p]);
+                } else if (isNamed(change, c)) {
+                    places.add(placeIds[p], change.nodeName(c), change.nodeLat(c), change.nodeLon(c));
+                }
+            }
+            for (int c = 0; c < change.nodeCount(); c += 1) {
+                if (!placed[c] && isNamed(change, c)) {
+                    places.add(change.nodeId(c), change.nodeName(c), change.nodeLat(c), change.nodeLon(c));
+                }
+            }
+            newPlaceIds = Arrays.copyOf(places.ids, places.count);
+            newPlaceNames = Arrays.copyOf(places.names, places.count);
+            newPlaceLats = Arrays.copyOf(places.lats, places.count);
+            newPlaceLons = Arrays.copyOf(places.lons, places.count);
+        }
+        return new OsmExtract(newNodeIds, newNodeLats, newNodeLons, newWayIds, newWayOffsets, newWayRefs,
+                newWayHighways, newPlaceIds, newPlaceNames, newPlaceLats, newPlaceLons);
+    }
+
+    /**
+     * Returns whether the change deletes or moves any street node.
+     */
+    private boolean movesStreetNodes(OsmChange change) {
+        if (change.nodeCount() == 0) {
+            return false;
+        }
+        for (int v = 0; v < nodeIds.length; v += 1) {
+            int c = change.nodeIndex(nodeIds[v]);
+            if (c >= 0 && (change.isDeleted(c) || change.nodeLat(c) != nodeLats[v]
+                    || change.nodeLon(c) != nodeLons[v])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the change adds, removes, renames or moves any named place, marking the changed nodes that are
+     * places of this extract.
+     */
+    private boolean changesPlaces(OsmChange change, boolean[] placed) {
+        if (change.nodeCount() == 0) {
+            return false;
+        }
+        boolean result = false;
+        for (int p = 0; p < placeIds.length; p += 1) {
+            int c = change.nodeIndex(placeIds[p]);
+            if (c >= 0) {
+                placed[c] = true;
+                result |= change.isDeleted(c) || !change.nodeName(c).equals(placeNames[p])
+                        || change.nodeLat(c) != placeLats[p] || change.nodeLon(c) != placeLons[p];
+            }
+        }
+        for (int c = 0; c < change.nodeCount(); c += 1) {
+            result |= !placed[c] && isNamed(change, c);
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the changed node with the given index still exists and has a name, so that it is a place.
+     */
+    private static boolean isNamed(OsmChange change, int c) {
+        return !change.isDeleted(c) && !change.nodeName(c).isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "OsmExtract{" +
+                "nodes=" + nodeIds.length +
+                ", ways=" + wayIds.length +
+                ", places=" + placeIds.length +
+                '}';
+    }
+
+    /**
+     * Growable arrays of streets with their node ids and highway types.
+     */
+    private static class Ways {
+        private final long[] ids;
+        private final int[] offsets;
+        private final byte[] highways;
+        private long[] refs;
+        private int count;
+        private int size;
+
+        Ways(int capacity, int refCapacity) {
+            ids = new long[capacity];
+            offsets = new int[capacity + 1];
+            highways = new byte[capacity];
+            refs = new long[Math.max(refCapacity, 16)];
+        }
+
+        /**
+         * Adds a street with the node ids from start (inclusive) to end (exclusive) of the given array and the given
+         * highway type.
+         */
+        void add(long id, long[] nodes, int start, int end, int highway) {
+            if (size + end - start > refs.length) {
+                refs = Arrays.copyOf(refs, Math.max(2 * refs.length, size + end - start));
+            }
+            System.arraycopy(nodes, start, refs, size, end - start);
+            size += end - start;
+            ids[count] = id;
+            highways[count] = (byte) highway;
+            count += 1;
+            offsets[count] = size;
+        }
+    }
+
+    /**
+     * Arrays of street nodes with room for the nodes of this extract and of the change.
+     */
+    private static class Nodes {
+        private final long[] ids;
+        private final int[] lats;
+        private final int[] lons;
+        private int count;
+
+        Nodes(int capacity) {
+            ids = new long[capacity];
+            lats = new int[capacity];
+            lons = new int[capacity];
+        }
+
+        void add(long id, int lat, int lon) {
+            ids[count] = id;
+            lats[count] = lat;
+            lons[count] = lon;
+            count += 1;
+        }
+    }
+
+    /**
+     * Arrays of named places with room for the places of this extract and of the change.
+     */
+    private static class Places {
+        private final long[] ids;
+        private final String[] names;
+        private final int[] lats;
+        private final int[] lons;
+        private int count;
+
+        Places(int capacity) {
+            ids = new long[capacity];
+            names = new String[capacity];
+            lats = new int[capacity];
+            lons = new int[capacity];
+        }
+
+        void add(long id, String name, int lat, int lon) {
+            ids[count] = id;
+            names[count] = name;
+            lats[count] = lat;
+            lons[count] = lon;
+            count += 1;
+        }
+    }
+}
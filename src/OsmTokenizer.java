@@ -0,0 +1,430 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal streaming tokenizer for the subset of XML used by OSM files: elements with quoted attributes. Text content,
+ * comments, processing instructions, CDATA sections and document type declarations are skipped. Each tag is read into
+ * a reusable byte buffer and its attributes are located by offset, so scanning a file allocates only for the attribute
+ * values that are requested as strings.
+ * <p>
+ * Element and attribute names are compared as ASCII bytes, and attribute values are decoded from UTF-8 with the five
+ * predefined entities and numeric character references expanded.
+ *
+ * @see MapGraph
+ */
+class OsmTokenizer {
+    /**
+     * Token returned by {@link #next()} at the start of an element.
+     */
+    static final int START = 1;
+    /**
+     * Token returned by {@link #next()} at the end of an element, including right after the start of an empty element.
+     */
+    static final int END = 2;
+    /**
+     * Token returned by {@link #next()} at the end of the input.
+     */
+    static final int EOF = 0;
+    private final InputStream input;
+    private final byte[] buffer = new byte[1 << 16];
+    private int position;
+    private int limit;
+    /**
+     * Number of bytes consumed before the start of {@code buffer}, for error messages.
+     */
+    private long offset;
+    /**
+     * Bytes of the current tag between the angle brackets.
+     */
+    private byte[] tag = new byte[1 << 10];
+    private int tagLength;
+    private int nameEnd;
+    /**
+     * Start and end offsets in {@code tag} of each attribute's name and value, four entries per attribute.
+     */
+    private int[] attributes = new int[4 * 8];
+    private int attributeCount;
+    /**
+     * Whether the current start tag closes itself, so that the next token is its end.
+     */
+    private boolean pendingEnd;
+
+    /**
+     * Constructs a tokenizer reading from the given input, which should already be buffered or decompressed.
+     *
+     * @param input the XML input.
+     */
+    OsmTokenizer(InputStream input) {
+        this.input = input;
+    }
+
+    /**
+     * Advances to the next start or end of an element.
+     *
+     * @return {@link #START}, {@link #END} or {@link #EOF}.
+     * @throws IOException if the input cannot be read or is not well-formed.
+     */
+    int next() throws IOException {
+        if (pendingEnd) {
+            pendingEnd = false;
+            return END;
+        }
+        while (true) {
+            int b = read();
+            if (b < 0) {
+                return EOF;
+            } else if (b != '<') {
+                continue;
+            }
+            b = read();
+            if (b == '?') {
+                skipPast("?>");
+            } else if (b == '!') {
+                if (peek('-')) {
+                    skipPast("-->");
+                } else if (peek('[')) {
+                    skipPast("]]>");
+                } else {
+                    skipPast(">");
+                }
+            } else if (b == '/') {
+                tagLength = 0;
+                readTag();
+                parseAttributes();
+                return END;
+            } else if (b < 0) {
+                throw error("Unexpected end of input");
+            } else {
+                tagLength = 0;
+                append(b);
+                readTag();
+                if (tagLength > 0 && tag[tagLength - 1] == '/') {
+                    tagLength -= 1;
+                    pendingEnd = true;
+                }
+                parseAttributes();
+                return START;
+            }
+        }
+    }
+
+    /**
+     * Returns whether the current element has the given ASCII name.
+     *
+     * @param name the element name.
+     * @return true if the current element has the given name.
+     */
+    boolean isElement(String name) {
+        return matches(0, nameEnd, name);
+    }
+
+    /**
+     * Returns the decoded value of the named attribute of the current start tag, or null if it has no such attribute.
+     *
+     * @param name the attribute name.
+     * @return the attribute value, or null if it is missing.
+     * @throws IOException if the value has a malformed character reference.
+     */
+    String attribute(String name) throws IOException {
+        int i = find(name);
+        return i < 0 ? null : decode(attributes[i + 2], attributes[i + 3]);
+    }
+
+    /**
+     * Returns whether the named attribute of the current start tag has the given ASCII value without entities.
+     *
+     * @param name  the attribute name.
+     * @param value the expected value.
+     * @return true if the attribute is present and has the given value.
+     */
+    boolean attributeEquals(String name, String value) {
+        int i = find(name);
+        return i >= 0 && matches(attributes[i + 2], attributes[i + 3], value);
+    }
+
+    /**
+     * Returns the named attribute of the current start tag as a decimal integer, such as a node id.
+     *
+     * @param name the attribute name.
+     * @return the attribute value.
+     * @throws IOException if the attribute is missing or is not a decimal integer.
+     */
+    long longAttribute(String name) throws IOException {
+        int i = find(name);
+        if (i < 0) {
+            throw error("Missing attribute " + name);
+        }
+        int start = attributes[i + 2];
+        int end = attributes[i + 3];
+        boolean negative = start < end && tag[start] == '-';
+        if (negative) {
+            start += 1;
+        }
+        if (start == end || end - start > 18) {
+            throw error("Invalid integer in attribute " + name);
+        }
+        long result = 0;
+        for (int j = start; j < end; j += 1) {
+            int digit = tag[j] - '0';
+            if (digit < 0 || digit > 9) {
+                throw error("Invalid integer in attribute " + name);
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Returns the offset in {@code attributes} of the named attribute, or -1 if it is missing.
+     */
+    private int find(String name) {
+        for (int i = 0; i < 4 * attributeCount; i += 4) {
+            if (matches(attributes[i], attributes[i + 1], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether the bytes of the tag from start (inclusive) to end (exclusive) equal the ASCII string.
+     */
+    private boolean matches(int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i += 1) {
+            if (tag[start + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the rest of the current tag up to its closing angle bracket, which may appear inside quoted values.
+     */
+    private void readTag() throws IOException {
+        byte quote = 0;
+        while (true) {
+            int b = read();
+            if (b < 0) {
+                throw error("Unexpected end of input in tag");
+            } else if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = (byte) b;
+            } else if (b == '>') {
+                return;
+            }
+            append(b);
+        }
+    }
+
+    /**
+     * Finds the element name and the attribute names and values in the current tag.
+     */
+    private void parseAttributes() throws IOException {
+        int i = 0;
+        while (i < tagLength && !isSpace(tag[i])) {
+            i += 1;
+        }
+        nameEnd = i;
+        attributeCount = 0;
+        while (true) {
+            while (i < tagLength && isSpace(tag[i])) {
+                i += 1;
+            }
+            if (i == tagLength) {
+                return;
+            }
+            int nameStart = i;
+            while (i < tagLength && tag[i] != '=' && !isSpace(tag[i])) {
+                i += 1;
+            }
+            int attributeNameEnd = i;
+            while (i < tagLength && isSpace(tag[i])) {
+                i += 1;
+            }
+            if (i == tagLength || tag[i] != '=') {
+                throw error("Expected '=' after attribute name");
+            }
+            i += 1;
+            while (i < tagLength && isSpace(tag[i])) {
+                i += 1;
+            }
+            if (i == tagLength || (tag[i] != '"' && tag[i] != '\'')) {
+                throw error("Expected quoted attribute value");
+            }
+            byte quote = tag[i];
+            int valueStart = i + 1;
+            i = valueStart;
+            while (i < tagLength && tag[i] != quote) {
+                i += 1;
+            }
+            if (i == tagLength) {
+                throw error("Unterminated attribute value");
+            }
+            if (4 * attributeCount == attributes.length) {
+                attributes = Arrays.copyOf(attributes, attributes.length * 2);
+            }
+            int j = 4 * attributeCount;
+            attributes[j] = nameStart;
+            attributes[j + 1] = attributeNameEnd;
+            attributes[j + 2] = valueStart;
+            attributes[j + 3] = i;
+            attributeCount += 1;
+            i += 1;
+        }
+    }
+
+    /**
+     * Returns the UTF-8 bytes of the tag from start (inclusive) to end (exclusive) as a string with entities expanded
+     * and, as XML requires of attribute values, literal line breaks and tabs replaced by spaces.
+     */
+    private String decode(int start, int end) throws IOException {
+        StringBuilder result = null;
+        int i = start;
+        while (true) {
+            int amp = i;
+            while (amp < end && tag[amp] != '&') {
+                amp += 1;
+            }
+            String literal = normalize(new String(tag, i, amp - i, StandardCharsets.UTF_8));
+            if (amp == end && result == null) {
+                return literal;
+            } else if (result == null) {
+                result = new StringBuilder();
+            }
+            result.append(literal);
+            if (amp == end) {
+                return result.toString();
+            }
+            int semicolon = amp;
+            while (semicolon < end && tag[semicolon] != ';') {
+                semicolon += 1;
+            }
+            if (semicolon == end) {
+                throw error("Unterminated entity reference");
+            }
+            String entity = new String(tag, amp + 1, semicolon - amp - 1, StandardCharsets.US_ASCII);
+            switch (entity) {
+                case "amp" -> result.append('&');
+                case "lt" -> result.append('<');
+                case "gt" -> result.append('>');
+                case "quot" -> result.append('"');
+                case "apos" -> result.append('\'');
+                default -> {
+                    try {
+                        if (entity.startsWith("#x")) {
+                            result.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+                        } else if (entity.startsWith("#")) {
+                            result.appendCodePoint(Integer.parseInt(entity.substring(1)));
+                        } else {
+                            throw error("Unknown entity &" + entity + ";");
+                        }
+                    } catch (IllegalArgumentException e) {
+                        throw error("Invalid character reference &" + entity + ";");
+                    }
+                }
+            }
+            i = semicolon + 1;
+        }
+    }
+
+    /**
+     * Returns the literal text with each line break and tab replaced by a space.
+     */
+    private static String normalize(String s) {
+        if (s.indexOf('\n') < 0 && s.indexOf('\r') < 0 && s.indexOf('\t') < 0) {
+            return s;
+        }
+        return s.replace("\r\n", " ").replace('\r', ' ').replace('\n', ' ').replace('\t', ' ');
+    }
+
+    /**
+     * Consumes input up to and including the given ASCII terminator. After a mismatch, the match resumes from the
+     * longest prefix of the terminator that still ends the input read so far, so that {@code ]]]>} ends a CDATA
+     * section.
+     */
+    private void skipPast(String terminator) throws IOException {
+        int matched = 0;
+        while (matched < terminator.length()) {
+            int b = read();
+            if (b < 0) {
+                throw error("Unexpected end of input before " + terminator);
+            }
+            while (matched > 0 && b != terminator.charAt(matched)) {
+                matched = fallback(terminator, matched);
+            }
+            if (b == terminator.charAt(matched)) {
+                matched += 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the longest proper prefix of the terminator that is also a suffix of its first
+     * {@code matched} characters, as in the Knuth-Morris-Pratt failure function.
+     */
+    private static int fallback(String terminator, int matched) {
+        for (int length = matched - 1; length > 0; length -= 1) {
+            if (terminator.regionMatches(0, terminator, matched - length, length)) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns whether the next byte is the given one without consuming it.
+     */
+    private boolean peek(int expected) throws IOException {
+        if (position == limit && !fill()) {
+            return false;
+        }
+        return buffer[position] == expected;
+    }
+
+    private void append(int b) {
+        if (tagLength == tag.length) {
+            tag = Arrays.copyOf(tag, tag.length * 2);
+        }
+        tag[tagLength] = (byte) b;
+        tagLength += 1;
+    }
+
+    /**
+     * Returns the next byte of input, or -1 at the end of the input.
+     */
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        int b = buffer[position] & 0xff;
+        position += 1;
+        return b;
+    }
+
+    /**
+     * Refills the buffer, returning false at the end of the input.
+     */
+    private boolean fill() throws IOException {
+        offset += limit;
+        position = 0;
+        limit = Math.max(0, input.read(buffer));
+        return limit > 0;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " near byte " + (offset + position) + " of OSM XML");
+    }
+}
@@ -0,0 +1,103 @@
+import org.locationtech.spatial4j.distance.DistanceUtils;
+
+import java.util.Map;
+
+/**
+ * Cost of driving along a street for each kind of route that {@link MapGraph#shortestPath(
+ * org.locationtech.spatial4j.shape.Point, org.locationtech.spatial4j.shape.Point, RoutingProfile)} can find. Costs
+ * depend only on the length of a street and its OSM {@code highway} type, and are the same in both directions.
+ *
+ * @see MapGraph.Builder#profiles(RoutingProfile...)
+ */
+public enum RoutingProfile {
+    /**
+     * The shortest route by distance in degrees, as found without a profile.
+     */
+    DISTANCE("distance"),
+    /**
+     * The fastest route in seconds at a typical speed for each type of street.
+     */
+    TRAVEL_TIME("time"),
+    /**
+     * The fastest route in seconds that keeps off motorways unless they save a great deal of time.
+     */
+    AVOID_MOTORWAYS("avoid-motorway");
+
+    /**
+     * Typical speed in kilometers per hour on each allowed type of street.
+     */
+    private static final Map<String, Double> SPEEDS = Map.ofEntries(
+            Map.entry("motorway", 100.0),
+            Map.entry("trunk", 80.0),
+            Map.entry("primary", 60.0),
+            Map.entry("secondary", 50.0),
+            Map.entry("tertiary", 40.0),
+            Map.entry("unclassified", 30.0),
+            Map.entry("residential", 30.0),
+            Map.entry("living_street", 10.0),
+            Map.entry("motorway_link", 60.0),
+            Map.entry("trunk_link", 50.0),
+            Map.entry("primary_link", 40.0),
+            Map.entry("secondary_link", 40.0),
+            Map.entry("tertiary_link", 30.0)
+    );
+    /**
+     * Speed in kilometers per hour on any other type of street.
+     */
+    private static final double DEFAULT_SPEED = 30.0;
+    /**
+     * Factor by which {@link #AVOID_MOTORWAYS} multiplies the travel time on motorways and their ramps. A finite
+     * penalty keeps a route possible when it starts or ends on a motorway.
+     */
+    private static final double MOTORWAY_PENALTY = 20.0;
+    private static final double SECONDS_PER_HOUR = 3600.0;
+
+    private final String parameter;
+
+    RoutingProfile(String parameter) {
+        this.parameter = parameter;
+    }
+
+    /**
+     * Returns the profile with the given name as passed in a query parameter, such as {@code time}.
+     *
+     * @param parameter the name of the profile.
+     * @return the profile with the given name.
+     * @throws IllegalArgumentException if no profile has the name.
+     */
+    public static RoutingProfile of(String parameter) {
+        for (RoutingProfile profile : values()) {
+            if (profile.parameter.equals(parameter)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unknown routing profile " + parameter);
+    }
+
+    /**
+     * Returns the name of this profile as passed in a query parameter.
+     *
+     * @return the name of this profile.
+     */
+    public String parameter() {
+        return parameter;
+    }
+
+    /**
+     * Returns the cost of driving along a street of the given type and length.
+     *
+     * @param highway  the OSM {@code highway} type of the street.
+     * @param distance the length of the street in degrees.
+     * @return the cost in the units of this profile.
+     */
+    public double cost(String highway, double distance) {
+        if (this == DISTANCE) {
+            return distance;
+        }
+        double hours = distance * DistanceUtils.DEG_TO_KM / SPEEDS.getOrDefault(highway, DEFAULT_SPEED);
+        if (this == AVOID_MOTORWAYS && highway.startsWith("motorway")) {
+            hours *= MOTORWAY_PENALTY;
+        }
+        return hours * SECONDS_PER_HOUR;
+    }
+}
@@ -0,0 +1,292 @@
+import cache.LruCache;
+import metrics.Histogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two-tier cache of static map images fetched from an upstream image API. Images are kept in a memory {@link LruCache}
+ * bounded by total bytes and, optionally, in a directory on disk that survives restarts. Both tiers are keyed by the
+ * canonical image URL, which omits the access token so that rotating the token does not invalidate the cache.
+ * <p>
+ * Concurrent requests for the same image that miss both tiers are coalesced: the first request fetches the image and
+ * the others wait for its result, so at most one upstream fetch per image is in flight. Files on disk are never
+ * removed by this class.
+ * <p>
+ * Images can be requested either by blocking the calling thread with {@link #get(URL)}, or without blocking on the
+ * upstream API with {@link #getAsync(URL, HttpClient)}. Both share the same tiers and the same in-flight fetches, and
+ * an upstream fetch that takes longer than {@link #UPSTREAM_TIMEOUT} fails.
+ *
+ * @see MapServer
+ */
+class StaticImageCache {
+    /**
+     * Query parameter holding the upstream API access token.
+     */
+    private static final String TOKEN_PARAMETER = "access_token";
+    /**
+     * Greatest time to wait for an upstream fetch, after which it fails so that every request waiting on it is
+     * answered rather than held forever by a hung connection.
+     */
+    private static final Duration UPSTREAM_TIMEOUT = Duration.ofSeconds(10);
+    private final LruCache<String, byte[]> memory;
+    /**
+     * Directory of cached image files, or null to cache images only in memory.
+     */
+    private final Path directory;
+    /**
+     * Upstream fetches in progress, keyed by canonical URL.
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    /**
+     * Time in nanoseconds of each upstream fetch, successful or not.
+     */
+    private final Histogram fetchTimes;
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param maxBytes   the maximum total size in bytes of the images kept in memory.
+     * @param directory  the directory of cached image files, which is created if missing, or null to cache images
+     *                   only in memory.
+     * @param fetchTimes the histogram recording the time in nanoseconds of each upstream fetch.
+     * @throws IOException if the directory cannot be created.
+     */
+    StaticImageCache(long maxBytes, Path directory, Histogram fetchTimes) throws IOException {
+        this.memory = new LruCache<>(maxBytes, (url, image) -> image.length, Duration.ZERO);
+        this.directory = directory;
+        this.fetchTimes = fetchTimes;
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+    }
+
+    /**
+     * Returns the image at the given URL from memory, from disk, or by fetching it from upstream.
+     *
+     * @param url the image URL.
+     * @return the image bytes.
+     * @throws IOException if the image is not cached and cannot be fetched.
+     */
+    byte[] get(URL url) throws IOException {
+        String key = canonical(url);
+        byte[] image = memory.get(key);
+        if (image != null) {
+            return image;
+        }
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return join(existing);
+        }
+        try {
+            image = readCached(key);
+            if (image == null) {
+                long start = System.nanoTime();
+                URLConnection connection = url.openConnection();
+                connection.setConnectTimeout((int) UPSTREAM_TIMEOUT.toMillis());
+                connection.setReadTimeout((int) UPSTREAM_TIMEOUT.toMillis());
+                try (InputStream input = connection.getInputStream()) {
+                    image = input.readAllBytes();
+                } finally {
+                    fetchTimes.recordSince(start);
+                }
+                write(key, image);
+            }
+        } catch (IOException | RuntimeException e) {
+            finish(key, future, null, e);
+            throw e;
+        }
+        finish(key, future, image, null);
+        return image;
+    }
+
+    /**
+     * Returns a future for the image at the given URL from memory, from disk, or by fetching it from upstream with the
+     * given client. The calling thread may read the disk tier but never waits on the upstream API.
+     *
+     * @param url    the image URL.
+     * @param client the HTTP client for upstream fetches.
+     * @return a future that completes with the image bytes, or exceptionally if the image cannot be fetched.
+     */
+    CompletableFuture<byte[]> getAsync(URL url, HttpClient client) {
+        String key = canonical(url);
+        byte[] image = memory.get(key);
+        if (image != null) {
+            return CompletableFuture.completedFuture(image);
+        }
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        HttpRequest request;
+        try {
+            image = readCached(key);
+            request = HttpRequest.newBuilder(url.toURI()).timeout(UPSTREAM_TIMEOUT).build();
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            finish(key, future, null, e);
+            return future;
+        }
+        if (image != null) {
+            finish(key, future, image, null);
+            return future;
+        }
+        long start = System.nanoTime();
+        // The request timeout only bounds the wait for the response headers, so also bound the whole exchange.
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .orTimeout(UPSTREAM_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((response, error) -> {
+                    fetchTimes.recordSince(start);
+                    if (error != null) {
+                        finish(key, future, null, error);
+                    } else if (response.statusCode() != 200) {
+                        finish(key, future, null, new IOException("Upstream returned " + response.statusCode() + " for "
+                                + canonical(url)));
+                    } else {
+                        try {
+                            write(key, response.body());
+                            finish(key, future, response.body(), null);
+                        } catch (IOException | RuntimeException e) {
+                            finish(key, future, null, e);
+                        }
+                    }
+                });
+        return future;
+    }
+
+    /**
+     * Returns the memory tier, whose counters report how often images were found in memory.
+     *
+     * @return the memory tier.
+     */
+    LruCache<String, byte[]> memory() {
+        return memory;
+    }
+
+    /**
+     * Returns the image from memory or disk, or null if it is not cached.
+     */
+    private byte[] readCached(String key) throws IOException {
+        // The request that fetched the image last may have finished after this request missed the memory tier.
+        byte[] image = memory.get(key);
+        if (image != null || directory == null) {
+            return image;
+        }
+        try {
+            return Files.readAllBytes(directory.resolve(sha256(key)));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a fetched image to disk if there is a directory.
+     */
+    private void write(String key, byte[] image) throws IOException {
+        if (directory == null) {
+            return;
+        }
+        // Move a complete temporary file into place so that readers never see a partial image.
+        Path temp = Files.createTempFile(directory, "image", ".tmp");
+        try {
+            Files.write(temp, image);
+            Files.move(temp, directory.resolve(sha256(key)), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The image can still be served from memory, so a full or read-only disk should not fail the request.
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Stores the image in memory if it was loaded, stops coalescing requests for it, and completes the future that
+     * other requests are waiting on.
+     */
+    private void finish(String key, CompletableFuture<byte[]> future, byte[] image, Throwable error) {
+        if (image != null) {
+            memory.put(key, image);
+        }
+        inFlight.remove(key, future);
+        if (error != null) {
+            future.completeExceptionally(error);
+        } else {
+            future.complete(image);
+        }
+    }
+
+    /**
+     * Waits for another request's fetch of the same image.
+     */
+    private static byte[] join(CompletableFuture<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for image");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            } else if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the URL without its access token parameter.
+     *
+     * @param url the image URL.
+     * @return the URL without its access token parameter.
+     */
+    static String canonical(URL url) {
+        String s = url.toString();
+        int query = s.indexOf('?');
+        if (query < 0) {
+            return s;
+        }
+        StringBuilder result = new StringBuilder(s.substring(0, query));
+        char separator = '?';
+        for (String parameter : s.substring(query + 1).split("&")) {
+            if (!parameter.isEmpty() && !parameter.startsWith(TOKEN_PARAMETER + "=")) {
+                result.append(separator).append(parameter);
+                separator = '&';
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the hexadecimal SHA-256 digest of the string, used as a file name that is safe on any file system.
+     */
+    private static String sha256(String s) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+}
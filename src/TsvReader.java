@@ -0,0 +1,316 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+
+/**
+ * Streaming reader of tab-separated values, one record per line. Each line is located in a large byte buffer and its
+ * fields are found by offset, so reading a file allocates only for the fields that are requested as strings: integer
+ * fields are parsed straight from the bytes. Lines may end with {@code \n} or {@code \r\n}, and the last line need not
+ * end with a line break.
+ * <p>
+ * A reader either streams from an {@link InputStream}, refilling its buffer as it goes, or reads a region of a
+ * memory-mapped file. {@link #readChunks(Path, ChunkReader)} splits a file into regions that start and end on line
+ * boundaries and reads them in parallel, one reader per region.
+ *
+ * @see MapGraph
+ * @see CitySearch
+ */
+class TsvReader {
+    /**
+     * Initial capacity of the buffer of a streaming reader, which grows to fit the longest line.
+     */
+    private static final int BUFFER_BYTES = 1 << 20;
+    /**
+     * Largest region of a file mapped by one reader, below the 2 GiB limit of a {@link ByteBuffer}.
+     */
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+    /**
+     * The source of more bytes, or null if the buffer already holds all of the input.
+     */
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    /**
+     * Whether the channel has no more bytes to read into the buffer.
+     */
+    private boolean exhausted;
+    /**
+     * Offset in {@code buffer} of the start of the next line.
+     */
+    private int next;
+    /**
+     * Start and end offsets in {@code buffer} of each field of the current line, two entries per field.
+     */
+    private int[] fields = new int[2 * 8];
+    private int fieldCount;
+    private long lineNumber;
+    /**
+     * Reusable copy of a field from a buffer without a backing array, for decoding strings.
+     */
+    private byte[] scratch = new byte[0];
+
+    /**
+     * Constructs a reader streaming from the given input.
+     *
+     * @param input the tab-separated values.
+     */
+    TsvReader(InputStream input) {
+        channel = Channels.newChannel(input);
+        buffer = ByteBuffer.allocate(BUFFER_BYTES).limit(0);
+    }
+
+    /**
+     * Constructs a reader over the remaining bytes of the given buffer, such as a region of a memory-mapped file.
+     *
+     * @param buffer the tab-separated values.
+     */
+    TsvReader(ByteBuffer buffer) {
+        channel = null;
+        exhausted = true;
+        this.buffer = buffer.slice();
+    }
+
+    /**
+     * Advances to the next line.
+     *
+     * @return true if there is another line, or false at the end of the input.
+     * @throws IOException if the input cannot be read.
+     */
+    boolean next() throws IOException {
+        int end = next;
+        while (true) {
+            while (end < buffer.limit() && buffer.get(end) != '\n') {
+                end += 1;
+            }
+            if (end < buffer.limit() || exhausted) {
+                break;
+            }
+            end -= next;
+            fill();
+            end += next;
+        }
+        if (next == buffer.limit()) {
+            return false;
+        }
+        int lineEnd = end > next && buffer.get(end - 1) == '\r' ? end - 1 : end;
+        split(next, lineEnd);
+        next = Math.min(end + 1, buffer.limit());
+        lineNumber += 1;
+        return true;
+    }
+
+    /**
+     * Returns the number of fields in the current line, which is one more than its number of tabs.
+     *
+     * @return the number of fields in the current line.
+     */
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Returns the given field of the current line decoded from UTF-8.
+     *
+     * @param field the field index, starting from 0.
+     * @return the field as a string.
+     * @throws IOException if the line has no such field.
+     */
+    String string(int field) throws IOException {
+        int start = start(field);
+        int length = fields[2 * field + 1] - start;
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, 2 * scratch.length)];
+        }
+        buffer.get(start, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the given field of the current line parsed as a decimal integer with an optional sign.
+     *
+     * @param field the field index, starting from 0.
+     * @return the field as an integer.
+     * @throws IOException if the line has no such field or the field is not a decimal integer that fits in an int.
+     */
+    int intField(int field) throws IOException {
+        int i = start(field);
+        int end = fields[2 * field + 1];
+        boolean negative = i < end && buffer.get(i) == '-';
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            i += 1;
+        }
+        if (i == end) {
+            throw error("Expected an integer in field " + field);
+        }
+        // Accumulate as a negative number, whose range includes Integer.MIN_VALUE.
+        long result = 0;
+        for (; i < end; i += 1) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw error("Expected an integer in field " + field);
+            }
+            result = result * 10 - digit;
+            if (result < Integer.MIN_VALUE) {
+                throw error("Integer out of range in field " + field);
+            }
+        }
+        if (!negative && result == Integer.MIN_VALUE) {
+            throw error("Integer out of range in field " + field);
+        }
+        return (int) (negative ? result : -result);
+    }
+
+    /**
+     * Reads the file in parallel by splitting it into one region per core, each starting after a line break, and
+     * reading each region with its own reader. The results are returned in file order, so concatenating them gives
+     * the same result as reading the whole file with one reader.
+     *
+     * @param path   the file path.
+     * @param reader the function reading every line of one region.
+     * @param <T>    the type of the result of each region.
+     * @return the result of each region in file order.
+     * @throws IOException if the file cannot be read or any region cannot be parsed.
+     */
+    static <T> List<T> readChunks(Path path, ChunkReader<T> reader) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = file.size();
+            int count = (int) Math.max(Runtime.getRuntime().availableProcessors(), size / MAX_CHUNK_BYTES + 1);
+            long[] bounds = new long[count + 1];
+            for (int i = 1; i < count; i += 1) {
+                bounds[i] = lineStartAfter(file, Math.max(bounds[i - 1], size * i / count));
+            }
+            bounds[count] = size;
+            for (int i = 1; i <= count; i += 1) {
+                if (bounds[i] - bounds[i - 1] > Integer.MAX_VALUE) {
+                    throw new IOException("Line longer than 2 GiB in " + path);
+                }
+            }
+            List<T> results = new ArrayList<>(count);
+            try {
+                IntStream.range(0, count).parallel().mapToObj(i -> {
+                    try {
+                        long length = bounds[i + 1] - bounds[i];
+                        return reader.read(new TsvReader(file.map(FileChannel.MapMode.READ_ONLY, bounds[i], length)));
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }).forEachOrdered(results::add);
+            } catch (CompletionException e) {
+                throw (IOException) e.getCause();
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Returns the offset of the first line that starts at or after the given offset, or the file size if there is
+     * none.
+     */
+    private static long lineStartAfter(FileChannel file, long offset) throws IOException {
+        if (offset == 0) {
+            return 0;
+        }
+        // The line starts right after the nearest line break at or after offset - 1.
+        ByteBuffer bytes = ByteBuffer.allocate(1 << 12);
+        long position = offset - 1;
+        while (true) {
+            bytes.clear();
+            int n = file.read(bytes, position);
+            if (n < 0) {
+                return file.size();
+            }
+            for (int i = 0; i < n; i += 1) {
+                if (bytes.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Returns the start offset of the given field, checking that the current line has it.
+     */
+    private int start(int field) throws IOException {
+        if (field < 0 || field >= fieldCount) {
+            throw error("Missing field " + field);
+        }
+        return fields[2 * field];
+    }
+
+    /**
+     * Finds the fields of the line from start (inclusive) to end (exclusive).
+     */
+    private void split(int start, int end) {
+        fieldCount = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end; i += 1) {
+            if (i == end || buffer.get(i) == '\t') {
+                if (2 * fieldCount == fields.length) {
+                    fields = Arrays.copyOf(fields, 2 * fields.length);
+                }
+                fields[2 * fieldCount] = fieldStart;
+                fields[2 * fieldCount + 1] = i;
+                fieldCount += 1;
+                fieldStart = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Moves the unread bytes to the front of the buffer, growing it if a single line fills it, and reads more input
+     * after them.
+     */
+    private void fill() throws IOException {
+        buffer.position(next);
+        if (next == 0 && buffer.limit() == buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(2 * buffer.capacity());
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        next = 0;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                exhausted = true;
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " on line " + lineNumber + " of TSV input");
+    }
+
+    /**
+     * Function reading every line of one region of a file.
+     *
+     * @param <T> the type of the result.
+     */
+    @FunctionalInterface
+    interface ChunkReader<T> {
+        /**
+         * Reads every line of the region.
+         *
+         * @param tsv the reader positioned before the first line of the region.
+         * @return the result of reading the region.
+         * @throws IOException if the region cannot be parsed.
+         */
+        T read(TsvReader tsv) throws IOException;
+    }
+}
@@ -0,0 +1,273 @@
+package cache;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Bounded, thread-safe cache that evicts the least-recently used entries once the total weight of its entries exceeds
+ * a maximum. Entries may also expire a fixed time after they were stored.
+ * <p>
+ * Keys are spread by hash across independently locked segments, each an access-ordered {@link LinkedHashMap} holding
+ * an equal share of the maximum weight, so concurrent lookups of different keys rarely wait on each other. Hits,
+ * misses and evictions are counted without locking.
+ *
+ * @param <K> the type of keys.
+ * @param <V> the type of values.
+ */
+public class LruCache<K, V> {
+    /**
+     * Number of independently locked segments.
+     */
+    private static final int SEGMENTS = 16;
+    private final Segment<K, V>[] segments;
+    private final ToIntBiFunction<? super K, ? super V> weigher;
+    /**
+     * Time in nanoseconds that an entry remains valid after it is stored, or 0 if entries do not expire.
+     */
+    private final long ttlNanos;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs an empty cache holding at most the given number of entries that never expire.
+     *
+     * @param maxSize the maximum number of entries.
+     */
+    public LruCache(long maxSize) {
+        this(maxSize, (key, value) -> 1, Duration.ZERO);
+    }
+
+    /**
+     * Constructs an empty cache whose entries have a total weight of at most the given maximum.
+     *
+     * @param maxWeight the maximum total weight of the entries.
+     * @param weigher   the weight of each entry, which must not be negative.
+     * @param ttl       the time that each entry remains valid after it is stored, or zero if entries do not expire.
+     * @throws IllegalArgumentException if the maximum weight or the time-to-live is negative.
+     */
+    @SuppressWarnings("unchecked")
+    public LruCache(long maxWeight, ToIntBiFunction<? super K, ? super V> weigher, Duration ttl) {
+        if (maxWeight < 0 || ttl.isNegative()) {
+            throw new IllegalArgumentException("Negative maximum weight or time-to-live");
+        }
+        this.weigher = weigher;
+        this.ttlNanos = ttl.toNanos();
+        segments = (Segment<K, V>[]) new Segment<?, ?>[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i += 1) {
+            // Spread the remainder so that the segment limits sum to exactly the maximum weight.
+            segments[i] = new Segment<>(maxWeight / SEGMENTS + (i < maxWeight % SEGMENTS ? 1 : 0));
+        }
+    }
+
+    /**
+     * Returns the value stored for the key, or null if there is no such value or it has expired.
+     *
+     * @param key the key to look up.
+     * @return the value stored for the key, or null if there is no valid value.
+     */
+    public V get(K key) {
+        V value = segment(key).get(key, System.nanoTime());
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Stores the value for the key, replacing any previous value, and evicts least-recently used entries until the
+     * total weight is within the maximum. A value heavier than a segment's share of the maximum weight is not stored.
+     *
+     * @param key   the key to store.
+     * @param value the value to store.
+     */
+    public void put(K key, V value) {
+        int weight = weigher.applyAsInt(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight " + weight + " for " + key);
+        }
+        long expiresAt = ttlNanos == 0 ? Long.MAX_VALUE : System.nanoTime() + ttlNanos;
+        evictions.add(segment(key).put(key, new Entry<>(value, weight, expiresAt)));
+    }
+
+    /**
+     * Returns the value stored for the key, computing and storing it if there is no valid value. The computation runs
+     * without holding any lock, so concurrent misses on the same key may each compute the value.
+     *
+     * @param key     the key to look up.
+     * @param compute the function that computes the value from the key, which must not return null.
+     * @return the stored or computed value.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> compute) {
+        V value = get(key);
+        if (value == null) {
+            value = compute.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Removes every entry, for example after the data that the values were computed from has changed.
+     */
+    public void invalidateAll() {
+        for (Segment<K, V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Returns the number of entries, including expired entries that have not yet been removed.
+     *
+     * @return the number of entries.
+     */
+    public long size() {
+        long result = 0;
+        for (Segment<K, V> segment : segments) {
+            result += segment.size();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total weight of the entries, including expired entries that have not yet been removed.
+     *
+     * @return the total weight of the entries.
+     */
+    public long weight() {
+        long result = 0;
+        for (Segment<K, V> segment : segments) {
+            result += segment.weight();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of lookups that found a valid value.
+     *
+     * @return the number of lookups that found a valid value.
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a valid value.
+     *
+     * @return the number of lookups that did not find a valid value.
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of entries removed to stay within the maximum weight.
+     *
+     * @return the number of entries removed to stay within the maximum weight.
+     */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "LruCache{" +
+                "size=" + size() +
+                ", weight=" + weight() +
+                ", hits=" + hitCount() +
+                ", misses=" + missCount() +
+                ", evictions=" + evictionCount() +
+                '}';
+    }
+
+    private Segment<K, V> segment(K key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[(h & 0x7fffffff) % SEGMENTS];
+    }
+
+    /**
+     * A stored value with its weight and the {@link System#nanoTime()} at which it expires.
+     */
+    private static class Entry<V> {
+        private final V value;
+        private final int weight;
+        private final long expiresAt;
+
+        Entry(V value, int weight, long expiresAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * One lock's share of the cache: an access-ordered map and the total weight of its entries.
+     */
+    private static class Segment<K, V> {
+        private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxWeight;
+        private long weight;
+
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+        synchronized V get(K key, long now) {
+            Entry<V> entry = map.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt != Long.MAX_VALUE && now - entry.expiresAt >= 0) {
+                map.remove(key);
+                weight -= entry.weight;
+                return null;
+            }
+            return entry.value;
+        }
+
+        /**
+         * Stores the entry and returns the number of other entries evicted to make room for it.
+         */
+        synchronized int put(K key, Entry<V> entry) {
+            Entry<V> previous = map.remove(key);
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            if (entry.weight > maxWeight) {
+                return 0;
+            }
+            map.put(key, entry);
+            weight += entry.weight;
+            int evicted = 0;
+            Iterator<Map.Entry<K, Entry<V>>> eldest = map.entrySet().iterator();
+            while (weight > maxWeight) {
+                Entry<V> removed = eldest.next().getValue();
+                eldest.remove();
+                weight -= removed.weight;
+                evicted += 1;
+            }
+            return evicted;
+        }
+
+        synchronized void clear() {
+            map.clear();
+            weight = 0;
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        synchronized long weight() {
+            return weight;
+        }
+    }
+}
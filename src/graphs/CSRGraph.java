@@ -0,0 +1,221 @@
+package graphs;
+
+import java.util.Arrays;
+
+/**
+ * Frozen, directed, edge-weighted graph over the vertices {@code 0} to {@code size() - 1} stored in compressed sparse
+ * row (CSR) form. The outgoing edges of vertex {@code v} are the edge indices from {@code edgeStart(v)} (inclusive) to
+ * {@code edgeEnd(v)} (exclusive), so scanning the neighbors of a vertex reads contiguous primitive arrays instead of
+ * following {@link Edge} references.
+ *
+ * @see Builder
+ * @see IndexedAStarGraph
+ */
+public final class CSRGraph {
+    /**
+     * Index of the first outgoing edge of each vertex, plus a trailing sentinel equal to the number of edges.
+     */
+    private final int[] offsets;
+    /**
+     * Destination vertex of each edge.
+     */
+    private final int[] targets;
+    /**
+     * Weight of each edge.
+     */
+    private final double[] weights;
+
+    /**
+     * Constructs a graph directly from its CSR arrays, which must not be modified afterwards.
+     *
+     * @param offsets index of the first outgoing edge of each vertex followed by the total number of edges.
+     * @param targets destination vertex of each edge.
+     * @param weights weight of each edge.
+     * @throws IllegalArgumentException if the array lengths are inconsistent.
+     */
+    public CSRGraph(int[] offsets, int[] targets, double[] weights) {
+        if (offsets.length == 0 || offsets[offsets.length - 1] != targets.length
+                || targets.length != weights.length) {
+            throw new IllegalArgumentException("Inconsistent CSR arrays");
+        }
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    /**
+     * Returns the number of vertices in this graph.
+     *
+     * @return the number of vertices in this graph.
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Returns the number of edges in this graph.
+     *
+     * @return the number of edges in this graph.
+     */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * Returns the index of the first outgoing edge of the given vertex.
+     *
+     * @param vertex the vertex of interest.
+     * @return the index of the first outgoing edge of the given vertex.
+     */
+    public int edgeStart(int vertex) {
+        return offsets[vertex];
+    }
+
+    /**
+     * Returns one past the index of the last outgoing edge of the given vertex.
+     *
+     * @param vertex the vertex of interest.
+     * @return one past the index of the last outgoing edge of the given vertex.
+     */
+    public int edgeEnd(int vertex) {
+        return offsets[vertex + 1];
+    }
+
+    /**
+     * Returns the number of outgoing edges of the given vertex.
+     *
+     * @param vertex the vertex of interest.
+     * @return the number of outgoing edges of the given vertex.
+     */
+    public int degree(int vertex) {
+        return offsets[vertex + 1] - offsets[vertex];
+    }
+
+    /**
+     * Returns the destination vertex of the given edge.
+     *
+     * @param edge the edge index.
+     * @return the destination vertex of the given edge.
+     */
+    public int target(int edge) {
+        return targets[edge];
+    }
+
+    /**
+     * Returns the weight of the given edge.
+     *
+     * @param edge the edge index.
+     * @return the weight of the given edge.
+     */
+    public double weight(int edge) {
+        return weights[edge];
+    }
+
+    /**
+     * Returns a new graph with every edge reversed. Edge weights are preserved.
+     *
+     * @return a new graph with every edge reversed.
+     */
+    public CSRGraph reverse() {
+        Builder builder = new Builder();
+        for (int from = 0; from < size(); from += 1) {
+            for (int e = offsets[from]; e < offsets[from + 1]; e += 1) {
+                builder.addEdge(targets[e], from, weights[e]);
+            }
+        }
+        return builder.build(size());
+    }
+
+    @Override
+    public String toString() {
+        return "CSRGraph{" +
+                "size=" + size() +
+                ", edgeCount=" + edgeCount() +
+                '}';
+    }
+
+    /**
+     * Accumulates edges in insertion order and freezes them into a {@link CSRGraph}.
+     */
+    public static class Builder {
+        private int[] sources;
+        private int[] targets;
+        private double[] weights;
+        private int edgeCount;
+
+        /**
+         * Constructs an empty builder.
+         */
+        public Builder() {
+            sources = new int[16];
+            targets = new int[16];
+            weights = new double[16];
+        }
+
+        /**
+         * Adds a directed edge. Parallel edges are kept, and edges from the same vertex keep their insertion order.
+         *
+         * @param from   the originating vertex.
+         * @param to     the destination vertex.
+         * @param weight the weight of the edge.
+         * @return this builder.
+         * @throws IndexOutOfBoundsException if either vertex is negative.
+         */
+        public Builder addEdge(int from, int to, double weight) {
+            if (from < 0 || to < 0) {
+                throw new IndexOutOfBoundsException("Edge " + from + " -> " + to);
+            }
+            if (edgeCount == sources.length) {
+                int capacity = edgeCount * 2;
+                sources = Arrays.copyOf(sources, capacity);
+                targets = Arrays.copyOf(targets, capacity);
+                weights = Arrays.copyOf(weights, capacity);
+            }
+            sources[edgeCount] = from;
+            targets[edgeCount] = to;
+            weights[edgeCount] = weight;
+            edgeCount += 1;
+            return this;
+        }
+
+        /**
+         * Returns the number of edges added so far.
+         *
+         * @return the number of edges added so far.
+         */
+        public int edgeCount() {
+            return edgeCount;
+        }
+
+        /**
+         * Returns a frozen graph over the given number of vertices containing every edge added so far, using a stable
+         * counting sort by source vertex.
+         *
+         * @param size the number of vertices.
+         * @return a frozen graph containing every edge added so far.
+         * @throws IndexOutOfBoundsException if an edge refers to a vertex outside of the graph.
+         */
+        public CSRGraph build(int size) {
+            int[] offsets = new int[size + 1];
+            for (int e = 0; e < edgeCount; e += 1) {
+                if (sources[e] >= size || targets[e] >= size) {
+                    throw new IndexOutOfBoundsException("Edge " + sources[e] + " -> " + targets[e]
+                            + " outside of " + size);
+                }
+                offsets[sources[e] + 1] += 1;
+            }
+            for (int v = 0; v < size; v += 1) {
+                offsets[v + 1] += offsets[v];
+            }
+            int[] next = Arrays.copyOf(offsets, size);
+            int[] sortedTargets = new int[edgeCount];
+            double[] sortedWeights = new double[edgeCount];
+            for (int e = 0; e < edgeCount; e += 1) {
+                int i = next[sources[e]]++;
+                sortedTargets[i] = targets[e];
+                sortedWeights[i] = weights[e];
+            }
+            return new CSRGraph(offsets, sortedTargets, sortedWeights);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package graphs;
+
+import java.util.Arrays;
+
+/**
+ * Simplification of an undirected {@link CSRGraph} that collapses every chain of degree-2 vertices into a single edge
+ * between the vertices at its ends. A vertex is interior to a chain if it has exactly two distinct neighbors other than
+ * itself, one edge to each and one edge back from each; every other vertex is a core vertex. The chain edge weighs the
+ * sum of the edges it replaces, and the interior vertices are kept in order with their distances along the chain so
+ * that paths over the core vertices can be expanded back to the original vertices.
+ * <p>
+ * Core vertices are numbered {@code 0} to {@code csr().size() - 1} in the order of their original numbers. A cycle of
+ * interior vertices with no core vertex is broken by promoting one of its vertices to a core vertex, numbered after
+ * the others. The input graph must be undirected: each edge must have a reverse edge of the same weight.
+ *
+ * @see CSRGraph
+ */
+public final class ChainGraph {
+    /**
+     * Edges between core vertices, including one edge in each direction for every chain.
+     */
+    private final CSRGraph csr;
+    /**
+     * Core number of each original vertex, or -1 for interior vertices.
+     */
+    private final int[] cores;
+    /**
+     * Original vertex number of each core vertex.
+     */
+    private final int[] vertices;
+    /**
+     * Index in {@code chainVertices} of each original vertex, or -1 for core vertices.
+     */
+    private final int[] slots;
+    /**
+     * Index of the first interior vertex of each chain, plus a trailing sentinel equal to the number of interior
+     * vertices.
+     */
+    private final int[] chainOffsets;
+    /**
+     * Interior vertices of every chain in order from the start of the chain to its end.
+     */
+    private final int[] chainVertices;
+    /**
+     * Distance along its chain from the start of the chain to each interior vertex.
+     */
+    private final double[] chainDistances;
+    private final int[] chainStarts;
+    private final int[] chainEnds;
+    private final double[] chainWeights;
+    /**
+     * Chain of each edge of {@code csr} times two, plus one if the edge runs from the end of the chain to its start,
+     * or -1 if the edge joined two core vertices in the original graph.
+     */
+    private final int[] edgeChains;
+
+    /**
+     * Constructs the simplification of the given graph.
+     *
+     * @param graph an undirected graph with non-negative edge weights.
+     */
+    public ChainGraph(CSRGraph graph) {
+        int n = graph.size();
+        int[] inDegrees = new int[n];
+        for (int e = 0; e < graph.edgeCount(); e += 1) {
+            inDegrees[graph.target(e)] += 1;
+        }
+        cores = new int[n];
+        int[] coreVertices = new int[n];
+        int coreCount = 0;
+        for (int v = 0; v < n; v += 1) {
+            if (isInterior(graph, v, inDegrees[v])) {
+                cores[v] = -1;
+            } else {
+                cores[v] = coreCount;
+                coreVertices[coreCount] = v;
+                coreCount += 1;
+            }
+        }
+        slots = new int[n];
+        Arrays.fill(slots, -1);
+
+        Chains chains = new Chains(n - coreCount);
+        CSRGraph.Builder builder = new CSRGraph.Builder();
+        int[] chainOfEdge = new int[graph.edgeCount()];
+        int unvisited = 0;
+        for (int core = 0; ; core += 1) {
+            if (core == coreCount) {
+                // Promote a vertex of any remaining cycle that no chain from a core vertex has reached.
+                while (unvisited < n && (cores[unvisited] >= 0 || slots[unvisited] >= 0)) {
+                    unvisited += 1;
+                }
+                if (unvisited == n) {
+                    break;
+                }
+                cores[unvisited] = coreCount;
+                coreVertices[coreCount] = unvisited;
+                coreCount += 1;
+            }
+            int from = coreVertices[core];
+            for (int e = graph.edgeStart(from); e < graph.edgeEnd(from); e += 1) {
+                int next = graph.target(e);
+                if (cores[next] >= 0) {
+                    chainOfEdge[builder.edgeCount()] = -1;
+                    builder.addEdge(core, cores[next], graph.weight(e));
+                } else if (slots[next] >= 0) {
+                    // The chain was already walked from its other end, so this edge runs from its end to its start.
+                    int chain = chains.chainOf(slots[next]);
+                    chainOfEdge[builder.edgeCount()] = 2 * chain + 1;
+                    builder.addEdge(core, chains.starts[chain], chains.weights[chain]);
+                } else {
+                    int chain = walk(graph, core, from, e, chains);
+                    chainOfEdge[builder.edgeCount()] = 2 * chain;
+                    builder.addEdge(core, chains.ends[chain], chains.weights[chain]);
+                }
+            }
+        }
+        csr = builder.build(coreCount);
+        vertices = Arrays.copyOf(coreVertices, coreCount);
+        edgeChains = Arrays.copyOf(chainOfEdge, builder.edgeCount());
+        chainOffsets = Arrays.copyOf(chains.offsets, chains.count + 1);
+        chainVertices = Arrays.copyOf(chains.vertices, chains.size);
+        chainDistances = Arrays.copyOf(chains.distances, chains.size);
+        chainStarts = Arrays.copyOf(chains.starts, chains.count);
+        chainEnds = Arrays.copyOf(chains.ends, chains.count);
+        chainWeights = Arrays.copyOf(chains.weights, chains.count);
+    }
+
+    /**
+     * Returns whether the vertex has exactly two distinct neighbors other than itself, with one edge in each direction.
+     */
+    private static boolean isInterior(CSRGraph graph, int v, int inDegree) {
+        if (graph.degree(v) != 2 || inDegree != 2) {
+            return false;
+        }
+        int a = graph.target(graph.edgeStart(v));
+        int b = graph.target(graph.edgeStart(v) + 1);
+        return a != b && a != v && b != v;
+    }
+
+    /**
+     * Walks a new chain from the given core vertex, whose original number is also given, along the given edge until
+     * it reaches a core vertex, recording the interior vertices on the way, and returns the chain number.
+     */
+    private int walk(CSRGraph graph, int start, int from, int edge, Chains chains) {
+        int chain = chains.start(start);
+        int previous = from;
+        int current = graph.target(edge);
+        double distance = graph.weight(edge);
+        while (cores[current] < 0) {
+            slots[current] = chains.add(current, distance);
+            int e = graph.edgeStart(current);
+            if (graph.target(e) == previous) {
+                e += 1;
+            }
+            previous = current;
+            current = graph.target(e);
+            distance += graph.weight(e);
+        }
+        chains.finish(cores[current], distance);
+        return chain;
+    }
+
+    /**
+     * Returns the edges between core vertices, including one edge in each direction for every chain.
+     *
+     * @return the edges between core vertices.
+     */
+    public CSRGraph csr() {
+        return csr;
+    }
+
+    /**
+     * Returns the core number of the given original vertex, or -1 if it is interior to a chain.
+     *
+     * @param vertex the original vertex number.
+     * @return the core number of the vertex, or -1 if it is interior to a chain.
+     */
+    public int coreOf(int vertex) {
+        return cores[vertex];
+    }
+
+    /**
+     * Returns the original vertex number of the given core vertex.
+     *
+     * @param core the core number.
+     * @return the original vertex number.
+     */
+    public int vertexOf(int core) {
+        return vertices[core];
+    }
+
+    /**
+     * Returns the chain that the given original vertex is interior to, or -1 if it is a core vertex.
+     *
+     * @param vertex the original vertex number.
+     * @return the chain number, or -1 if the vertex is a core vertex.
+     */
+    public int chainOf(int vertex) {
+        int slot = slots[vertex];
+        if (slot < 0) {
+            return -1;
+        }
+        int i = Arrays.binarySearch(chainOffsets, slot);
+        // Chains are never empty, so a slot that starts a chain appears exactly once in the offsets.
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * Returns the position of the given interior vertex along its chain, starting from 0.
+     *
+     * @param vertex the original vertex number, which must be interior to a chain.
+     * @return the position of the vertex along its chain.
+     */
+    public int positionOf(int vertex) {
+        return slots[vertex] - chainOffsets[chainOf(vertex)];
+    }
+
+    /**
+     * Returns the distance along its chain from the start of the chain to the given interior vertex.
+     *
+     * @param vertex the original vertex number, which must be interior to a chain.
+     * @return the distance from the start of the chain to the vertex.
+     */
+    public double offsetOf(int vertex) {
+        return chainDistances[slots[vertex]];
+    }
+
+    /**
+     * Returns the core number of the vertex at the start of the chain.
+     *
+     * @param chain the chain number.
+     * @return the core number of the vertex at the start of the chain.
+     */
+    public int chainStart(int chain) {
+        return chainStarts[chain];
+    }
+
+    /**
+     * Returns the core number of the vertex at the end of the chain.
+     *
+     * @param chain the chain number.
+     * @return the core number of the vertex at the end of the chain.
+     */
+    public int chainEnd(int chain) {
+        return chainEnds[chain];
+    }
+
+    /**
+     * Returns the total weight of the edges along the chain.
+     *
+     * @param chain the chain number.
+     * @return the total weight of the chain.
+     */
+    public double chainWeight(int chain) {
+        return chainWeights[chain];
+    }
+
+    /**
+     * Returns the number of chains.
+     *
+     * @return the number of chains.
+     */
+    public int chainCount() {
+        return chainStarts.length;
+    }
+
+    /**
+     * Returns the number of interior vertices of the chain.
+     *
+     * @param chain the chain number.
+     * @return the number of interior vertices of the chain.
+     */
+    public int chainSize(int chain) {
+        return chainOffsets[chain + 1] - chainOffsets[chain];
+    }
+
+    /**
+     * Returns the original vertex number of the interior vertex at the given position along the chain.
+     *
+     * @param chain    the chain number.
+     * @param position the position along the chain, from 0 at its start.
+     * @return the original vertex number.
+     */
+    public int chainVertex(int chain, int position) {
+        return chainVertices[chainOffsets[chain] + position];
+    }
+
+    /**
+     * Returns the chain collapsed into the given edge of {@link #csr()}, or -1 if the edge joined two core vertices in
+     * the original graph.
+     *
+     * @param edge the edge index.
+     * @return the chain number, or -1 if the edge has no interior vertices.
+     */
+    public int edgeChain(int edge) {
+        return edgeChains[edge] < 0 ? -1 : edgeChains[edge] / 2;
+    }
+
+    /**
+     * Returns whether the given edge of {@link #csr()} runs from the end of its chain to the start, so that its
+     * interior vertices are visited in reverse order.
+     *
+     * @param edge the edge index.
+     * @return true if the edge runs against the order of its chain.
+     */
+    public boolean isReversed(int edge) {
+        return edgeChains[edge] >= 0 && edgeChains[edge] % 2 == 1;
+    }
+
+    /**
+     * Returns the lightest edge of {@link #csr()} from one core vertex to another, or -1 if there is no such edge.
+     *
+     * @param from the originating core number.
+     * @param to   the destination core number.
+     * @return the lightest edge from one core vertex to the other, or -1 if there is none.
+     */
+    public int lightestEdge(int from, int to) {
+        int result = -1;
+        for (int e = csr.edgeStart(from); e < csr.edgeEnd(from); e += 1) {
+            if (csr.target(e) == to && (result < 0 || csr.weight(e) < csr.weight(result))) {
+                result = e;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the lightest edge of {@link #csr()} from one core vertex to another by the given edge weights instead of
+     * the weights of the graph, or -1 if there is no such edge.
+     *
+     * @param from    the originating core number.
+     * @param to      the destination core number.
+     * @param weights the weight of each edge of {@link #csr()}.
+     * @return the lightest edge from one core vertex to the other, or -1 if there is none.
+     */
+    public int lightestEdge(int from, int to, double[] weights) {
+        int result = -1;
+        for (int e = csr.edgeStart(from); e < csr.edgeEnd(from); e += 1) {
+            if (csr.target(e) == to && (result < 0 || weights[e] < weights[result])) {
+                result = e;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ChainGraph{" +
+                "cores=" + vertices.length +
+                ", chains=" + chainStarts.length +
+                ", interior=" + chainVertices.length +
+                ", edgeCount=" + csr.edgeCount() +
+                '}';
+    }
+
+    /**
+     * Growable arrays of the chains found so far, each a run of interior vertices between two core vertices.
+     */
+    private static class Chains {
+        private final int[] vertices;
+        private final double[] distances;
+        private int size;
+        private int[] offsets = new int[17];
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private double[] weights = new double[16];
+        private int count;
+
+        Chains(int interiorCount) {
+            vertices = new int[interiorCount];
+            distances = new double[interiorCount];
+        }
+
+        /**
+         * Starts a new chain at the given core vertex and returns its number.
+         */
+        int start(int core) {
+            if (count == starts.length) {
+                offsets = Arrays.copyOf(offsets, 2 * count + 1);
+                starts = Arrays.copyOf(starts, 2 * count);
+                ends = Arrays.copyOf(ends, 2 * count);
+                weights = Arrays.copyOf(weights, 2 * count);
+            }
+            starts[count] = core;
+            return count;
+        }
+
+        /**
+         * Appends an interior vertex at the given distance from the start of the current chain and returns its slot.
+         */
+        int add(int vertex, double distance) {
+            vertices[size] = vertex;
+            distances[size] = distance;
+            size += 1;
+            return size - 1;
+        }
+
+        /**
+         * Ends the current chain at the given core vertex.
+         */
+        void finish(int core, double weight) {
+            ends[count] = core;
+            weights[count] = weight;
+            count += 1;
+            offsets[count] = size;
+        }
+
+        /**
+         * Returns the finished chain holding the interior vertex in the given slot.
+         */
+        int chainOf(int slot) {
+            int i = Arrays.binarySearch(offsets, 0, count + 1, slot);
+            return i >= 0 ? i : -i - 2;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package graphs;
+
+import graphs.shortestpaths.AStarSolver;
+
+/**
+ * {@link AStarGraph} whose vertices are also numbered {@code 0} to {@code csr().size() - 1} so that searches can run
+ * over primitive arrays instead of hashing vertex objects. The frozen edges are available in both directions, so every
+ * indexed graph is also a {@link ReversibleGraph}.
+ *
+ * @param <V> the type of vertices.
+ * @see CSRGraph
+ * @see AStarSolver
+ */
+public interface IndexedAStarGraph<V> extends AStarGraph<V>, ReversibleGraph<V> {
+    /**
+     * Returns the frozen edges of this graph indexed by vertex number.
+     *
+     * @return the frozen edges of this graph indexed by vertex number.
+     */
+    CSRGraph csr();
+
+    /**
+     * Returns the frozen edges of this graph with every edge reversed, so that the edges of vertex {@code v} are its
+     * incoming edges. Implementations should compute this once rather than on every call.
+     *
+     * @return the reverse of {@link #csr()}.
+     * @see CSRGraph#reverse()
+     */
+    CSRGraph reverseCsr();
+
+    /**
+     * Returns the number of the given vertex, or -1 if the vertex is not in this graph.
+     *
+     * @param vertex the vertex of interest.
+     * @return the number of the given vertex, or -1 if the vertex is not in this graph.
+     */
+    int indexOf(V vertex);
+
+    /**
+     * Returns the vertex with the given number.
+     *
+     * @param index the vertex number.
+     * @return the vertex with the given number.
+     */
+    V vertex(int index);
+
+    /**
+     * Returns an estimated distance from start to end identified by their vertex numbers.
+     *
+     * @param start the number of the beginning vertex.
+     * @param end   the number of the destination vertex.
+     * @return an estimated distance from start to end.
+     */
+    double estimatedDistance(int start, int end);
+}
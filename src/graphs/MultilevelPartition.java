@@ -0,0 +1,372 @@
+package graphs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Nested partition of the vertices of a {@link CSRGraph} into cells at several levels, where every cell at one level
+ * is a union of cells at the level below. Level {@code 0} has the smallest cells. The partition depends only on the
+ * structure of the graph and the positions of its vertices, not on its edge weights, so that it can be reused for any
+ * metric over the same graph.
+ * <p>
+ * {@link #inertialFlow(CSRGraph, double[], double[], int...)} builds the partition top-down by recursive bisection with
+ * inertial flow: the vertices of a cell are sorted along a few directions in the plane, and for each direction the
+ * first and last quarter are joined to a source and a sink whose minimum edge cut is found by unit-capacity maximum
+ * flow. The smallest of these cuts splits the cell. Street networks have few edges crossing any straight line through a
+ * city, so the cuts are small, and each side holds at least a quarter of the vertices.
+ *
+ * @see graphs.shortestpaths.OverlayGraph
+ */
+public final class MultilevelPartition {
+    /**
+     * Fraction of the vertices at each end of a direction that are joined to the source or to the sink.
+     */
+    private static final double TERMINAL_FRACTION = 0.25;
+    /**
+     * Directions in radians along which the vertices of a cell are sorted before each cut.
+     */
+    private static final double[] DIRECTIONS = {0, Math.PI / 4, Math.PI / 2, 3 * Math.PI / 4};
+    /**
+     * Cell number of each vertex at each level.
+     */
+    private final int[][] cells;
+    /**
+     * Number of cells at each level.
+     */
+    private final int[] cellCounts;
+
+    private MultilevelPartition(int[][] cells, int[] cellCounts) {
+        this.cells = cells;
+        this.cellCounts = cellCounts;
+    }
+
+    /**
+     * Returns a nested partition of the given undirected graph by recursive inertial flow bisection, with each cell at
+     * each level holding at most the given number of vertices.
+     *
+     * @param graph     an undirected graph: each edge must have a reverse edge.
+     * @param xs        the horizontal position of each vertex.
+     * @param ys        the vertical position of each vertex.
+     * @param cellSizes the maximum number of vertices in a cell at each level, in increasing order.
+     * @return a nested partition of the graph.
+     * @throws IllegalArgumentException if there are no levels, or if the cell sizes are not positive and increasing.
+     */
+    public static MultilevelPartition inertialFlow(CSRGraph graph, double[] xs, double[] ys, int... cellSizes) {
+        if (cellSizes.length == 0) {
+            throw new IllegalArgumentException("No levels");
+        }
+        for (int level = 0; level < cellSizes.length; level += 1) {
+            if (cellSizes[level] <= 0 || level > 0 && cellSizes[level] <= cellSizes[level - 1]) {
+                throw new IllegalArgumentException("Cell sizes must be positive and increasing: "
+                        + Arrays.toString(cellSizes));
+            }
+        }
+        InertialFlow bisection = new InertialFlow(graph, xs, ys);
+        int[][] cells = new int[cellSizes.length][];
+        int[] cellCounts = new int[cellSizes.length];
+        List<int[]> pieces = new ArrayList<>();
+        int[] all = new int[graph.size()];
+        for (int v = 0; v < all.length; v += 1) {
+            all[v] = v;
+        }
+        pieces.add(all);
+        // Split the cells of each level further to get the cells of the level below, so that the levels nest.
+        for (int level = cellSizes.length - 1; level >= 0; level -= 1) {
+            List<int[]> next = new ArrayList<>();
+            for (int[] piece : pieces) {
+                bisection.split(piece, cellSizes[level], next);
+            }
+            cells[level] = new int[graph.size()];
+            for (int cell = 0; cell < next.size(); cell += 1) {
+                for (int v : next.get(cell)) {
+                    cells[level][v] = cell;
+                }
+            }
+            cellCounts[level] = next.size();
+            pieces = next;
+        }
+        return new MultilevelPartition(cells, cellCounts);
+    }
+
+    /**
+     * Returns the number of levels in this partition.
+     *
+     * @return the number of levels.
+     */
+    public int levels() {
+        return cells.length;
+    }
+
+    /**
+     * Returns the number of vertices in the partitioned graph.
+     *
+     * @return the number of vertices.
+     */
+    public int size() {
+        return cells[0].length;
+    }
+
+    /**
+     * Returns the number of cells at the given level.
+     *
+     * @param level the level, where 0 has the smallest cells.
+     * @return the number of cells at the level.
+     */
+    public int cellCount(int level) {
+        return cellCounts[level];
+    }
+
+    /**
+     * Returns the cell of the given vertex at the given level.
+     *
+     * @param level  the level, where 0 has the smallest cells.
+     * @param vertex the vertex number.
+     * @return the cell number of the vertex at the level.
+     */
+    public int cell(int level, int vertex) {
+        return cells[level][vertex];
+    }
+
+    @Override
+    public String toString() {
+        return "MultilevelPartition{" +
+                "cellCounts=" + Arrays.toString(cellCounts) +
+                '}';
+    }
+
+    /**
+     * Recursive bisection of vertex sets by inertial flow, with the flow on each edge and the search state of the
+     * current cut kept in arrays over the whole graph.
+     */
+    private static class InertialFlow {
+        private final CSRGraph graph;
+        private final double[] xs;
+        private final double[] ys;
+        /**
+         * Source vertex of each edge.
+         */
+        private final int[] sources;
+        /**
+         * Index in {@code inEdges} of the first incoming edge of each vertex, plus a trailing sentinel.
+         */
+        private final int[] inOffsets;
+        /**
+         * Incoming edges of every vertex, grouped by their target.
+         */
+        private final int[] inEdges;
+        /**
+         * Whether one unit of flow runs along each edge.
+         */
+        private final boolean[] flow;
+        /**
+         * Number of the cut whose vertex set each vertex belongs to, or 0 if none yet.
+         */
+        private final int[] members;
+        /**
+         * Number of the search that last reached each vertex.
+         */
+        private final int[] visits;
+        /**
+         * Edge by which each vertex was reached, plus one, negated if it cancels flow along an edge into the vertex, or
+         * 0 for a terminal.
+         */
+        private final int[] parents;
+        /**
+         * Whether each vertex is joined to the sink in the current cut.
+         */
+        private final boolean[] sinks;
+        private final int[] queue;
+        private int cut;
+        private int search;
+
+        InertialFlow(CSRGraph graph, double[] xs, double[] ys) {
+            this.graph = graph;
+            this.xs = xs;
+            this.ys = ys;
+            int n = graph.size();
+            sources = new int[graph.edgeCount()];
+            inOffsets = new int[n + 1];
+            for (int v = 0; v < n; v += 1) {
+                for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e += 1) {
+                    sources[e] = v;
+                    inOffsets[graph.target(e) + 1] += 1;
+                }
+            }
+            for (int v = 0; v < n; v += 1) {
+                inOffsets[v + 1] += inOffsets[v];
+            }
+            inEdges = new int[graph.edgeCount()];
+            int[] next = Arrays.copyOf(inOffsets, n);
+            for (int e = 0; e < graph.edgeCount(); e += 1) {
+                inEdges[next[graph.target(e)]++] = e;
+            }
+            flow = new boolean[graph.edgeCount()];
+            members = new int[n];
+            visits = new int[n];
+            parents = new int[n];
+            sinks = new boolean[n];
+            queue = new int[n];
+        }
+
+        /**
+         * Splits the vertices until each piece has at most the given number of vertices, adding the pieces in order.
+         */
+        void split(int[] vertices, int maxSize, List<int[]> pieces) {
+            if (vertices.length <= maxSize) {
+                pieces.add(vertices);
+                return;
+            }
+            int[][] halves = bisect(vertices);
+            split(halves[0], maxSize, pieces);
+            split(halves[1], maxSize, pieces);
+        }
+
+        /**
+         * Returns the two sides of the smallest cut of the vertices along any direction, preferring the more balanced
+         * cut between cuts of the same size.
+         */
+        private int[][] bisect(int[] vertices) {
+            cut += 1;
+            for (int v : vertices) {
+                members[v] = cut;
+            }
+            int bestCut = Integer.MAX_VALUE;
+            int[][] best = null;
+            for (double direction : DIRECTIONS) {
+                double dx = Math.cos(direction);
+                double dy = Math.sin(direction);
+                Integer[] order = new Integer[vertices.length];
+                for (int i = 0; i < order.length; i += 1) {
+                    order[i] = vertices[i];
+                }
+                Arrays.sort(order, Comparator.comparingDouble((Integer v) -> dx * xs[v] + dy * ys[v])
+                        .thenComparingInt(v -> v));
+                int terminals = Math.max(1, (int) (TERMINAL_FRACTION * vertices.length));
+                int size = maxFlow(vertices, order, terminals);
+                int[][] sides = sides(vertices);
+                if (size < bestCut || size == bestCut && balance(sides) < balance(best)) {
+                    bestCut = size;
+                    best = sides;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Returns how far the smaller side is from holding half of the vertices.
+         */
+        private static int balance(int[][] sides) {
+            return Math.abs(sides[0].length - sides[1].length);
+        }
+
+        /**
+         * Pushes unit flows along shortest augmenting paths from the first terminals in the given order to the last
+         * terminals until none remains, and returns the size of the flow, which equals the size of the minimum cut.
+         * The vertices reached by the last search are the source side of the cut.
+         */
+        private int maxFlow(int[] vertices, Integer[] order, int terminals) {
+            for (int v : vertices) {
+                sinks[v] = false;
+                for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e += 1) {
+                    flow[e] = false;
+                }
+            }
+            for (int i = order.length - terminals; i < order.length; i += 1) {
+                sinks[order[i]] = true;
+            }
+            int size = 0;
+            while (true) {
+                int sink = augmentingPath(order, terminals);
+                if (sink < 0) {
+                    return size;
+                }
+                for (int v = sink; parents[v] != 0; ) {
+                    int e = Math.abs(parents[v]) - 1;
+                    if (parents[v] > 0) {
+                        flow[e] = true;
+                        v = sources[e];
+                    } else {
+                        flow[e] = false;
+                        v = graph.target(e);
+                    }
+                }
+                size += 1;
+            }
+        }
+
+        /**
+         * Searches the residual graph breadth-first from every source terminal, and returns the first sink terminal
+         * reached, or -1 if none can be reached.
+         */
+        private int augmentingPath(Integer[] order, int terminals) {
+            search += 1;
+            int head = 0;
+            int tail = 0;
+            for (int i = 0; i < terminals; i += 1) {
+                int v = order[i];
+                visits[v] = search;
+                parents[v] = 0;
+                queue[tail++] = v;
+            }
+            while (head < tail) {
+                int v = queue[head++];
+                for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e += 1) {
+                    int w = graph.target(e);
+                    if (!flow[e] && reach(w, e + 1)) {
+                        if (sinks[w]) {
+                            return w;
+                        }
+                        queue[tail++] = w;
+                    }
+                }
+                for (int i = inOffsets[v]; i < inOffsets[v + 1]; i += 1) {
+                    int e = inEdges[i];
+                    int w = sources[e];
+                    if (flow[e] && reach(w, -(e + 1))) {
+                        // Augmenting paths end at the first sink they reach, so no flow leaves a sink and w is not one.
+                        queue[tail++] = w;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Marks the vertex as reached by the given parent edge if it is in the current vertex set and not yet reached.
+         */
+        private boolean reach(int w, int parent) {
+            if (members[w] != cut || visits[w] == search) {
+                return false;
+            }
+            visits[w] = search;
+            parents[w] = parent;
+            return true;
+        }
+
+        /**
+         * Returns the vertices reached by the last search followed by the others.
+         */
+        private int[][] sides(int[] vertices) {
+            int reached = 0;
+            for (int v : vertices) {
+                if (visits[v] == search) {
+                    reached += 1;
+                }
+            }
+            int[] source = new int[reached];
+            int[] sink = new int[vertices.length - reached];
+            int i = 0;
+            int j = 0;
+            for (int v : vertices) {
+                if (visits[v] == search) {
+                    source[i++] = v;
+                } else {
+                    sink[j++] = v;
+                }
+            }
+            return new int[][]{source, sink};
+        }
+    }
+}
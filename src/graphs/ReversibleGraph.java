@@ -0,0 +1,23 @@
+package graphs;
+
+import graphs.shortestpaths.BidirectionalAStarSolver;
+
+import java.util.List;
+
+/**
+ * Directed, edge-weighted graph that can also be traversed backward along its edges.
+ *
+ * @param <V> the type of vertices.
+ * @see Graph
+ * @see BidirectionalAStarSolver
+ */
+public interface ReversibleGraph<V> extends Graph<V> {
+    /**
+     * Returns a list of the incoming edges to the given vertex. Each edge is directed as in the graph, so its
+     * {@code to} is the given vertex.
+     *
+     * @param vertex the node of interest.
+     * @return a list of the incoming edges to the given vertex.
+     */
+    List<Edge<V>> incoming(V vertex);
+}
@@ -0,0 +1,144 @@
+package graphs;
+
+import java.util.Arrays;
+
+/**
+ * Strongly connected components of a {@link CSRGraph}, found by Tarjan's algorithm with an explicit stack so that
+ * long paths cannot overflow the call stack. Every vertex is labeled with its component number from {@code 0} to
+ * {@code count() - 1}, and a path from one vertex to another exists only if both have the same label.
+ *
+ * @see CSRGraph
+ */
+public final class StronglyConnectedComponents {
+    /**
+     * Component number of each vertex.
+     */
+    private final int[] components;
+    /**
+     * Number of vertices in each component.
+     */
+    private final int[] sizes;
+    private final int largest;
+
+    /**
+     * Constructs the components of the given graph.
+     *
+     * @param graph the input graph.
+     */
+    public StronglyConnectedComponents(CSRGraph graph) {
+        int n = graph.size();
+        components = new int[n];
+        Arrays.fill(components, -1);
+        // Discovery order of each vertex, from 1, or 0 if it has not been discovered.
+        int[] order = new int[n];
+        // Lowest discovery order reachable from each vertex through its subtree and one more edge.
+        int[] low = new int[n];
+        // Next edge to scan from each vertex on the call stack.
+        int[] nextEdge = new int[n];
+        int[] callStack = new int[n];
+        int[] stack = new int[n];
+        int[] componentSizes = new int[16];
+        int discovered = 0;
+        int stackSize = 0;
+        int count = 0;
+        for (int root = 0; root < n; root += 1) {
+            if (order[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            callStack[depth++] = root;
+            order[root] = low[root] = ++discovered;
+            nextEdge[root] = graph.edgeStart(root);
+            stack[stackSize++] = root;
+            while (depth > 0) {
+                int v = callStack[depth - 1];
+                if (nextEdge[v] < graph.edgeEnd(v)) {
+                    int w = graph.target(nextEdge[v]);
+                    nextEdge[v] += 1;
+                    if (order[w] == 0) {
+                        order[w] = low[w] = ++discovered;
+                        nextEdge[w] = graph.edgeStart(w);
+                        stack[stackSize++] = w;
+                        callStack[depth++] = w;
+                    } else if (components[w] < 0) {
+                        // w is still on the stack, so it belongs to the component of an ancestor.
+                        low[v] = Math.min(low[v], order[w]);
+                    }
+                    continue;
+                }
+                depth -= 1;
+                if (depth > 0) {
+                    int parent = callStack[depth - 1];
+                    low[parent] = Math.min(low[parent], low[v]);
+                }
+                if (low[v] == order[v]) {
+                    // v is the root of a component made of every vertex above it on the stack.
+                    if (count == componentSizes.length) {
+                        componentSizes = Arrays.copyOf(componentSizes, count * 2);
+                    }
+                    int w;
+                    do {
+                        w = stack[--stackSize];
+                        components[w] = count;
+                        componentSizes[count] += 1;
+                    } while (w != v);
+                    count += 1;
+                }
+            }
+        }
+        sizes = Arrays.copyOf(componentSizes, count);
+        int result = -1;
+        for (int c = 0; c < count; c += 1) {
+            if (result < 0 || sizes[c] > sizes[result]) {
+                result = c;
+            }
+        }
+        largest = result;
+    }
+
+    /**
+     * Returns the component number of the given vertex.
+     *
+     * @param vertex the vertex of interest.
+     * @return the component number of the vertex.
+     */
+    public int component(int vertex) {
+        return components[vertex];
+    }
+
+    /**
+     * Returns the number of components.
+     *
+     * @return the number of components.
+     */
+    public int count() {
+        return sizes.length;
+    }
+
+    /**
+     * Returns the number of vertices in the given component.
+     *
+     * @param component the component number.
+     * @return the number of vertices in the component.
+     */
+    public int size(int component) {
+        return sizes[component];
+    }
+
+    /**
+     * Returns the component with the most vertices, or -1 if the graph has no vertices.
+     *
+     * @return the number of the largest component, or -1 if there are none.
+     */
+    public int largest() {
+        return largest;
+    }
+
+    @Override
+    public String toString() {
+        return "StronglyConnectedComponents{" +
+                "count=" + count() +
+                ", largest=" + (largest < 0 ? 0 : sizes[largest]) +
+                '}';
+    }
+}
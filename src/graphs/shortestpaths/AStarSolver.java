@@ -1,22 +1,62 @@
 package graphs.shortestpaths;
 
 import graphs.AStarGraph;
+import graphs.CSRGraph;
 import graphs.Edge;
+import graphs.IndexedAStarGraph;
 import minpq.DoubleMapMinPQ;
+import minpq.IntHeapMinPQ;
 import minpq.MinPQ;
 
 import java.util.*;
 
 /**
- * A* search implementation for single-pair shortest paths in an {@link AStarGraph}.
+ * A* search implementation for single-pair shortest paths in an {@link AStarGraph}. The search stops as soon as the
+ * goal is removed from the priority queue. When the graph is an {@link IndexedAStarGraph}, the search runs over its
+ * {@link CSRGraph} with the primitive arrays of this thread's {@link SearchWorkspace} instead of maps, so repeated
+ * queries allocate little more than the returned path. Indexed searches may also run between several starts and goals
+ * at once, for queries that begin or end partway along an edge.
+ * <p>
+ * A search given a {@link Deadline} checks it as it settles vertices, and throws a {@link SearchCancelledException}
+ * from the constructor once it passes.
+ * <p>
+ * Indexed searches may also inflate the heuristic by a weight {@code w >= 1}, ordering vertices by
+ * {@code dist(v) + w * h(v)}. With a consistent heuristic the path found is at most {@code w} times longer than the
+ * shortest, and the search settles far fewer vertices because it heads for the goal more greedily. A weighted search
+ * never settles a vertex twice: a vertex whose distance improves after it was settled is only set aside, since
+ * searching it again costs more than the shorter path saves. Once the search ends, the vertices left in the priority
+ * queue and those set aside give a lower bound on the shortest distance, from which
+ * {@link #suboptimalityBound()} reports how far from optimal the path can actually be, which is often much closer to
+ * 1 than the weight.
  *
  * @param <V> the type of vertices.
  * @see AStarGraph
+ * @see IndexedAStarGraph
+ * @see AnytimeAStarSolver
  */
 public class AStarSolver<V> {
-    private final Map<V, Edge<V>> edgeTo;
-    private final Map<V, Double> distTo;
-    private final V goal;
+    private final List<V> solution;
+    private final Deadline deadline;
+    /**
+     * Factor by which the heuristic is inflated in indexed searches.
+     */
+    private final double weight;
+    /**
+     * Greatest ratio of the length of the solution to the shortest distance that the search can prove.
+     */
+    private double suboptimalityBound = 1.0;
+    /**
+     * Number of vertices removed from the priority queue, including the goal.
+     */
+    private int settledCount;
+    /**
+     * Number of edges examined from settled vertices.
+     */
+    private int relaxedCount;
+    /**
+     * Number of additions, priority changes and removals on the priority queue.
+     */
+    private int pqOperationCount;
 
     /**
      * Constructs a new instance by executing A* search on the graph from the start to the goal.
@@ -26,16 +66,168 @@ public class AStarSolver<V> {
      * @param goal  the goal vertex.
      */
     public AStarSolver(AStarGraph<V> graph, V start, V goal) {
-        edgeTo = new HashMap<>();
-        distTo = new HashMap<>();
-        this.goal = goal;
+        this(graph, start, goal, Deadline.NONE);
+    }
+
+    /**
+     * Constructs a new instance by executing A* search on the graph from the start to the goal, giving up once the
+     * deadline passes.
+     *
+     * @param graph    the input graph.
+     * @param start    the start vertex.
+     * @param goal     the goal vertex.
+     * @param deadline the deadline for the search.
+     * @throws SearchCancelledException if the deadline passes or is cancelled before the search finishes.
+     */
+    public AStarSolver(AStarGraph<V> graph, V start, V goal, Deadline deadline) {
+        this.deadline = deadline;
+        this.weight = 1.0;
+        if (graph instanceof IndexedAStarGraph) {
+            IndexedAStarGraph<V> indexed = (IndexedAStarGraph<V>) graph;
+            int s = indexed.indexOf(start);
+            int t = indexed.indexOf(goal);
+            if (s >= 0 && t >= 0) {
+                solution = solve(indexed, new int[]{s}, new double[]{0.0}, new int[]{t}, new double[]{0.0});
+                if (solution.isEmpty()) {
+                    // Match the search over maps, which returns only the goal when it is unreachable.
+                    solution.add(goal);
+                }
+                return;
+            }
+        }
+        solution = solve(graph, start, goal);
+    }
+
+    /**
+     * Constructs a new instance by executing A* search on the indexed graph from any of the starts to any of the goals.
+     * Each start is the given distance past the true origin of the query and each goal the given distance short of
+     * its true destination, so that a query can begin and end partway along an edge: the solution is the path between
+     * the start and goal that minimizes the total distance including both. Vertices may appear more than once.
+     *
+     * @param graph          the input graph.
+     * @param starts         the numbers of the start vertices.
+     * @param startDistances the distance from the origin to each start vertex.
+     * @param goals          the numbers of the goal vertices.
+     * @param goalDistances  the distance from each goal vertex to the destination.
+     */
+    public AStarSolver(IndexedAStarGraph<V> graph, int[] starts, double[] startDistances,
+                       int[] goals, double[] goalDistances) {
+        this(graph, starts, startDistances, goals, goalDistances, Deadline.NONE);
+    }
+
+    /**
+     * Constructs a new instance by executing A* search on the indexed graph from any of the starts to any of the
+     * goals as in {@link #AStarSolver(IndexedAStarGraph, int[], double[], int[], double[])}, giving up once the
+     * deadline passes.
+     *
+     * @param graph          the input graph.
+     * @param starts         the numbers of the start vertices.
+     * @param startDistances the distance from the origin to each start vertex.
+     * @param goals          the numbers of the goal vertices.
+     * @param goalDistances  the distance from each goal vertex to the destination.
+     * @param deadline       the deadline for the search.
+     * @throws SearchCancelledException if the deadline passes or is cancelled before the search finishes.
+     */
+    public AStarSolver(IndexedAStarGraph<V> graph, int[] starts, double[] startDistances,
+                       int[] goals, double[] goalDistances, Deadline deadline) {
+        this(graph, starts, startDistances, goals, goalDistances, 1.0, deadline);
+    }
+
+    /**
+     * Constructs a new instance by executing weighted A* search on the indexed graph from any of the starts to any of
+     * the goals as in {@link #AStarSolver(IndexedAStarGraph, int[], double[], int[], double[])}, with the heuristic
+     * inflated by the given weight and giving up once the deadline passes. The solution is at most the weight times
+     * longer than the shortest path.
+     *
+     * @param graph          the input graph.
+     * @param starts         the numbers of the start vertices.
+     * @param startDistances the distance from the origin to each start vertex.
+     * @param goals          the numbers of the goal vertices.
+     * @param goalDistances  the distance from each goal vertex to the destination.
+     * @param weight         the factor by which to inflate the heuristic, where 1 finds a shortest path.
+     * @param deadline       the deadline for the search.
+     * @throws IllegalArgumentException if the weight is less than 1.
+     * @throws SearchCancelledException if the deadline passes or is cancelled before the search finishes.
+     */
+    public AStarSolver(IndexedAStarGraph<V> graph, int[] starts, double[] startDistances,
+                       int[] goals, double[] goalDistances, double weight, Deadline deadline) {
+        if (!(weight >= 1.0)) {
+            throw new IllegalArgumentException("Heuristic weight must be at least 1: " + weight);
+        }
+        this.deadline = deadline;
+        this.weight = weight;
+        solution = solve(graph, starts, startDistances, goals, goalDistances);
+    }
+
+    /**
+     * Returns the single-pair shortest path from the stored start to the stored goal. When searching between several
+     * starts and goals, the path runs from the chosen start to the chosen goal, or is empty if no goal is reachable.
+     *
+     * @return a list of vertices representing the shortest path.
+     */
+    public List<V> solution() {
+        return solution;
+    }
+
+    /**
+     * Returns the greatest ratio of the length of the solution to the length of a shortest path that the search can
+     * prove, which is 1 unless the heuristic was weighted and is never more than the weight.
+     *
+     * @return the bound on the suboptimality of the solution.
+     */
+    public double suboptimalityBound() {
+        return suboptimalityBound;
+    }
+
+    /**
+     * Returns the number of vertices settled (removed from the priority queue), including the goal itself. This is the
+     * work the search did, and it measures the quality of the heuristic.
+     *
+     * @return the number of vertices settled.
+     */
+    public int settledCount() {
+        return settledCount;
+    }
+
+    /**
+     * Returns the number of edges examined from settled vertices, whether or not they led to a shorter path.
+     *
+     * @return the number of edges relaxed.
+     */
+    public int relaxedCount() {
+        return relaxedCount;
+    }
+
+    /**
+     * Returns the number of operations on the priority queue: additions, priority changes and removals.
+     *
+     * @return the number of priority queue operations.
+     */
+    public int pqOperationCount() {
+        return pqOperationCount;
+    }
+
+    /**
+     * Returns the shortest path found by A* search over {@link Edge} objects and vertex-keyed maps.
+     */
+    private List<V> solve(AStarGraph<V> graph, V start, V goal) {
+        Map<V, Edge<V>> edgeTo = new HashMap<>();
+        Map<V, Double> distTo = new HashMap<>();
         MinPQ<V> pq = new DoubleMapMinPQ<>();
         pq.add(start, 0.0);
+        pqOperationCount += 1;
         edgeTo.put(start, null);
         distTo.put(start, 0.0);
         while (!pq.isEmpty()) {
             V from = pq.removeMin();
+            pqOperationCount += 1;
+            settledCount += 1;
+            deadline.check(settledCount);
+            if (from.equals(goal)) {
+                break;
+            }
             for (Edge<V> e : graph.neighbors(from)) {
+                relaxedCount += 1;
                 V to = e.to;
                 double oldDist = distTo.getOrDefault(to, Double.POSITIVE_INFINITY);
                 double newDist = distTo.get(from) + e.weight;
@@ -44,17 +236,10 @@ public class AStarSolver<V> {
                     distTo.put(to, newDist);
                     double priority = newDist + graph.estimatedDistance(to, goal);
                     pq.addOrChangePriority(to, priority);
+                    pqOperationCount += 1;
                 }
             }
         }
-    }
-
-    /**
-     * Returns the single-pair shortest path from the stored start to the stored goal.
-     *
-     * @return a list of vertices representing the shortest path.
-     */
-    public List<V> solution() {
         List<V> path = new ArrayList<>();
         V curr = goal;
         path.add(curr);
@@ -65,4 +250,106 @@ public class AStarSolver<V> {
         Collections.reverse(path);
         return path;
     }
+
+    /**
+     * Returns the shortest path found by A* search over vertex numbers, recording the predecessor of each vertex
+     * (or -1) and its distance in this thread's workspace rather than maps. The search ends once no vertex left in the
+     * priority queue could lead to a shorter path than the best goal settled so far.
+     */
+    private List<V> solve(IndexedAStarGraph<V> graph, int[] starts, double[] startDistances,
+                          int[] goals, double[] goalDistances) {
+        CSRGraph csr = graph.csr();
+        SearchWorkspace workspace = SearchWorkspace.forward(csr.size());
+        IntHeapMinPQ pq = workspace.pq();
+        for (int i = 0; i < starts.length; i += 1) {
+            if (startDistances[i] < workspace.distTo(starts[i])) {
+                workspace.set(starts[i], startDistances[i], -1);
+                pq.addOrChangePriority(starts[i],
+                        startDistances[i] + weight * estimate(graph, starts[i], goals, goalDistances));
+                pqOperationCount += 1;
+            }
+        }
+        double best = Double.POSITIVE_INFINITY;
+        int bestGoal = -1;
+        // Settled vertices whose distances improved afterwards, which a weighted search does not settle again.
+        int[] reopened = new int[0];
+        int reopenedCount = 0;
+        while (!pq.isEmpty() && pq.peekMinPriority() < best) {
+            int from = pq.removeMin();
+            pqOperationCount += 1;
+            workspace.settle(from);
+            settledCount += 1;
+            deadline.check(settledCount);
+            double fromDist = workspace.distTo(from);
+            for (int i = 0; i < goals.length; i += 1) {
+                if (goals[i] == from && fromDist + goalDistances[i] < best) {
+                    best = fromDist + goalDistances[i];
+                    bestGoal = from;
+                }
+            }
+            relaxedCount += csr.degree(from);
+            for (int e = csr.edgeStart(from); e < csr.edgeEnd(from); e += 1) {
+                int to = csr.target(e);
+                double newDist = fromDist + csr.weight(e);
+                if (newDist < workspace.distTo(to)) {
+                    workspace.set(to, newDist, from);
+                    if (weight > 1.0 && workspace.settled(to)) {
+                        if (reopenedCount == reopened.length) {
+                            reopened = Arrays.copyOf(reopened, Math.max(2 * reopenedCount, 16));
+                        }
+                        reopened[reopenedCount++] = to;
+                        continue;
+                    }
+                    double priority = newDist + weight * estimate(graph, to, goals, goalDistances);
+                    pq.addOrChangePriority(to, priority);
+                    pqOperationCount += 1;
+                }
+            }
+        }
+        if (weight > 1.0 && best > 0.0 && best < Double.POSITIVE_INFINITY) {
+            double lowerBound = lowerBound(graph, workspace, best, goals, goalDistances, reopened, reopenedCount);
+            suboptimalityBound = lowerBound > 0.0 ? Math.min(weight, best / lowerBound) : weight;
+        }
+        List<V> path = new ArrayList<>();
+        for (int curr = bestGoal; curr != -1; curr = workspace.parent(curr)) {
+            path.add(graph.vertex(curr));
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * Returns a lower bound on the shortest distance from the origin to the destination, given the length of the best
+     * path found, by emptying the priority queue. Some vertex on a shortest path is either left in the queue or set
+     * aside with its shortest distance, or the best path is itself shortest, so the smallest unweighted estimate
+     * through a waiting vertex, or else the best length, is at most the shortest distance.
+     */
+    private static double lowerBound(IndexedAStarGraph<?> graph, SearchWorkspace workspace, double best, int[] goals,
+                                     double[] goalDistances, int[] reopened, int reopenedCount) {
+        double result = best;
+        IntHeapMinPQ pq = workspace.pq();
+        while (!pq.isEmpty()) {
+            int v = pq.removeMin();
+            result = Math.min(result, workspace.distTo(v) + estimate(graph, v, goals, goalDistances));
+        }
+        for (int i = 0; i < reopenedCount; i += 1) {
+            int v = reopened[i];
+            result = Math.min(result, workspace.distTo(v) + estimate(graph, v, goals, goalDistances));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the estimated distance from the vertex to the destination through the nearest goal.
+     */
+    static double estimate(IndexedAStarGraph<?> graph, int v, int[] goals, double[] goalDistances) {
+        if (goals.length == 1) {
+            return graph.estimatedDistance(v, goals[0]) + goalDistances[0];
+        }
+        double result = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < goals.length; i += 1) {
+            result = Math.min(result, graph.estimatedDistance(v, goals[i]) + goalDistances[i]);
+        }
+        return result;
+    }
 }
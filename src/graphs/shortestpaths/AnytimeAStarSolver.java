@@ -0,0 +1,251 @@
+package graphs.shortestpaths;
+
+import graphs.CSRGraph;
+import graphs.IndexedAStarGraph;
+import minpq.IntHeapMinPQ;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Anytime Repairing A* (ARA*) for single-pair shortest paths in an {@link IndexedAStarGraph}. The search first runs
+ * weighted A* with a large weight, which finds a path quickly, and then repeatedly lowers the weight and repairs the
+ * search rather than starting over: vertices settled in earlier rounds keep their distances, and only those whose
+ * distance improved since they were last settled are searched again. Each round ends with a path and a bound on how
+ * much longer it can be than the shortest path, and the search stops once that bound reaches 1 or the deadline passes,
+ * keeping the best path found so far.
+ * <p>
+ * Within a round, a vertex whose distance improves after it was settled is not searched again until the next round.
+ * The bound after each round is the smaller of the weight and the ratio of the length of the path to the smallest
+ * unweighted estimate through any vertex still waiting to be searched.
+ *
+ * @param <V> the type of vertices.
+ * @see AStarSolver
+ */
+public class AnytimeAStarSolver<V> {
+    /**
+     * Fraction of its excess over 1 that the weight keeps from one round to the next.
+     */
+    private static final double WEIGHT_DECAY = 0.5;
+    /**
+     * Excess over 1 below which the next round searches with a weight of exactly 1.
+     */
+    private static final double MIN_WEIGHT_EXCESS = 1e-3;
+    private final Deadline deadline;
+    private List<V> solution;
+    private double suboptimalityBound = Double.POSITIVE_INFINITY;
+    private int rounds;
+    private int settledCount;
+
+    /**
+     * Constructs a new instance by running ARA* on the graph from the start to the goal until the path is shortest or
+     * the deadline passes.
+     *
+     * @param graph         the input graph.
+     * @param start         the start vertex.
+     * @param goal          the goal vertex.
+     * @param initialWeight the factor by which to inflate the heuristic in the first round.
+     * @param deadline      the time by which to stop improving the path.
+     * @throws IllegalArgumentException if the weight is less than 1, or the start or goal is not in the graph.
+     * @throws SearchCancelledException if the deadline passes before the first path is found.
+     */
+    public AnytimeAStarSolver(IndexedAStarGraph<V> graph, V start, V goal, double initialWeight, Deadline deadline) {
+        this(graph, new int[]{indexOf(graph, start)}, new double[]{0.0}, new int[]{indexOf(graph, goal)},
+                new double[]{0.0}, initialWeight, deadline);
+    }
+
+    /**
+     * Constructs a new instance by running ARA* on the graph from any of the starts to any of the goals until the path
+     * is shortest or the deadline passes. Each start is the given distance past the true origin of the query and each
+     * goal the given distance short of its true destination, as for {@link AStarSolver}.
+     *
+     * @param graph          the input graph.
+     * @param starts         the numbers of the start vertices.
+     * @param startDistances the distance from the origin to each start vertex.
+     * @param goals          the numbers of the goal vertices.
+     * @param goalDistances  the distance from each goal vertex to the destination.
+     * @param initialWeight  the factor by which to inflate the heuristic in the first round.
+     * @param deadline       the time by which to stop improving the path.
+     * @throws IllegalArgumentException if the weight is less than 1.
+     * @throws SearchCancelledException if the deadline passes before the first path is found.
+     */
+    public AnytimeAStarSolver(IndexedAStarGraph<V> graph, int[] starts, double[] startDistances,
+                              int[] goals, double[] goalDistances, double initialWeight, Deadline deadline) {
+        if (!(initialWeight >= 1.0)) {
+            throw new IllegalArgumentException("Heuristic weight must be at least 1: " + initialWeight);
+        }
+        this.deadline = deadline;
+        solve(graph, starts, startDistances, goals, goalDistances, initialWeight);
+    }
+
+    /**
+     * Returns the best path found before the search stopped, from the chosen start to the chosen goal, or an empty
+     * list if no goal is reachable.
+     *
+     * @return a list of vertices representing the best path found.
+     */
+    public List<V> solution() {
+        return solution;
+    }
+
+    /**
+     * Returns the greatest ratio of the length of the solution to the length of a shortest path that the search can
+     * prove, which is 1 if the search ran until the solution was shortest.
+     *
+     * @return the bound on the suboptimality of the solution.
+     */
+    public double suboptimalityBound() {
+        return suboptimalityBound;
+    }
+
+    /**
+     * Returns the number of rounds that ended with a path.
+     *
+     * @return the number of completed rounds.
+     */
+    public int rounds() {
+        return rounds;
+    }
+
+    /**
+     * Returns the number of vertices settled over all rounds, counting a vertex again each round that searches it.
+     *
+     * @return the number of vertices settled.
+     */
+    public int settledCount() {
+        return settledCount;
+    }
+
+    /**
+     * Runs rounds of weighted A* with decreasing weights over this thread's workspace, recording the path and bound
+     * after each round.
+     */
+    private void solve(IndexedAStarGraph<V> graph, int[] starts, double[] startDistances, int[] goals,
+                       double[] goalDistances, double initialWeight) {
+        CSRGraph csr = graph.csr();
+        SearchWorkspace workspace = SearchWorkspace.forward(csr.size());
+        IntHeapMinPQ pq = workspace.pq();
+        // Round in which each vertex was last settled, and the settled vertices whose distances improved since.
+        int[] settledIn = new int[csr.size()];
+        int[] stale = new int[16];
+        int staleCount = 0;
+        double weight = initialWeight;
+        int round = 1;
+        double best = Double.POSITIVE_INFINITY;
+        int bestGoal = -1;
+        for (int i = 0; i < starts.length; i += 1) {
+            if (startDistances[i] < workspace.distTo(starts[i])) {
+                workspace.set(starts[i], startDistances[i], -1);
+                pq.addOrChangePriority(starts[i],
+                        startDistances[i] + weight * AStarSolver.estimate(graph, starts[i], goals, goalDistances));
+            }
+        }
+        while (true) {
+            while (!pq.isEmpty() && pq.peekMinPriority() < best) {
+                int from = pq.removeMin();
+                settledIn[from] = round;
+                settledCount += 1;
+                if (settledCount % Deadline.CHECK_INTERVAL == 0 && deadline.isExpired()) {
+                    if (solution == null) {
+                        throw new SearchCancelledException("Search deadline passed before the first path");
+                    }
+                    return;
+                }
+                double fromDist = workspace.distTo(from);
+                for (int i = 0; i < goals.length; i += 1) {
+                    if (goals[i] == from && fromDist + goalDistances[i] < best) {
+                        best = fromDist + goalDistances[i];
+                        bestGoal = from;
+                    }
+                }
+                for (int e = csr.edgeStart(from); e < csr.edgeEnd(from); e += 1) {
+                    int to = csr.target(e);
+                    double newDist = fromDist + csr.weight(e);
+                    if (newDist < workspace.distTo(to)) {
+                        workspace.set(to, newDist, from);
+                        for (int i = 0; i < goals.length; i += 1) {
+                            if (goals[i] == to && newDist + goalDistances[i] < best) {
+                                best = newDist + goalDistances[i];
+                                bestGoal = to;
+                            }
+                        }
+                        if (settledIn[to] != round) {
+                            pq.addOrChangePriority(to,
+                                    newDist + weight * AStarSolver.estimate(graph, to, goals, goalDistances));
+                        } else {
+                            if (staleCount == stale.length) {
+                                stale = Arrays.copyOf(stale, 2 * staleCount);
+                            }
+                            stale[staleCount++] = to;
+                        }
+                    }
+                }
+            }
+            if (bestGoal < 0) {
+                // Nothing is left to search, so no goal is reachable.
+                solution = new ArrayList<>();
+                suboptimalityBound = 1.0;
+                return;
+            }
+            rounds += 1;
+            solution = path(graph, workspace, bestGoal);
+
+            // Collect the vertices waiting to be searched, which bound the shortest distance from below.
+            int[] waiting = Arrays.copyOf(stale, staleCount + pq.size());
+            int waitingCount = staleCount;
+            double lowerBound = best;
+            while (!pq.isEmpty()) {
+                waiting[waitingCount++] = pq.removeMin();
+            }
+            for (int i = 0; i < waitingCount; i += 1) {
+                int v = waiting[i];
+                lowerBound = Math.min(lowerBound,
+                        workspace.distTo(v) + AStarSolver.estimate(graph, v, goals, goalDistances));
+            }
+            suboptimalityBound = lowerBound > 0.0 ? Math.min(weight, best / lowerBound) : weight;
+            if (suboptimalityBound <= 1.0 || deadline.isExpired()) {
+                suboptimalityBound = Math.max(suboptimalityBound, 1.0);
+                return;
+            }
+
+            weight = 1.0 + (Math.min(weight, suboptimalityBound) - 1.0) * WEIGHT_DECAY;
+            if (weight - 1.0 < MIN_WEIGHT_EXCESS) {
+                weight = 1.0;
+            }
+            round += 1;
+            staleCount = 0;
+            for (int i = 0; i < waitingCount; i += 1) {
+                int v = waiting[i];
+                pq.addOrChangePriority(v,
+                        workspace.distTo(v) + weight * AStarSolver.estimate(graph, v, goals, goalDistances));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the vertex in the graph.
+     *
+     * @throws IllegalArgumentException if the vertex is not in the graph.
+     */
+    private static <V> int indexOf(IndexedAStarGraph<V> graph, V vertex) {
+        int result = graph.indexOf(vertex);
+        if (result < 0) {
+            throw new IllegalArgumentException("Not a vertex of the graph: " + vertex);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the vertices on the path to the goal recorded in the workspace.
+     */
+    private static <V> List<V> path(IndexedAStarGraph<V> graph, SearchWorkspace workspace, int goal) {
+        List<V> result = new ArrayList<>();
+        for (int curr = goal; curr != -1; curr = workspace.parent(curr)) {
+            result.add(graph.vertex(curr));
+        }
+        Collections.reverse(result);
+        return result;
+    }
+}
@@ -0,0 +1,277 @@
+package graphs.shortestpaths;
+
+import graphs.CSRGraph;
+import graphs.IndexedAStarGraph;
+import minpq.IntHeapMinPQ;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Closest-facility search in an {@link IndexedAStarGraph}: finds which of many facilities are nearest by road to one
+ * target, and the shortest path from each of them, with a single search instead of one search per facility. The
+ * search runs Dijkstra's algorithm backward from the target along incoming edges, so vertices are settled in order of
+ * their distance to the target, and each facility is final once no vertex left to settle could bring it closer. The
+ * search stops as soon as the nearest {@code k} facilities are final, so it only explores the part of the graph nearer
+ * to the target than the {@code k}-th facility.
+ * <p>
+ * Searching backward rather than seeding a forward search with every facility at distance 0 finds the nearest
+ * {@code k} facilities in their order rather than only the nearest, and the successor recorded for each vertex leads
+ * from a facility to the target, so the paths need no reversing.
+ * <p>
+ * A search given a {@link Deadline} checks it as it settles vertices, and throws a {@link SearchCancelledException}
+ * from the constructor once it passes.
+ *
+ * @param <V> the type of vertices.
+ * @see DijkstraSolver
+ */
+public class ClosestFacilitySolver<V> {
+    /**
+     * Positions of the nearest facilities in the list given to the constructor, nearest first.
+     */
+    private final int[] nearest;
+    /**
+     * Distance from each of the nearest facilities to the target.
+     */
+    private final double[] distances;
+    /**
+     * Path from each of the nearest facilities to the target.
+     */
+    private final List<List<V>> paths;
+    private int settledCount;
+
+    /**
+     * Constructs a new instance by searching backward from the target until the nearest {@code k} facilities are
+     * found.
+     *
+     * @param graph      the input graph.
+     * @param facilities the facilities to choose from.
+     * @param target     the target vertex.
+     * @param k          the number of nearest facilities to find.
+     * @throws IllegalArgumentException if {@code k} is not positive, or a facility or the target is not in the graph.
+     */
+    public ClosestFacilitySolver(IndexedAStarGraph<V> graph, List<V> facilities, V target, int k) {
+        this(graph, vertices(graph, facilities), zeros(facilities.size()), new int[]{indexOf(graph, target)},
+                new double[]{0.0}, k, Deadline.NONE);
+    }
+
+    /**
+     * Constructs a new instance by searching backward from the target until the nearest {@code k} facilities are
+     * found, giving up once the deadline passes. Each facility may be reached through several exits, each the given
+     * distance past the facility, and the target through several vertices, each the given distance short of it, as
+     * for queries that begin or end partway along an edge. Facilities without exits, or that cannot reach the target,
+     * are never found.
+     *
+     * @param graph             the input graph.
+     * @param facilities        the numbers of the exit vertices of each facility.
+     * @param facilityDistances the distance from each facility to each of its exits.
+     * @param targets           the numbers of the vertices through which to reach the target.
+     * @param targetDistances   the distance from each of those vertices to the target.
+     * @param k                 the number of nearest facilities to find.
+     * @param deadline          the time by which to give up.
+     * @throws IllegalArgumentException if {@code k} is not positive.
+     * @throws SearchCancelledException if the deadline passes before the search finishes.
+     */
+    public ClosestFacilitySolver(IndexedAStarGraph<V> graph, int[][] facilities, double[][] facilityDistances,
+                                 int[] targets, double[] targetDistances, int k, Deadline deadline) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Expected a positive number of facilities: " + k);
+        }
+        CSRGraph reverse = graph.reverseCsr();
+        int exitCount = 0;
+        int reachable = 0;
+        for (int[] exits : facilities) {
+            exitCount += exits.length;
+            if (exits.length > 0) {
+                reachable += 1;
+            }
+        }
+        // Each exit packs its vertex above its number, so that sorting orders the exits by vertex and each settled
+        // vertex finds its facilities by binary search.
+        long[] order = new long[exitCount];
+        int[] exitFacilities = new int[exitCount];
+        double[] exitDistances = new double[exitCount];
+        int exit = 0;
+        for (int f = 0; f < facilities.length; f += 1) {
+            for (int i = 0; i < facilities[f].length; i += 1) {
+                order[exit] = (long) facilities[f][i] << 32 | exit;
+                exitFacilities[exit] = f;
+                exitDistances[exit] = facilityDistances[f][i];
+                exit += 1;
+            }
+        }
+        Arrays.sort(order);
+        int[] exitVertices = new int[exitCount];
+        for (int i = 0; i < exitCount; i += 1) {
+            exitVertices[i] = (int) (order[i] >>> 32);
+        }
+
+        SearchWorkspace workspace = SearchWorkspace.reverse(reverse.size());
+        IntHeapMinPQ pq = workspace.pq();
+        for (int i = 0; i < targets.length; i += 1) {
+            if (targetDistances[i] < workspace.distTo(targets[i])) {
+                workspace.set(targets[i], targetDistances[i], -1);
+                pq.addOrChangePriority(targets[i], targetDistances[i]);
+            }
+        }
+        // Best distance found so far from each facility, and the exit through which it was found.
+        double[] candidates = new double[facilities.length];
+        Arrays.fill(candidates, Double.POSITIVE_INFINITY);
+        int[] bestExits = new int[facilities.length];
+        IntHeapMinPQ found = new IntHeapMinPQ(facilities.length);
+        // Facilities without exits can never be found, so stop once every other facility is.
+        int[] result = new int[Math.min(k, reachable)];
+        int resultCount = 0;
+        while (resultCount < result.length) {
+            // A facility is final once no vertex left to settle could bring it closer.
+            while (resultCount < result.length && !found.isEmpty()
+                    && (pq.isEmpty() || found.peekMinPriority() <= pq.peekMinPriority())) {
+                result[resultCount] = found.removeMin();
+                resultCount += 1;
+            }
+            if (resultCount == result.length || pq.isEmpty()) {
+                break;
+            }
+            int to = pq.removeMin();
+            settledCount += 1;
+            deadline.check(settledCount);
+            double toDist = workspace.distTo(to);
+            int low = lowerBound(exitVertices, to);
+            for (int i = low; i < exitCount && exitVertices[i] == to; i += 1) {
+                exit = (int) order[i];
+                int f = exitFacilities[exit];
+                double dist = exitDistances[exit] + toDist;
+                if (dist < candidates[f]) {
+                    candidates[f] = dist;
+                    bestExits[f] = to;
+                    found.addOrChangePriority(f, dist);
+                }
+            }
+            for (int edge = reverse.edgeStart(to); edge < reverse.edgeEnd(to); edge += 1) {
+                int from = reverse.target(edge);
+                double newDist = toDist + reverse.weight(edge);
+                if (newDist < workspace.distTo(from)) {
+                    workspace.set(from, newDist, to);
+                    pq.addOrChangePriority(from, newDist);
+                }
+            }
+        }
+
+        nearest = Arrays.copyOf(result, resultCount);
+        distances = new double[resultCount];
+        paths = new ArrayList<>(resultCount);
+        for (int i = 0; i < resultCount; i += 1) {
+            distances[i] = candidates[nearest[i]];
+            List<V> path = new ArrayList<>();
+            for (int curr = bestExits[nearest[i]]; curr != -1; curr = workspace.parent(curr)) {
+                path.add(graph.vertex(curr));
+            }
+            paths.add(path);
+        }
+    }
+
+    /**
+     * Returns the positions in the list of facilities of the nearest {@code k} that can reach the target, nearest
+     * first. Fewer are returned if fewer facilities can reach the target.
+     *
+     * @return the positions of the nearest facilities, nearest first.
+     */
+    public int[] nearest() {
+        return nearest.clone();
+    }
+
+    /**
+     * Returns the distance from the facility of the given rank to the target.
+     *
+     * @param rank the rank of the facility, where 0 is the nearest.
+     * @return the distance from the facility to the target.
+     */
+    public double distance(int rank) {
+        return distances[rank];
+    }
+
+    /**
+     * Returns the shortest path from the facility of the given rank to the target, from the exit through which the
+     * facility is nearest to the vertex through which the target is reached.
+     *
+     * @param rank the rank of the facility, where 0 is the nearest.
+     * @return a list of vertices representing the shortest path from the facility.
+     */
+    public List<V> path(int rank) {
+        return paths.get(rank);
+    }
+
+    /**
+     * Returns the shortest path from the nearest facility to the target, or an empty list if no facility can reach
+     * the target.
+     *
+     * @return a list of vertices representing the shortest path from the nearest facility.
+     */
+    public List<V> solution() {
+        return paths.isEmpty() ? List.of() : paths.get(0);
+    }
+
+    /**
+     * Returns the number of vertices settled (removed from the priority queue) by the search.
+     *
+     * @return the number of vertices settled.
+     */
+    public int settledCount() {
+        return settledCount;
+    }
+
+    /**
+     * Returns the first position of the value in the sorted array, or the position where it would be inserted.
+     */
+    private static int lowerBound(int[] sorted, int value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the vertex numbers of the facilities, each as its only exit.
+     *
+     * @throws IllegalArgumentException if a facility is not in the graph.
+     */
+    private static <V> int[][] vertices(IndexedAStarGraph<V> graph, List<V> facilities) {
+        int[][] result = new int[facilities.size()][];
+        for (int f = 0; f < result.length; f += 1) {
+            result[f] = new int[]{indexOf(graph, facilities.get(f))};
+        }
+        return result;
+    }
+
+    /**
+     * Returns a distance of 0 from each of the given number of facilities to its only exit.
+     */
+    private static double[][] zeros(int size) {
+        double[][] result = new double[size][];
+        for (int f = 0; f < size; f += 1) {
+            result[f] = new double[]{0.0};
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of the vertex in the graph.
+     *
+     * @throws IllegalArgumentException if the vertex is not in the graph.
+     */
+    private static <V> int indexOf(IndexedAStarGraph<V> graph, V vertex) {
+        int result = graph.indexOf(vertex);
+        if (result < 0) {
+            throw new IllegalArgumentException("Not a vertex of the graph: " + vertex);
+        }
+        return result;
+    }
+}
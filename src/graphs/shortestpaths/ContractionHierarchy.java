@@ -0,0 +1,677 @@
+package graphs.shortestpaths;
+
+import graphs.CSRGraph;
+import minpq.IntHeapMinPQ;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Contraction hierarchy over a {@link CSRGraph} for fast single-pair shortest path queries.
+ * <p>
+ * Preprocessing contracts the vertices one at a time in order of importance, inserting a shortcut edge between two
+ * remaining neighbors whenever the only shortest path between them runs through the contracted vertex. The edges that
+ * remain at each vertex when it is contracted lead to more important vertices: the upward edges are kept for the
+ * forward search, and the incoming downward edges are kept (reversed) for the backward search. A query then runs two
+ * small Dijkstra searches that only ever move up the hierarchy, and recursively unpacks the shortcuts on the best path.
+ * The reverse edges required by the backward search come from {@link CSRGraph#reverse()}.
+ *
+ * @see ContractionHierarchySolver
+ */
+public class ContractionHierarchy {
+    /**
+     * The ASCII bytes {@code HMCH}.
+     */
+    private static final int MAGIC = 0x484D4348;
+    /**
+     * Format version, to be incremented whenever the file layout or the preprocessing changes.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Maximum number of vertices settled by a witness search before it gives up and keeps the shortcut.
+     */
+    private static final int WITNESS_SETTLE_LIMIT = 200;
+    /**
+     * Checksum of the graph this hierarchy was built from.
+     */
+    private final long graphChecksum;
+    /**
+     * Contraction order of each vertex: less important vertices have lower ranks.
+     */
+    private final int[] rank;
+    /**
+     * Upward edges stored at their lower-ranked source, in CSR form.
+     */
+    private final EdgeList up;
+    /**
+     * Downward edges stored at their lower-ranked destination with the higher-ranked source as their target, in CSR
+     * form.
+     */
+    private final EdgeList down;
+
+    private ContractionHierarchy(long graphChecksum, int[] rank, EdgeList up, EdgeList down) {
+        this.graphChecksum = graphChecksum;
+        this.rank = rank;
+        this.up = up;
+        this.down = down;
+    }
+
+    /**
+     * Returns a new contraction hierarchy for the given graph.
+     *
+     * @param graph the input graph with non-negative edge weights.
+     * @return a new contraction hierarchy for the given graph.
+     */
+    public static ContractionHierarchy build(CSRGraph graph) {
+        return new Contractor(graph).contract();
+    }
+
+    /**
+     * Returns the hierarchy stored at the given path if it was built from the given graph. Otherwise, builds a new
+     * hierarchy and stores it at the given path.
+     *
+     * @param graph the input graph with non-negative edge weights.
+     * @param path  the file path of the stored hierarchy.
+     * @return a contraction hierarchy for the given graph.
+     * @throws IOException if the hierarchy cannot be read or written.
+     */
+    public static ContractionHierarchy load(CSRGraph graph, Path path) throws IOException {
+        ContractionHierarchy result = read(path, checksum(graph));
+        if (result == null) {
+            result = build(graph);
+            result.write(path);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of vertices in this hierarchy.
+     *
+     * @return the number of vertices in this hierarchy.
+     */
+    public int size() {
+        return rank.length;
+    }
+
+    /**
+     * Returns the number of upward and downward edges, including shortcuts, in this hierarchy.
+     *
+     * @return the number of edges in this hierarchy.
+     */
+    public int edgeCount() {
+        return up.targets.length + down.targets.length;
+    }
+
+    /**
+     * Returns the vertices on a shortest path from start to goal, or an empty array if the goal is unreachable.
+     *
+     * @param start the start vertex.
+     * @param goal  the goal vertex.
+     * @return the vertices on a shortest path from start to goal, or an empty array if the goal is unreachable.
+     */
+    public int[] path(int start, int goal) {
+        return path(new int[]{start}, new double[]{0.0}, new int[]{goal}, new double[]{0.0});
+    }
+
+    /**
+     * Returns the vertices on a shortest path from any of the starts to any of the goals, or an empty array if no goal
+     * is reachable. Each start is the given distance past the true origin of the query and each goal the given
+     * distance short of its true destination, so that a query can begin and end partway along an edge.
+     *
+     * @param starts         the start vertices.
+     * @param startDistances the distance from the origin to each start vertex.
+     * @param goals          the goal vertices.
+     * @param goalDistances  the distance from each goal vertex to the destination.
+     * @return the vertices on a shortest path from the chosen start to the chosen goal, or an empty array if no goal
+     * is reachable.
+     */
+    public int[] path(int[] starts, double[] startDistances, int[] goals, double[] goalDistances) {
+        return path(starts, startDistances, goals, goalDistances, Deadline.NONE);
+    }
+
+    /**
+     * Returns the vertices on a shortest path from any of the starts to any of the goals as in
+     * {@link #path(int[], double[], int[], double[])}, giving up once the deadline passes.
+     *
+     * @param starts         the start vertices.
+     * @param startDistances the distance from the origin to each start vertex.
+     * @param goals          the goal vertices.
+     * @param goalDistances  the distance from each goal vertex to the destination.
+     * @param deadline       the deadline for the search.
+     * @return the vertices on a shortest path from the chosen start to the chosen goal, or an empty array if no goal
+     * is reachable.
+     * @throws SearchCancelledException if the deadline passes or is cancelled before the search finishes.
+     */
+    public int[] path(int[] starts, double[] startDistances, int[] goals, double[] goalDistances,
+                      Deadline deadline) {
+        SearchWorkspace forwardSearch = SearchWorkspace.forward(size());
+        SearchWorkspace backwardSearch = SearchWorkspace.reverse(size());
+        IntHeapMinPQ forward = forwardSearch.pq();
+        IntHeapMinPQ backward = backwardSearch.pq();
+        for (int i = 0; i < starts.length; i += 1) {
+            if (startDistances[i] < forwardSearch.distTo(starts[i])) {
+                forwardSearch.set(starts[i], startDistances[i], -1);
+                forward.addOrChangePriority(starts[i], startDistances[i]);
+            }
+        }
+        for (int i = 0; i < goals.length; i += 1) {
+            if (goalDistances[i] < backwardSearch.distTo(goals[i])) {
+                backwardSearch.set(goals[i], goalDistances[i], -1);
+                backward.addOrChangePriority(goals[i], goalDistances[i]);
+            }
+        }
+
+        double best = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+        int settled = 0;
+        while (true) {
+            // Each search can stop once its closest unsettled vertex is no nearer than the best path found.
+            boolean forwardActive = !forward.isEmpty() && forward.peekMinPriority() < best;
+            boolean backwardActive = !backward.isEmpty() && backward.peekMinPriority() < best;
+            if (!forwardActive && !backwardActive) {
+                break;
+            }
+            boolean isForward = forwardActive
+                    && (!backwardActive || forward.peekMinPriority() <= backward.peekMinPriority());
+            IntHeapMinPQ pq = isForward ? forward : backward;
+            EdgeList edges = isForward ? up : down;
+            SearchWorkspace search = isForward ? forwardSearch : backwardSearch;
+            SearchWorkspace other = isForward ? backwardSearch : forwardSearch;
+            int from = pq.removeMin();
+            settled += 1;
+            deadline.check(settled);
+            double fromDist = search.distTo(from);
+            if (fromDist + other.distTo(from) < best) {
+                best = fromDist + other.distTo(from);
+                meeting = from;
+            }
+            for (int e = edges.offsets[from]; e < edges.offsets[from + 1]; e += 1) {
+                int to = edges.targets[e];
+                double newDist = fromDist + edges.weights[e];
+                if (newDist < search.distTo(to)) {
+                    search.set(to, newDist, e);
+                    pq.addOrChangePriority(to, newDist);
+                }
+            }
+        }
+        if (meeting < 0) {
+            return new int[0];
+        }
+
+        // Collect the upward edges from the chosen start to the meeting vertex, then the downward edges to the goal.
+        IntList forwardEdges = new IntList();
+        int start = meeting;
+        while (forwardSearch.parent(start) != -1) {
+            forwardEdges.add(forwardSearch.parent(start));
+            start = up.sources[forwardSearch.parent(start)];
+        }
+        IntList vertices = new IntList();
+        vertices.add(start);
+        for (int i = forwardEdges.size - 1; i >= 0; i -= 1) {
+            int e = forwardEdges.values[i];
+            unpack(up.sources[e], up.targets[e], up.middles[e], vertices);
+        }
+        for (int v = meeting; backwardSearch.parent(v) != -1; v = down.sources[backwardSearch.parent(v)]) {
+            int e = backwardSearch.parent(v);
+            // Downward edge e runs from v (its stored target) to its lower-ranked owner.
+            unpack(v, down.sources[e], down.middles[e], vertices);
+        }
+        return Arrays.copyOf(vertices.values, vertices.size);
+    }
+
+    /**
+     * Appends the vertices after {@code from} along the edge from {@code from} to {@code to}, recursively expanding
+     * shortcuts through their middle vertices.
+     */
+    private void unpack(int from, int to, int middle, IntList vertices) {
+        IntList stack = new IntList();
+        stack.add(from);
+        stack.add(to);
+        stack.add(middle);
+        while (stack.size > 0) {
+            int m = stack.values[--stack.size];
+            int b = stack.values[--stack.size];
+            int a = stack.values[--stack.size];
+            if (m < 0) {
+                vertices.add(b);
+            } else {
+                // The middle vertex was contracted first, so a -> m is stored downward and m -> b upward at m.
+                int second = find(up, m, b);
+                int first = find(down, m, a);
+                stack.add(m);
+                stack.add(b);
+                stack.add(up.middles[second]);
+                stack.add(a);
+                stack.add(m);
+                stack.add(down.middles[first]);
+            }
+        }
+    }
+
+    /**
+     * Returns the lightest edge stored at the owner with the given target.
+     */
+    private static int find(EdgeList edges, int owner, int target) {
+        int result = -1;
+        for (int e = edges.offsets[owner]; e < edges.offsets[owner + 1]; e += 1) {
+            if (edges.targets[e] == target && (result < 0 || edges.weights[e] < edges.weights[result])) {
+                result = e;
+            }
+        }
+        if (result < 0) {
+            throw new IllegalStateException("Missing edge between " + owner + " and " + target);
+        }
+        return result;
+    }
+
+    /**
+     * Writes this hierarchy to the given path by writing a temporary file and moving it into place.
+     *
+     * @param path the file path.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp), 1 << 16))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(graphChecksum);
+            output.writeInt(rank.length);
+            for (int r : rank) {
+                output.writeInt(r);
+            }
+            up.write(output);
+            down.write(output);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the hierarchy stored at the given path, or null if the file is missing, has a different format version
+     * or was built from a different graph.
+     *
+     * @param path          the file path.
+     * @param graphChecksum the checksum of the current graph.
+     * @return the hierarchy stored at the given path, or null if it cannot be used.
+     * @throws IOException if the file exists but cannot be read.
+     */
+    private static ContractionHierarchy read(Path path, long graphChecksum) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(path), 1 << 16))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION || input.readLong() != graphChecksum) {
+                return null;
+            }
+            int[] rank = new int[input.readInt()];
+            for (int i = 0; i < rank.length; i += 1) {
+                rank[i] = input.readInt();
+            }
+            EdgeList up = EdgeList.read(input, rank.length);
+            EdgeList down = EdgeList.read(input, rank.length);
+            return new ContractionHierarchy(graphChecksum, rank, up, down);
+        } catch (NoSuchFileException | EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a checksum of the topology and weights of the given graph.
+     */
+    private static long checksum(CSRGraph graph) {
+        CRC32C crc = new CRC32C();
+        byte[] buffer = new byte[12];
+        for (int v = 0; v < graph.size(); v += 1) {
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e += 1) {
+                long bits = Double.doubleToLongBits(graph.weight(e));
+                int target = graph.target(e);
+                for (int i = 0; i < 4; i += 1) {
+                    buffer[i] = (byte) (target >>> (8 * i));
+                }
+                for (int i = 0; i < 8; i += 1) {
+                    buffer[4 + i] = (byte) (bits >>> (8 * i));
+                }
+                crc.update(buffer);
+            }
+            crc.update(v);
+        }
+        return crc.getValue() ^ ((long) graph.size() << 32);
+    }
+
+    /**
+     * Frozen edges in CSR form where each edge also records its owner (source) and the middle vertex of a shortcut,
+     * or -1 for an edge of the original graph.
+     */
+    private static class EdgeList {
+        final int[] offsets;
+        final int[] sources;
+        final int[] targets;
+        final double[] weights;
+        final int[] middles;
+
+        EdgeList(int[] offsets, int[] sources, int[] targets, double[] weights, int[] middles) {
+            this.offsets = offsets;
+            this.sources = sources;
+            this.targets = targets;
+            this.weights = weights;
+            this.middles = middles;
+        }
+
+        void write(DataOutputStream output) throws IOException {
+            output.writeInt(targets.length);
+            for (int offset : offsets) {
+                output.writeInt(offset);
+            }
+            for (int e = 0; e < targets.length; e += 1) {
+                output.writeInt(targets[e]);
+                output.writeDouble(weights[e]);
+                output.writeInt(middles[e]);
+            }
+        }
+
+        static EdgeList read(DataInputStream input, int size) throws IOException {
+            int edgeCount = input.readInt();
+            int[] offsets = new int[size + 1];
+            for (int v = 0; v <= size; v += 1) {
+                offsets[v] = input.readInt();
+            }
+            int[] sources = new int[edgeCount];
+            int[] targets = new int[edgeCount];
+            double[] weights = new double[edgeCount];
+            int[] middles = new int[edgeCount];
+            for (int v = 0; v < size; v += 1) {
+                for (int e = offsets[v]; e < offsets[v + 1]; e += 1) {
+                    sources[e] = v;
+                    targets[e] = input.readInt();
+                    weights[e] = input.readDouble();
+                    middles[e] = input.readInt();
+                }
+            }
+            return new EdgeList(offsets, sources, targets, weights, middles);
+        }
+    }
+
+    /**
+     * Growable array of {@code int} values.
+     */
+    private static class IntList {
+        int[] values = new int[16];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = value;
+            size += 1;
+        }
+    }
+
+    /**
+     * Mutable adjacency lists used while contracting vertices. Edges to contracted vertices are skipped rather than
+     * removed.
+     */
+    private static class Contractor {
+        private final CSRGraph graph;
+        private final int n;
+        private final Adjacency out;
+        private final Adjacency in;
+        private final boolean[] contracted;
+        private final int[] contractedNeighbors;
+        private final int[] level;
+        /**
+         * Witness search distances, valid only where {@code stamps} matches the current {@code epoch}.
+         */
+        private final double[] witnessDist;
+        private final int[] stamps;
+        private final IntHeapMinPQ witnessPQ;
+        private int epoch;
+
+        Contractor(CSRGraph graph) {
+            this.graph = graph;
+            n = graph.size();
+            out = new Adjacency(n);
+            in = new Adjacency(n);
+            for (int from = 0; from < n; from += 1) {
+                for (int e = graph.edgeStart(from); e < graph.edgeEnd(from); e += 1) {
+                    int to = graph.target(e);
+                    if (to != from) {
+                        addOrImprove(from, to, graph.weight(e), -1);
+                    }
+                }
+            }
+            contracted = new boolean[n];
+            contractedNeighbors = new int[n];
+            level = new int[n];
+            witnessDist = new double[n];
+            stamps = new int[n];
+            witnessPQ = new IntHeapMinPQ(n);
+        }
+
+        /**
+         * Contracts every vertex in lazily-updated order of priority and returns the resulting hierarchy.
+         */
+        ContractionHierarchy contract() {
+            IntHeapMinPQ order = new IntHeapMinPQ(n);
+            for (int v = 0; v < n; v += 1) {
+                order.add(v, priority(v));
+            }
+            int[] rank = new int[n];
+            Adjacency upEdges = new Adjacency(n);
+            Adjacency downEdges = new Adjacency(n);
+            int next = 0;
+            while (!order.isEmpty()) {
+                int v = order.removeMin();
+                double p = priority(v);
+                if (!order.isEmpty() && p > order.peekMinPriority()) {
+                    order.add(v, p);
+                    continue;
+                }
+                rank[v] = next;
+                next += 1;
+                for (int i = 0; i < out.size[v]; i += 1) {
+                    if (!contracted[out.targets[v][i]]) {
+                        upEdges.append(v, out.targets[v][i], out.weights[v][i], out.middles[v][i]);
+                    }
+                }
+                for (int i = 0; i < in.size[v]; i += 1) {
+                    if (!contracted[in.targets[v][i]]) {
+                        downEdges.append(v, in.targets[v][i], in.weights[v][i], in.middles[v][i]);
+                    }
+                }
+                contract(v, true);
+                contracted[v] = true;
+                for (int i = 0; i < out.size[v]; i += 1) {
+                    updateNeighbor(v, out.targets[v][i], order);
+                }
+                for (int i = 0; i < in.size[v]; i += 1) {
+                    updateNeighbor(v, in.targets[v][i], order);
+                }
+            }
+            return new ContractionHierarchy(checksum(graph), rank, upEdges.freeze(), downEdges.freeze());
+        }
+
+        private void updateNeighbor(int v, int neighbor, IntHeapMinPQ order) {
+            if (!contracted[neighbor]) {
+                contractedNeighbors[neighbor] += 1;
+                level[neighbor] = Math.max(level[neighbor], level[v] + 1);
+                if (order.contains(neighbor)) {
+                    order.changePriority(neighbor, priority(neighbor));
+                }
+            }
+        }
+
+        /**
+         * Returns the contraction priority of the vertex: the number of shortcuts its contraction would add minus the
+         * number of edges it would remove, plus terms that spread contraction evenly across the graph.
+         */
+        private double priority(int v) {
+            int removed = 0;
+            for (int i = 0; i < out.size[v]; i += 1) {
+                removed += contracted[out.targets[v][i]] ? 0 : 1;
+            }
+            for (int i = 0; i < in.size[v]; i += 1) {
+                removed += contracted[in.targets[v][i]] ? 0 : 1;
+            }
+            int shortcuts = contract(v, false);
+            return 2.0 * (shortcuts - removed) + contractedNeighbors[v] + level[v];
+        }
+
+        /**
+         * Finds the shortcuts needed to contract the vertex, adding them if requested, and returns how many there are.
+         */
+        private int contract(int v, boolean addShortcuts) {
+            int shortcuts = 0;
+            double maxOut = 0.0;
+            for (int j = 0; j < out.size[v]; j += 1) {
+                if (!contracted[out.targets[v][j]]) {
+                    maxOut = Math.max(maxOut, out.weights[v][j]);
+                }
+            }
+            for (int i = 0; i < in.size[v]; i += 1) {
+                int u = in.targets[v][i];
+                if (contracted[u]) {
+                    continue;
+                }
+                double inWeight = in.weights[v][i];
+                witnessSearch(u, v, inWeight + maxOut);
+                for (int j = 0; j < out.size[v]; j += 1) {
+                    int x = out.targets[v][j];
+                    if (contracted[x] || x == u) {
+                        continue;
+                    }
+                    double viaWeight = inWeight + out.weights[v][j];
+                    if (witnessDistance(x) > viaWeight) {
+                        shortcuts += 1;
+                        if (addShortcuts) {
+                            addOrImprove(u, x, viaWeight, v);
+                        }
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Runs a bounded Dijkstra search from the source that avoids the excluded vertex and contracted vertices.
+         */
+        private void witnessSearch(int source, int excluded, double maxDistance) {
+            epoch += 1;
+            witnessPQ.clear();
+            stamps[source] = epoch;
+            witnessDist[source] = 0.0;
+            witnessPQ.add(source, 0.0);
+            int settled = 0;
+            while (!witnessPQ.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+                int from = witnessPQ.removeMin();
+                settled += 1;
+                if (witnessDist[from] > maxDistance) {
+                    break;
+                }
+                for (int i = 0; i < out.size[from]; i += 1) {
+                    int to = out.targets[from][i];
+                    if (to == excluded || contracted[to]) {
+                        continue;
+                    }
+                    double newDist = witnessDist[from] + out.weights[from][i];
+                    if (newDist < witnessDistance(to)) {
+                        stamps[to] = epoch;
+                        witnessDist[to] = newDist;
+                        witnessPQ.addOrChangePriority(to, newDist);
+                    }
+                }
+            }
+        }
+
+        private double witnessDistance(int v) {
+            return stamps[v] == epoch ? witnessDist[v] : Double.POSITIVE_INFINITY;
+        }
+
+        /**
+         * Adds an edge between the vertices, or lowers the weight of the existing edge if the new one is lighter.
+         */
+        private void addOrImprove(int from, int to, double weight, int middle) {
+            int i = out.indexOf(from, to);
+            if (i < 0) {
+                out.append(from, to, weight, middle);
+                in.append(to, from, weight, middle);
+            } else if (weight < out.weights[from][i]) {
+                out.weights[from][i] = weight;
+                out.middles[from][i] = middle;
+                int j = in.indexOf(to, from);
+                in.weights[to][j] = weight;
+                in.middles[to][j] = middle;
+            }
+        }
+    }
+
+    /**
+     * Growable per-vertex lists of edges with weights and shortcut middle vertices.
+     */
+    private static class Adjacency {
+        final int[][] targets;
+        final double[][] weights;
+        final int[][] middles;
+        final int[] size;
+
+        Adjacency(int n) {
+            targets = new int[n][];
+            weights = new double[n][];
+            middles = new int[n][];
+            size = new int[n];
+        }
+
+        void append(int owner, int target, double weight, int middle) {
+            if (targets[owner] == null) {
+                targets[owner] = new int[4];
+                weights[owner] = new double[4];
+                middles[owner] = new int[4];
+            } else if (size[owner] == targets[owner].length) {
+                int capacity = size[owner] * 2;
+                targets[owner] = Arrays.copyOf(targets[owner], capacity);
+                weights[owner] = Arrays.copyOf(weights[owner], capacity);
+                middles[owner] = Arrays.copyOf(middles[owner], capacity);
+            }
+            targets[owner][size[owner]] = target;
+            weights[owner][size[owner]] = weight;
+            middles[owner][size[owner]] = middle;
+            size[owner] += 1;
+        }
+
+        int indexOf(int owner, int target) {
+            for (int i = 0; i < size[owner]; i += 1) {
+                if (targets[owner][i] == target) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        EdgeList freeze() {
+            int n = size.length;
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v += 1) {
+                offsets[v + 1] = offsets[v] + size[v];
+            }
+            int m = offsets[n];
+            int[] sources = new int[m];
+            int[] frozenTargets = new int[m];
+            double[] frozenWeights = new double[m];
+            int[] frozenMiddles = new int[m];
+            for (int v = 0; v < n; v += 1) {
+                for (int i = 0; i < size[v]; i += 1) {
+                    int e = offsets[v] + i;
+                    sources[e] = v;
+                    frozenTargets[e] = targets[v][i];
+                    frozenWeights[e] = weights[v][i];
+                    frozenMiddles[e] = middles[v][i];
+                }
+            }
+            return new EdgeList(offsets, sources, frozenTargets, frozenWeights, frozenMiddles);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package graphs.shortestpaths;
+
+import graphs.IndexedAStarGraph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pair shortest paths answered by a precomputed {@link ContractionHierarchy} over an
+ * {@link IndexedAStarGraph}.
+ *
+ * @param <V> the type of vertices.
+ * @see ContractionHierarchy
+ * @see AStarSolver
+ */
+public class ContractionHierarchySolver<V> {
+    private final List<V> solution;
+
+    /**
+     * Constructs a new instance by querying the hierarchy for a shortest path from the start to the goal.
+     *
+     * @param hierarchy the contraction hierarchy built from {@code graph.csr()}.
+     * @param graph     the input graph.
+     * @param start     the start vertex.
+     * @param goal      the goal vertex.
+     * @throws IllegalArgumentException if the start or goal is not in the graph.
+     */
+    public ContractionHierarchySolver(ContractionHierarchy hierarchy, IndexedAStarGraph<V> graph, V start, V goal) {
+        int s = graph.indexOf(start);
+        int t = graph.indexOf(goal);
+        if (s < 0 || t < 0) {
+            throw new IllegalArgumentException("Vertex not in graph: " + (s < 0 ? start : goal));
+        }
+        int[] path = hierarchy.path(s, t);
+        solution = new ArrayList<>(Math.max(path.length, 1));
+        if (path.length == 0) {
+            // Match the other solvers, which return only the goal when it is unreachable.
+            solution.add(goal);
+        }
+        for (int v : path) {
+            solution.add(graph.vertex(v));
+        }
+    }
+
+    /**
+     * Returns the single-pair shortest path from the stored start to the stored goal.
+     *
+     * @return a list of vertices representing the shortest path.
+     */
+    public List<V> solution() {
+        return solution;
+    }
+}
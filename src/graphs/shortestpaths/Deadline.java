@@ -0,0 +1,100 @@
+package graphs.shortestpaths;
+
+import java.time.Duration;
+
+/**
+ * Cooperative cancellation token for a search. A search given a deadline checks it once every
+ * {@link #CHECK_INTERVAL} settled vertices, and throws a {@link SearchCancelledException} if the deadline has passed
+ * or another thread has cancelled it, so that a pathological query gives up its thread after a bounded time. Checking
+ * only occasionally keeps the cost of reading the clock out of the inner loop of the search.
+ *
+ * @see AStarSolver
+ * @see BidirectionalAStarSolver
+ * @see ContractionHierarchy
+ * @see DijkstraSolver
+ * @see OverlayMetric
+ */
+public final class Deadline {
+    /**
+     * Number of vertices that a search settles between checks of its deadline.
+     */
+    public static final int CHECK_INTERVAL = 1 << 10;
+    /**
+     * Deadline that never passes and cannot be cancelled, for searches that should always run to completion.
+     */
+    public static final Deadline NONE = new Deadline(false, 0);
+    private final boolean timed;
+    /**
+     * Time from {@link System#nanoTime()} at which the deadline passes, if it is timed.
+     */
+    private final long expiresAt;
+    private volatile boolean cancelled;
+
+    private Deadline(boolean timed, long expiresAt) {
+        this.timed = timed;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Returns a deadline that passes once the given time has elapsed from now.
+     *
+     * @param timeout the time a search may take.
+     * @return a deadline that passes after the timeout.
+     */
+    public static Deadline after(Duration timeout) {
+        return at(System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * Returns a deadline that passes at the given time, such as a fixed time after a request arrived.
+     *
+     * @param nanoTime the time from {@link System#nanoTime()} at which the deadline passes.
+     * @return a deadline that passes at the given time.
+     */
+    public static Deadline at(long nanoTime) {
+        return new Deadline(true, nanoTime);
+    }
+
+    /**
+     * Cancels every search that checks this deadline from now on, whether or not it has passed.
+     *
+     * @throws UnsupportedOperationException if this is {@link #NONE}.
+     */
+    public void cancel() {
+        if (this == NONE) {
+            throw new UnsupportedOperationException("Deadline.NONE cannot be cancelled");
+        }
+        cancelled = true;
+    }
+
+    /**
+     * Returns whether the deadline has passed or been cancelled.
+     *
+     * @return true if searches checking this deadline should stop.
+     */
+    public boolean isExpired() {
+        // Compare by difference, since nanoTime may overflow.
+        return cancelled || timed && System.nanoTime() - expiresAt >= 0;
+    }
+
+    /**
+     * Throws if the search has settled a multiple of {@link #CHECK_INTERVAL} vertices and the deadline has passed or
+     * been cancelled.
+     *
+     * @param settled the number of vertices the search has settled so far.
+     * @throws SearchCancelledException if the search should stop.
+     */
+    void check(int settled) {
+        if (settled % CHECK_INTERVAL == 0 && this != NONE && isExpired()) {
+            throw new SearchCancelledException(cancelled ? "Search cancelled" : "Search deadline passed");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline{" +
+                "remainingNanos=" + (timed ? expiresAt - System.nanoTime() : Long.MAX_VALUE) +
+                ", cancelled=" + cancelled +
+                '}';
+    }
+}
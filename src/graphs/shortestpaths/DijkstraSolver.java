@@ -1,8 +1,10 @@
 package graphs.shortestpaths;
 
+import graphs.CSRGraph;
 import graphs.Edge;
 import graphs.Graph;
 import minpq.DoubleMapMinPQ;
+import minpq.IntHeapMinPQ;
 import minpq.MinPQ;
 
 import java.util.*;
@@ -57,4 +59,209 @@ public class DijkstraSolver<V> implements ShortestPathSolver<V> {
         Collections.reverse(path);
         return path;
     }
+
+    /**
+     * Returns the shortest path distance from the start to every vertex of the graph by executing Dijkstra's
+     * algorithm over primitive arrays.
+     *
+     * @param graph the input graph.
+     * @param start the start vertex.
+     * @return the distance to each vertex, or positive infinity for vertices that are unreachable.
+     */
+    public static double[] distances(CSRGraph graph, int start) {
+        double[] distTo = new double[graph.size()];
+        Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+        IntHeapMinPQ pq = new IntHeapMinPQ(graph.size());
+        pq.add(start, 0.0);
+        distTo[start] = 0.0;
+        while (!pq.isEmpty()) {
+            int from = pq.removeMin();
+            for (int e = graph.edgeStart(from); e < graph.edgeEnd(from); e += 1) {
+                int to = graph.target(e);
+                double newDist = distTo[from] + graph.weight(e);
+                if (newDist < distTo[to]) {
+                    distTo[to] = newDist;
+                    pq.addOrChangePriority(to, newDist);
+                }
+            }
+        }
+        return distTo;
+    }
+
+    /**
+     * Returns the shortest path distance from the nearest of the starts to each of the targets by executing
+     * Dijkstra's algorithm over this thread's {@link SearchWorkspace}. Each start is the given distance past the true
+     * origin, as for a query that begins partway along an edge. The search stops as soon as every target is settled,
+     * so it only explores the part of the graph nearer to the starts than the farthest target.
+     *
+     * @param graph          the input graph.
+     * @param starts         the start vertices.
+     * @param startDistances the distance from the origin to each start vertex.
+     * @param targets        the target vertices, which may repeat.
+     * @return the distance to each target in the order given, or positive infinity for targets that are unreachable.
+     */
+    public static double[] distances(CSRGraph graph, int[] starts, double[] startDistances, int[] targets) {
+        return distances(graph, starts, startDistances, targets, Deadline.NONE);
+    }
+
+    /**
+     * Returns the shortest path distance from the nearest of the starts to each of the targets, as
+     * {@link #distances(CSRGraph, int[], double[], int[])} does, giving up once the deadline passes.
+     *
+     * @param graph          the input graph.
+     * @param starts         the start vertices.
+     * @param startDistances the distance from the origin to each start vertex.
+     * @param targets        the target vertices, which may repeat.
+     * @param deadline       the time by which to give up.
+     * @return the distance to each target in the order given, or positive infinity for targets that are unreachable.
+     * @throws SearchCancelledException if the deadline passes before the search finishes.
+     */
+    public static double[] distances(CSRGraph graph, int[] starts, double[] startDistances, int[] targets,
+                                     Deadline deadline) {
+        int[] remaining = Arrays.stream(targets).distinct().sorted().toArray();
+        int remainingCount = remaining.length;
+        SearchWorkspace workspace = SearchWorkspace.forward(graph.size());
+        IntHeapMinPQ pq = workspace.pq();
+        for (int i = 0; i < starts.length; i += 1) {
+            if (startDistances[i] < workspace.distTo(starts[i])) {
+                workspace.set(starts[i], startDistances[i], -1);
+                pq.addOrChangePriority(starts[i], startDistances[i]);
+            }
+        }
+        int settled = 0;
+        while (remainingCount > 0 && !pq.isEmpty()) {
+            int from = pq.removeMin();
+            settled += 1;
+            deadline.check(settled);
+            if (Arrays.binarySearch(remaining, from) >= 0) {
+                remainingCount -= 1;
+            }
+            double fromDist = workspace.distTo(from);
+            for (int e = graph.edgeStart(from); e < graph.edgeEnd(from); e += 1) {
+                int to = graph.target(e);
+                double newDist = fromDist + graph.weight(e);
+                if (newDist < workspace.distTo(to)) {
+                    workspace.set(to, newDist, from);
+                    pq.addOrChangePriority(to, newDist);
+                }
+            }
+        }
+        double[] result = new double[targets.length];
+        for (int i = 0; i < targets.length; i += 1) {
+            result[i] = workspace.distTo(targets[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns every vertex whose shortest path distance from the nearest of the starts is within the budget, by
+     * executing Dijkstra's algorithm over this thread's {@link SearchWorkspace} until the next vertex to settle is
+     * farther than the budget. Each start is the given distance past the true origin, as for a query that begins
+     * partway along an edge. Vertices past the budget are never added to the priority queue, so the search only
+     * explores the edges leaving the vertices it returns.
+     *
+     * @param graph          the input graph.
+     * @param starts         the start vertices.
+     * @param startDistances the distance from the origin to each start vertex.
+     * @param budget         the greatest distance to include.
+     * @return the vertices within the budget and their distances, in order of increasing distance.
+     */
+    public static Reachable within(CSRGraph graph, int[] starts, double[] startDistances, double budget) {
+        return within(graph, starts, startDistances, budget, Deadline.NONE);
+    }
+
+    /**
+     * Returns every vertex whose shortest path distance from the nearest of the starts is within the budget, as
+     * {@link #within(CSRGraph, int[], double[], double)} does, giving up once the deadline passes.
+     *
+     * @param graph          the input graph.
+     * @param starts         the start vertices.
+     * @param startDistances the distance from the origin to each start vertex.
+     * @param budget         the greatest distance to include.
+     * @param deadline       the time by which to give up.
+     * @return the vertices within the budget and their distances, in order of increasing distance.
+     * @throws SearchCancelledException if the deadline passes before the search finishes.
+     */
+    public static Reachable within(CSRGraph graph, int[] starts, double[] startDistances, double budget,
+                                   Deadline deadline) {
+        Reachable result = new Reachable();
+        SearchWorkspace workspace = SearchWorkspace.forward(graph.size());
+        IntHeapMinPQ pq = workspace.pq();
+        for (int i = 0; i < starts.length; i += 1) {
+            if (startDistances[i] <= budget && startDistances[i] < workspace.distTo(starts[i])) {
+                workspace.set(starts[i], startDistances[i], -1);
+                pq.addOrChangePriority(starts[i], startDistances[i]);
+            }
+        }
+        int settled = 0;
+        while (!pq.isEmpty()) {
+            int from = pq.removeMin();
+            settled += 1;
+            deadline.check(settled);
+            double fromDist = workspace.distTo(from);
+            result.add(from, fromDist);
+            for (int e = graph.edgeStart(from); e < graph.edgeEnd(from); e += 1) {
+                int to = graph.target(e);
+                double newDist = fromDist + graph.weight(e);
+                if (newDist <= budget && newDist < workspace.distTo(to)) {
+                    workspace.set(to, newDist, from);
+                    pq.addOrChangePriority(to, newDist);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Vertices settled by a bounded search and their distances, in the order they were settled.
+     *
+     * @see #within(CSRGraph, int[], double[], double)
+     */
+    public static final class Reachable {
+        private int[] vertices = new int[16];
+        private double[] distances = new double[16];
+        private int size;
+
+        private Reachable() {
+        }
+
+        private void add(int vertex, double distance) {
+            if (size == vertices.length) {
+                vertices = Arrays.copyOf(vertices, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            vertices[size] = vertex;
+            distances[size] = distance;
+            size += 1;
+        }
+
+        /**
+         * Returns the number of vertices within the budget.
+         *
+         * @return the number of vertices within the budget.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the vertex settled at the given position, where vertices are in order of increasing distance.
+         *
+         * @param i the position, from 0 to {@code size() - 1}.
+         * @return the vertex number.
+         */
+        public int vertex(int i) {
+            return vertices[i];
+        }
+
+        /**
+         * Returns the distance from the origin to the vertex settled at the given position.
+         *
+         * @param i the position, from 0 to {@code size() - 1}.
+         * @return the distance to the vertex.
+         */
+        public double distance(int i) {
+            return distances[i];
+        }
+    }
 }
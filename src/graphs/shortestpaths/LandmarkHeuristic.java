@@ -0,0 +1,253 @@
+package graphs.shortestpaths;
+
+import graphs.CSRGraph;
+import graphs.Edge;
+import graphs.IndexedAStarGraph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Landmark (ALT) lower bounds for A* search over an {@link IndexedAStarGraph}. A few landmark vertices are chosen far
+ * apart, and the shortest path distances from and to every landmark are precomputed with {@link DijkstraSolver}. By
+ * the triangle inequality, for any landmark L the distance from v to t is at least {@code d(L, t) - d(L, v)} and at
+ * least {@code d(v, L) - d(t, L)}. These bounds follow the actual road network, so they are much tighter than a
+ * straight-line estimate wherever roads detour around water or hills.
+ *
+ * @param <V> the type of vertices.
+ * @see AStarSolver
+ */
+public class LandmarkHeuristic<V> {
+    /**
+     * Number of random start vertices tried when looking for one that reaches most of the graph.
+     */
+    private static final int SEED_ATTEMPTS = 8;
+    private final IndexedAStarGraph<V> graph;
+    private final int[] landmarks;
+    /**
+     * Distance from each landmark to each vertex, stored vertex-major: {@code from[v * landmarks.length + l]}.
+     */
+    private final double[] from;
+    /**
+     * Distance from each vertex to each landmark, stored vertex-major: {@code to[v * landmarks.length + l]}.
+     */
+    private final double[] to;
+    /**
+     * Number of landmarks used by each query.
+     */
+    private final int activeCount;
+
+    /**
+     * Constructs landmark distances for the graph using farthest-landmark selection.
+     *
+     * @param graph       the input graph.
+     * @param count       the number of landmarks to precompute.
+     * @param activeCount the number of landmarks that give the best bound for the start and goal of a query, which
+     *                    are the only ones used during that query.
+     * @param random      the source of randomness for choosing the first landmark.
+     */
+    public LandmarkHeuristic(IndexedAStarGraph<V> graph, int count, int activeCount, Random random) {
+        this.graph = graph;
+        this.activeCount = Math.min(activeCount, count);
+        CSRGraph forward = graph.csr();
+        CSRGraph backward = graph.reverseCsr();
+        int n = forward.size();
+        int[] chosen = new int[count];
+        double[][] fromLandmark = new double[count][];
+        double[][] toLandmark = new double[count][];
+
+        // Start from whichever random vertex reaches the most vertices, so landmarks avoid small fragments.
+        double[] nearest = null;
+        int reached = -1;
+        for (int i = 0; i < SEED_ATTEMPTS && n > 0; i += 1) {
+            double[] dist = DijkstraSolver.distances(forward, random.nextInt(n));
+            int count1 = 0;
+            for (double d : dist) {
+                count1 += Double.isFinite(d) ? 1 : 0;
+            }
+            if (count1 > reached) {
+                reached = count1;
+                nearest = dist;
+            }
+        }
+
+        // Each landmark is the reachable vertex farthest from every landmark chosen so far.
+        int size = 0;
+        while (size < count && nearest != null) {
+            int farthest = -1;
+            for (int v = 0; v < n; v += 1) {
+                if (Double.isFinite(nearest[v]) && (farthest < 0 || nearest[v] > nearest[farthest])) {
+                    farthest = v;
+                }
+            }
+            if (farthest < 0 || size > 0 && nearest[farthest] == 0.0) {
+                break;
+            }
+            chosen[size] = farthest;
+            fromLandmark[size] = DijkstraSolver.distances(forward, farthest);
+            toLandmark[size] = DijkstraSolver.distances(backward, farthest);
+            if (size == 0) {
+                nearest = Arrays.copyOf(fromLandmark[0], n);
+            } else {
+                for (int v = 0; v < n; v += 1) {
+                    nearest[v] = Math.min(nearest[v], fromLandmark[size][v]);
+                }
+            }
+            size += 1;
+        }
+
+        landmarks = Arrays.copyOf(chosen, size);
+        from = new double[n * size];
+        to = new double[n * size];
+        for (int l = 0; l < size; l += 1) {
+            for (int v = 0; v < n; v += 1) {
+                from[v * size + l] = fromLandmark[l][v];
+                to[v * size + l] = toLandmark[l][v];
+            }
+        }
+    }
+
+    /**
+     * Constructs landmark distances for a graph by sharing the precomputed distances of another heuristic.
+     */
+    private LandmarkHeuristic(IndexedAStarGraph<V> graph, LandmarkHeuristic<V> other) {
+        this.graph = graph;
+        this.landmarks = other.landmarks;
+        this.from = other.from;
+        this.to = other.to;
+        this.activeCount = other.activeCount;
+    }
+
+    /**
+     * Returns the same landmark bounds over the given graph, which must have exactly the same vertex numbers and edges
+     * as the graph these landmarks were computed for, without repeating the precomputation.
+     *
+     * @param graph the graph with the same vertices and edges.
+     * @return landmark bounds over the given graph sharing these distances.
+     */
+    public LandmarkHeuristic<V> forGraph(IndexedAStarGraph<V> graph) {
+        return new LandmarkHeuristic<>(graph, this);
+    }
+
+    /**
+     * Returns the landmark vertices.
+     *
+     * @return the landmark vertices.
+     */
+    public List<V> landmarks() {
+        return Arrays.stream(landmarks).mapToObj(graph::vertex).toList();
+    }
+
+    /**
+     * Returns a view of the graph whose heuristic is the larger of the graph's own estimate and the landmark bounds
+     * from the landmarks that give the best bound between the given start and goal. Vertices that are not in the graph
+     * fall back to the graph's own estimate.
+     *
+     * @param start the start vertex of the query.
+     * @param goal  the goal vertex of the query.
+     * @return a view of the graph with landmark-based estimated distances.
+     */
+    public IndexedAStarGraph<V> forQuery(V start, V goal) {
+        int s = graph.indexOf(start);
+        int t = graph.indexOf(goal);
+        int[] active;
+        if (s < 0 || t < 0) {
+            active = new int[0];
+        } else {
+            // Choose the landmarks with the largest bounds on the distance from start to goal.
+            Integer[] order = new Integer[landmarks.length];
+            double[] bounds = new double[landmarks.length];
+            for (int l = 0; l < landmarks.length; l += 1) {
+                order[l] = l;
+                bounds[l] = bound(s, t, l);
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(bounds[b], bounds[a]));
+            active = new int[Math.min(activeCount, landmarks.length)];
+            for (int i = 0; i < active.length; i += 1) {
+                active[i] = order[i];
+            }
+        }
+        return new View(active);
+    }
+
+    /**
+     * Returns the lower bound on the distance from v to t given by the landmark with the given number, or 0 if the
+     * landmark does not reach (or is not reached by) the vertices.
+     */
+    private double bound(int v, int t, int l) {
+        int k = landmarks.length;
+        double result = 0.0;
+        double fromV = from[v * k + l];
+        double fromT = from[t * k + l];
+        if (Double.isFinite(fromV) && Double.isFinite(fromT)) {
+            result = fromT - fromV;
+        }
+        double toV = to[v * k + l];
+        double toT = to[t * k + l];
+        if (Double.isFinite(toV) && Double.isFinite(toT)) {
+            result = Math.max(result, toV - toT);
+        }
+        return result;
+    }
+
+    /**
+     * The graph with landmark-based estimated distances for one query.
+     */
+    private class View implements IndexedAStarGraph<V> {
+        private final int[] active;
+
+        View(int[] active) {
+            this.active = active;
+        }
+
+        @Override
+        public CSRGraph csr() {
+            return graph.csr();
+        }
+
+        @Override
+        public CSRGraph reverseCsr() {
+            return graph.reverseCsr();
+        }
+
+        @Override
+        public int indexOf(V vertex) {
+            return graph.indexOf(vertex);
+        }
+
+        @Override
+        public V vertex(int index) {
+            return graph.vertex(index);
+        }
+
+        @Override
+        public List<Edge<V>> neighbors(V vertex) {
+            return graph.neighbors(vertex);
+        }
+
+        @Override
+        public List<Edge<V>> incoming(V vertex) {
+            return graph.incoming(vertex);
+        }
+
+        @Override
+        public double estimatedDistance(V start, V end) {
+            int s = graph.indexOf(start);
+            int t = graph.indexOf(end);
+            if (s < 0 || t < 0) {
+                return graph.estimatedDistance(start, end);
+            }
+            return estimatedDistance(s, t);
+        }
+
+        @Override
+        public double estimatedDistance(int start, int end) {
+            double result = graph.estimatedDistance(start, end);
+            for (int l : active) {
+                result = Math.max(result, bound(start, end, l));
+            }
+            return result;
+        }
+    }
+}
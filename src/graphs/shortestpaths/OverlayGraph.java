@@ -0,0 +1,163 @@
+package graphs.shortestpaths;
+
+import graphs.CSRGraph;
+import graphs.MultilevelPartition;
+
+import java.util.Arrays;
+
+/**
+ * Metric-independent overlay for Customizable Route Planning (CRP) over an undirected {@link CSRGraph} with a
+ * {@link MultilevelPartition} of its vertices.
+ * <p>
+ * A vertex is a boundary vertex of its cell at a level if one of its edges leads to a different cell at that level.
+ * The overlay fixes the boundary vertices of every cell and the layout of a matrix of shortcut weights between the
+ * boundary vertices of each cell, but none of the weights. {@link #customize(double[])} fills the matrices for one
+ * metric, the edge costs, with searches confined to single cells, which is far cheaper than partitioning the graph
+ * again, so that any number of metrics can share one partition and overlay. A query over an {@link OverlayMetric}
+ * searches the original edges only near its endpoints, and crosses the rest of the graph over the shortcuts of ever
+ * larger cells.
+ *
+ * @see OverlayMetric
+ * @see MultilevelPartition
+ */
+public final class OverlayGraph {
+    private final CSRGraph graph;
+    private final MultilevelPartition partition;
+    /**
+     * Index in {@code boundary} of the first boundary vertex of each cell at each level, plus a trailing sentinel.
+     */
+    final int[][] cellOffsets;
+    /**
+     * Boundary vertices at each level, grouped by cell.
+     */
+    final int[][] boundary;
+    /**
+     * Position of each vertex among the boundary vertices of its cell at each level, or -1 if it is not one.
+     */
+    final int[][] positions;
+    /**
+     * Index of the first shortcut weight of each cell at each level, plus a trailing sentinel. The weights of a cell
+     * with {@code k} boundary vertices are a {@code k} by {@code k} matrix in row-major order.
+     */
+    final int[][] cliqueOffsets;
+
+    /**
+     * Constructs the overlay of the given graph and partition.
+     *
+     * @param graph     an undirected graph: each edge must have a reverse edge.
+     * @param partition a nested partition of the vertices of the graph.
+     * @throws IllegalArgumentException if the partition is of a graph of a different size.
+     */
+    public OverlayGraph(CSRGraph graph, MultilevelPartition partition) {
+        if (partition.size() != graph.size()) {
+            throw new IllegalArgumentException("Partition of " + partition.size() + " vertices for a graph of "
+                    + graph.size());
+        }
+        this.graph = graph;
+        this.partition = partition;
+        int levels = partition.levels();
+        cellOffsets = new int[levels][];
+        boundary = new int[levels][];
+        positions = new int[levels][];
+        cliqueOffsets = new int[levels][];
+        for (int level = 0; level < levels; level += 1) {
+            int cells = partition.cellCount(level);
+            int[] offsets = new int[cells + 1];
+            int[] position = new int[graph.size()];
+            Arrays.fill(position, -1);
+            for (int v = 0; v < graph.size(); v += 1) {
+                if (isBoundary(level, v)) {
+                    int cell = partition.cell(level, v);
+                    position[v] = offsets[cell + 1];
+                    offsets[cell + 1] += 1;
+                }
+            }
+            int[] clique = new int[cells + 1];
+            for (int cell = 0; cell < cells; cell += 1) {
+                clique[cell + 1] = clique[cell] + offsets[cell + 1] * offsets[cell + 1];
+                offsets[cell + 1] += offsets[cell];
+            }
+            int[] vertices = new int[offsets[cells]];
+            for (int v = 0; v < graph.size(); v += 1) {
+                if (position[v] >= 0) {
+                    vertices[offsets[partition.cell(level, v)] + position[v]] = v;
+                }
+            }
+            cellOffsets[level] = offsets;
+            boundary[level] = vertices;
+            positions[level] = position;
+            cliqueOffsets[level] = clique;
+        }
+    }
+
+    /**
+     * Returns whether the vertex has an edge to a different cell at the given level.
+     */
+    private boolean isBoundary(int level, int v) {
+        int cell = partition.cell(level, v);
+        for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e += 1) {
+            if (partition.cell(level, graph.target(e)) != cell) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the overlay customized for the given metric, computing the shortcut weights of the cells at each level
+     * in parallel on the common fork-join pool.
+     *
+     * @param costs the cost of each edge of the graph, which must be non-negative and equal for each edge and its
+     *              reverse edge, and may be positive infinity for an edge that the metric forbids.
+     * @return the overlay customized for the metric.
+     * @throws IllegalArgumentException if there is not one cost for each edge.
+     */
+    public OverlayMetric customize(double[] costs) {
+        if (costs.length != graph.edgeCount()) {
+            throw new IllegalArgumentException(costs.length + " costs for " + graph.edgeCount() + " edges");
+        }
+        return new OverlayMetric(this, costs);
+    }
+
+    /**
+     * Returns the graph under this overlay.
+     *
+     * @return the graph under this overlay.
+     */
+    public CSRGraph graph() {
+        return graph;
+    }
+
+    /**
+     * Returns the partition of this overlay.
+     *
+     * @return the partition of this overlay.
+     */
+    public MultilevelPartition partition() {
+        return partition;
+    }
+
+    /**
+     * Returns the number of boundary vertices at the given level, summed over its cells.
+     *
+     * @param level the level, where 0 has the smallest cells.
+     * @return the number of boundary vertices at the level.
+     */
+    public int boundarySize(int level) {
+        return boundary[level].length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder levels = new StringBuilder();
+        for (int level = 0; level < partition.levels(); level += 1) {
+            levels.append(level == 0 ? "" : ", ")
+                    .append(partition.cellCount(level)).append(" cells/")
+                    .append(boundary[level].length).append(" boundary");
+        }
+        return "OverlayGraph{" +
+                "size=" + graph.size() +
+                ", levels=[" + levels + ']' +
+                '}';
+    }
+}
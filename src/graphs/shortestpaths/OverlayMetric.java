@@ -0,0 +1,409 @@
+package graphs.shortestpaths;
+
+import graphs.CSRGraph;
+import graphs.MultilevelPartition;
+import minpq.IntHeapMinPQ;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * {@link OverlayGraph} customized for one metric: the cost of each edge of the graph, and the weight of a shortcut
+ * between every pair of boundary vertices of each cell, which is the cost of the shortest path between them that
+ * stays inside the cell. Customization fills the cells of the lowest level by searching the original edges inside
+ * each cell, and the cells of each higher level by searching the shortcuts and cut edges of the cells one level
+ * below, so each search only crosses a handful of vertices.
+ * <p>
+ * A query runs a bidirectional Dijkstra search in which each vertex is searched at the highest level whose cell holds
+ * neither endpoint: near the endpoints the search follows the original edges, and farther away it only follows the
+ * edges that leave the vertex's cell at that level and the shortcuts of that cell. The shortcuts on the best path are
+ * unpacked by searching the original edges inside their cells. Because the metric is symmetric, the backward search
+ * follows the same edges as the forward search.
+ * <p>
+ * Queries keep their state in per-thread workspaces, so any number of threads may query one metric at once.
+ *
+ * @see OverlayGraph
+ */
+public final class OverlayMetric {
+    private final OverlayGraph overlay;
+    private final CSRGraph graph;
+    private final MultilevelPartition partition;
+    /**
+     * Cost of each edge of the graph.
+     */
+    private final double[] costs;
+    /**
+     * Shortcut weights of every cell at each level, laid out by {@link OverlayGraph#cliqueOffsets}.
+     */
+    private final double[][] cliques;
+
+    /**
+     * Customizes the overlay for the given edge costs, one level at a time and the cells of each level in parallel.
+     *
+     * @param overlay the overlay to customize.
+     * @param costs   the cost of each edge of the graph.
+     */
+    OverlayMetric(OverlayGraph overlay, double[] costs) {
+        this.overlay = overlay;
+        this.graph = overlay.graph();
+        this.partition = overlay.partition();
+        this.costs = costs;
+        cliques = new double[partition.levels()][];
+        for (int level = 0; level < partition.levels(); level += 1) {
+            int cells = partition.cellCount(level);
+            cliques[level] = new double[overlay.cliqueOffsets[level][cells]];
+            int current = level;
+            IntStream.range(0, cells).parallel().forEach(cell -> customize(current, cell));
+        }
+    }
+
+    /**
+     * Fills the shortcut weights of the cell with one search from each of its boundary vertices, which stops once
+     * every boundary vertex of the cell is settled.
+     */
+    private void customize(int level, int cell) {
+        int first = overlay.cellOffsets[level][cell];
+        int k = overlay.cellOffsets[level][cell + 1] - first;
+        double[] weights = cliques[level];
+        int row = overlay.cliqueOffsets[level][cell];
+        for (int i = 0; i < k; i += 1, row += k) {
+            Arrays.fill(weights, row, row + k, Double.POSITIVE_INFINITY);
+            SearchWorkspace search = SearchWorkspace.forward(graph.size());
+            IntHeapMinPQ pq = search.pq();
+            int source = overlay.boundary[level][first + i];
+            search.set(source, 0.0, -1);
+            pq.add(source, 0.0);
+            int settled = 0;
+            while (!pq.isEmpty() && settled < k) {
+                int v = pq.removeMin();
+                double distance = search.distTo(v);
+                if (overlay.positions[level][v] >= 0) {
+                    weights[row + overlay.positions[level][v]] = distance;
+                    settled += 1;
+                }
+                if (level == 0) {
+                    for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e += 1) {
+                        int w = graph.target(e);
+                        if (partition.cell(0, w) == cell) {
+                            relax(search, w, distance + costs[e], v);
+                        }
+                    }
+                } else {
+                    // Every vertex searched here is a boundary vertex of its cell one level below.
+                    int lower = level - 1;
+                    int lowerCell = partition.cell(lower, v);
+                    for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e += 1) {
+                        int w = graph.target(e);
+                        if (partition.cell(lower, w) != lowerCell && partition.cell(level, w) == cell) {
+                            relax(search, w, distance + costs[e], v);
+                        }
+                    }
+                    relaxShortcuts(search, lower, v, distance, v);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the vertices on a shortest path from start to goal, or an empty array if the goal is unreachable.
+     *
+     * @param start the start vertex.
+     * @param goal  the goal vertex.
+     * @return the vertices on a shortest path from start to goal, or an empty array if the goal is unreachable.
+     */
+    public int[] path(int start, int goal) {
+        return path(new int[]{start}, new double[]{0.0}, new int[]{goal}, new double[]{0.0});
+    }
+
+    /**
+     * Returns the vertices on a shortest path from any of the starts to any of the goals, or an empty array if no goal
+     * is reachable. Each start is the given cost past the true origin of the query and each goal the given cost short
+     * of its true destination, so that a query can begin and end partway along an edge.
+     *
+     * @param starts     the start vertices.
+     * @param startCosts the cost from the origin to each start vertex.
+     * @param goals      the goal vertices.
+     * @param goalCosts  the cost from each goal vertex to the destination.
+     * @return the vertices on a shortest path from the chosen start to the chosen goal, or an empty array if no goal
+     * is reachable.
+     */
+    public int[] path(int[] starts, double[] startCosts, int[] goals, double[] goalCosts) {
+        return path(starts, startCosts, goals, goalCosts, Deadline.NONE);
+    }
+
+    /**
+     * Returns the vertices on a shortest path from any of the starts to any of the goals as in
+     * {@link #path(int[], double[], int[], double[])}, giving up once the deadline passes.
+     *
+     * @param starts     the start vertices.
+     * @param startCosts the cost from the origin to each start vertex.
+     * @param goals      the goal vertices.
+     * @param goalCosts  the cost from each goal vertex to the destination.
+     * @param deadline   the deadline for the search.
+     * @return the vertices on a shortest path from the chosen start to the chosen goal, or an empty array if no goal
+     * is reachable.
+     * @throws SearchCancelledException if the deadline passes or is cancelled before the search finishes.
+     */
+    public int[] path(int[] starts, double[] startCosts, int[] goals, double[] goalCosts, Deadline deadline) {
+        SearchWorkspace forward = SearchWorkspace.forward(graph.size());
+        SearchWorkspace backward = SearchWorkspace.reverse(graph.size());
+        int[] anchors = anchors(starts, goals);
+        int meeting = search(starts, startCosts, goals, goalCosts, anchors, forward, backward, deadline);
+        if (meeting < 0) {
+            return new int[0];
+        }
+
+        // Collect the hops back to the start before unpacking shortcuts, which reuses the forward workspace.
+        IntList hops = new IntList();
+        int start = meeting;
+        for (int parent = forward.parent(start); parent != -1; parent = forward.parent(start)) {
+            hops.add(start);
+            hops.add(parent);
+            start = parent >> 1;
+        }
+        IntList vertices = new IntList();
+        vertices.add(start);
+        for (int i = hops.size - 2; i >= 0; i -= 2) {
+            int to = hops.values[i];
+            int parent = hops.values[i + 1];
+            appendHop(parent >> 1, to, parent, anchors, vertices);
+        }
+        for (int v = meeting; backward.parent(v) != -1; v = backward.parent(v) >> 1) {
+            // The backward search reached v from the next vertex toward the goal over an edge of the same cost.
+            int parent = backward.parent(v);
+            appendHop(v, parent >> 1, parent, anchors, vertices);
+        }
+        return Arrays.copyOf(vertices.values, vertices.size);
+    }
+
+    /**
+     * Returns the cost of a shortest path from start to goal, or positive infinity if the goal is unreachable.
+     *
+     * @param start the start vertex.
+     * @param goal  the goal vertex.
+     * @return the cost of a shortest path from start to goal, or positive infinity if the goal is unreachable.
+     */
+    public double distance(int start, int goal) {
+        SearchWorkspace forward = SearchWorkspace.forward(graph.size());
+        SearchWorkspace backward = SearchWorkspace.reverse(graph.size());
+        int[] starts = {start};
+        int[] goals = {goal};
+        double[] zero = {0.0};
+        int meeting = search(starts, zero, goals, zero, anchors(starts, goals), forward, backward, Deadline.NONE);
+        return meeting < 0 ? Double.POSITIVE_INFINITY : forward.distTo(meeting) + backward.distTo(meeting);
+    }
+
+    /**
+     * Returns the starts and goals together, whose cells decide the level at which each vertex is searched.
+     */
+    private static int[] anchors(int[] starts, int[] goals) {
+        int[] result = Arrays.copyOf(starts, starts.length + goals.length);
+        System.arraycopy(goals, 0, result, starts.length, goals.length);
+        return result;
+    }
+
+    /**
+     * Runs the bidirectional search and returns the vertex where the best path meets, or -1 if no goal is reachable.
+     * The parent of each vertex is the vertex it was reached from times two, plus one if it was reached over a
+     * shortcut.
+     */
+    private int search(int[] starts, double[] startCosts, int[] goals, double[] goalCosts, int[] anchors,
+                       SearchWorkspace forward, SearchWorkspace backward, Deadline deadline) {
+        for (int i = 0; i < starts.length; i += 1) {
+            if (startCosts[i] < forward.distTo(starts[i])) {
+                forward.set(starts[i], startCosts[i], -1);
+                forward.pq().addOrChangePriority(starts[i], startCosts[i]);
+            }
+        }
+        for (int i = 0; i < goals.length; i += 1) {
+            if (goalCosts[i] < backward.distTo(goals[i])) {
+                backward.set(goals[i], goalCosts[i], -1);
+                backward.pq().addOrChangePriority(goals[i], goalCosts[i]);
+            }
+        }
+        double best = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+        int settled = 0;
+        while (true) {
+            double forwardMin = forward.pq().isEmpty() ? Double.POSITIVE_INFINITY : forward.pq().peekMinPriority();
+            double backwardMin = backward.pq().isEmpty() ? Double.POSITIVE_INFINITY : backward.pq().peekMinPriority();
+            // No path through an unsettled vertex can beat the best path found once the two minimums add up to it.
+            if (forwardMin + backwardMin >= best || forwardMin == Double.POSITIVE_INFINITY
+                    && backwardMin == Double.POSITIVE_INFINITY) {
+                break;
+            }
+            boolean isForward = forwardMin <= backwardMin;
+            SearchWorkspace search = isForward ? forward : backward;
+            SearchWorkspace other = isForward ? backward : forward;
+            int v = search.pq().removeMin();
+            settled += 1;
+            deadline.check(settled);
+            double distance = search.distTo(v);
+            if (distance + other.distTo(v) < best) {
+                best = distance + other.distTo(v);
+                meeting = v;
+            }
+            int level = level(v, anchors);
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e += 1) {
+                int w = graph.target(e);
+                if (level < 0 || partition.cell(level, w) != partition.cell(level, v)) {
+                    if (relax(search, w, distance + costs[e], 2 * v) && search.distTo(w) + other.distTo(w) < best) {
+                        best = search.distTo(w) + other.distTo(w);
+                        meeting = w;
+                    }
+                }
+            }
+            if (level >= 0 && overlay.positions[level][v] >= 0) {
+                int cell = partition.cell(level, v);
+                int first = overlay.cellOffsets[level][cell];
+                int k = overlay.cellOffsets[level][cell + 1] - first;
+                int row = overlay.cliqueOffsets[level][cell] + overlay.positions[level][v] * k;
+                for (int j = 0; j < k; j += 1) {
+                    int w = overlay.boundary[level][first + j];
+                    if (relax(search, w, distance + cliques[level][row + j], 2 * v + 1)
+                            && search.distTo(w) + other.distTo(w) < best) {
+                        best = search.distTo(w) + other.distTo(w);
+                        meeting = w;
+                    }
+                }
+            }
+        }
+        return meeting;
+    }
+
+    /**
+     * Returns the highest level at which the vertex is in a different cell from every anchor, or -1 if it shares its
+     * cell at the lowest level with an anchor.
+     */
+    private int level(int v, int[] anchors) {
+        for (int level = partition.levels() - 1; level >= 0; level -= 1) {
+            int cell = partition.cell(level, v);
+            boolean apart = true;
+            for (int anchor : anchors) {
+                if (partition.cell(level, anchor) == cell) {
+                    apart = false;
+                    break;
+                }
+            }
+            if (apart) {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Relaxes the shortcuts from the boundary vertex to the other boundary vertices of its cell at the given level.
+     */
+    private void relaxShortcuts(SearchWorkspace search, int level, int v, double distance, int parent) {
+        int cell = partition.cell(level, v);
+        int first = overlay.cellOffsets[level][cell];
+        int k = overlay.cellOffsets[level][cell + 1] - first;
+        int row = overlay.cliqueOffsets[level][cell] + overlay.positions[level][v] * k;
+        for (int j = 0; j < k; j += 1) {
+            relax(search, overlay.boundary[level][first + j], distance + cliques[level][row + j], parent);
+        }
+    }
+
+    /**
+     * Records the distance to the vertex if it improves on the current distance, and returns whether it did.
+     */
+    private static boolean relax(SearchWorkspace search, int w, double distance, int parent) {
+        if (distance < search.distTo(w)) {
+            search.set(w, distance, parent);
+            search.pq().addOrChangePriority(w, distance);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Appends the vertices after {@code from} on the hop from {@code from} to {@code to}. The parent recorded for the
+     * hop tells whether it is an edge or a shortcut, and names the vertex whose search relaxed it, whose cell at its
+     * search level holds the shortcut.
+     */
+    private void appendHop(int from, int to, int parent, int[] anchors, IntList vertices) {
+        if ((parent & 1) == 0) {
+            vertices.add(to);
+        } else {
+            int owner = parent >> 1;
+            int level = level(owner, anchors);
+            unpack(from, to, level, partition.cell(level, owner), vertices);
+        }
+    }
+
+    /**
+     * Appends the vertices after {@code from} on a shortest path from {@code from} to {@code to} over the original
+     * edges inside the given cell.
+     */
+    private void unpack(int from, int to, int level, int cell, IntList vertices) {
+        SearchWorkspace search = SearchWorkspace.forward(graph.size());
+        IntHeapMinPQ pq = search.pq();
+        search.set(from, 0.0, -1);
+        pq.add(from, 0.0);
+        while (!pq.isEmpty()) {
+            int v = pq.removeMin();
+            if (v == to) {
+                break;
+            }
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e += 1) {
+                int w = graph.target(e);
+                if (partition.cell(level, w) == cell) {
+                    relax(search, w, search.distTo(v) + costs[e], v);
+                }
+            }
+        }
+        if (!search.reached(to)) {
+            throw new IllegalStateException("Missing path from " + from + " to " + to + " in cell " + cell);
+        }
+        int start = vertices.size;
+        for (int v = to; v != from; v = search.parent(v)) {
+            vertices.add(v);
+        }
+        // The vertices were appended from the end of the shortcut back toward its start.
+        for (int i = start, j = vertices.size - 1; i < j; i += 1, j -= 1) {
+            int swap = vertices.values[i];
+            vertices.values[i] = vertices.values[j];
+            vertices.values[j] = swap;
+        }
+    }
+
+    /**
+     * Returns the cost of the given edge of the graph in this metric.
+     *
+     * @param edge the edge number.
+     * @return the cost of the edge.
+     */
+    public double cost(int edge) {
+        return costs[edge];
+    }
+
+    /**
+     * Returns the overlay this metric customizes.
+     *
+     * @return the overlay this metric customizes.
+     */
+    public OverlayGraph overlay() {
+        return overlay;
+    }
+
+    @Override
+    public String toString() {
+        return "OverlayMetric{" +
+                "overlay=" + overlay +
+                '}';
+    }
+
+    private static class IntList {
+        int[] values = new int[16];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = value;
+            size += 1;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package graphs.shortestpaths;
+
+/**
+ * Thrown by a search that stops before finding a path because its {@link Deadline} passed or was cancelled.
+ *
+ * @see Deadline
+ */
+public class SearchCancelledException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a new instance with the given detail message.
+     *
+     * @param message the reason the search stopped.
+     */
+    public SearchCancelledException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,153 @@
+package graphs.shortestpaths;
+
+import minpq.IntHeapMinPQ;
+
+import java.util.Arrays;
+
+/**
+ * Reusable per-thread arrays for one direction of a search over vertex numbers: the distance and parent of each
+ * vertex, whether it has been settled, and a priority queue. Rather than refilling the arrays before every search,
+ * each entry is stamped with the epoch of the search that wrote it, so entries from earlier searches read as
+ * unreached. Starting a search therefore only costs emptying whatever the previous search left in the priority queue.
+ * <p>
+ * Each thread has one forward and one reverse workspace, which grow to fit the largest graph searched on that thread.
+ * A workspace must not be used by a search that starts before the previous search on the same thread has finished.
+ *
+ * @see AStarSolver
+ * @see BidirectionalAStarSolver
+ * @see ContractionHierarchy
+ */
+final class SearchWorkspace {
+    private static final ThreadLocal<SearchWorkspace> FORWARD = ThreadLocal.withInitial(SearchWorkspace::new);
+    private static final ThreadLocal<SearchWorkspace> REVERSE = ThreadLocal.withInitial(SearchWorkspace::new);
+    /**
+     * Epoch of the search that last wrote each vertex's distance and parent.
+     */
+    private int[] stamps = new int[0];
+    /**
+     * Epoch of the search that last settled each vertex, for searches that track which vertices they settled.
+     */
+    private int[] settledStamps = new int[0];
+    private double[] distTo = new double[0];
+    private int[] parents = new int[0];
+    private IntHeapMinPQ pq = new IntHeapMinPQ(0);
+    private int epoch;
+
+    private SearchWorkspace() {
+    }
+
+    /**
+     * Returns this thread's workspace for a forward search, reset for a new search over the given number of vertices.
+     *
+     * @param size the number of vertices in the graph.
+     * @return this thread's forward workspace with every vertex unreached.
+     */
+    static SearchWorkspace forward(int size) {
+        return FORWARD.get().reset(size);
+    }
+
+    /**
+     * Returns this thread's workspace for a reverse search, reset for a new search over the given number of vertices.
+     *
+     * @param size the number of vertices in the graph.
+     * @return this thread's reverse workspace with every vertex unreached.
+     */
+    static SearchWorkspace reverse(int size) {
+        return REVERSE.get().reset(size);
+    }
+
+    /**
+     * Starts a new epoch, growing the arrays if the graph is larger than any searched before.
+     */
+    private SearchWorkspace reset(int size) {
+        if (stamps.length < size) {
+            stamps = new int[size];
+            settledStamps = new int[size];
+            distTo = new double[size];
+            parents = new int[size];
+            pq = new IntHeapMinPQ(size);
+            epoch = 0;
+        } else {
+            pq.clear();
+        }
+        epoch += 1;
+        if (epoch == 0) {
+            // After overflowing, stamps from 2^32 searches ago would look current again.
+            Arrays.fill(stamps, 0);
+            Arrays.fill(settledStamps, 0);
+            epoch = 1;
+        }
+        return this;
+    }
+
+    /**
+     * Returns the priority queue, which is empty at the start of each search.
+     *
+     * @return the priority queue.
+     */
+    IntHeapMinPQ pq() {
+        return pq;
+    }
+
+    /**
+     * Returns whether the vertex has been reached by the current search.
+     *
+     * @param v the vertex number.
+     * @return true if the vertex has a distance in the current search.
+     */
+    boolean reached(int v) {
+        return stamps[v] == epoch;
+    }
+
+    /**
+     * Returns whether the vertex has been marked settled by the current search.
+     *
+     * @param v the vertex number.
+     * @return true if the vertex was marked settled by the current search.
+     */
+    boolean settled(int v) {
+        return settledStamps[v] == epoch;
+    }
+
+    /**
+     * Marks the vertex settled by the current search.
+     *
+     * @param v the vertex number.
+     */
+    void settle(int v) {
+        settledStamps[v] = epoch;
+    }
+
+    /**
+     * Returns the distance to the vertex in the current search, or positive infinity if it has not been reached.
+     *
+     * @param v the vertex number.
+     * @return the distance to the vertex, or positive infinity if it has not been reached.
+     */
+    double distTo(int v) {
+        return stamps[v] == epoch ? distTo[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the parent recorded for the vertex in the current search, or -1 if it has not been reached.
+     *
+     * @param v the vertex number.
+     * @return the parent of the vertex, or -1 if it has not been reached.
+     */
+    int parent(int v) {
+        return stamps[v] == epoch ? parents[v] : -1;
+    }
+
+    /**
+     * Records the distance to the vertex and its parent, which is a vertex or edge number chosen by the search.
+     *
+     * @param v      the vertex number.
+     * @param dist   the distance to the vertex.
+     * @param parent the parent of the vertex, or -1 for none.
+     */
+    void set(int v, double dist, int parent) {
+        stamps[v] = epoch;
+        distTo[v] = dist;
+        parents[v] = parent;
+    }
+}
@@ -0,0 +1,49 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonically increasing count, such as a number of requests or of vertices settled. Threads add to separate cells
+ * of a {@link LongAdder}, so concurrent increments do not contend on a single value.
+ *
+ * @see MetricRegistry
+ */
+public final class Counter {
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Adds one to the count.
+     */
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * Adds the given amount to the count.
+     *
+     * @param amount the amount to add, which must not be negative.
+     * @throws IllegalArgumentException if the amount is negative.
+     */
+    public void add(long amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Negative amount " + amount);
+        }
+        count.add(amount);
+    }
+
+    /**
+     * Returns the current count.
+     *
+     * @return the current count.
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "Counter{" +
+                "count=" + count() +
+                '}';
+    }
+}
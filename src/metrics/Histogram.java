@@ -0,0 +1,185 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative values, such as latencies in nanoseconds or result counts, recorded without locking.
+ * As in an HDR histogram, each power-of-two range of values is split into {@value #SUB_BUCKETS} equal buckets, so any
+ * value from 0 to {@link Long#MAX_VALUE} falls into one of a few hundred buckets that are each within 12.5% of the
+ * value. Recording a value increments one slot of an {@link AtomicLongArray} and adds the value to a running sum.
+ * <p>
+ * Values are exported in Prometheus format as cumulative counts at each power of two between a minimum and maximum
+ * exponent, scaled by a unit: a histogram of nanoseconds with a unit of {@code 1e-9} exports seconds. Every bucket
+ * boundary at a power of two is exact, so each exported count includes precisely the values at most its bound.
+ *
+ * @see MetricRegistry
+ */
+public final class Histogram {
+    /**
+     * Number of buckets in each power-of-two range, which must be a power of two.
+     */
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+    /**
+     * Bucket 0 holds zero (and clamped negative values); the rest hold the ranges of values from 1 up.
+     */
+    private static final int BUCKETS = 1 + bucket(Long.MAX_VALUE);
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final double unit;
+    private final int minExponent;
+    private final int maxExponent;
+
+    /**
+     * Constructs an empty histogram.
+     *
+     * @param unit        the value of one recorded unit in the exported units.
+     * @param minExponent the power of two of the smallest exported bound, in recorded units.
+     * @param maxExponent the power of two of the largest exported bound before the final unbounded one.
+     * @throws IllegalArgumentException if the exponents are not between 0 and 62 in order.
+     */
+    public Histogram(double unit, int minExponent, int maxExponent) {
+        if (minExponent < 0 || maxExponent > 62 || minExponent > maxExponent) {
+            throw new IllegalArgumentException("Invalid exponents " + minExponent + " to " + maxExponent);
+        }
+        this.unit = unit;
+        this.minExponent = minExponent;
+        this.maxExponent = maxExponent;
+    }
+
+    /**
+     * Returns a histogram of durations recorded in nanoseconds and exported in seconds, from about a microsecond to
+     * about half a minute.
+     *
+     * @return an empty histogram of durations.
+     */
+    public static Histogram nanoseconds() {
+        return new Histogram(1e-9, 10, 35);
+    }
+
+    /**
+     * Returns a histogram of counts exported as recorded, from 1 to about a million.
+     *
+     * @return an empty histogram of counts.
+     */
+    public static Histogram counts() {
+        return new Histogram(1.0, 0, 20);
+    }
+
+    /**
+     * Records one value, clamping negative values to zero.
+     *
+     * @param value the value to record.
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucket(value));
+        sum.add(value);
+    }
+
+    /**
+     * Records the time elapsed since the given start time from {@link System#nanoTime()}.
+     *
+     * @param startNanos the start time in nanoseconds.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the number of values recorded.
+     */
+    public long count() {
+        long result = 0;
+        for (int i = 0; i < BUCKETS; i += 1) {
+            result += counts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the sum of the values recorded, in recorded units.
+     *
+     * @return the sum of the values recorded.
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * Appends this histogram in Prometheus text format, as cumulative {@code _bucket} counts followed by the
+     * {@code _sum} and {@code _count} of the values. Buckets are read one at a time while values may still be
+     * recorded, so the total count is taken from the same reads as the buckets to keep the output consistent.
+     *
+     * @param out    the output.
+     * @param name   the metric name.
+     * @param labels the formatted labels without braces, or an empty string.
+     */
+    void write(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+        long cumulative = 0;
+        int i = 0;
+        for (int exponent = minExponent; exponent <= maxExponent; exponent += 1) {
+            long bound = 1L << exponent;
+            while (i < BUCKETS && upperBound(i) <= bound) {
+                cumulative += counts.get(i);
+                i += 1;
+            }
+            out.append(name).append("_bucket").append(prefix).append("le=\"")
+                    .append(MetricRegistry.format(bound * unit)).append("\"} ").append(cumulative).append('\n');
+        }
+        while (i < BUCKETS) {
+            cumulative += counts.get(i);
+            i += 1;
+        }
+        out.append(name).append("_bucket").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+        out.append(name).append("_sum").append(suffix).append(MetricRegistry.format(sum() * unit)).append('\n');
+        out.append(name).append("_count").append(suffix).append(cumulative).append('\n');
+    }
+
+    /**
+     * Returns the bucket holding the given non-negative value. Bucket {@code 1 + j} holds the values {@code v} for
+     * which {@code v - 1} falls in the {@code j}th log-linear range, so that each bucket includes its upper bound.
+     */
+    private static int bucket(long value) {
+        if (value == 0) {
+            return 0;
+        }
+        long u = value - 1;
+        if (u < SUB_BUCKETS) {
+            return 1 + (int) u;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(u);
+        int sub = (int) (u >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return 1 + (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the largest value held by the given bucket.
+     */
+    private static long upperBound(int bucket) {
+        if (bucket == 0) {
+            return 0;
+        }
+        int j = bucket - 1;
+        if (j < SUB_BUCKETS) {
+            return j + 1;
+        }
+        int exponent = j / SUB_BUCKETS + SUB_BITS - 1;
+        long bound = (long) (SUB_BUCKETS + j % SUB_BUCKETS + 1) << (exponent - SUB_BITS);
+        // The last bucket's bound is 2^63, which overflows.
+        return bound > 0 ? bound : Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram{" +
+                "count=" + count() +
+                ", sum=" + sum() +
+                '}';
+    }
+}
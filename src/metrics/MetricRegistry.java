@@ -0,0 +1,183 @@
+package metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Named collection of {@link Counter counters} and {@link Histogram histograms} that writes all of them in the
+ * Prometheus text exposition format. Metrics with the same name form a family that shares its help text and type, and
+ * each member of the family is told apart by its labels, given as alternating names and values.
+ * <p>
+ * Registering a metric that already exists returns the existing one, so callers can look metrics up on demand as well
+ * as keep them in fields. Registration is thread-safe, and recording into a registered metric never locks.
+ *
+ * @see Counter
+ * @see Histogram
+ */
+public final class MetricRegistry {
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * Returns the counter with the given name and labels, registering it if it does not already exist.
+     *
+     * @param name   the metric name, which by convention ends with {@code _total}.
+     * @param help   the description of the metric family.
+     * @param labels alternating label names and values.
+     * @return the counter with the given name and labels.
+     * @throws IllegalArgumentException if the name is registered with another type, or the labels are not in pairs.
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").metrics.computeIfAbsent(labels(labels), k -> new Counter());
+    }
+
+    /**
+     * Registers a counter whose value is read from the given supplier when the metrics are written, for counts that
+     * are already kept elsewhere, such as the hit count of a cache.
+     *
+     * @param name   the metric name, which by convention ends with {@code _total}.
+     * @param help   the description of the metric family.
+     * @param count  the supplier of the current count.
+     * @param labels alternating label names and values.
+     * @throws IllegalArgumentException if the name is registered with another type, or the labels are not in pairs.
+     */
+    public void counter(String name, String help, LongSupplier count, String... labels) {
+        family(name, help, "counter").metrics.put(labels(labels), count);
+    }
+
+    /**
+     * Returns the histogram with the given name and labels, registering a new histogram from the given factory if it
+     * does not already exist.
+     *
+     * @param name    the metric name, which by convention ends with the exported unit, such as {@code _seconds}.
+     * @param help    the description of the metric family.
+     * @param factory the factory for a new histogram, such as {@link Histogram#nanoseconds()}.
+     * @param labels  alternating label names and values.
+     * @return the histogram with the given name and labels.
+     * @throws IllegalArgumentException if the name is registered with another type, or the labels are not in pairs.
+     */
+    public Histogram histogram(String name, String help, Supplier<Histogram> factory, String... labels) {
+        return (Histogram) family(name, help, "histogram").metrics.computeIfAbsent(labels(labels), k -> factory.get());
+    }
+
+    /**
+     * Returns every registered metric in the Prometheus text exposition format, with families sorted by name and the
+     * members of each family sorted by their labels.
+     *
+     * @return the metrics in Prometheus text format.
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(escape(family.help, false)).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> member : family.metrics.entrySet()) {
+                String labels = member.getKey();
+                Object metric = member.getValue();
+                if (metric instanceof Histogram histogram) {
+                    histogram.write(out, name, labels);
+                    continue;
+                }
+                long count = metric instanceof Counter counter
+                        ? counter.count()
+                        : ((LongSupplier) metric).getAsLong();
+                out.append(name);
+                if (!labels.isEmpty()) {
+                    out.append('{').append(labels).append('}');
+                }
+                out.append(' ').append(count).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Returns the family with the given name, registering it if it does not already exist.
+     */
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, k -> {
+            if (!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) {
+                throw new IllegalArgumentException("Invalid metric name " + name);
+            }
+            return new Family(help, type);
+        });
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already a " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * Returns the labels formatted as {@code name="value"} pairs separated by commas, without braces.
+     */
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs");
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(labels[i]).append("=\"").append(escape(labels[i + 1], true)).append('"');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the text with backslashes and line breaks escaped, and also double quotes if it is a label value.
+     */
+    private static String escape(String s, boolean quotes) {
+        StringBuilder result = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                result.append("\\\\");
+            } else if (c == '\n') {
+                result.append("\\n");
+            } else if (c == '"' && quotes) {
+                result.append("\\\"");
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the number in the shortest form that Prometheus parses back to the same value.
+     *
+     * @param value the number to format.
+     * @return the formatted number.
+     */
+    static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    @Override
+    public String toString() {
+        return "MetricRegistry{" +
+                "families=" + families.keySet() +
+                '}';
+    }
+
+    /**
+     * Metrics that share a name, keyed by their formatted labels.
+     */
+    private static class Family {
+        private final String help;
+        private final String type;
+        private final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package minpq;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary heap priority queue of the {@code int} elements {@code 0} to {@code capacity - 1} with {@code double}
+ * priority values. It follows the {@link MinPQ} contract without boxing: the heap and the position of each element
+ * live in primitive arrays allocated once, so a search can reuse a single instance across many queries.
+ *
+ * @see MinPQ
+ * @see OptimizedHeapMinPQ
+ */
+public class IntHeapMinPQ {
+    /**
+     * Elements in heap order.
+     */
+    private final int[] heap;
+    /**
+     * Priority value of each element in heap order.
+     */
+    private final double[] priorities;
+    /**
+     * Position of each element in the heap, or -1 if the element is not present.
+     */
+    private final int[] positions;
+    private int size;
+
+    /**
+     * Constructs an empty instance that can hold the elements {@code 0} to {@code capacity - 1}.
+     *
+     * @param capacity the number of distinct elements.
+     */
+    public IntHeapMinPQ(int capacity) {
+        heap = new int[capacity];
+        priorities = new double[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    /**
+     * Returns the number of distinct elements this priority queue can hold.
+     *
+     * @return the number of distinct elements this priority queue can hold.
+     */
+    public int capacity() {
+        return positions.length;
+    }
+
+    /**
+     * Adds an element with the given priority value.
+     *
+     * @param element  the element to add.
+     * @param priority the priority value for the element.
+     * @throws IllegalArgumentException if element is already present.
+     */
+    public void add(int element, double priority) {
+        if (contains(element)) {
+            throw new IllegalArgumentException("Already contains " + element);
+        }
+        heap[size] = element;
+        priorities[size] = priority;
+        positions[element] = size;
+        size += 1;
+        swim(size - 1);
+    }
+
+    /**
+     * Adds an element with the given priority value if it is not already present. Otherwise, updates the priority value
+     * of the existing element.
+     *
+     * @param element  the element to add or update.
+     * @param priority the priority value for the element.
+     */
+    public void addOrChangePriority(int element, double priority) {
+        if (!contains(element)) {
+            add(element, priority);
+        } else {
+            changePriority(element, priority);
+        }
+    }
+
+    /**
+     * Returns true if the given element is in this priority queue.
+     *
+     * @param element element to be checked for containment.
+     * @return true if the given element is in this priority queue.
+     */
+    public boolean contains(int element) {
+        return positions[element] >= 0;
+    }
+
+    /**
+     * Returns the element with the minimum priority value.
+     *
+     * @return the element with the minimum priority value.
+     * @throws NoSuchElementException if this priority queue is empty.
+     */
+    public int peekMin() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("PQ is empty");
+        }
+        return heap[0];
+    }
+
+    /**
+     * Returns the minimum priority value.
+     *
+     * @return the minimum priority value.
+     * @throws NoSuchElementException if this priority queue is empty.
+     */
+    public double peekMinPriority() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("PQ is empty");
+        }
+        return priorities[0];
+    }
+
+    /**
+     * Returns and removes the element with the minimum priority value.
+     *
+     * @return the element with the minimum priority value.
+     * @throws NoSuchElementException if this priority queue is empty.
+     */
+    public int removeMin() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("PQ is empty");
+        }
+        int result = heap[0];
+        size -= 1;
+        move(size, 0);
+        positions[result] = -1;
+        if (size > 0) {
+            sink(0);
+        }
+        return result;
+    }
+
+    /**
+     * Updates the given elements' associated priority value.
+     *
+     * @param element  the element whose associated priority value should be modified.
+     * @param priority the updated priority value.
+     * @throws NoSuchElementException if the element is not present.
+     */
+    public void changePriority(int element, double priority) {
+        if (!contains(element)) {
+            throw new NoSuchElementException("PQ does not contain " + element);
+        }
+        int i = positions[element];
+        double oldPriority = priorities[i];
+        priorities[i] = priority;
+        if (priority < oldPriority) {
+            swim(i);
+        } else {
+            sink(i);
+        }
+    }
+
+    /**
+     * Returns the number of elements in this priority queue.
+     *
+     * @return the number of elements in this priority queue.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if this priority queue contains no elements.
+     *
+     * @return true if this priority queue contains no elements.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes every element in time proportional to the number of elements rather than the capacity.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i += 1) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /**
+     * Moves the heap entry at index {@code from} to index {@code to}, updating its recorded position.
+     */
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        priorities[to] = priorities[from];
+        positions[heap[to]] = to;
+    }
+
+    private void swim(int i) {
+        int element = heap[i];
+        double priority = priorities[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (priorities[parent] <= priority) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        heap[i] = element;
+        priorities[i] = priority;
+        positions[element] = i;
+    }
+
+    private void sink(int i) {
+        int element = heap[i];
+        double priority = priorities[i];
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && priorities[child + 1] < priorities[child]) {
+                child += 1;
+            }
+            if (priority <= priorities[child]) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        heap[i] = element;
+        priorities[i] = priority;
+        positions[element] = i;
+    }
+}
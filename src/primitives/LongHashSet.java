@@ -0,0 +1,109 @@
+package primitives;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash set of {@code long} values with linear probing. Unlike a
+ * {@link java.util.HashSet HashSet&lt;Long&gt;}, values live in one flat array so none is boxed. One value,
+ * {@link Long#MIN_VALUE}, is reserved to mark empty slots and cannot be stored.
+ *
+ * @see LongIntHashMap
+ */
+public class LongHashSet {
+    /**
+     * Marker for an empty slot in {@code values}.
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+    private long[] values;
+    private int size;
+
+    /**
+     * Constructs an empty instance sized to hold the given number of values without resizing.
+     *
+     * @param expectedSize the expected number of values.
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        values = new long[capacity];
+        Arrays.fill(values, EMPTY);
+    }
+
+    /**
+     * Returns true if the given value is present.
+     *
+     * @param value the value of interest.
+     * @return true if the given value is present.
+     */
+    public boolean contains(long value) {
+        int mask = values.length - 1;
+        for (int i = slot(value, mask); values[i] != EMPTY; i = (i + 1) & mask) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the value if it is not already present.
+     *
+     * @param value the value to add.
+     * @return true if the value was added, or false if it was already present.
+     * @throws IllegalArgumentException if the value is {@link Long#MIN_VALUE}.
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            throw new IllegalArgumentException("Reserved value " + value);
+        }
+        int mask = values.length - 1;
+        int i = slot(value, mask);
+        while (values[i] != EMPTY) {
+            if (values[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        values[i] = value;
+        size += 1;
+        if (size * 2 > values.length) {
+            resize();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of values.
+     *
+     * @return the number of values.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Doubles the table capacity and reinserts every value.
+     */
+    private void resize() {
+        long[] oldValues = values;
+        values = new long[oldValues.length * 2];
+        Arrays.fill(values, EMPTY);
+        int mask = values.length - 1;
+        for (long value : oldValues) {
+            if (value != EMPTY) {
+                int i = slot(value, mask);
+                while (values[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                values[i] = value;
+            }
+        }
+    }
+
+    /**
+     * Returns the home slot of the value after mixing its bits so that clustered values spread across the table.
+     */
+    private static int slot(long value, int mask) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,130 @@
+package primitives;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from {@code long} keys to {@code int} values with linear probing. Unlike a
+ * {@link java.util.HashMap HashMap&lt;Long, Integer&gt;}, entries live in two flat arrays so no key or value is boxed.
+ * One key, {@link Long#MIN_VALUE}, is reserved to mark empty slots and cannot be stored.
+ */
+public class LongIntHashMap {
+    /**
+     * Marker for an empty slot in {@code keys}.
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    /**
+     * Constructs an empty instance sized to hold the given number of entries without resizing.
+     *
+     * @param expectedSize the expected number of entries.
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Returns the value associated with the given key, or the default value if the key is not present.
+     *
+     * @param key          the key of interest.
+     * @param defaultValue the value to return if the key is not present.
+     * @return the value associated with the given key, or the default value if the key is not present.
+     */
+    public int getOrDefault(long key, int defaultValue) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns true if the given key is present.
+     *
+     * @param key the key of interest.
+     * @return true if the given key is present.
+     */
+    public boolean containsKey(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Associates the key with the value, replacing any previous value.
+     *
+     * @param key   the key to add or update.
+     * @param value the value to associate with the key.
+     * @throws IllegalArgumentException if the key is {@link Long#MIN_VALUE}.
+     */
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Reserved key " + key);
+        }
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size += 1;
+        if (size * 2 > keys.length) {
+            resize();
+        }
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Doubles the table capacity and reinserts every entry.
+     */
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(keys, EMPTY);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j += 1) {
+            if (oldKeys[j] != EMPTY) {
+                int i = slot(oldKeys[j], mask);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Returns the home slot of the key after mixing its bits so that clustered keys spread across the table.
+     */
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,345 @@
+package spatial;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Static k-d tree for nearest-neighbor queries over latitude/longitude points. Each point is embedded as a unit
+ * vector in three dimensions: the straight-line (chord) distance between two unit vectors increases monotonically with
+ * their great-circle distance, so Euclidean nearest neighbors in 3-d are exactly the great-circle nearest neighbors.
+ * <p>
+ * Points may be partitioned into groups, each of which is stored as its own implicit tree over a contiguous range of
+ * the same arrays. The tree over the range {@code [lo, hi)} is rooted at the median position {@code (lo + hi) / 2},
+ * so no node objects or child pointers are stored.
+ */
+public class KdTree {
+    /**
+     * Caller-assigned identifier of the point at each position.
+     */
+    private final int[] ids;
+    /**
+     * Unit-vector coordinates of the point at each position, stored as consecutive {@code x, y, z} triples.
+     */
+    private final double[] coordinates;
+    /**
+     * Splitting dimension of the node at each position.
+     */
+    private final byte[] axes;
+    /**
+     * Start position of each group followed by the total number of points.
+     */
+    private final int[] groups;
+
+    /**
+     * Constructs a single-group tree over the points {@code 0} to {@code size - 1}.
+     *
+     * @param size the number of points.
+     * @param lat  the latitude in degrees of each point.
+     * @param lon  the longitude in degrees of each point.
+     */
+    public KdTree(int size, IntToDoubleFunction lat, IntToDoubleFunction lon) {
+        this(identity(size), lat, lon, new int[]{0, size});
+    }
+
+    /**
+     * Constructs a tree over the given points, where the points in group {@code g} are the ids from position
+     * {@code groups[g]} (inclusive) to {@code groups[g + 1]} (exclusive).
+     *
+     * @param ids    the identifier of each point, which is returned by queries. This array is not modified.
+     * @param lat    the latitude in degrees of each point given its identifier.
+     * @param lon    the longitude in degrees of each point given its identifier.
+     * @param groups the start position of each group followed by the total number of points.
+     * @throws IllegalArgumentException if the groups do not partition the ids.
+     */
+    public KdTree(int[] ids, IntToDoubleFunction lat, IntToDoubleFunction lon, int[] groups) {
+        if (groups.length == 0 || groups[0] != 0 || groups[groups.length - 1] != ids.length) {
+            throw new IllegalArgumentException("Groups do not partition " + ids.length + " points");
+        }
+        this.ids = Arrays.copyOf(ids, ids.length);
+        this.coordinates = new double[3 * ids.length];
+        this.axes = new byte[ids.length];
+        this.groups = Arrays.copyOf(groups, groups.length);
+        for (int i = 0; i < ids.length; i += 1) {
+            double phi = Math.toRadians(lat.applyAsDouble(ids[i]));
+            double lambda = Math.toRadians(lon.applyAsDouble(ids[i]));
+            coordinates[3 * i] = Math.cos(phi) * Math.cos(lambda);
+            coordinates[3 * i + 1] = Math.cos(phi) * Math.sin(lambda);
+            coordinates[3 * i + 2] = Math.sin(phi);
+        }
+        for (int g = 0; g + 1 < groups.length; g += 1) {
+            if (groups[g] > groups[g + 1]) {
+                throw new IllegalArgumentException("Group " + g + " has negative size");
+            }
+            build(groups[g], groups[g + 1]);
+        }
+    }
+
+    /**
+     * Returns the number of points in this tree.
+     *
+     * @return the number of points in this tree.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the number of points in the given group.
+     *
+     * @param group the group of interest.
+     * @return the number of points in the given group.
+     */
+    public int size(int group) {
+        return groups[group + 1] - groups[group];
+    }
+
+    /**
+     * Returns the identifier of the point nearest to the given location across all groups, or -1 if this tree is
+     * empty.
+     *
+     * @param lat the latitude in degrees.
+     * @param lon the longitude in degrees.
+     * @return the identifier of the nearest point, or -1 if this tree is empty.
+     */
+    public int nearest(double lat, double lon) {
+        Neighbors result = new Neighbors(lat, lon, 1);
+        for (int g = 0; g + 1 < groups.length; g += 1) {
+            search(groups[g], groups[g + 1], result);
+        }
+        return result.size == 0 ? -1 : result.ids[0];
+    }
+
+    /**
+     * Returns the identifiers of the (up to) k points nearest to the given location across all groups, ordered from
+     * nearest to farthest.
+     *
+     * @param lat the latitude in degrees.
+     * @param lon the longitude in degrees.
+     * @param k   the maximum number of points to return.
+     * @return the identifiers of the k nearest points ordered from nearest to farthest.
+     */
+    public int[] nearest(double lat, double lon, int k) {
+        Neighbors result = new Neighbors(lat, lon, Math.min(k, size()));
+        for (int g = 0; g + 1 < groups.length; g += 1) {
+            search(groups[g], groups[g + 1], result);
+        }
+        return result.sorted();
+    }
+
+    /**
+     * Returns the identifiers of the (up to) k points in the given group nearest to the given location, ordered from
+     * nearest to farthest.
+     *
+     * @param lat   the latitude in degrees.
+     * @param lon   the longitude in degrees.
+     * @param k     the maximum number of points to return.
+     * @param group the group to search.
+     * @return the identifiers of the k nearest points in the group ordered from nearest to farthest.
+     */
+    public int[] nearest(double lat, double lon, int k, int group) {
+        Neighbors result = new Neighbors(lat, lon, Math.min(k, size(group)));
+        search(groups[group], groups[group + 1], result);
+        return result.sorted();
+    }
+
+    /**
+     * Arranges the positions {@code [lo, hi)} into an implicit k-d tree split on the dimension of widest spread.
+     */
+    private void build(int lo, int hi) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int axis = widestAxis(lo, hi);
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+        axes[mid] = (byte) axis;
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+
+    /**
+     * Returns the dimension along which the points in positions {@code [lo, hi)} have the largest extent.
+     */
+    private int widestAxis(int lo, int hi) {
+        int result = 0;
+        double widest = -1;
+        for (int axis = 0; axis < 3; axis += 1) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i += 1) {
+                double c = coordinates[3 * i + axis];
+                min = Math.min(min, c);
+                max = Math.max(max, c);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                result = axis;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rearranges positions {@code [lo, hi]} so that the point at position k has the k-th smallest coordinate along
+     * the axis, with smaller or equal points before it and larger or equal points after it (Hoare's quickselect).
+     */
+    private void select(int lo, int hi, int k, int axis) {
+        while (lo < hi) {
+            double pivot = coordinates[3 * ((lo + hi) >>> 1) + axis];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coordinates[3 * i + axis] < pivot) {
+                    i += 1;
+                }
+                while (coordinates[3 * j + axis] > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        for (int axis = 0; axis < 3; axis += 1) {
+            double c = coordinates[3 * i + axis];
+            coordinates[3 * i + axis] = coordinates[3 * j + axis];
+            coordinates[3 * j + axis] = c;
+        }
+    }
+
+    /**
+     * Offers every point in the tree over positions {@code [lo, hi)} to the result, skipping subtrees that cannot
+     * contain a point nearer than the current k-th nearest.
+     */
+    private void search(int lo, int hi, Neighbors result) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dx = result.x - coordinates[3 * mid];
+        double dy = result.y - coordinates[3 * mid + 1];
+        double dz = result.z - coordinates[3 * mid + 2];
+        result.offer(ids[mid], dx * dx + dy * dy + dz * dz);
+        if (hi - lo == 1) {
+            return;
+        }
+        int axis = axes[mid];
+        double diff = axis == 0 ? dx : axis == 1 ? dy : dz;
+        if (diff < 0) {
+            search(lo, mid, result);
+            if (diff * diff < result.bound()) {
+                search(mid + 1, hi, result);
+            }
+        } else {
+            search(mid + 1, hi, result);
+            if (diff * diff < result.bound()) {
+                search(lo, mid, result);
+            }
+        }
+    }
+
+    private static int[] identity(int size) {
+        int[] result = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            result[i] = i;
+        }
+        return result;
+    }
+
+    /**
+     * The k nearest points found so far for one query, kept in a binary max-heap by squared chord distance.
+     */
+    private static class Neighbors {
+        private final double x;
+        private final double y;
+        private final double z;
+        private final int[] ids;
+        private final double[] distances;
+        private int size;
+
+        Neighbors(double lat, double lon, int k) {
+            double phi = Math.toRadians(lat);
+            double lambda = Math.toRadians(lon);
+            x = Math.cos(phi) * Math.cos(lambda);
+            y = Math.cos(phi) * Math.sin(lambda);
+            z = Math.sin(phi);
+            ids = new int[Math.max(k, 0)];
+            distances = new double[Math.max(k, 0)];
+        }
+
+        /**
+         * Returns the squared distance that a point must beat to be added.
+         */
+        double bound() {
+            if (ids.length == 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            return size < ids.length ? Double.POSITIVE_INFINITY : distances[0];
+        }
+
+        void offer(int id, double distance) {
+            if (size < ids.length) {
+                int i = size;
+                size += 1;
+                while (i > 0 && distances[(i - 1) / 2] < distance) {
+                    ids[i] = ids[(i - 1) / 2];
+                    distances[i] = distances[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                ids[i] = id;
+                distances[i] = distance;
+            } else if (size > 0 && distance < distances[0]) {
+                sink(id, distance, size);
+            }
+        }
+
+        /**
+         * Places the given point at the root and restores heap order over the first n entries.
+         */
+        private void sink(int id, double distance, int n) {
+            int i = 0;
+            while (2 * i + 1 < n) {
+                int child = 2 * i + 1;
+                if (child + 1 < n && distances[child + 1] > distances[child]) {
+                    child += 1;
+                }
+                if (distance >= distances[child]) {
+                    break;
+                }
+                ids[i] = ids[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            ids[i] = id;
+            distances[i] = distance;
+        }
+
+        /**
+         * Returns the identifiers ordered from nearest to farthest, consuming the heap.
+         */
+        int[] sorted() {
+            int[] result = new int[size];
+            for (int n = size; n > 0; n -= 1) {
+                result[n - 1] = ids[0];
+                sink(ids[n - 1], distances[n - 1], n - 1);
+            }
+            size = 0;
+            return result;
+        }
+    }
+}
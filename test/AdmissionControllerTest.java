@@ -0,0 +1,199 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests that {@link AdmissionController} sheds requests that cannot start within their queue budget, whether they
+ * wait for a permit or for a thread, and accounts for every request it is given. It exits with a non-zero status if
+ * any test fails.
+ *
+ * @see MapBenchmark
+ */
+public class AdmissionControllerTest {
+    /**
+     * Greatest time from arrival until a search starts.
+     */
+    private static final Duration QUEUE_BUDGET = Duration.ofMillis(20);
+    /**
+     * Greatest time from arrival until a search finishes.
+     */
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    /**
+     * Number of requests in the burst, far more than can start within the queue budget.
+     */
+    private static final int BURST = 256;
+    /**
+     * Time in milliseconds that each search in the burst takes.
+     */
+    private static final int SEARCH_MS = 2;
+    /**
+     * Greatest number of requests that may wait for a thread per permit.
+     */
+    private static final int WAITING_PER_PERMIT = 16;
+    /**
+     * Greatest time in seconds to wait for a request to finish.
+     */
+    private static final int WAIT_SECONDS = 5;
+
+    public static void main(String[] args) {
+        new Tests()
+                .add("late request is rejected with a free permit", AdmissionControllerTest::late)
+                .add("burst is routed or shed", AdmissionControllerTest::burst)
+                .add("requests beyond the waiting limit are refused", AdmissionControllerTest::waitingLimit)
+                .add("requests waiting for a thread past the budget are shed", AdmissionControllerTest::threadBudget)
+                .run();
+    }
+
+    /**
+     * Checks that a request that arrived longer ago than the queue budget is rejected even though a permit is free.
+     */
+    private static void late() {
+        AdmissionController admission = new AdmissionController(1, QUEUE_BUDGET, TIMEOUT);
+        long arrival = System.nanoTime() - 2 * QUEUE_BUDGET.toNanos();
+        try {
+            admission.call(arrival, () -> 1);
+            throw new AssertionError("Late request was admitted: " + admission);
+        } catch (RejectedExecutionException e) {
+            Tests.check(admission.rejectionCount() == 1, "Rejection was not counted: " + admission);
+        }
+    }
+
+    /**
+     * Runs a burst of {@link #BURST} searches at once through one permit, and checks that some are routed, some are
+     * shed, and every request is one or the other.
+     */
+    private static void burst() throws Exception {
+        AdmissionController admission = new AdmissionController(1, QUEUE_BUDGET, TIMEOUT);
+        AtomicInteger routed = new AtomicInteger();
+        AtomicInteger shed = new AtomicInteger();
+        List<Callable<Void>> requests = new ArrayList<>();
+        for (int i = 0; i < BURST; i += 1) {
+            requests.add(() -> {
+                try {
+                    admission.call(System.nanoTime(), () -> {
+                        sleep(SEARCH_MS);
+                        return null;
+                    });
+                    routed.incrementAndGet();
+                } catch (RejectedExecutionException e) {
+                    shed.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        ExecutorService clients = Executors.newFixedThreadPool(BURST);
+        try {
+            for (Future<Void> result : clients.invokeAll(requests)) {
+                result.get();
+            }
+        } finally {
+            clients.shutdown();
+        }
+        Tests.check(routed.get() > 0 && shed.get() > 0, "Expected some routed and some shed: " + admission);
+        Tests.check(routed.get() + shed.get() == BURST && shed.get() == admission.rejectionCount(),
+                "Lost requests: " + routed + " routed, " + shed + " shed, " + admission);
+    }
+
+    /**
+     * Submits requests to a thread pool whose only thread is busy, and checks that those beyond the limit of waiting
+     * requests are refused at once while the rest run once the thread is free.
+     */
+    private static void waitingLimit() throws Exception {
+        AdmissionController admission = new AdmissionController(1, Duration.ofSeconds(WAIT_SECONDS), TIMEOUT);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        CountDownLatch busy = new CountDownLatch(1);
+        try {
+            CompletableFuture<Void> blocker = admission.submit(System.nanoTime(), () -> {
+                await(busy);
+                return null;
+            }, pool);
+            List<CompletableFuture<Integer>> results = new ArrayList<>();
+            int refused = 0;
+            for (int i = 0; i < 4 * WAITING_PER_PERMIT; i += 1) {
+                CompletableFuture<Integer> result = admission.submit(System.nanoTime(), () -> 1, pool);
+                if (result.isCompletedExceptionally()) {
+                    refused += 1;
+                } else {
+                    results.add(result);
+                }
+            }
+            Tests.check(refused > 0, "No request was refused: " + admission);
+            Tests.check(admission.pressure() <= WAITING_PER_PERMIT, "Too many requests waiting: " + admission);
+            busy.countDown();
+            blocker.get(WAIT_SECONDS, TimeUnit.SECONDS);
+            for (CompletableFuture<Integer> result : results) {
+                Tests.check(result.get(WAIT_SECONDS, TimeUnit.SECONDS) == 1, "Waiting request did not run");
+            }
+            Tests.check(admission.rejectionCount() == refused, "Refusals were not counted: " + admission);
+            Tests.check(admission.pressure() == 0.0, "Requests still counted as waiting: " + admission);
+        } finally {
+            busy.countDown();
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Submits requests to a thread pool whose only thread stays busy for longer than the queue budget, and checks that
+     * each of them is rejected when it reaches the thread instead of running.
+     */
+    private static void threadBudget() throws Exception {
+        AdmissionController admission = new AdmissionController(1, QUEUE_BUDGET, TIMEOUT);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            admission.submit(System.nanoTime(), () -> {
+                sleep(5 * (int) QUEUE_BUDGET.toMillis());
+                return null;
+            }, pool);
+            AtomicInteger ran = new AtomicInteger();
+            List<CompletableFuture<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i += 1) {
+                results.add(admission.submit(System.nanoTime(), ran::incrementAndGet, pool));
+            }
+            for (CompletableFuture<Integer> result : results) {
+                try {
+                    result.get(WAIT_SECONDS, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    Tests.check(e.getCause() instanceof RejectedExecutionException, "Unexpected failure " + e);
+                }
+            }
+            Tests.check(ran.get() == 0, ran + " requests ran after waiting past the budget: " + admission);
+            Tests.check(admission.rejectionCount() == results.size(), "Rejections were not counted: " + admission);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Sleeps for the given number of milliseconds, failing if interrupted.
+     */
+    private static void sleep(int millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError("Interrupted", e);
+        }
+    }
+
+    /**
+     * Waits for the latch to open, failing if it stays closed for {@link #WAIT_SECONDS}.
+     */
+    private static void await(CountDownLatch latch) {
+        try {
+            Tests.check(latch.await(WAIT_SECONDS, TimeUnit.SECONDS), "Latch was never opened");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError("Interrupted", e);
+        }
+    }
+}
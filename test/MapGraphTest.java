@@ -0,0 +1,788 @@
+import cache.LruCache;
+import graphs.CSRGraph;
+import graphs.IndexedAStarGraph;
+import graphs.shortestpaths.AStarSolver;
+import graphs.shortestpaths.AnytimeAStarSolver;
+import graphs.shortestpaths.BidirectionalAStarSolver;
+import graphs.shortestpaths.Deadline;
+import graphs.shortestpaths.DijkstraSolver;
+import graphs.shortestpaths.LandmarkHeuristic;
+import graphs.shortestpaths.OverlayMetric;
+import graphs.shortestpaths.SearchCancelledException;
+import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Tests that every way of routing on {@link MapGraph} finds the shortest routes on random queries over the benchmark
+ * data, which must be on the class path, and on a small generated map of looping streets, that routing from many
+ * threads or through reloads finds the same routes as one thread, and that OsmChange files apply and can be undone.
+ * Run it like {@link MapBenchmark}; it exits with a non-zero status if any test fails.
+ *
+ * @see MapBenchmark
+ */
+public class MapGraphTest {
+    /**
+     * The OpenStreetMap XML file path.
+     */
+    private static final String OSM_DB_PATH = "seattle.osm.gz";
+    /**
+     * The place-importance TSV data file path from OpenStreetMap.
+     */
+    private static final String PLACES_PATH = "places.tsv";
+    /**
+     * The binary snapshot file path for the parsed OSM and places data.
+     */
+    private static final String SNAPSHOT_PATH = "seattle.snapshot";
+    /**
+     * Number of random queries in each test.
+     */
+    private static final int QUERIES = 200;
+    /**
+     * Number of nodes of each looping street in the loops test.
+     */
+    private static final int LOOP_NODES = 10;
+    /**
+     * Number of random vertex pairs to compare the planar heuristic and the great-circle distance on.
+     */
+    private static final int HEURISTIC_PAIRS = 1 << 16;
+    /**
+     * Number of concurrent clients.
+     */
+    private static final int CLIENTS = 32;
+    /**
+     * Number of times each concurrent client runs every query.
+     */
+    private static final int CONCURRENT_ROUNDS = 4;
+    /**
+     * Number of times the map is reloaded while clients keep routing.
+     */
+    private static final int RELOADS = 3;
+    /**
+     * Greatest offset in degrees of latitude and longitude from a random vertex of the point snapped to a street node,
+     * so that queries also start and end in the middle of chains.
+     */
+    private static final double SNAP_OFFSET = 0.001;
+    /**
+     * Maximum relative difference between the lengths of two routes that are considered equally short.
+     */
+    private static final double TOLERANCE = 1e-9;
+    /**
+     * Factors by which to inflate the heuristic of weighted A* search.
+     */
+    private static final double[] WEIGHTS = {1.05, 1.2, 1.5, 2.0};
+    /**
+     * Time budgets for anytime A* search in microseconds, where 0 means no deadline.
+     */
+    private static final int[] ANYTIME_BUDGETS_US = {500, 2000, 0};
+    /**
+     * Number of facilities to choose from in the closest-facility test.
+     */
+    private static final int FACILITIES = 200;
+    /**
+     * Number of random targets in the closest-facility test, each routed to from every facility.
+     */
+    private static final int FACILITY_TARGETS = 20;
+    /**
+     * Numbers of nearest facilities to find in the closest-facility test.
+     */
+    private static final int[] NEAREST_COUNTS = {1, 10};
+    /**
+     * Number of streets deleted and of places renamed by the change in the changes test.
+     */
+    private static final int CHANGED_ELEMENTS = 100;
+
+    public static void main(String[] args) throws Exception {
+        MapGraph map = load();
+        new Tests()
+                .add("A* routes are shortest", () -> aStar(map))
+                .add("landmark routes are shortest", () -> landmarks(map))
+                .add("bidirectional routes are shortest", () -> bidirectional(map))
+                .add("planar heuristic is admissible", () -> heuristic(map))
+                .add("routes between street nodes are shortest", () -> snapped(map))
+                .add("routes within looping streets are shortest", MapGraphTest::loops)
+                .add("concurrent routes equal single-threaded routes", () -> concurrent(map))
+                .add("weighted routes are within their bound", () -> weighted(map))
+                .add("anytime routes are within their bound", () -> anytime(map))
+                .add("closest facilities rank like pairwise routes", () -> closest(map))
+                .add("profile overlays find the cheapest paths", MapGraphTest::profiles)
+                .add("reloads keep routes and drain replaced maps", () -> reload(map))
+                .add("changes apply and undo", () -> changes(map))
+                .run();
+    }
+
+    /**
+     * Returns the map graph for the benchmark data.
+     */
+    private static MapGraph load() throws Exception {
+        return new MapGraph(OSM_DB_PATH, PLACES_PATH, SNAPSHOT_PATH, SpatialContext.GEO);
+    }
+
+    /**
+     * Checks that A* search with the planar heuristic finds shortest paths between random vertices.
+     */
+    private static void aStar(MapGraph map) {
+        Random random = new Random(1);
+        int n = map.csr().size();
+        for (int i = 0; i < QUERIES; i += 1) {
+            int s = random.nextInt(n);
+            int t = random.nextInt(n);
+            checkShortest(map, s, t, new AStarSolver<>(map, map.vertex(s), map.vertex(t)).solution());
+        }
+    }
+
+    /**
+     * Checks that A* search with landmark lower bounds finds shortest paths between random vertices.
+     */
+    private static void landmarks(MapGraph map) {
+        LandmarkHeuristic<Point> heuristic = new LandmarkHeuristic<>(map, 16, 4, new Random(0));
+        Random random = new Random(1);
+        int n = map.csr().size();
+        for (int i = 0; i < QUERIES; i += 1) {
+            int s = random.nextInt(n);
+            int t = random.nextInt(n);
+            IndexedAStarGraph<Point> graph = heuristic.forQuery(map.vertex(s), map.vertex(t));
+            checkShortest(map, s, t, new AStarSolver<>(graph, map.vertex(s), map.vertex(t)).solution());
+        }
+    }
+
+    /**
+     * Checks that bidirectional A* search finds shortest paths between random vertices.
+     */
+    private static void bidirectional(MapGraph map) {
+        Random random = new Random(1);
+        int n = map.csr().size();
+        for (int i = 0; i < QUERIES; i += 1) {
+            int s = random.nextInt(n);
+            int t = random.nextInt(n);
+            checkShortest(map, s, t, new BidirectionalAStarSolver<>(map, map.vertex(s), map.vertex(t)).solution());
+        }
+    }
+
+    /**
+     * Checks that the planar heuristic never exceeds the great-circle distance between random vertices.
+     */
+    private static void heuristic(MapGraph map) {
+        Random random = new Random(1);
+        int n = map.csr().size();
+        for (int i = 0; i < HEURISTIC_PAIRS; i += 1) {
+            int s = random.nextInt(n);
+            int t = random.nextInt(n);
+            double greatCircle = map.greatCircleDistance(s, t);
+            Tests.check(map.estimatedDistance(s, t) <= greatCircle, "Planar heuristic from " + s + " to " + t
+                    + " is " + map.estimatedDistance(s, t) + ", above the great-circle distance " + greatCircle);
+        }
+    }
+
+    /**
+     * Checks that routes between street nodes near random vertices, every other one between nodes near the same
+     * vertex, are as short as Dijkstra's algorithm finds.
+     */
+    private static void snapped(MapGraph map) {
+        Random random = new Random(2);
+        int n = map.csr().size();
+        for (int i = 0; i < QUERIES; i += 1) {
+            Point source = node(map, map.vertex(random.nextInt(n)), random);
+            // Nodes near one vertex are often on the same chain.
+            Point target = node(map, i % 2 == 0 ? source : map.vertex(random.nextInt(n)), random);
+            checkShortest(map, source, target, map.shortestPath(source, target));
+        }
+    }
+
+    /**
+     * Builds a small map with a street that loops back to the intersection it starts from and one that runs out and
+     * back beside a shortcut, and checks that routes between every two nodes of the map are as short as Dijkstra's
+     * algorithm finds, which for nodes near both ends of either street means leaving the street rather than following
+     * it.
+     */
+    private static void loops() throws Exception {
+        // The loop around (47.602, -122.3) from node 1, with a spur to node 11.
+        Map<Long, double[]> nodes = new LinkedHashMap<>();
+        List<long[]> ways = new ArrayList<>();
+        long[] loop = new long[LOOP_NODES + 1];
+        for (int i = 0; i < LOOP_NODES; i += 1) {
+            double angle = 2.0 * Math.PI * i / LOOP_NODES;
+            nodes.put(i + 1L, new double[]{47.602 - 0.002 * Math.cos(angle), -122.3 + 0.003 * Math.sin(angle)});
+            loop[i] = i + 1L;
+        }
+        loop[LOOP_NODES] = 1L;
+        ways.add(loop);
+        nodes.put(11L, new double[]{47.599, -122.3});
+        ways.add(new long[]{1, 11});
+        // The street out and back from node 20 to node 29, beside the shortcut between them.
+        long[] hairpin = new long[LOOP_NODES];
+        for (int i = 0; i < LOOP_NODES; i += 1) {
+            double angle = Math.PI * i / (LOOP_NODES - 1);
+            nodes.put(20L + i, new double[]{47.61 + 0.004 * Math.sin(angle), -122.2995 - 0.0005 * Math.cos(angle)});
+            hairpin[i] = 20L + i;
+        }
+        ways.add(hairpin);
+        ways.add(new long[]{20, 19 + LOOP_NODES});
+        // Spurs from both ends of the shortcut, one joining the spur of the loop.
+        nodes.put(40L, new double[]{47.609, -122.3});
+        nodes.put(41L, new double[]{47.609, -122.299});
+        ways.add(new long[]{20, 40});
+        ways.add(new long[]{19 + LOOP_NODES, 41});
+        ways.add(new long[]{11, 40});
+
+        Path directory = Files.createTempDirectory("loops");
+        Path osm = directory.resolve("loops.osm.gz");
+        Path places = directory.resolve("places.tsv");
+        try {
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(osm)),
+                    StandardCharsets.UTF_8)) {
+                writer.write(osm(nodes, ways));
+            }
+            Files.createFile(places);
+            MapGraph map;
+            // The map data is read through the context class loader, as from the class path.
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            try (URLClassLoader resources = new URLClassLoader(new URL[]{directory.toUri().toURL()}, loader)) {
+                Thread.currentThread().setContextClassLoader(resources);
+                map = new MapGraph(osm.getFileName().toString(), places.getFileName().toString(),
+                        SpatialContext.GEO);
+            } finally {
+                Thread.currentThread().setContextClassLoader(loader);
+            }
+            // Route between the street nodes as the map stores them, rounded to fixed point.
+            List<Point> points = new ArrayList<>();
+            for (double[] node : nodes.values()) {
+                points.add(SpatialContext.GEO.getShapeFactory().pointLatLon(Math.round(node[0] * 1e7) / 1e7,
+                        Math.round(node[1] * 1e7) / 1e7));
+            }
+            for (Point source : points) {
+                for (Point target : points) {
+                    checkShortest(map, source, target, map.shortestPath(source, target));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(osm);
+            Files.deleteIfExists(places);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Returns an OSM file with the given nodes, by ID, and residential streets through the nodes with the given IDs.
+     */
+    private static String osm(Map<Long, double[]> nodes, List<long[]> ways) {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<osm version=\"0.6\">\n");
+        for (Map.Entry<Long, double[]> node : nodes.entrySet()) {
+            xml.append(String.format(Locale.ROOT, "<node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\"/>%n",
+                    node.getKey(), node.getValue()[0], node.getValue()[1]));
+        }
+        for (int w = 0; w < ways.size(); w += 1) {
+            xml.append("<way id=\"").append(w + 1).append("\">");
+            for (long ref : ways.get(w)) {
+                xml.append("<nd ref=\"").append(ref).append("\"/>");
+            }
+            xml.append("<tag k=\"highway\" v=\"residential\"/></way>\n");
+        }
+        xml.append("</osm>\n");
+        return xml.toString();
+    }
+
+    /**
+     * Routes random queries between street nodes on one thread, then routes them again from {@link #CLIENTS} threads
+     * sharing the map graph, each in its own random order, and checks that every concurrent route equals the
+     * single-threaded one exactly.
+     */
+    private static void concurrent(MapGraph map) throws Exception {
+        Random random = new Random(3);
+        int n = map.csr().size();
+        Point[] sources = new Point[QUERIES];
+        Point[] targets = new Point[QUERIES];
+        List<List<Point>> expected = new ArrayList<>();
+        for (int i = 0; i < QUERIES; i += 1) {
+            sources[i] = node(map, map.vertex(random.nextInt(n)), random);
+            targets[i] = node(map, i % 2 == 0 ? sources[i] : map.vertex(random.nextInt(n)), random);
+            expected.add(map.shortestPath(sources[i], targets[i]));
+        }
+
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c += 1) {
+                long seed = c;
+                tasks.add(() -> {
+                    List<Integer> order = new ArrayList<>();
+                    for (int i = 0; i < QUERIES; i += 1) {
+                        order.add(i);
+                    }
+                    Collections.shuffle(order, new Random(seed));
+                    int mismatches = 0;
+                    for (int round = 0; round < CONCURRENT_ROUNDS; round += 1) {
+                        for (int i : order) {
+                            if (!map.shortestPath(sources[i], targets[i]).equals(expected.get(i))) {
+                                mismatches += 1;
+                            }
+                        }
+                    }
+                    return mismatches;
+                });
+            }
+            int mismatches = 0;
+            for (Future<Integer> result : clients.invokeAll(tasks)) {
+                mismatches += result.get();
+            }
+            Tests.check(mismatches == 0, mismatches + " concurrent routes differ from the single-threaded routes");
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    /**
+     * Checks that weighted A* search finds paths between random vertices no longer than its bound times the shortest,
+     * with the bound between 1 and the weight.
+     */
+    private static void weighted(MapGraph map) {
+        Random random = new Random(1);
+        int n = map.csr().size();
+        for (int i = 0; i < QUERIES; i += 1) {
+            int s = random.nextInt(n);
+            int t = random.nextInt(n);
+            for (double weight : WEIGHTS) {
+                AStarSolver<Point> solver = new AStarSolver<>(map, new int[]{s}, new double[]{0.0}, new int[]{t},
+                        new double[]{0.0}, weight, Deadline.NONE);
+                checkBound(map, s, t, solver.solution(), solver.suboptimalityBound(), weight);
+            }
+        }
+    }
+
+    /**
+     * Checks that anytime A* search finds paths between random vertices within its bound whenever it answers before
+     * its deadline, and the shortest path when it has no deadline.
+     */
+    private static void anytime(MapGraph map) {
+        Random random = new Random(1);
+        int n = map.csr().size();
+        double weight = WEIGHTS[WEIGHTS.length - 1];
+        for (int i = 0; i < QUERIES; i += 1) {
+            int s = random.nextInt(n);
+            int t = random.nextInt(n);
+            for (int budget : ANYTIME_BUDGETS_US) {
+                Deadline deadline = budget > 0 ? Deadline.after(Duration.ofNanos(budget * 1000L)) : Deadline.NONE;
+                AnytimeAStarSolver<Point> solver;
+                try {
+                    solver = new AnytimeAStarSolver<>(map, map.vertex(s), map.vertex(t), weight, deadline);
+                } catch (SearchCancelledException e) {
+                    continue;
+                }
+                checkBound(map, s, t, solver.solution(), solver.suboptimalityBound(), weight);
+                Tests.check(budget > 0 || solver.suboptimalityBound() == 1.0,
+                        "Anytime A* stopped early without a deadline");
+            }
+        }
+    }
+
+    /**
+     * Ranks random facilities by their distance to random targets, first by routing from every facility to the target
+     * and then by one closest-facility search, and checks that both find the same distances in the same order.
+     */
+    private static void closest(MapGraph map) {
+        Random random = new Random(5);
+        int n = map.csr().size();
+        List<Point> facilities = new ArrayList<>(FACILITIES);
+        for (int i = 0; i < FACILITIES; i += 1) {
+            facilities.add(map.vertex(random.nextInt(n)));
+        }
+        for (int t = 0; t < FACILITY_TARGETS; t += 1) {
+            Point target = map.vertex(random.nextInt(n));
+            double[] sorted = new double[FACILITIES];
+            for (int f = 0; f < FACILITIES; f += 1) {
+                List<Point> route = map.shortestPath(facilities.get(f), target);
+                sorted[f] = route.get(0).equals(facilities.get(f)) ? length(map, route) : Double.POSITIVE_INFINITY;
+            }
+            Arrays.sort(sorted);
+
+            for (int k : NEAREST_COUNTS) {
+                List<MapGraph.Facility> nearest = map.closestFacilities(facilities, target, k, Deadline.NONE);
+                int expected = 0;
+                while (expected < k && sorted[expected] < Double.POSITIVE_INFINITY) {
+                    expected += 1;
+                }
+                Tests.check(nearest.size() == expected, "Found " + nearest.size() + " of " + expected
+                        + " reachable facilities for " + target);
+                for (int rank = 0; rank < nearest.size(); rank += 1) {
+                    MapGraph.Facility facility = nearest.get(rank);
+                    List<Point> route = facility.route();
+                    double length = length(map, route);
+                    Tests.check(route.get(0).equals(facilities.get(facility.index()))
+                                    && route.get(route.size() - 1).equals(target),
+                            "Route from facility " + facility.index() + " does not reach " + target);
+                    Tests.check(equal(length, facility.distance()) && equal(length, sorted[rank]),
+                            "Facility of rank " + rank + " for " + target + " is " + length + " away, expected "
+                                    + sorted[rank]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the map graph with every routing profile and checks that the overlay of each one but distance finds paths
+     * between random vertices as cheap as Dijkstra's algorithm over the same edge costs.
+     */
+    private static void profiles() throws Exception {
+        MapGraph map = new MapGraph.Builder(OSM_DB_PATH, PLACES_PATH, SpatialContext.GEO)
+                .snapshot(SNAPSHOT_PATH)
+                .profiles(RoutingProfile.values())
+                .build();
+        CSRGraph graph = map.csr();
+        int n = graph.size();
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[graph.edgeCount()];
+        for (int v = 0; v < n; v += 1) {
+            offsets[v + 1] = graph.edgeEnd(v);
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e += 1) {
+                targets[e] = graph.target(e);
+            }
+        }
+        for (RoutingProfile profile : RoutingProfile.values()) {
+            OverlayMetric metric = map.metric(profile);
+            // Distance routes are searched on the street network itself.
+            Tests.check(metric != null || profile == RoutingProfile.DISTANCE, "No overlay for " + profile);
+            if (metric == null) {
+                continue;
+            }
+            double[] costs = new double[graph.edgeCount()];
+            for (int e = 0; e < costs.length; e += 1) {
+                costs[e] = metric.cost(e);
+            }
+            CSRGraph weighted = new CSRGraph(offsets, targets, costs);
+            Random random = new Random(8);
+            for (int i = 0; i < QUERIES; i += 1) {
+                int s = random.nextInt(n);
+                int t = random.nextInt(n);
+                int[] path = metric.path(s, t);
+                double expected = DijkstraSolver.distances(weighted, new int[]{s}, new double[]{0.0}, new int[]{t})[0];
+                double actual = path.length == 0 ? Double.POSITIVE_INFINITY : 0.0;
+                for (int j = 1; j < path.length; j += 1) {
+                    actual += cheapest(weighted, path[j - 1], path[j]);
+                }
+                Tests.check(path.length == 0 || path[0] == s && path[path.length - 1] == t,
+                        profile + " overlay path does not connect " + s + " to " + t);
+                Tests.check(actual == expected || equal(actual, expected),
+                        profile + " overlay path from " + s + " to " + t + " costs " + actual + " instead of "
+                                + expected);
+            }
+        }
+    }
+
+    /**
+     * Routes random queries from {@link #CLIENTS} threads through a {@link LiveMap} while it reloads the map data
+     * {@link #RELOADS} times, and checks that every route equals the route found before the first reload, that the
+     * generations are numbered in order, and that each replaced generation drains.
+     */
+    private static void reload(MapGraph map) throws Exception {
+        Random random = new Random(4);
+        int n = map.csr().size();
+        Point[] sources = new Point[QUERIES];
+        Point[] targets = new Point[QUERIES];
+        List<List<Point>> expected = new ArrayList<>();
+        for (int i = 0; i < QUERIES; i += 1) {
+            sources[i] = map.vertex(random.nextInt(n));
+            targets[i] = map.vertex(random.nextInt(n));
+            expected.add(map.shortestPath(sources[i], targets[i]));
+        }
+        LiveMap live = new LiveMap(map, MapGraphTest::load,
+                () -> new LruCache<>(QUERIES, (key, route) -> 1, Duration.ZERO));
+
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c += 1) {
+                long seed = c;
+                results.add(clients.submit(() -> {
+                    Random order = new Random(seed);
+                    int mismatches = 0;
+                    while (!done.get()) {
+                        int i = order.nextInt(QUERIES);
+                        LiveMap.Generation generation = live.acquire();
+                        try {
+                            List<Point> route = generation.routes().computeIfAbsent(List.of(sources[i], targets[i]),
+                                    k -> generation.map().shortestPath(sources[i], targets[i]));
+                            if (!route.equals(expected.get(i))) {
+                                mismatches += 1;
+                            }
+                        } finally {
+                            generation.release();
+                        }
+                    }
+                    return mismatches;
+                }));
+            }
+            for (int i = 0; i < RELOADS; i += 1) {
+                LiveMap.ReloadStatus status = live.reload().get();
+                Tests.check(status.generation == i + 2, "Expected generation " + (i + 2) + " but got "
+                        + status.generation);
+                Tests.check(status.drained, "Generation " + (status.generation - 1) + " did not drain");
+            }
+            done.set(true);
+            int mismatches = 0;
+            for (Future<Integer> result : results) {
+                mismatches += result.get();
+            }
+            Tests.check(mismatches == 0, mismatches + " routes differ from the routes before the first reload");
+        } finally {
+            done.set(true);
+            clients.shutdown();
+        }
+    }
+
+    /**
+     * Applies a change that renames {@link #CHANGED_ELEMENTS} places and one that also deletes as many streets, and
+     * checks that the renamed places can be found, that the names-only change reuses the street network, and that
+     * applying the inverse change restores equally short routes and the same place names.
+     */
+    private static void changes(MapGraph map) throws Exception {
+        OsmExtract osm = map.osm();
+        Random random = new Random(5);
+        int[] places = sample(random, osm.placeIds.length, CHANGED_ELEMENTS);
+        int[] streets = sample(random, osm.wayIds.length, CHANGED_ELEMENTS);
+        MapGraph renamed = map.applyChanges(new ByteArrayInputStream(osmChange(osm, places, new int[0], false)));
+        Tests.check(renamed.csr() == map.csr(), "Renaming places rebuilt the street network");
+        Point center = map.vertex(0);
+        for (int p : places) {
+            Tests.check(!renamed.getLocations(osm.placeNames[p] + " (renamed)", center).isEmpty(),
+                    "Missing renamed place " + osm.placeNames[p]);
+        }
+
+        MapGraph changed = map.applyChanges(new ByteArrayInputStream(osmChange(osm, places, streets, false)));
+        Tests.check(changed.csr().edgeCount() < map.csr().edgeCount(), "Deleting streets kept every edge");
+        MapGraph restored = changed.applyChanges(new ByteArrayInputStream(osmChange(osm, places, streets, true)));
+        Tests.check(new TreeSet<>(names(restored)).equals(new TreeSet<>(names(map))), "Place names were not restored");
+        int n = map.csr().size();
+        for (int i = 0; i < QUERIES; i += 1) {
+            Point source = map.vertex(random.nextInt(n));
+            Point target = map.vertex(random.nextInt(n));
+            List<Point> expected = map.shortestPath(source, target);
+            List<Point> actual = restored.shortestPath(source, target);
+            Tests.check(expected.size() > 1 == actual.size() > 1
+                            && equal(length(map, expected), length(map, actual)),
+                    "Routes from " + source + " to " + target + " differ after undoing the change: "
+                            + length(map, expected) + " and " + length(map, actual));
+        }
+    }
+
+    /**
+     * Returns the given number of distinct random integers from 0 (inclusive) to bound (exclusive), or all of them if
+     * there are fewer.
+     */
+    private static int[] sample(Random random, int bound, int count) {
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < bound; i += 1) {
+            all.add(i);
+        }
+        Collections.shuffle(all, random);
+        return all.subList(0, Math.min(count, bound)).stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Returns an OsmChange file that renames the given places of the extract and deletes the given streets, or the
+     * inverse change that restores their names and creates the streets and their nodes again.
+     */
+    private static byte[] osmChange(OsmExtract osm, int[] places, int[] streets, boolean inverse) {
+        // The new state of each changed node: its coordinates and name.
+        Map<Long, String[]> nodes = new LinkedHashMap<>();
+        for (int p : places) {
+            String name = inverse ? osm.placeNames[p] : osm.placeNames[p] + " (renamed)";
+            nodes.put(osm.placeIds[p], new String[]{coordinate(osm.placeLats[p]), coordinate(osm.placeLons[p]), name});
+        }
+        if (inverse) {
+            // Deleting the streets dropped the nodes that no other street references, so create them again.
+            Map<Long, Integer> streetNodes = new HashMap<>();
+            for (int v = 0; v < osm.nodeIds.length; v += 1) {
+                streetNodes.put(osm.nodeIds[v], v);
+            }
+            Map<Long, String> placeNames = new HashMap<>();
+            for (int p = 0; p < osm.placeIds.length; p += 1) {
+                placeNames.put(osm.placeIds[p], osm.placeNames[p]);
+            }
+            for (int w : streets) {
+                for (int i = osm.wayOffsets[w]; i < osm.wayOffsets[w + 1]; i += 1) {
+                    Integer v = streetNodes.get(osm.wayRefs[i]);
+                    if (v != null) {
+                        nodes.putIfAbsent(osm.nodeIds[v], new String[]{coordinate(osm.nodeLats[v]),
+                                coordinate(osm.nodeLons[v]), placeNames.get(osm.nodeIds[v])});
+                    }
+                }
+            }
+        }
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<osmChange version=\"0.6\">\n<modify>\n");
+        for (Map.Entry<Long, String[]> node : nodes.entrySet()) {
+            String[] state = node.getValue();
+            xml.append("<node id=\"").append(node.getKey())
+                    .append("\" lat=\"").append(state[0])
+                    .append("\" lon=\"").append(state[1]).append("\">");
+            if (state[2] != null) {
+                xml.append("<tag k=\"name\" v=\"").append(escape(state[2])).append("\"/>");
+            }
+            xml.append("</node>\n");
+        }
+        xml.append("</modify>\n");
+        xml.append(inverse ? "<create>\n" : "<delete>\n");
+        for (int w : streets) {
+            xml.append("<way id=\"").append(osm.wayIds[w]).append("\">");
+            if (inverse) {
+                for (int i = osm.wayOffsets[w]; i < osm.wayOffsets[w + 1]; i += 1) {
+                    xml.append("<nd ref=\"").append(osm.wayRefs[i]).append("\"/>");
+                }
+                xml.append("<tag k=\"highway\" v=\"residential\"/>");
+            }
+            xml.append("</way>\n");
+        }
+        xml.append(inverse ? "</create>\n" : "</delete>\n");
+        xml.append("</osmChange>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the fixed-point latitude or longitude in degrees as exact decimal text.
+     */
+    private static String coordinate(int fixed) {
+        return BigDecimal.valueOf(fixed, 7).toPlainString();
+    }
+
+    /**
+     * Returns the text with the XML special characters replaced by entities.
+     */
+    private static String escape(String text) {
+        return text.replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;")
+                .replace("\"", "&quot;")
+                .replace("'", "&apos;");
+    }
+
+    /**
+     * Returns every place name of the map as a string.
+     */
+    private static List<String> names(MapGraph map) {
+        List<String> result = new ArrayList<>();
+        for (CharSequence name : map.getLocationsByPrefix("")) {
+            result.add(name.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the street node closest to a random point near the given point, which is usually in the middle of a
+     * chain rather than a vertex.
+     */
+    private static Point node(MapGraph map, Point near, Random random) {
+        double lat = near.getLat() + SNAP_OFFSET * (2.0 * random.nextDouble() - 1.0);
+        double lon = near.getLon() + SNAP_OFFSET * (2.0 * random.nextDouble() - 1.0);
+        return map.closest(SpatialContext.GEO.getShapeFactory().pointLatLon(lat, lon));
+    }
+
+    /**
+     * Throws an {@link AssertionError} unless the path found by a solver connects the source vertex to the target
+     * vertex as cheaply as Dijkstra's algorithm finds, or the target is unreachable and the path has no edges.
+     */
+    private static void checkShortest(MapGraph map, int source, int target, List<Point> path) {
+        checkBound(map, source, target, path, 1.0, 1.0);
+    }
+
+    /**
+     * Throws an {@link AssertionError} unless the path found by a solver connects the source vertex to the target
+     * vertex at most the bound times as costly as the cheapest path, and the bound is between 1 and the weight, or
+     * the target is unreachable and the path has no edges.
+     */
+    private static void checkBound(MapGraph map, int source, int target, List<Point> path, double bound,
+                                   double weight) {
+        CSRGraph graph = map.csr();
+        double shortest = DijkstraSolver.distances(graph, new int[]{source}, new double[]{0.0}, new int[]{target})[0];
+        Tests.check(bound >= 1.0 && bound <= weight + TOLERANCE, "Bound " + bound + " outside [1, " + weight + "]");
+        if (Double.isInfinite(shortest)) {
+            Tests.check(path.size() <= 1, "Path found from " + source + " to unreachable " + target);
+            return;
+        }
+        Tests.check(!path.isEmpty() && map.indexOf(path.get(0)) == source
+                && map.indexOf(path.get(path.size() - 1)) == target, "Path does not connect " + source + " to "
+                + target);
+        double cost = 0.0;
+        for (int i = 1; i < path.size(); i += 1) {
+            cost += cheapest(graph, map.indexOf(path.get(i - 1)), map.indexOf(path.get(i)));
+        }
+        Tests.check(cost <= bound * shortest * (1.0 + TOLERANCE) + TOLERANCE, "Path from " + source + " to "
+                + target + " costs " + cost + ", above " + bound + " times the cheapest " + shortest);
+    }
+
+    /**
+     * Throws an {@link AssertionError} unless the route connects the source to the target with the length that
+     * {@link MapGraph#distanceMatrix(List, List, Deadline)} finds, or the target is unreachable and the route is only
+     * the target.
+     */
+    private static void checkShortest(MapGraph map, Point source, Point target, List<Point> route) {
+        double shortest = map.distanceMatrix(List.of(source), List.of(target), Deadline.NONE)[0][0];
+        Tests.check(route.get(route.size() - 1).equals(target), "Route does not end at " + target);
+        if (Double.isInfinite(shortest)) {
+            Tests.check(route.size() == 1, "Route found from " + source + " to unreachable " + target);
+            return;
+        }
+        Tests.check(route.get(0).equals(source), "Route does not start at " + source);
+        double length = length(map, route);
+        Tests.check(equal(length, shortest), "Route from " + source + " to " + target + " is " + length
+                + " long, but the shortest is " + shortest);
+    }
+
+    /**
+     * Returns the weight of the lightest edge from one vertex to the other, or infinity if there is none.
+     */
+    private static double cheapest(CSRGraph graph, int from, int to) {
+        double result = Double.POSITIVE_INFINITY;
+        for (int e = graph.edgeStart(from); e < graph.edgeEnd(from); e += 1) {
+            if (graph.target(e) == to) {
+                result = Math.min(result, graph.weight(e));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the two lengths differ by at most the {@link #TOLERANCE} relative to the larger one.
+     */
+    private static boolean equal(double a, double b) {
+        return Math.abs(a - b) <= TOLERANCE * Math.max(Math.max(a, b), 1.0);
+    }
+
+    /**
+     * Returns the total length of the route, or 0 if the route has fewer than two points.
+     */
+    private static double length(MapGraph map, List<Point> route) {
+        double result = 0.0;
+        for (int i = 1; i < route.size(); i += 1) {
+            result += map.estimatedDistance(route.get(i - 1), route.get(i));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,112 @@
+import com.sun.net.httpserver.HttpServer;
+import metrics.Histogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Tests that {@link StaticImageCache} coalesces concurrent requests for the same image into one upstream fetch and
+ * serves cached images from disk after a restart, against a local stub image server. It exits with a non-zero status
+ * if any test fails.
+ *
+ * @see MapBenchmark
+ */
+public class StaticImageCacheTest {
+    /**
+     * Size in bytes of the stub map image.
+     */
+    private static final int IMAGE_BYTES = 1 << 16;
+    /**
+     * Delay in milliseconds before the stub image server responds, so that concurrent requests overlap.
+     */
+    private static final int UPSTREAM_LATENCY_MS = 200;
+    /**
+     * Number of concurrent clients.
+     */
+    private static final int CLIENTS = 32;
+
+    public static void main(String[] args) {
+        new Tests()
+                .add("concurrent requests share one fetch and restarts read from disk", StaticImageCacheTest::images)
+                .run();
+    }
+
+    /**
+     * Requests the same image from {@link #CLIENTS} threads at once and checks that all get the image from one
+     * upstream fetch, then checks that a new cache over the same directory serves it from disk, even with a different
+     * access token.
+     */
+    private static void images() throws Exception {
+        byte[] image = new byte[IMAGE_BYTES];
+        new Random(0).nextBytes(image);
+        AtomicInteger fetches = new AtomicInteger();
+        HttpServer server = stub(image, fetches);
+        Path directory = Files.createTempDirectory("images");
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/styles/v1/static/0,0,1/1x1"
+                    + "?access_token=first&logo=false");
+            StaticImageCache cache = new StaticImageCache(IMAGE_BYTES, directory, Histogram.nanoseconds());
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i += 1) {
+                results.add(clients.submit(() -> cache.get(url)));
+            }
+            for (Future<byte[]> result : results) {
+                Tests.check(Arrays.equals(image, result.get()), "Concurrent request returned a different image");
+            }
+            Tests.check(fetches.get() == 1, CLIENTS + " concurrent requests made " + fetches + " upstream fetches");
+
+            // A new cache has an empty memory tier, and a new token must not change the key.
+            URL rotated = new URL(url.toString().replace("first", "second"));
+            StaticImageCache restarted = new StaticImageCache(IMAGE_BYTES, directory, Histogram.nanoseconds());
+            Tests.check(Arrays.equals(image, restarted.get(rotated)), "Disk tier returned a different image");
+            Tests.check(fetches.get() == 1, "Image was fetched again instead of read from disk");
+        } finally {
+            clients.shutdown();
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdown();
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Returns a started local image server on a free port that responds to every request with the given image after
+     * a delay, counting the requests it receives.
+     */
+    private static HttpServer stub(byte[] image, AtomicInteger fetches) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            fetches.incrementAndGet();
+            try {
+                Thread.sleep(UPSTREAM_LATENCY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, image.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(image);
+            }
+        });
+        server.start();
+        return server;
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A list of named tests that runs them all and exits with a non-zero status if any of them fails, so that a build or
+ * script running a test class stops on a broken check. A test fails by throwing an exception or an
+ * {@link AssertionError}, usually from {@link #check(boolean, String)}.
+ *
+ * @see MapGraphTest
+ */
+final class Tests {
+    private final Map<String, Test> tests = new LinkedHashMap<>();
+
+    /**
+     * A test that fails by throwing.
+     */
+    interface Test {
+        void run() throws Exception;
+    }
+
+    /**
+     * Adds the test under the given name, to run after the tests added before it.
+     *
+     * @param name the name reported for the test.
+     * @param test the test.
+     * @return this list of tests.
+     */
+    Tests add(String name, Test test) {
+        tests.put(name, test);
+        return this;
+    }
+
+    /**
+     * Runs every test in order, printing whether each one passed and the stack trace of each failure, then exits the
+     * JVM with status 1 if any test failed.
+     */
+    void run() {
+        int failures = 0;
+        for (Map.Entry<String, Test> test : tests.entrySet()) {
+            long start = System.nanoTime();
+            try {
+                test.getValue().run();
+                System.out.printf("PASS %s (%d ms)%n", test.getKey(), (System.nanoTime() - start) / 1_000_000);
+            } catch (Exception | AssertionError e) {
+                failures += 1;
+                System.out.printf("FAIL %s: %s%n", test.getKey(), e);
+                e.printStackTrace();
+            }
+        }
+        System.out.printf("%d of %d tests passed%n", tests.size() - failures, tests.size());
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Throws an {@link AssertionError} with the message if the condition is false.
+     *
+     * @param condition the condition that must hold.
+     * @param message   the failure message.
+     */
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}